@@ -18,8 +18,6 @@ package com.criteo.events;
 import android.content.Context;
 import android.content.SharedPreferences;
 
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * An AppLaunchEvent is used to indicate that the app has been launched. This should be called everytime the user opens the app.
@@ -28,7 +26,7 @@ import java.util.concurrent.atomic.AtomicReference;
  * @since v1.0
  */
 public class AppLaunchEvent extends Event {
-    private AtomicReference<String> googleReferrer = new AtomicReference<>();
+    private volatile String googleReferrer;
 
     /**
      * Construct a default AppLaunchEvent
@@ -42,6 +40,7 @@ public class AppLaunchEvent extends Event {
      */
     public AppLaunchEvent(AppLaunchEvent event) {
         super(event);
+        this.googleReferrer = event.getGoogleReferrer();
     }
 
     /**
@@ -49,7 +48,7 @@ public class AppLaunchEvent extends Event {
      * @return Google Referrer as string.
      */
     public String getGoogleReferrer() {
-        return googleReferrer.get();
+        return googleReferrer;
     }
 
     /**
@@ -63,7 +62,7 @@ public class AppLaunchEvent extends Event {
             return;
         }
 
-        this.googleReferrer.set(googleReferrer);
+        this.googleReferrer = googleReferrer;
     }
 
     /**
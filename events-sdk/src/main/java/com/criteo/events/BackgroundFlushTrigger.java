@@ -0,0 +1,83 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Flushes the events of the {@link EventService} instances as soon as the user interface of the
+ * application is hidden. Once in background, the process may be killed at any time and events that
+ * are still waiting to be sent would be lost.
+ * A single trigger is registered for the whole process, and it only holds weak references to the
+ * services, so that services which are no longer used can be garbage collected.
+ */
+enum BackgroundFlushTrigger implements ComponentCallbacks2 {
+    INSTANCE;
+
+    private final Set<EventService> eventServices =
+            Collections.newSetFromMap(new WeakHashMap<EventService, Boolean>());
+
+    private boolean registered;
+
+    /**
+     * Flushes the events of a service when the application goes to background,
+     * registering the trigger with the application on first use.
+     */
+    synchronized void add(EventService eventService, Context applicationContext) {
+        if (!registered) {
+            applicationContext.registerComponentCallbacks(this);
+            registered = true;
+        }
+        eventServices.add(eventService);
+    }
+
+    synchronized void remove(EventService eventService) {
+        eventServices.remove(eventService);
+    }
+
+    synchronized boolean contains(EventService eventService) {
+        return eventServices.contains(eventService);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level == TRIM_MEMORY_UI_HIDDEN) {
+            List<EventService> services;
+            synchronized (this) {
+                services = new ArrayList<>(eventServices);
+            }
+            for (EventService eventService : services) {
+                eventService.flush();
+            }
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    @Override
+    public void onLowMemory() {
+    }
+}
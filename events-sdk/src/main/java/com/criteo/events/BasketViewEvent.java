@@ -16,13 +16,13 @@
 package com.criteo.events;
 
 import com.criteo.events.product.BasketProduct;
+import com.criteo.events.product.ProductBatch;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Currency;
 import java.util.GregorianCalendar;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A BasketViewEvent is used to indicate when a user has viewed their shopping basket. It is composed of a list of {@link BasketProduct}s
@@ -30,8 +30,10 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public class BasketViewEvent extends Event {
 
-    private CopyOnWriteArrayList<BasketProduct> basketProductList = new CopyOnWriteArrayList<>();
-    private AtomicReference<Currency> currency = new AtomicReference<>();
+    private volatile CopyOnWriteArrayList<BasketProduct> basketProductList = new CopyOnWriteArrayList<>();
+    // set instead of the list when the products are given as a batch, until the list is requested
+    private volatile ProductBatch basketProductBatch;
+    private volatile Currency currency;
 
     /**
      * Construct a new BasketViewEvent with an iterable of BasketProduct.
@@ -49,6 +51,15 @@ public class BasketViewEvent extends Event {
         setBasketProductList(new ArrayList<>(Arrays.asList(basketProducts)));
     }
 
+    /**
+     * Construct a new BasketViewEvent with a batch of products and their quantities.
+     * @param basketProducts {@link ProductBatch} of the products in the basket
+     * @since v1.2
+     */
+    public BasketViewEvent(ProductBatch basketProducts) {
+        setBasketProductBatch(basketProducts);
+    }
+
     /**
      * Construct a new BasketViewEvent with an overriden currency, an iterable of BasketProduct and start and end dates
      * @param currency Override the default currency
@@ -63,14 +74,107 @@ public class BasketViewEvent extends Event {
         setEndDate(endDate);
     }
 
+    private BasketViewEvent(Builder builder) {
+        super(builder);
+        this.basketProductList = new CopyOnWriteArrayList<>(builder.basketProducts);
+        this.currency = builder.currency;
+    }
+
+    /**
+     * Builder of {@link BasketViewEvent}s, which creates the event with all its basket products
+     * in a single step.
+     * @since v1.2
+     */
+    public static class Builder extends Event.Builder<Builder> {
+        private final ArrayList<BasketProduct> basketProducts = new ArrayList<>();
+        private Currency currency;
+
+        /**
+         * Starts building a BasketViewEvent.
+         */
+        public Builder() {
+        }
+
+        @Override
+        Builder self() {
+            return this;
+        }
+
+        /**
+         * Add a new {@link BasketProduct} to the event's basket product list.
+         * @param basketProduct the basket product to add
+         * @return this builder
+         */
+        public Builder addBasketProduct(BasketProduct basketProduct) {
+            if (basketProduct == null) {
+                CRTOLog.e("Argument basketProduct must not be null");
+                return this;
+            }
+            basketProducts.add(copyBasketProduct(basketProduct));
+            return this;
+        }
+
+        /**
+         * Add {@link BasketProduct}s to the event's basket product list.
+         * @param basketProducts Iterable of {@link BasketProduct}
+         * @return this builder
+         */
+        public Builder addBasketProducts(Iterable<BasketProduct> basketProducts) {
+            for (BasketProduct basketProduct : basketProducts) {
+                addBasketProduct(basketProduct);
+            }
+            return this;
+        }
+
+        /**
+         * This overrides the default currency for the event.
+         * @param currency Currency of products
+         * @return this builder
+         */
+        public Builder setCurrency(Currency currency) {
+            if (currency == null) {
+                CRTOLog.e("Argument currency must not be null");
+                return this;
+            }
+            this.currency = currency;
+            return this;
+        }
+
+        @Override
+        public Builder setStartDate(GregorianCalendar startDate) {
+            return super.setStartDate(startDate);
+        }
+
+        @Override
+        public Builder setEndDate(GregorianCalendar endDate) {
+            return super.setEndDate(endDate);
+        }
+
+        /**
+         * Creates the event.
+         * @return a new BasketViewEvent
+         */
+        public BasketViewEvent build() {
+            return new BasketViewEvent(this);
+        }
+    }
+
     /**
      * Construct a new BasketViewEvent by copying another BasketViewEvent
      * @param event Event to copy
      */
     public BasketViewEvent(BasketViewEvent event) {
         super(event);
-        setBasketProductList(event.basketProductList);
-        setCurrency(event.currency.get());
+        CopyOnWriteArrayList<BasketProduct> basketProducts;
+        ProductBatch basketProductBatch;
+        synchronized (event) {
+            basketProducts = event.basketProductList;
+            basketProductBatch = event.basketProductBatch;
+        }
+        // basket products and batches are immutable and can be shared
+        this.basketProductList = basketProducts != null ? new CopyOnWriteArrayList<>(basketProducts) : null;
+        this.basketProductBatch = basketProductBatch;
+        this.currency = event.currency;
     }
 
 
@@ -83,17 +187,32 @@ public class BasketViewEvent extends Event {
             CRTOLog.e("Argument basketProduct must not be null");
             return;
         }
-        basketProductList.add(basketProduct);
+        getBasketProductList().add(basketProduct);
     }
 
-    private CopyOnWriteArrayList<BasketProduct> makeBasketProducts(Iterable<BasketProduct> basketProductIterable){
-        CopyOnWriteArrayList<BasketProduct> basketProducts = new CopyOnWriteArrayList<>();
+    static CopyOnWriteArrayList<BasketProduct> makeBasketProducts(Iterable<BasketProduct> basketProductIterable){
+        ArrayList<BasketProduct> basketProducts = new ArrayList<>();
 
         for(BasketProduct product: basketProductIterable) {
-            basketProducts.add(new BasketProduct(product.getProductId(), product.getPrice(), product.getQuantity()));
+            basketProducts.add(copyBasketProduct(product));
+        }
+
+        // created from all the products at once, instead of copying its array on each addition
+        return new CopyOnWriteArrayList<>(basketProducts);
+    }
+
+    static CopyOnWriteArrayList<BasketProduct> makeBasketProducts(ProductBatch batch) {
+        BasketProduct[] basketProducts = new BasketProduct[batch.size()];
+        for (int i = 0; i < basketProducts.length; i++) {
+            basketProducts[i] = new BasketProduct(batch.getProductId(i), batch.getPrice(i), batch.getQuantity(i));
         }
+        return new CopyOnWriteArrayList<>(basketProducts);
+    }
 
-        return basketProducts;
+    static BasketProduct copyBasketProduct(BasketProduct product) {
+        // basket products are immutable and shared, unless they are instances of a subclass
+        return product.getClass() == BasketProduct.class ? product
+                : new BasketProduct(product.getProductId(), product.getPrice(), product.getQuantity());
     }
 
     /**
@@ -107,27 +226,58 @@ public class BasketViewEvent extends Event {
             CRTOLog.e("Argument currency must not be null");
             return;
         }
-        this.currency.set(currency);
+        this.currency = currency;
     }
 
     public Currency getCurrency() {
-        return this.currency.get();
+        return this.currency;
     }
 
     public CopyOnWriteArrayList<BasketProduct> getBasketProductList() {
+        CopyOnWriteArrayList<BasketProduct> basketProducts = basketProductList;
+        return basketProducts != null ? basketProducts : makeBasketProductList();
+    }
+
+    private synchronized CopyOnWriteArrayList<BasketProduct> makeBasketProductList() {
+        if (basketProductList == null) {
+            basketProductList = makeBasketProducts(basketProductBatch);
+            basketProductBatch = null;
+        }
         return basketProductList;
     }
 
+    /**
+     * Gets the products given as a batch, or null if they are held in the basket product list.
+     */
+    ProductBatch getBasketProductBatch() {
+        return basketProductBatch;
+    }
+
     /**
      * Sets a new list of {@link BasketProduct}. Only one list is associated per event so this overwrites the current list.
      * @param basketProductList Iterable of {@link BasketProduct}. Must not be null.
      */
-    public void setBasketProductList(Iterable<BasketProduct> basketProductList) {
+    public synchronized void setBasketProductList(Iterable<BasketProduct> basketProductList) {
         if (basketProductList == null) {
             CRTOLog.e("Argument basketProductList must not be null");
             return;
         }
         this.basketProductList = makeBasketProducts(basketProductList);
+        this.basketProductBatch = null;
+    }
+
+    /**
+     * Sets the products from a {@link ProductBatch}, which is copied. Only one list is associated per event so this overwrites the current list.
+     * @param basketProducts Batch of products and their quantities. Must not be null.
+     * @since v1.2
+     */
+    public synchronized void setBasketProductBatch(ProductBatch basketProducts) {
+        if (basketProducts == null) {
+            CRTOLog.e("Argument basketProducts must not be null");
+            return;
+        }
+        this.basketProductBatch = new ProductBatch(basketProducts);
+        this.basketProductList = null;
     }
 
     @Override
@@ -0,0 +1,325 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits queued payloads into their common fields and their events, so that the events of payloads
+ * sharing the same common fields can be stitched together into a single request.
+ * Payloads are scanned without being parsed. On devices with several cores, large backlogs are
+ * encoded on several threads, each one encoding a contiguous range of payloads, and the results are
+ * returned in the original order. Single-core devices encode them on the calling thread only.
+ */
+final class BatchEncoder {
+    // minimum number of payloads worth spreading over several threads
+    static final int MIN_PARALLEL_PAYLOADS = 256;
+
+    // maximum number of threads encoding payloads at the same time, including the calling thread
+    static final int MAX_THREADS = 4;
+
+    // number of threads encoding a large backlog on this device, one per core up to MAX_THREADS
+    static final int THREAD_COUNT = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+
+    private static final String EVENTS = EventKeys.EVENTS;
+
+    // created on first parallel encoding, so that single-core devices never start it
+    private static ThreadPoolExecutor executor;
+
+    /**
+     * A payload split into its common fields and the contents of its events array.
+     */
+    static final class EncodedPayload {
+        // the payload without its events, as a JSON object
+        final String commonPayload;
+        // the events of the payload, without the enclosing brackets
+        final String events;
+
+        EncodedPayload(String commonPayload, String events) {
+            this.commonPayload = commonPayload;
+            this.events = events;
+        }
+    }
+
+    private static final class EncodeTask implements Runnable {
+        private final List<String> payloads;
+        private final EncodedPayload[] encoded;
+        private final int from;
+        private final int to;
+
+        private EncodeTask(List<String> payloads, EncodedPayload[] encoded, int from, int to) {
+            this.payloads = payloads;
+            this.encoded = encoded;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void run() {
+            for (int i = from; i < to; i++) {
+                encoded[i] = encode(payloads.get(i));
+            }
+        }
+    }
+
+    private BatchEncoder() {
+    }
+
+    /**
+     * Encodes payloads, on several threads when there are enough of them.
+     * @return the encoded payloads, in the same order, holding null for the payloads that cannot be merged
+     */
+    static EncodedPayload[] encodeAll(List<String> payloads) {
+        return encodeAll(payloads, payloads.size() < MIN_PARALLEL_PAYLOADS ? 1 : THREAD_COUNT);
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(MAX_THREADS - 1, MAX_THREADS - 1, 10, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    static EncodedPayload[] encodeAll(List<String> payloads, int threadCount) {
+        int count = payloads.size();
+        EncodedPayload[] encoded = new EncodedPayload[count];
+        threadCount = Math.max(1, Math.min(Math.min(threadCount, MAX_THREADS), count));
+
+        // the calling thread encodes the first range while the pool encodes the others
+        List<EncodeTask> tasks = new ArrayList<>(threadCount - 1);
+        List<Future<?>> futures = new ArrayList<>(threadCount - 1);
+        for (int i = 1; i < threadCount; i++) {
+            EncodeTask task = new EncodeTask(payloads, encoded, count * i / threadCount, count * (i + 1) / threadCount);
+            try {
+                futures.add(getExecutor().submit(task));
+                tasks.add(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+        new EncodeTask(payloads, encoded, 0, count / threadCount).run();
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                // encoding has no side effect, the range is simply encoded again
+                futures.get(i).cancel(true);
+                Thread.currentThread().interrupt();
+                tasks.get(i).run();
+            } catch (ExecutionException e) {
+                tasks.get(i).run();
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Splits a payload into its common fields and its events.
+     * @return the encoded payload, or null if it is not a JSON object holding an events array
+     */
+    static EncodedPayload encode(String payload) {
+        int length = payload.length();
+        int position = skipWhitespace(payload, 0);
+        if (position >= length || payload.charAt(position) != '{') {
+            return null;
+        }
+        position++;
+
+        // bounds of the events member, including its separating comma
+        int eventsMemberStart = -1;
+        int eventsMemberEnd = -1;
+        int eventsStart = -1;
+        int eventsEnd = -1;
+        int previousMemberEnd = position;
+        boolean first = true;
+        while (true) {
+            position = skipWhitespace(payload, position);
+            if (position >= length) {
+                return null;
+            }
+            char c = payload.charAt(position);
+            if (c == '}') {
+                break;
+            }
+            if (!first) {
+                if (c != ',') {
+                    return null;
+                }
+                position = skipWhitespace(payload, position + 1);
+            }
+
+            int nameStart = position;
+            position = skipString(payload, position);
+            if (position < 0) {
+                return null;
+            }
+            boolean isEvents = position - nameStart == EVENTS.length() + 2
+                    && payload.startsWith(EVENTS, nameStart + 1);
+            position = skipWhitespace(payload, position);
+            if (position >= length || payload.charAt(position) != ':') {
+                return null;
+            }
+            position = skipWhitespace(payload, position + 1);
+            int valueStart = position;
+            position = skipValue(payload, position);
+            if (position < 0) {
+                return null;
+            }
+
+            if (isEvents) {
+                if (payload.charAt(valueStart) != '[' || eventsMemberStart >= 0) {
+                    return null;
+                }
+                eventsStart = valueStart + 1;
+                eventsEnd = position - 1;
+                if (first) {
+                    // the comma following the first member goes away with it
+                    eventsMemberStart = nameStart;
+                    int next = skipWhitespace(payload, position);
+                    eventsMemberEnd = next < length && payload.charAt(next) == ',' ? next + 1 : position;
+                } else {
+                    eventsMemberStart = previousMemberEnd;
+                    eventsMemberEnd = position;
+                }
+            }
+            previousMemberEnd = position;
+            first = false;
+        }
+
+        if (eventsMemberStart < 0 || skipWhitespace(payload, position + 1) != length) {
+            return null;
+        }
+        String commonPayload = payload.substring(0, eventsMemberStart) + payload.substring(eventsMemberEnd, position + 1);
+        return new EncodedPayload(commonPayload, payload.substring(eventsStart, eventsEnd).trim());
+    }
+
+    /**
+     * Stitches the events of several payloads sharing the same common fields into a single payload.
+     */
+    static String stitch(String commonPayload, List<String> events) {
+        int end = commonPayload.lastIndexOf('}');
+        int length = end + EVENTS.length() + 8;
+        for (String event : events) {
+            length += event.length() + 1;
+        }
+
+        StringBuilder payload = new StringBuilder(length);
+        payload.append(commonPayload, 0, end);
+        if (commonPayload.substring(commonPayload.indexOf('{') + 1, end).trim().length() > 0) {
+            payload.append(',');
+        }
+        payload.append('"').append(EVENTS).append("\":[");
+        boolean first = true;
+        for (String event : events) {
+            if (event.isEmpty()) {
+                continue;
+            }
+            if (!first) {
+                payload.append(',');
+            }
+            payload.append(event);
+            first = false;
+        }
+        payload.append("]}");
+        return payload.toString();
+    }
+
+    private static int skipWhitespace(String payload, int position) {
+        while (position < payload.length()) {
+            char c = payload.charAt(position);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * @return the position following the string starting at the given position, or -1 if it is not a string
+     */
+    private static int skipString(String payload, int position) {
+        if (position >= payload.length() || payload.charAt(position) != '"') {
+            return -1;
+        }
+        for (position++; position < payload.length(); position++) {
+            char c = payload.charAt(position);
+            if (c == '\\') {
+                position++;
+            } else if (c == '"') {
+                return position + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position following the value starting at the given position, or -1 if it is malformed
+     */
+    private static int skipValue(String payload, int position) {
+        if (position >= payload.length()) {
+            return -1;
+        }
+        char c = payload.charAt(position);
+        if (c == '"') {
+            return skipString(payload, position);
+        }
+        if (c != '{' && c != '[') {
+            // a literal value ends at the next separator
+            int start = position;
+            while (position < payload.length()) {
+                c = payload.charAt(position);
+                if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    break;
+                }
+                position++;
+            }
+            return position > start ? position : -1;
+        }
+
+        int depth = 0;
+        while (position < payload.length()) {
+            c = payload.charAt(position);
+            if (c == '"') {
+                position = skipString(payload, position);
+                if (position < 0) {
+                    return -1;
+                }
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return position + 1;
+                }
+            }
+            position++;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,398 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+/**
+ * Encodes JSON payloads to CBOR (RFC 7049), a binary representation of the same data model.
+ * Numbers and literals are stored in binary instead of text, and strings are stored unescaped
+ * with their length, which makes the payload smaller and faster to parse on the server.
+ * Objects and arrays are written with an indefinite length, so that the JSON payload is
+ * encoded in a single pass, without building a tree of values.
+ */
+final class CBOREncoder {
+    static final String CONTENT_TYPE = "application/cbor";
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1 << 5;
+    private static final int MAJOR_TEXT = 3 << 5;
+    private static final int START_ARRAY = 0x9F;
+    private static final int START_MAP = 0xBF;
+    private static final int BREAK = 0xFF;
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int FLOAT32 = 0xFA;
+    private static final int FLOAT64 = 0xFB;
+
+    private final byte[] json;
+    private int position;
+    private byte[] buffer;
+    private int size;
+
+    private CBOREncoder(byte[] json) {
+        this.json = json;
+        this.buffer = new byte[json.length];
+    }
+
+    /**
+     * Encodes a JSON document to CBOR.
+     * @param json the document encoded in UTF-8
+     * @return the CBOR encoding of the document
+     * @throws IllegalArgumentException if the document is not valid JSON
+     */
+    static byte[] encode(byte[] json) {
+        CBOREncoder encoder = new CBOREncoder(json);
+        encoder.encodeValue();
+        encoder.skipWhitespace();
+        if (encoder.position != json.length) {
+            throw encoder.syntaxError("Unexpected content after the document");
+        }
+        byte[] result = new byte[encoder.size];
+        System.arraycopy(encoder.buffer, 0, result, 0, encoder.size);
+        return result;
+    }
+
+    private void encodeValue() {
+        skipWhitespace();
+        if (position >= json.length) {
+            throw syntaxError("Unexpected end of document");
+        }
+        switch (json[position]) {
+            case '{':
+                encodeContainer(START_MAP, '}', true);
+                break;
+            case '[':
+                encodeContainer(START_ARRAY, ']', false);
+                break;
+            case '"':
+                encodeString();
+                break;
+            case 't':
+                expectLiteral("true");
+                writeByte(TRUE);
+                break;
+            case 'f':
+                expectLiteral("false");
+                writeByte(FALSE);
+                break;
+            case 'n':
+                expectLiteral("null");
+                writeByte(NULL);
+                break;
+            default:
+                encodeNumber();
+        }
+    }
+
+    private void encodeContainer(int start, char end, boolean isMap) {
+        writeByte(start);
+        position++;
+        skipWhitespace();
+        if (position < json.length && json[position] == end) {
+            position++;
+            writeByte(BREAK);
+            return;
+        }
+        while (true) {
+            if (isMap) {
+                skipWhitespace();
+                if (position >= json.length || json[position] != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                encodeString();
+                skipWhitespace();
+                expect(':');
+            }
+            encodeValue();
+            skipWhitespace();
+            if (position >= json.length) {
+                throw syntaxError("Unterminated container");
+            }
+            byte c = json[position++];
+            if (c == end) {
+                writeByte(BREAK);
+                return;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or '" + end + "'");
+            }
+        }
+    }
+
+    private void encodeString() {
+        position++;
+        int start = position;
+        // strings without escape sequences are copied as is, they are already encoded in UTF-8
+        while (position < json.length && json[position] != '"' && json[position] != '\\') {
+            position++;
+        }
+        if (position >= json.length) {
+            throw syntaxError("Unterminated string");
+        }
+        if (json[position] == '"') {
+            writeHeader(MAJOR_TEXT, position - start);
+            writeBytes(json, start, position - start);
+            position++;
+            return;
+        }
+
+        // otherwise the string is unescaped after a header for the largest possible length,
+        // then the header is rewritten with the actual length
+        int end = findStringEnd(position);
+        int headerStart = size;
+        writeHeader(MAJOR_TEXT, end - start);
+        int headerLength = size - headerStart;
+        position = start;
+        while (position < end) {
+            byte c = json[position++];
+            if (c == '\\') {
+                unescape();
+            } else {
+                writeByte(c);
+            }
+        }
+        position = end + 1;
+
+        int length = size - headerStart - headerLength;
+        int contentStart = headerStart + headerLength;
+        size = headerStart;
+        writeHeader(MAJOR_TEXT, length);
+        if (size != contentStart) {
+            System.arraycopy(buffer, contentStart, buffer, size, length);
+        }
+        size += length;
+    }
+
+    private int findStringEnd(int from) {
+        int i = from;
+        while (i < json.length && json[i] != '"') {
+            i += json[i] == '\\' ? 2 : 1;
+        }
+        if (i >= json.length) {
+            throw syntaxError("Unterminated string");
+        }
+        return i;
+    }
+
+    private void unescape() {
+        byte c = json[position++];
+        switch (c) {
+            case 'b':
+                writeByte('\b');
+                break;
+            case 'f':
+                writeByte('\f');
+                break;
+            case 'n':
+                writeByte('\n');
+                break;
+            case 'r':
+                writeByte('\r');
+                break;
+            case 't':
+                writeByte('\t');
+                break;
+            case 'u':
+                int codePoint = readHex();
+                if (Character.isHighSurrogate((char) codePoint) && position + 6 <= json.length
+                        && json[position] == '\\' && json[position + 1] == 'u') {
+                    int mark = position;
+                    position += 2;
+                    int low = readHex();
+                    if (Character.isLowSurrogate((char) low)) {
+                        codePoint = Character.toCodePoint((char) codePoint, (char) low);
+                    } else {
+                        position = mark;
+                    }
+                }
+                writeCodePoint(codePoint);
+                break;
+            default:
+                // quotes, backslashes and slashes stand for themselves
+                writeByte(c);
+        }
+    }
+
+    private int readHex() {
+        if (position + 4 > json.length) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(json[position++], 16);
+            if (digit < 0) {
+                throw syntaxError("Invalid escape sequence");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private void writeCodePoint(int codePoint) {
+        if (codePoint < 0x80) {
+            writeByte(codePoint);
+        } else if (codePoint < 0x800) {
+            writeByte(0xC0 | (codePoint >> 6));
+            writeByte(0x80 | (codePoint & 0x3F));
+        } else if (codePoint >= Character.MIN_HIGH_SURROGATE && codePoint <= Character.MAX_LOW_SURROGATE) {
+            // unpaired surrogates are replaced, as done by the UTF-8 charset encoder
+            writeByte('?');
+        } else if (codePoint < 0x10000) {
+            writeByte(0xE0 | (codePoint >> 12));
+            writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+            writeByte(0x80 | (codePoint & 0x3F));
+        } else {
+            writeByte(0xF0 | (codePoint >> 18));
+            writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+            writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+            writeByte(0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    private void encodeNumber() {
+        int start = position;
+        boolean integral = true;
+        while (position < json.length) {
+            byte c = json[position];
+            if (c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+            } else if (!(c >= '0' && c <= '9') && c != '-' && c != '+') {
+                break;
+            }
+            position++;
+        }
+        if (position == start) {
+            throw syntaxError("Unexpected character");
+        }
+
+        if (integral && position - start <= 18) {
+            // at most 18 digits fit in a long without overflow
+            boolean negative = json[start] == '-';
+            long value = 0;
+            for (int i = negative ? start + 1 : start; i < position; i++) {
+                byte digit = json[i];
+                if (digit < '0' || digit > '9') {
+                    throw syntaxError("Invalid number");
+                }
+                value = value * 10 + (digit - '0');
+            }
+            if (negative) {
+                // -n is encoded as n - 1 with the negative major type
+                writeHeader(MAJOR_NEGATIVE, value - 1);
+            } else {
+                writeHeader(MAJOR_UNSIGNED, value);
+            }
+            return;
+        }
+
+        double value;
+        try {
+            value = Double.parseDouble(new String(json, start, position - start, "US-ASCII"));
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid number");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        if ((double) (float) value == value) {
+            writeByte(FLOAT32);
+            writeInt(Float.floatToIntBits((float) value));
+        } else {
+            writeByte(FLOAT64);
+            long bits = Double.doubleToLongBits(value);
+            writeInt((int) (bits >>> 32));
+            writeInt((int) bits);
+        }
+    }
+
+    /**
+     * Writes the initial byte of an item, followed by its argument on the smallest possible size.
+     */
+    private void writeHeader(int majorType, long argument) {
+        if (argument < 0) {
+            // "-0" is encoded as 0
+            writeByte(MAJOR_UNSIGNED);
+        } else if (argument < 24) {
+            writeByte(majorType | (int) argument);
+        } else if (argument < 0x100) {
+            writeByte(majorType | 24);
+            writeByte((int) argument);
+        } else if (argument < 0x10000) {
+            writeByte(majorType | 25);
+            writeByte((int) (argument >> 8));
+            writeByte((int) argument);
+        } else if (argument < 0x100000000L) {
+            writeByte(majorType | 26);
+            writeInt((int) argument);
+        } else {
+            writeByte(majorType | 27);
+            writeInt((int) (argument >>> 32));
+            writeInt((int) argument);
+        }
+    }
+
+    private void expectLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            expect(literal.charAt(i));
+        }
+    }
+
+    private void expect(char c) {
+        if (position >= json.length || json[position] != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+        position++;
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length) {
+            byte c = json[position];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private IllegalArgumentException syntaxError(String message) {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+
+    private void writeInt(int value) {
+        writeByte(value >>> 24);
+        writeByte(value >>> 16);
+        writeByte(value >>> 8);
+        writeByte(value);
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    private void ensureCapacity(int length) {
+        if (size + length > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(buffer.length * 2, size + length)];
+            System.arraycopy(buffer, 0, newBuffer, 0, size);
+            buffer = newBuffer;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The common fields of the payloads sent by an {@link EventService}, cached as serialized JSON.
+ * The fields are split into fragments, and a fragment is only serialized again once one of its
+ * values changed: the setters of the service invalidate the fragments they affect, while the
+ * fragments computed from the device are checked against the values they were built from.
+ */
+class CommonPayload {
+    private static final int FRAGMENT_CAPACITY = 256;
+
+    // the device info never changes while the process is alive, so it is shared by all services
+    private static volatile byte[] deviceInfo;
+
+    private final EventService eventService;
+    private final JSONWriter fragmentWriter = new JSONWriter(FRAGMENT_CAPACITY);
+
+    private final AtomicInteger accountVersion = new AtomicInteger();
+    private final AtomicInteger alternateIdsVersion = new AtomicInteger();
+    private final AtomicInteger customerIdVersion = new AtomicInteger();
+
+    private Fragment account;
+    private Fragment id;
+    private Fragment appInfo;
+    private Fragment alternateIds;
+    private Fragment customerId;
+
+    /**
+     * A serialized field, along with the key of the values it was built from.
+     */
+    private static final class Fragment {
+        private final Object key;
+        private final byte[] bytes;
+
+        private Fragment(Object key, byte[] bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+
+        private boolean isValid(Object currentKey) {
+            return key.equals(currentKey);
+        }
+    }
+
+    CommonPayload(EventService eventService) {
+        this.eventService = eventService;
+    }
+
+    /**
+     * To be called after the account name, country or language of the service changed.
+     */
+    void invalidateAccount() {
+        accountVersion.incrementAndGet();
+    }
+
+    /**
+     * To be called after the email of the service changed.
+     */
+    void invalidateAlternateIds() {
+        alternateIdsVersion.incrementAndGet();
+    }
+
+    /**
+     * To be called after the customer ID of the service changed.
+     */
+    void invalidateCustomerId() {
+        customerIdVersion.incrementAndGet();
+    }
+
+    /**
+     * Writes the common fields into the object being written, serializing the fragments that changed.
+     */
+    synchronized void writeTo(JSONWriter writer) {
+        // the version is read before the values, so that a change made while building a fragment
+        // leaves it invalid
+        Integer version = accountVersion.get();
+        if (account == null || !account.isValid(version)) {
+            JSONSerializer.writeAccount(eventService, fragmentWriter.reset());
+            account = new Fragment(version, fragmentWriter.toByteArray());
+        }
+        writer.rawField(account.bytes);
+
+        AdvertisingInfo advertisingInfo = DeviceInfo.getAdvertisingInfo();
+        Object idKey = advertisingInfo != null ? advertisingInfo : Boolean.FALSE;
+        if (id == null || !id.isValid(idKey)) {
+            JSONSerializer.writeId(fragmentWriter.reset());
+            id = new Fragment(idKey, fragmentWriter.toByteArray());
+        }
+        writer.rawField(id.bytes);
+
+        if (deviceInfo == null) {
+            JSONSerializer.writeDeviceInfo(fragmentWriter.reset());
+            deviceInfo = fragmentWriter.toByteArray();
+        }
+        writer.rawField(deviceInfo);
+
+        // the application language and country follow the device locale
+        Locale locale = Locale.getDefault();
+        if (appInfo == null || !appInfo.isValid(locale)) {
+            JSONSerializer.writeAppInfo(fragmentWriter.reset());
+            appInfo = new Fragment(locale, fragmentWriter.toByteArray());
+        }
+        writer.rawField(appInfo.bytes);
+
+        version = alternateIdsVersion.get();
+        if (alternateIds == null || !alternateIds.isValid(version)) {
+            JSONSerializer.writeAlternateIds(eventService, fragmentWriter.reset());
+            alternateIds = new Fragment(version, fragmentWriter.toByteArray());
+        }
+        writer.rawField(alternateIds.bytes);
+
+        writer.field(EncodedKeys.JSON_PROTOCOL_VERSION, JSONSerializer.JSON_PROTOCOL_VERSION);
+
+        version = customerIdVersion.get();
+        if (customerId == null || !customerId.isValid(version)) {
+            JSONSerializer.writeCustomerId(eventService, fragmentWriter.reset());
+            customerId = new Fragment(version, fragmentWriter.toByteArray());
+        }
+        writer.rawField(customerId.bytes);
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The compact schema of the payloads, in which the keys repeated in every request are replaced by
+ * short names. A payload in the compact schema announces it with its version field, set to
+ * {@link #PROTOCOL_VERSION} instead of {@link JSONSerializer#JSON_PROTOCOL_VERSION}.
+ * Both schemas are defined by the table of {@link EncodedKeys}, pairing each {@link EventKeys key}
+ * written by the serializer with its compact name, so that the names written and translated cannot
+ * diverge. Keys missing from the table, such as the extra data keys chosen by the
+ * application, are the same in both schemas, which is why the compact names are reserved keys
+ * while the compact schema is enabled.
+ */
+final class CompactKeys {
+    static final String PROTOCOL_VERSION = "sdk_1.0.0_compact";
+
+    // the table of the keys and their compact names, declared with the keys written by the serializer
+    static final String[][] KEYS = EncodedKeys.getCompactKeys();
+
+    private static final int MAX_DEPTH = 32;
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    // the compact names and version, quoted as JSON strings
+    private static final Map<String, byte[]> COMPACT_NAMES = new HashMap<>();
+    private static final Set<String> NAMES = new HashSet<>();
+    private static final byte[] COMPACT_VERSION = quote(PROTOCOL_VERSION);
+
+    static {
+        for (String[] key : KEYS) {
+            COMPACT_NAMES.put(key[0], quote(key[1]));
+            NAMES.add(key[1]);
+        }
+    }
+
+    private final byte[] json;
+    private byte[] buffer;
+    private int size;
+
+    private CompactKeys(byte[] json) {
+        this.json = json;
+        this.buffer = new byte[json.length + COMPACT_VERSION.length];
+    }
+
+    /**
+     * @return true if the key is the compact name of a key
+     */
+    static boolean isCompactName(String key) {
+        return NAMES.contains(key);
+    }
+
+    /**
+     * Translates a JSON payload to the compact schema, in a single pass. Besides the names of the
+     * fields, the field names listed by the delta envelope and the version are translated.
+     * @param json the payload encoded in UTF-8
+     * @return the payload in the compact schema
+     * @throws IllegalArgumentException if the payload is not well-formed
+     */
+    static byte[] translate(byte[] json) {
+        return new CompactKeys(json).translate();
+    }
+
+    private byte[] translate() {
+        boolean[] objects = new boolean[MAX_DEPTH];
+        int depth = 0;
+        boolean expectName = false;
+        // the value of the field just read is the version, or a list of field names
+        boolean versionValue = false;
+        boolean namesValue = false;
+        boolean versionTranslated = false;
+        int namesDepth = -1;
+
+        int position = 0;
+        while (position < json.length) {
+            byte c = json[position];
+            if (c == '"') {
+                int end = findStringEnd(position);
+                byte[] replacement = null;
+                if (expectName || depth == namesDepth) {
+                    String name = new String(json, position + 1, end - position - 2, LATIN1);
+                    replacement = COMPACT_NAMES.get(name);
+                    if (expectName) {
+                        versionValue = depth == 1 && name.equals(EventKeys.JSON_PROTOCOL_VERSION);
+                        namesValue = name.equals(EventKeys.SAME_AS_PREVIOUS);
+                        expectName = false;
+                    }
+                } else if (versionValue && !versionTranslated
+                        && regionEquals(position + 1, end - position - 2, JSONSerializer.JSON_PROTOCOL_VERSION)) {
+                    replacement = COMPACT_VERSION;
+                    versionTranslated = true;
+                }
+
+                if (replacement != null) {
+                    write(replacement, 0, replacement.length);
+                } else {
+                    write(json, position, end - position);
+                }
+                position = end;
+                continue;
+            }
+
+            switch (c) {
+                case '{':
+                case '[':
+                    if (depth == MAX_DEPTH) {
+                        throw new IllegalArgumentException("Payload nested too deeply");
+                    }
+                    objects[depth++] = c == '{';
+                    if (c == '[' && namesValue) {
+                        namesDepth = depth;
+                    }
+                    expectName = c == '{';
+                    versionValue = false;
+                    namesValue = false;
+                    break;
+                case '}':
+                case ']':
+                    if (depth == 0 || objects[depth - 1] != (c == '}')) {
+                        throw new IllegalArgumentException("Unbalanced '" + (char) c + "' at position " + position);
+                    }
+                    if (depth == namesDepth) {
+                        namesDepth = -1;
+                    }
+                    depth--;
+                    expectName = false;
+                    versionValue = false;
+                    namesValue = false;
+                    break;
+                case ',':
+                    expectName = depth > 0 && objects[depth - 1];
+                    versionValue = false;
+                    namesValue = false;
+                    break;
+                default:
+                    break;
+            }
+            buffer[size++] = c;
+            position++;
+        }
+
+        if (depth != 0) {
+            throw new IllegalArgumentException("Unterminated container");
+        }
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * @return the position following the string starting at the given position
+     */
+    private int findStringEnd(int start) {
+        int i = start + 1;
+        while (i < json.length && json[i] != '"') {
+            i += json[i] == '\\' ? 2 : 1;
+        }
+        if (i >= json.length) {
+            throw new IllegalArgumentException("Unterminated string at position " + start);
+        }
+        return i + 1;
+    }
+
+    private boolean regionEquals(int offset, int length, String value) {
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (json[offset + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    private static byte[] quote(String name) {
+        return ('"' + name + '"').getBytes(LATIN1);
+    }
+}
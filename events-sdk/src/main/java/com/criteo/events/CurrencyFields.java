@@ -0,0 +1,43 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.Currency;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Currency fields already serialized to JSON, so that the code of a currency is looked up and
+ * encoded once instead of for every event. The JDK keeps a single instance of each currency, which
+ * is used as the key.
+ * This class is thread safe.
+ */
+final class CurrencyFields {
+    private static final ConcurrentHashMap<Currency, byte[]> fields = new ConcurrentHashMap<>();
+
+    /**
+     * @return the currency field, with its key, to be written with {@link JSONWriter#rawField(byte[])}
+     */
+    static byte[] get(Currency currency) {
+        byte[] field = fields.get(currency);
+        if (field == null) {
+            field = new JSONWriter(32).field(EncodedKeys.CURRENCY, currency.getCurrencyCode()).toByteArray();
+            fields.put(currency, field);
+        }
+        return field;
+    }
+
+    private CurrencyFields() {}
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import android.content.Intent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Reorders a backlog of events so that the events closest to their expiration are sent first.
+ * When the queue is drained in FIFO order after a long outage, the oldest events often expire
+ * while waiting for their turn behind more recent ones that could have waited.
+ */
+class DeadlineOrdering {
+    // time in milliseconds assumed for a request until one has been measured
+    static final long DEFAULT_POST_TIME = 500;
+
+    private static final Comparator<Entry> DEADLINE_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            if (lhs.expirationTime != rhs.expirationTime) {
+                return lhs.expirationTime < rhs.expirationTime ? -1 : 1;
+            }
+            // keep the queue order between events expiring at the same time
+            return lhs.position - rhs.position;
+        }
+    };
+
+    private static final Comparator<Entry> TIMESTAMP_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            if (lhs.timestamp != rhs.timestamp) {
+                return lhs.timestamp < rhs.timestamp ? -1 : 1;
+            }
+            return lhs.position - rhs.position;
+        }
+    };
+
+    private static class Entry {
+        private final Intent intent;
+        private final long timestamp;
+        private final long expirationTime;
+        private final int position;
+        private int fifoPosition;
+
+        private Entry(Intent intent, long timestamp, long expirationTime, int position) {
+            this.intent = intent;
+            this.timestamp = timestamp;
+            this.expirationTime = expirationTime;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Sorts the queue by expiration time of its events, earliest first.
+     * The expiration time of each event comes from the policy of its type.
+     * @param eventQueue the queue to reorder
+     * @param defaultPolicy the policy of events without a specific profile
+     * @param now current time in milliseconds
+     * @param postTime average duration of a request in milliseconds
+     * @return estimated number of events that would have expired before being sent in FIFO order,
+     * meaning by event timestamp, but will be sent in time in the new order
+     */
+    static int reorder(Deque<Intent> eventQueue, SendPolicy defaultPolicy, long now, long postTime) {
+        if (eventQueue.size() < 2) {
+            return 0;
+        }
+
+        List<Entry> fifoOrder = new ArrayList<>(eventQueue.size());
+        PriorityQueue<Entry> deadlineOrder = new PriorityQueue<>(eventQueue.size(), DEADLINE_COMPARATOR);
+        for (Intent eventIntent : eventQueue) {
+            SendPolicy sendPolicy = SendPolicyProfiles.INSTANCE.get(eventIntent.getStringExtra("event"), defaultPolicy);
+            long timestamp = eventIntent.getLongExtra("timestamp", 0);
+            Entry entry = new Entry(eventIntent, timestamp, sendPolicy.getExpirationTime(timestamp), fifoOrder.size());
+            fifoOrder.add(entry);
+            deadlineOrder.add(entry);
+        }
+
+        // the queue may have been reordered already, so the FIFO order is rebuilt from the timestamps
+        Collections.sort(fifoOrder, TIMESTAMP_COMPARATOR);
+        for (int i = 0; i < fifoOrder.size(); i++) {
+            fifoOrder.get(i).fifoPosition = i;
+        }
+
+        eventQueue.clear();
+        int saved = 0;
+        while (!deadlineOrder.isEmpty()) {
+            Entry entry = deadlineOrder.poll();
+            int position = eventQueue.size();
+            eventQueue.add(entry.intent);
+
+            // an event is only counted once, even if the backlog is reordered several times
+            boolean missedInFifoOrder = now + (entry.fifoPosition + 1) * postTime > entry.expirationTime;
+            boolean missedInDeadlineOrder = now + (position + 1) * postTime > entry.expirationTime;
+            if (missedInFifoOrder && !missedInDeadlineOrder && !entry.intent.hasExtra("deadline_saved")) {
+                entry.intent.putExtra("deadline_saved", true);
+                saved++;
+            }
+        }
+        return saved;
+    }
+}
@@ -16,7 +16,6 @@
 package com.criteo.events;
 
 import java.net.URI;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The DeeplinkEvent is for sending an event if the app was launched via a deeplink url.
@@ -25,18 +24,18 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public class DeeplinkEvent extends Event {
 
-    private AtomicReference<String> deeplinkUrl = new AtomicReference<>();
+    private volatile String deeplinkUrl;
 
     /**
      * Construct a new DeeplinkEvent with url passed as string.
      * @param url String of the deeplink used to launch the app.
      */
     public DeeplinkEvent(String url) {
-        if (deeplinkUrl == null) {
+        if (url == null) {
             CRTOLog.e("Argument deeplinkUrl must not be null");
             return;
         }
-        this.deeplinkUrl.set(url);
+        this.deeplinkUrl = url;
     }
 
     /**
@@ -44,11 +43,11 @@ public class DeeplinkEvent extends Event {
      * @param url URI of the deeplink used to launch the app.
      */
     public DeeplinkEvent(URI url) {
-        if (deeplinkUrl == null) {
+        if (url == null) {
             CRTOLog.e("Argument deeplinkUrl must not be null");
             return;
         }
-        this.deeplinkUrl.set(url.toString());
+        this.deeplinkUrl = url.toString();
     }
 
     /**
@@ -57,7 +56,7 @@ public class DeeplinkEvent extends Event {
      */
     public DeeplinkEvent(DeeplinkEvent event) {
         super(event);
-        this.deeplinkUrl.set(event.getDeeplinkUrl());
+        this.deeplinkUrl = event.getDeeplinkUrl();
     }
 
     /**
@@ -65,7 +64,7 @@ public class DeeplinkEvent extends Event {
      * @return Deeplink as string.
      */
     public String getDeeplinkUrl() {
-        return deeplinkUrl.get();
+        return deeplinkUrl;
     }
 
 
@@ -0,0 +1,242 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the events of a batch in the delta envelope, where each event only holds what changed
+ * since the previous one:
+ * <ul>
+ *     <li>the timestamp is replaced by the number of seconds elapsed since the previous event,
+ *     in the {@link EventKeys#TIMESTAMP_DELTA} field</li>
+ *     <li>the fields equal to the ones of the previous event are left out, and their names are
+ *     listed in the {@link EventKeys#SAME_AS_PREVIOUS} array, when this makes the event smaller</li>
+ * </ul>
+ * The first event is written as it is, so the events of several envelopes can be concatenated.
+ */
+final class DeltaEnvelope {
+    static final String VERSION = "delta_1";
+
+    private static final byte[] TIMESTAMP_NAME = JSONWriter.encodeName(EventKeys.TIMESTAMP);
+
+    // the fields of the previous event and of the current one, as offsets in their serialized event
+    private Fields previous = new Fields();
+    private Fields current = new Fields();
+    private long previousTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Bounds of the top level fields of a serialized event. For each field, the name starts at
+     * nameStarts[i], the value at valueStarts[i] and the field ends before ends[i].
+     */
+    private static final class Fields {
+        byte[] event;
+        int count;
+        int[] nameStarts = new int[16];
+        int[] valueStarts = new int[16];
+        int[] ends = new int[16];
+        int timestampIndex;
+
+        void add(int nameStart, int valueStart, int end) {
+            if (count == ends.length) {
+                nameStarts = grow(nameStarts);
+                valueStarts = grow(valueStarts);
+                ends = grow(ends);
+            }
+            nameStarts[count] = nameStart;
+            valueStarts[count] = valueStart;
+            ends[count] = end;
+            count++;
+        }
+
+        private static int[] grow(int[] array) {
+            int[] newArray = new int[array.length * 2];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            return newArray;
+        }
+    }
+
+    /**
+     * Writes the events as the values of an array.
+     */
+    void writeEvents(JSONWriter writer, List<byte[]> serializedEvents) {
+        previous.event = null;
+        previousTimestamp = Long.MIN_VALUE;
+        List<Integer> sameFields = new ArrayList<>();
+        for (byte[] serializedEvent : serializedEvents) {
+            if (!scan(serializedEvent, current)) {
+                // not an object as written by JSONSerializer, it is left as is and ends the chain
+                writer.rawValue(serializedEvent);
+                previous.event = null;
+                previousTimestamp = Long.MIN_VALUE;
+                continue;
+            }
+
+            long timestamp = Long.MIN_VALUE;
+            if (current.timestampIndex >= 0) {
+                int valueStart = current.valueStarts[current.timestampIndex];
+                // the date is quoted
+                timestamp = TimestampFormatter.parseSeconds(serializedEvent, valueStart + 1,
+                        current.ends[current.timestampIndex] - valueStart - 2);
+            }
+
+            findSameFields(sameFields);
+
+            writer.beginObject();
+            for (int i = 0; i < current.count; i++) {
+                if (i == current.timestampIndex && timestamp != Long.MIN_VALUE
+                        && previousTimestamp != Long.MIN_VALUE) {
+                    writer.field(EncodedKeys.TIMESTAMP_DELTA, timestamp - previousTimestamp);
+                } else if (!sameFields.contains(i)) {
+                    writer.rawField(serializedEvent, current.nameStarts[i], current.ends[i] - current.nameStarts[i]);
+                }
+            }
+            if (!sameFields.isEmpty()) {
+                writer.name(EncodedKeys.SAME_AS_PREVIOUS).beginArray();
+                for (int i : sameFields) {
+                    // names are written quoted, as they were serialized
+                    writer.rawValue(serializedEvent, current.nameStarts[i],
+                            current.valueStarts[i] - 1 - current.nameStarts[i]);
+                }
+                writer.endArray();
+            }
+            writer.endObject();
+
+            previousTimestamp = timestamp;
+            Fields swap = previous;
+            previous = current;
+            current = swap;
+        }
+    }
+
+    /**
+     * Finds the fields of the current event equal to a field of the previous one, keeping them
+     * only if listing their names is shorter than writing them.
+     */
+    private void findSameFields(List<Integer> sameFields) {
+        sameFields.clear();
+        if (previous.event == null) {
+            return;
+        }
+        // the "same":[] array and the comma before it
+        int saved = -(EncodedKeys.SAME_AS_PREVIOUS.length + 3);
+        for (int i = 0; i < current.count; i++) {
+            if (i != current.timestampIndex && previousIndexOf(i) >= 0) {
+                sameFields.add(i);
+                int nameLength = current.valueStarts[i] - 1 - current.nameStarts[i];
+                // the field and its comma are replaced by its name and a comma
+                saved += current.ends[i] - current.nameStarts[i] - nameLength;
+            }
+        }
+        if (saved <= 0) {
+            sameFields.clear();
+        }
+    }
+
+    private int previousIndexOf(int field) {
+        int start = current.nameStarts[field];
+        int length = current.ends[field] - start;
+        for (int i = 0; i < previous.count; i++) {
+            if (previous.ends[i] - previous.nameStarts[i] == length
+                    && regionEquals(current.event, start, previous.event, previous.nameStarts[i], length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the top level fields of a serialized event, written without whitespace.
+     * @return false if the event is not a JSON object
+     */
+    private static boolean scan(byte[] event, Fields fields) {
+        fields.event = event;
+        fields.count = 0;
+        fields.timestampIndex = -1;
+        if (event.length < 2 || event[0] != '{' || event[event.length - 1] != '}') {
+            return false;
+        }
+        int position = 1;
+        while (position < event.length - 1) {
+            int nameStart = position;
+            if (event[position] != '"') {
+                return false;
+            }
+            position = skipString(event, position);
+            if (position >= event.length || event[position] != ':') {
+                return false;
+            }
+            int valueStart = ++position;
+            position = skipValue(event, position);
+            if (position >= event.length) {
+                return false;
+            }
+            if (valueStart - nameStart == TIMESTAMP_NAME.length
+                    && regionEquals(event, nameStart, TIMESTAMP_NAME, 0, TIMESTAMP_NAME.length)) {
+                fields.timestampIndex = fields.count;
+            }
+            fields.add(nameStart, valueStart, position);
+            if (event[position] == ',') {
+                position++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the position following the closing quote of the string starting at position
+     */
+    private static int skipString(byte[] event, int position) {
+        position++;
+        while (position < event.length && event[position] != '"') {
+            position += event[position] == '\\' ? 2 : 1;
+        }
+        return position + 1;
+    }
+
+    /**
+     * @return the position of the comma or closing brace following the value starting at position
+     */
+    private static int skipValue(byte[] event, int position) {
+        int depth = 0;
+        while (position < event.length) {
+            byte c = event[position];
+            if (c == '"') {
+                position = skipString(event, position);
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == ']' || (c == '}' && depth > 0)) {
+                depth--;
+            } else if (depth == 0 && (c == ',' || c == '}')) {
+                return position;
+            }
+            position++;
+        }
+        return position;
+    }
+}
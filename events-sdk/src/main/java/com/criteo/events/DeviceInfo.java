@@ -24,12 +24,19 @@ final class DeviceInfo
 {
     private static AdvertisingInfo advertisingInfo = null;
 
+    // the version of the application cannot change without restarting its process
+    private static String appVersion = null;
+
     private DeviceInfo() {}
 
     static String getAppVersion() {
+        if (appVersion != null) {
+            return appVersion;
+        }
         try {
-            return EventService.context.getPackageManager()
+            appVersion = EventService.context.getPackageManager()
                     .getPackageInfo(EventService.context.getPackageName(), 0).versionName;
+            return appVersion;
         } catch (PackageManager.NameNotFoundException e){
             CRTOLog.e("Error getting AppVersion", e);
             return "";
@@ -73,6 +80,14 @@ final class DeviceInfo
         return Locale.getISOLanguages();
     }
 
+    static AdvertisingInfo getAdvertisingInfo() {
+        if (advertisingInfo == null) {
+            advertisingInfo = AdvertisingInfoLoader.getAdvertisingInfo();
+        }
+
+        return advertisingInfo;
+    }
+
     static String getAdvertisingId() {
         if (advertisingInfo == null) {
             advertisingInfo = AdvertisingInfoLoader.getAdvertisingInfo();
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@link EventKeys} written by the {@link JSONSerializer}, encoded once as JSON names so that
+ * serializing an event only copies bytes.
+ * This is also the table of the compact schema: each key is declared along with its compact name,
+ * which {@link CompactKeys} uses to translate payloads, or null if it is the same in both schemas.
+ */
+final class EncodedKeys {
+    // the compact name of each key of the table that has one, in declaration order
+    private static final Map<String, String> compactNames = new LinkedHashMap<>();
+
+    static final byte[] EVENTNAME = key(EventKeys.EVENTNAME, "e");
+    static final byte[] EVENTS = key(EventKeys.EVENTS, "ev");
+    static final byte[] DEEPLINK = key(EventKeys.DEEPLINK, "dl");
+    static final byte[] GOOGLE_REFFERER = key(EventKeys.GOOGLE_REFFERER, "ref");
+    static final byte[] FIRST_LAUNCH = key(EventKeys.FIRST_LAUNCH, "fl");
+    static final byte[] COUNTRY = key(EventKeys.COUNTRY, "cn");
+    static final byte[] LANGUAGE = key(EventKeys.LANGUAGE, "ln");
+    static final byte[] DEVICE_ID = key(EventKeys.DEVICE_ID, "g");
+    static final byte[] LAT = key(EventKeys.LAT, "lat");
+    static final byte[] ACCOUNT = key(EventKeys.ACCOUNT, "a");
+    static final byte[] ID = key(EventKeys.ID, "i");
+    static final byte[] PRICE = key(EventKeys.PRICE, "pr");
+    static final byte[] QUANTITY = key(EventKeys.QUANTITY, "q");
+    static final byte[] VALUE = key(EventKeys.VALUE, "v");
+    static final byte[] TYPE = key(EventKeys.TYPE, "t");
+    static final byte[] DEVICE_INFO = key(EventKeys.DEVICE_INFO, "di");
+    static final byte[] PLATFORM = key(EventKeys.PLATFORM, "pf");
+    static final byte[] OS_NAME = key(EventKeys.OS_NAME, "os");
+    static final byte[] OS_VERSION = key(EventKeys.OS_VERSION, "ov");
+    static final byte[] DEVICE_MODEL = key(EventKeys.DEVICE_MODEL, "dm");
+    static final byte[] DEVICE_MANUFACTURER = key(EventKeys.DEVICE_MANUFACTURER, "dmf");
+    static final byte[] APP_INFO = key(EventKeys.APP_INFO, "ai");
+    static final byte[] APP_ID = key(EventKeys.APP_ID, "aid");
+    static final byte[] APP_NAME = key(EventKeys.APP_NAME, "apn");
+    static final byte[] APP_VERSION = key(EventKeys.APP_VERSION, "av");
+    static final byte[] SDK_VERSION = key(EventKeys.SDK_VERSION, "sv");
+    static final byte[] APP_LANGUAGE = key(EventKeys.APP_LANGUAGE, "al");
+    static final byte[] APP_COUNTRY = key(EventKeys.APP_COUNTRY, "ac");
+    static final byte[] PRODUCT = key(EventKeys.PRODUCT, "p");
+    static final byte[] CURRENCY = key(EventKeys.CURRENCY, "c");
+    static final byte[] JSON_PROTOCOL_VERSION = key(EventKeys.JSON_PROTOCOL_VERSION, null);
+    static final byte[] TIMESTAMP = key(EventKeys.TIMESTAMP, "ts");
+    static final byte[] CUSTOMER_ID = key(EventKeys.CUSTOMER_ID, "ci");
+    static final byte[] HASH = key(EventKeys.HASH, "h");
+    static final byte[] ALTERNATE_IDS = key(EventKeys.ALTERNATE_IDS, "aids");
+    static final byte[] ENVELOPE = key(EventKeys.ENVELOPE, "env");
+    static final byte[] TIMESTAMP_DELTA = key(EventKeys.TIMESTAMP_DELTA, null);
+    static final byte[] SAME_AS_PREVIOUS = key(EventKeys.SAME_AS_PREVIOUS, null);
+    static final byte[] REPEAT_COUNT = key(EventKeys.REPEAT_COUNT, null);
+
+    static {
+        // keys of the extra data set by the events themselves, written by their name
+        compactName(EventKeys.START_DATE, "din");
+        compactName(EventKeys.END_DATE, "dout");
+        compactName(EventKeys.DEDUPLICATION, "dd");
+        compactName(EventKeys.USER_SEGMENT, "si");
+        compactName(EventKeys.NEW_CUSTOMER, "nc");
+    }
+
+    private EncodedKeys() {}
+
+    private static byte[] key(String name, String compactName) {
+        if (compactName != null) {
+            compactName(name, compactName);
+        }
+        return JSONWriter.encodeName(name);
+    }
+
+    private static void compactName(String name, String compactName) {
+        compactNames.put(name, compactName);
+    }
+
+    /**
+     * @return the keys that have a compact name, paired with it
+     */
+    static String[][] getCompactKeys() {
+        String[][] keys = new String[compactNames.size()][];
+        int i = 0;
+        for (Map.Entry<String, String> entry : compactNames.entrySet()) {
+            keys[i++] = new String[] { entry.getKey(), entry.getValue() };
+        }
+        return keys;
+    }
+}
@@ -18,7 +18,6 @@ package com.criteo.events;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The Event class and related classes provide an API for submitting events from your native
@@ -33,26 +32,182 @@ public abstract class Event
     // This is the default value for the user segment, which means `no segment or segments not activated`
     static final int NO_USER_SEGMENT = 0;
 
-    ConcurrentHashMap<String,ExtraData> extraDataMap = new ConcurrentHashMap<>();
+    final ExtraDataMap extraDataMap;
 
-    private Date timestamp = new Date();
+    // in milliseconds since the epoch, set when the event is sent
+    private volatile long timestamp = System.currentTimeMillis();
+
+    // for the event types with a pool, whether this event was obtained from it, see EventPool
+    volatile int poolState = EventPool.NOT_POOLED;
+    volatile EventPool.LeakGuard leakGuard;
 
     Event() {
+        this.extraDataMap = new ExtraDataMap();
     }
 
     Event(Event event) {
-        this.extraDataMap = new ConcurrentHashMap<>(event.extraDataMap);
-        this.setTimestamp(event.getTimestamp());
+        this.extraDataMap = new ExtraDataMap(event.extraDataMap);
+        this.timestamp = event.timestamp;
+    }
+
+    Event(Builder<?> builder) {
+        this.extraDataMap = new ExtraDataMap(builder.extraData);
+    }
+
+    /**
+     * Base class of the event builders. A builder gathers the content of an event, then creates
+     * the event in a single step, which is faster than filling it with its setters when it holds
+     * many products.
+     * @param <B> the type of the builder, returned by its methods so that calls can be chained
+     * @since v1.2
+     */
+    public abstract static class Builder<B extends Builder<B>> {
+        final ExtraDataMap extraData = new ExtraDataMap();
+
+        Builder() {
+        }
+
+        abstract B self();
+
+        /**
+         * The start or travel checkin date associated with the event.
+         * @param startDate Date of start or checkin
+         * @return this builder
+         */
+        protected B setStartDate(GregorianCalendar startDate) {
+            if (startDate == null) {
+                CRTOLog.e("The startDate and endDate arguments must not be null");
+                return self();
+            }
+            extraData.putDate(EventKeys.START_DATE, startDate);
+            return self();
+        }
+
+        /**
+         * The end or travel checkout date associated with the event.
+         * @param endDate Date of end or checkout
+         * @return this builder
+         */
+        protected B setEndDate(GregorianCalendar endDate) {
+            if (endDate == null) {
+                CRTOLog.e("The startDate and endDate arguments must not be null");
+                return self();
+            }
+            extraData.putDate(EventKeys.END_DATE, endDate);
+            return self();
+        }
+
+        /**
+         * Set the user segment for the event.
+         * @param segment user segment for the event as an integer
+         * @return this builder
+         */
+        public B setUserSegment(int segment) {
+            extraData.putInt(EventKeys.USER_SEGMENT, segment);
+            return self();
+        }
+
+        /**
+         * Add custom {@link Float} data to the event using a key/value pair
+         * @param key the name of the extra data
+         * @param value the float value for the extra data
+         * @return this builder
+         */
+        public B addExtraData(String key, float value) {
+            if (isExtraDataKeyAllowed(key)) {
+                extraData.putFloat(key, value);
+            }
+            return self();
+        }
+
+        /**
+         * Add custom {@link Date} data to the event using a key/value pair
+         * @param key the name of the extra data
+         * @param value the date value for the extra data
+         * @return this builder
+         */
+        public B addExtraData(String key, GregorianCalendar value) {
+            if (isExtraDataKeyAllowed(key)) {
+                extraData.putDate(key, value);
+            }
+            return self();
+        }
+
+        /**
+         * Add custom {@link Integer} data to the event using a key/value pair
+         * @param key the name of the extra data
+         * @param value the integer value for the extra data
+         * @return this builder
+         */
+        public B addExtraData(String key, int value) {
+            if (isExtraDataKeyAllowed(key)) {
+                extraData.putInt(key, value);
+            }
+            return self();
+        }
+
+        /**
+         * Add custom {@link String} data to the event using a key/value pair
+         * @param key the name of the extra data
+         * @param value the string value for the extra data
+         * @return this builder
+         */
+        public B addExtraData(String key, String value) {
+            if (isExtraDataKeyAllowed(key)) {
+                extraData.putString(key, value);
+            }
+            return self();
+        }
+
+        /**
+         * Add custom {@link Long} data to the event using a key/value pair.
+         * It is sent as an integer: code compiled against an earlier version, in which a long was
+         * converted to a float, sent it as a float and does so until it is recompiled.
+         * @param key the name of the extra data
+         * @param value the long value for the extra data
+         * @return this builder
+         */
+        public B addExtraData(String key, long value) {
+            if (isExtraDataKeyAllowed(key)) {
+                extraData.putLong(key, value);
+            }
+            return self();
+        }
+
+        /**
+         * Add custom {@link Double} data to the event using a key/value pair
+         * @param key the name of the extra data
+         * @param value the double value for the extra data
+         * @return this builder
+         */
+        public B addExtraData(String key, double value) {
+            if (isExtraDataKeyAllowed(key)) {
+                extraData.putDouble(key, value);
+            }
+            return self();
+        }
+
+        /**
+         * Add custom {@link Boolean} data to the event using a key/value pair.
+         * It is sent as an integer, 1 for true and 0 for false.
+         * @param key the name of the extra data
+         * @param value the boolean value for the extra data
+         * @return this builder
+         */
+        public B addExtraData(String key, boolean value) {
+            if (isExtraDataKeyAllowed(key)) {
+                extraData.putBoolean(key, value);
+            }
+            return self();
+        }
     }
 
     protected GregorianCalendar getStartDate() {
-        ExtraData value = extraDataMap.get(EventKeys.START_DATE);
-        return value.getDateValue();
+        return extraDataMap.getDate(EventKeys.START_DATE);
     }
 
     protected GregorianCalendar getEndDate() {
-        ExtraData value = extraDataMap.get(EventKeys.END_DATE);
-        return value.getDateValue();
+        return extraDataMap.getDate(EventKeys.END_DATE);
     }
 
     /**
@@ -64,7 +219,7 @@ public abstract class Event
             CRTOLog.e("The startDate and endDate arguments must not be null");
             return;
         }
-        extraDataMap.put(EventKeys.START_DATE, new ExtraData(startDate));
+        extraDataMap.putDate(EventKeys.START_DATE, startDate);
     }
 
     /**
@@ -76,7 +231,7 @@ public abstract class Event
             CRTOLog.e("The startDate and endDate arguments must not be null");
             return;
         }
-        extraDataMap.put(EventKeys.END_DATE, new ExtraData(endDate));
+        extraDataMap.putDate(EventKeys.END_DATE, endDate);
     }
 
     /**
@@ -86,7 +241,7 @@ public abstract class Event
      * @since v1.1
      */
     public void setUserSegment(int segment) {
-        extraDataMap.put(EventKeys.USER_SEGMENT, new ExtraData(segment));
+        extraDataMap.putInt(EventKeys.USER_SEGMENT, segment);
     }
 
     /**
@@ -95,8 +250,8 @@ public abstract class Event
      * @since v1.1
      */
     public int getUserSegment() {
-        ExtraData value = extraDataMap.get(EventKeys.USER_SEGMENT);
-        return value != null ? value.getIntValue() : NO_USER_SEGMENT;
+        return extraDataMap.contains(EventKeys.USER_SEGMENT) ? extraDataMap.getInt(EventKeys.USER_SEGMENT)
+                : NO_USER_SEGMENT;
     }
 
     /**
@@ -106,7 +261,9 @@ public abstract class Event
      * @return this event
      */
     public Event addExtraData(String key, float value) {
-        putExtraData(key, new ExtraData(value));
+        if (isExtraDataKeyAllowed(key)) {
+            extraDataMap.putFloat(key, value);
+        }
         return this;
     }
 
@@ -117,7 +274,9 @@ public abstract class Event
      * @return this event
      */
     public Event addExtraData(String key, GregorianCalendar value) {
-        putExtraData(key, new ExtraData(value));
+        if (isExtraDataKeyAllowed(key)) {
+            extraDataMap.putDate(key, value);
+        }
         return this;
     }
 
@@ -128,7 +287,9 @@ public abstract class Event
      * @return this event
      */
     public Event addExtraData(String key, int value) {
-        putExtraData(key, new ExtraData(value));
+        if (isExtraDataKeyAllowed(key)) {
+            extraDataMap.putInt(key, value);
+        }
         return this;
     }
 
@@ -139,25 +300,90 @@ public abstract class Event
      * @return this event
      */
     public Event addExtraData(String key, String value) {
-        putExtraData(key, new ExtraData(value));
+        if (isExtraDataKeyAllowed(key)) {
+            extraDataMap.putString(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Add custom {@link Long} data to the event using a key/value pair.
+     * It is sent as an integer: code compiled against an earlier version, in which a long was
+     * converted to a float, sent it as a float and does so until it is recompiled.
+     * @param key the name of the extra data
+     * @param value the long value for the extra data
+     * @return this event
+     * @since v1.2
+     */
+    public Event addExtraData(String key, long value) {
+        if (isExtraDataKeyAllowed(key)) {
+            extraDataMap.putLong(key, value);
+        }
         return this;
     }
 
-    private void putExtraData(String key, ExtraData value) {
+    /**
+     * Add custom {@link Double} data to the event using a key/value pair
+     * @param key the name of the extra data
+     * @param value the double value for the extra data
+     * @return this event
+     * @since v1.2
+     */
+    public Event addExtraData(String key, double value) {
+        if (isExtraDataKeyAllowed(key)) {
+            extraDataMap.putDouble(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Add custom {@link Boolean} data to the event using a key/value pair.
+     * It is sent as an integer, 1 for true and 0 for false.
+     * @param key the name of the extra data
+     * @param value the boolean value for the extra data
+     * @return this event
+     * @since v1.2
+     */
+    public Event addExtraData(String key, boolean value) {
+        if (isExtraDataKeyAllowed(key)) {
+            extraDataMap.putBoolean(key, value);
+        }
+        return this;
+    }
+
+    private static boolean isExtraDataKeyAllowed(String key) {
         if(EventKeys.isKeyReserved(key)) {
             String error = String.format("The key argument %s must not be a reserved EventKey value.", key);
             CRTOLog.e(error);
-            return;
+            return false;
         }
+        return true;
+    }
+
+    /**
+     * Called once the event has been sent, and can no longer be read by the service.
+     * Event types with a pool give the event back to it.
+     */
+    void onSent() {
+    }
 
-        extraDataMap.put(key, value);
+    boolean isRecycled() {
+        return poolState == EventPool.RECYCLED;
     }
 
     protected void setTimestamp(Date timestamp) {
-        this.timestamp = timestamp;
+        this.timestamp = timestamp.getTime();
     }
 
     protected Date getTimestamp() {
+        return new Date(timestamp);
+    }
+
+    void setTimestampMillis(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    long getTimestampMillis() {
         return timestamp;
     }
 
@@ -171,8 +397,7 @@ public abstract class Event
      * @return the float value of the extra data or 0 if it does not exist
      */
     public float getFloatExtraData(String key) {
-        ExtraData value = extraDataMap.get(key);
-        return value.getFloatValue();
+        return extraDataMap.getFloat(key);
     }
 
     /**
@@ -181,8 +406,7 @@ public abstract class Event
      * @return the integer value of the extra data or 0 if it does not exist
      */
     public int getIntExtraData(String key) {
-        ExtraData value = extraDataMap.get(key);
-        return value.getIntValue();
+        return extraDataMap.getInt(key);
     }
 
     /**
@@ -191,8 +415,7 @@ public abstract class Event
      * @return the date value of the extra data or null if it does not exist
      */
     public GregorianCalendar getDateExtraData(String key) {
-        ExtraData value = extraDataMap.get(key);
-        return value.getDateValue();
+        return extraDataMap.getDate(key);
     }
 
     /**
@@ -201,12 +424,41 @@ public abstract class Event
      * @return the string value of the extra data or null if it does not exist
      */
     public String getStringExtraData(String key) {
-        ExtraData value = extraDataMap.get(key);
-        return value.getStringValue();
+        return extraDataMap.getString(key);
+    }
+
+    /**
+     * Returns extra data Long for specified key
+     * @param key the name of the extra data
+     * @return the long value of the extra data or 0 if it does not exist
+     * @since v1.2
+     */
+    public long getLongExtraData(String key) {
+        return extraDataMap.getLong(key);
+    }
+
+    /**
+     * Returns extra data Double for specified key
+     * @param key the name of the extra data
+     * @return the double value of the extra data or 0 if it does not exist
+     * @since v1.2
+     */
+    public double getDoubleExtraData(String key) {
+        return extraDataMap.getDouble(key);
+    }
+
+    /**
+     * Returns extra data Boolean for specified key
+     * @param key the name of the extra data
+     * @return the boolean value of the extra data or false if it does not exist
+     * @since v1.2
+     */
+    public boolean getBooleanExtraData(String key) {
+        return extraDataMap.getBoolean(key);
     }
 
     Map<String,ExtraData> getExtraDataMap() {
-        return new ConcurrentHashMap<String, ExtraData>(extraDataMap);
+        return extraDataMap.toMap();
     }
 
     /**
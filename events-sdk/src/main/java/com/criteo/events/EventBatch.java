@@ -0,0 +1,149 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An EventBatch gathers events to send to Criteo together with {@link EventService#send(EventBatch)},
+ * for instance when replaying the events recorded while offline.
+ * The events of a batch are given the same timestamp, serialized in a single pass and sent in as few
+ * requests as possible, instead of once per event.
+ * @since v1.2
+ */
+public final class EventBatch {
+    private final List<Event> events;
+
+    /**
+     * Constructs an empty EventBatch
+     */
+    public EventBatch() {
+        events = new ArrayList<>();
+    }
+
+    /**
+     * Constructs an empty EventBatch with room for the given number of events
+     * @param capacity Expected number of events
+     */
+    public EventBatch(int capacity) {
+        if (capacity < 0) {
+            CRTOLog.e("Argument capacity must be greater than or equal to zero");
+            capacity = 0;
+        }
+        events = new ArrayList<>(capacity);
+    }
+
+    /**
+     * Adds an AppLaunchEvent to the batch
+     * @param event Event to send
+     * @return this batch
+     */
+    public EventBatch add(AppLaunchEvent event) {
+        return addEvent(event);
+    }
+
+    /**
+     * Adds a BasketViewEvent to the batch
+     * @param event Event to send
+     * @return this batch
+     */
+    public EventBatch add(BasketViewEvent event) {
+        return addEvent(event);
+    }
+
+    /**
+     * Adds a HomeViewEvent to the batch
+     * @param event Event to send
+     * @return this batch
+     */
+    public EventBatch add(HomeViewEvent event) {
+        return addEvent(event);
+    }
+
+    /**
+     * Adds a ProductListViewEvent to the batch
+     * @param event Event to send
+     * @return this batch
+     */
+    public EventBatch add(ProductListViewEvent event) {
+        return addEvent(event);
+    }
+
+    /**
+     * Adds a ProductViewEvent to the batch
+     * @param event Event to send
+     * @return this batch
+     */
+    public EventBatch add(ProductViewEvent event) {
+        return addEvent(event);
+    }
+
+    /**
+     * Adds a TransactionConfirmationEvent to the batch
+     * @param event Event to send
+     * @return this batch
+     */
+    public EventBatch add(TransactionConfirmationEvent event) {
+        return addEvent(event);
+    }
+
+    /**
+     * Adds a DataEvent to the batch
+     * @param event Event to send
+     * @return this batch
+     */
+    public EventBatch add(DataEvent event) {
+        return addEvent(event);
+    }
+
+    /**
+     * Adds a DeeplinkEvent to the batch
+     * @param event Event to send
+     * @return this batch
+     */
+    public EventBatch add(DeeplinkEvent event) {
+        return addEvent(event);
+    }
+
+    /**
+     * Gets the number of events in this batch
+     * @return the number of events
+     */
+    public int size() {
+        return events.size();
+    }
+
+    /**
+     * Removes all the events of this batch, so that it can be filled again
+     */
+    public void clear() {
+        events.clear();
+    }
+
+    List<Event> getEvents() {
+        return events;
+    }
+
+    private EventBatch addEvent(Event event) {
+        if (event == null) {
+            CRTOLog.e("Argument event must not be null");
+            return this;
+        }
+        events.add(event);
+        return this;
+    }
+}
@@ -16,6 +16,8 @@
 package com.criteo.events;
 
 import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class contains a Set of all reserved keys that are used by Criteo to store data. These reserved keyts may not be used to store any extra data with any events.
@@ -72,129 +74,211 @@ final class EventKeys {
     static final String DEDUPLICATION = "deduplication";
     static final String USER_SEGMENT = "user_segment";
     static final String NEW_CUSTOMER = "new_customer";
+    static final String ENVELOPE = "envelope";
+    static final String TIMESTAMP_DELTA = "tsd";
+    static final String SAME_AS_PREVIOUS = "same";
+    static final String REPEAT_COUNT = "repeat_count";
 
 
-    private static final HashSet<String> reservedKeys;
+    // the reserved keys set by Criteo, some of them repeated; the compact names of CompactKeys, the keys of the
+    // delta envelope and the repeat count of coalesced events are reserved too, but only while they are in use
+    static final String[] RESERVED_KEYS = {
+            "e",
+            "p",
+            "at",
+            ID,
+            "din",
+            "dout",
+            "kw",
+            "a",
+            "b",
+            "c",
+            "idfa",
+            "v",
+            "ip",
+            "ai",
+            START_DATE,
+            END_DATE,
+            "ebs",
+            EVENTNAME,
+            "item",
+            "keywords",
+            PRODUCT,
+            "products",
+            "attribution",
+            ACCOUNT,
+            "publisher",
+            CURRENCY,
+            JSON_PROTOCOL_VERSION,
+            "debug",
+            SITE_TYPE,
+            "data",
+            EVENTS,
+            "tv",
+            "transaction_value",
+            "dc",
+            "vb",
+            "exd",
+            "dis",
+            "vh",
+            "al",
+            "vl",
+            "vp",
+            "vs",
+            "vc",
+            "cl",
+            "ce",
+            BASKET_VIEW,
+            DATA_EVENT,
+            "callDising",
+            HOME_VIEW,
+            APP_LAUNCH,
+            PRODUCT_VIEW,
+            PRODUCT_LIST_VIEW,
+            "viewItem",
+            "viewSearch",
+            TRANSACTION_CONFIRMATION,
+            "setLogin",
+            "setHashedLogin",
+            "setEmail",
+            "setHashedEmail",
+            "i",
+            "pr",
+            "p",
+            "q",
+            PRICE,
+            QUANTITY,
+            "ac",
+            "channel",
+            VALUE,
+            "i",
+            "m",
+            "h",
+            "login",
+            HASH,
+            "hash_method",
+            "d",
+            "aios",
+            "m",
+            "t",
+            "an",
+            APP_NAME,
+            COUNTRY,
+            "cn",
+            "ln",
+            "ci",
+            CUSTOMER_ID,
+            "dd",
+            DEDUPLICATION,
+            "dr",
+            "nc",
+            NEW_CUSTOMER,
+            "pt2",
+            "ref",
+            "si",
+            USER_SEGMENT,
+            "vurl",
+            PLATFORM,
+            OS_NAME,
+            OS_VERSION,
+            DEVICE_MODEL,
+            DEVICE_MANUFACTURER,
+            APP_INFO,
+            APP_ID,
+            APP_VERSION,
+            SDK_VERSION,
+            APP_LANGUAGE,
+            APP_COUNTRY,
+            TYPE,
+            APP_ID,
+            TIMESTAMP,
+    };
+
+    // The reserved keys are placed in a table by a perfect hash of their String.hashCode(), cached by literals:
+    // each key is alone in its slot, so looking up a key compares it with a single reserved key.
+    // The multiplier was searched for the keys above; when a key is added, EventKeysTest searches a new one.
+    static final int HASH_BITS = 9;
+    static final int HASH_MULTIPLIER = 0x21E8E6BF;
+    private static final String[] reservedKeys = new String[1 << HASH_BITS];
+    // keys that found their slot taken, until a new multiplier is set, so that they are still reserved
+    private static final Set<String> collidingKeys = new HashSet<String>();
+    // number of services using the delta envelope and coalescing, whose keys are reserved while it is not zero
+    private static final AtomicInteger deltaEnvelopeServices = new AtomicInteger();
+    private static final AtomicInteger coalescingServices = new AtomicInteger();
     static
     {
-        reservedKeys = new HashSet<>();
+        for (String key : RESERVED_KEYS) {
+            if (!reserve(reservedKeys, key, HASH_MULTIPLIER, HASH_BITS)) {
+                collidingKeys.add(key);
+            }
+        }
+    }
+
+    static int slot(String key, int multiplier, int bits) {
+        return (key.hashCode() * multiplier) >>> (32 - bits);
+    }
+
+    /**
+     * Places a key in its slot of the table.
+     * @return false if the slot is taken by another key
+     */
+    static boolean reserve(String[] table, String key, int multiplier, int bits) {
+        int slot = slot(key, multiplier, bits);
+        String reserved = table[slot];
+        if (reserved != null && !reserved.equals(key)) {
+            return false;
+        }
+        table[slot] = key;
+        return true;
+    }
 
-        reservedKeys.add("e");
-        reservedKeys.add("p");
-        reservedKeys.add("at");
-        reservedKeys.add(ID);
-        reservedKeys.add("din");
-        reservedKeys.add("dout");
-        reservedKeys.add("kw");
-        reservedKeys.add("a");
-        reservedKeys.add("b");
-        reservedKeys.add("c");
-        reservedKeys.add("idfa");
-        reservedKeys.add("v");
-        reservedKeys.add("ip");
-        reservedKeys.add("ai");
-        reservedKeys.add(START_DATE);
-        reservedKeys.add(END_DATE);
-        reservedKeys.add("ebs");
-        reservedKeys.add(EVENTNAME);
-        reservedKeys.add("item");
-        reservedKeys.add("keywords");
-        reservedKeys.add(PRODUCT);
-        reservedKeys.add("products");
-        reservedKeys.add("attribution");
-        reservedKeys.add(ACCOUNT);
-        reservedKeys.add("publisher");
-        reservedKeys.add(CURRENCY);
-        reservedKeys.add(JSON_PROTOCOL_VERSION);
-        reservedKeys.add("debug");
-        reservedKeys.add(SITE_TYPE);
-        reservedKeys.add("data");
-        reservedKeys.add(EVENTS);
-        reservedKeys.add("tv");
-        reservedKeys.add("transaction_value");
-        reservedKeys.add("dc");
-        reservedKeys.add("vb");
-        reservedKeys.add("exd");
-        reservedKeys.add("dis");
-        reservedKeys.add("vh");
-        reservedKeys.add("al");
-        reservedKeys.add("vl");
-        reservedKeys.add("vp");
-        reservedKeys.add("vs");
-        reservedKeys.add("vc");
-        reservedKeys.add("cl");
-        reservedKeys.add("ce");
-        reservedKeys.add(BASKET_VIEW);
-        reservedKeys.add(DATA_EVENT);
-        reservedKeys.add("callDising");
-        reservedKeys.add(HOME_VIEW);
-        reservedKeys.add(APP_LAUNCH);
-        reservedKeys.add(PRODUCT_VIEW);
-        reservedKeys.add(PRODUCT_LIST_VIEW);
-        reservedKeys.add("viewItem");
-        reservedKeys.add("viewSearch");
-        reservedKeys.add(TRANSACTION_CONFIRMATION);
-        reservedKeys.add("setLogin");
-        reservedKeys.add("setHashedLogin");
-        reservedKeys.add("setEmail");
-        reservedKeys.add("setHashedEmail");
-        reservedKeys.add("i");
-        reservedKeys.add("pr");
-        reservedKeys.add("p");
-        reservedKeys.add("q");
-        reservedKeys.add(PRICE);
-        reservedKeys.add(QUANTITY);
-        reservedKeys.add("ac");
-        reservedKeys.add("channel");
-        reservedKeys.add(VALUE);
-        reservedKeys.add("i");
-        reservedKeys.add("m");
-        reservedKeys.add("h");
-        reservedKeys.add("login");
-        reservedKeys.add(HASH);
-        reservedKeys.add("hash_method");
-        reservedKeys.add("d");
-        reservedKeys.add("aios");
-        reservedKeys.add("m");
-        reservedKeys.add("t");
-        reservedKeys.add("an");
-        reservedKeys.add(APP_NAME);
-        reservedKeys.add(COUNTRY);
-        reservedKeys.add("cn");
-        reservedKeys.add("ln");
-        reservedKeys.add("ci");
-        reservedKeys.add(CUSTOMER_ID);
-        reservedKeys.add("dd");
-        reservedKeys.add(DEDUPLICATION);
-        reservedKeys.add("dr");
-        reservedKeys.add("nc");
-        reservedKeys.add(NEW_CUSTOMER);
-        reservedKeys.add("pt2");
-        reservedKeys.add("ref");
-        reservedKeys.add("si");
-        reservedKeys.add(USER_SEGMENT);
-        reservedKeys.add("vurl");
-        reservedKeys.add(PLATFORM);
-        reservedKeys.add(OS_NAME);
-        reservedKeys.add(OS_VERSION);
-        reservedKeys.add(DEVICE_MODEL);
-        reservedKeys.add(DEVICE_MANUFACTURER);
-        reservedKeys.add(APP_INFO);
-        reservedKeys.add(APP_ID);
-        reservedKeys.add(APP_VERSION);
-        reservedKeys.add(SDK_VERSION);
-        reservedKeys.add(APP_LANGUAGE);
-        reservedKeys.add(APP_COUNTRY);
-        reservedKeys.add(TYPE);
-        reservedKeys.add(APP_ID);
-        reservedKeys.add(TIMESTAMP);
+    /**
+     * Reserves the keys of the delta envelope while a service uses it.
+     * @param inUse true when a service starts using the delta envelope, false when it stops
+     */
+    static void reserveDeltaEnvelopeKeys(boolean inUse) {
+        if (inUse) {
+            deltaEnvelopeServices.incrementAndGet();
+        } else {
+            deltaEnvelopeServices.decrementAndGet();
+        }
+    }
+
+    /**
+     * Reserves the repeat count of coalesced events while a service coalesces events.
+     * @param inUse true when a service starts coalescing events, false when it stops
+     */
+    static void reserveCoalescingKeys(boolean inUse) {
+        if (inUse) {
+            coalescingServices.incrementAndGet();
+        } else {
+            coalescingServices.decrementAndGet();
+        }
     }
 
     /**
      * Returns whether a key is reserved or not.
      */
     public static boolean isKeyReserved(String key) {
-        return EventKeys.reservedKeys.contains(key);
+        if (key == null) {
+            return false;
+        }
+        String reserved = reservedKeys[slot(key, HASH_MULTIPLIER, HASH_BITS)];
+        if (reserved != null && reserved.equals(key)) {
+            return true;
+        }
+        if (!collidingKeys.isEmpty() && collidingKeys.contains(key)) {
+            return true;
+        }
+        if (deltaEnvelopeServices.get() > 0
+                && (key.equals(TIMESTAMP_DELTA) || key.equals(SAME_AS_PREVIOUS) || key.equals(ENVELOPE))) {
+            return true;
+        }
+        if (coalescingServices.get() > 0 && key.equals(REPEAT_COUNT)) {
+            return true;
+        }
+        // extra data keys are the same in both schemas, so they must not collide with compact names
+        return EventPoster.compactKeys && CompactKeys.isCompactName(key);
     }
 
     private EventKeys() {}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Pool of reusable events of one type, for the event types that applications send at a high rate,
+ * such as a {@link ProductViewEvent} on every scroll.
+ * Events are obtained from the pool, and go back to it when sent, or when recycled without being
+ * sent. An event in the pool keeps its storage, such as its extra data arrays, for its next use.
+ *
+ * In debuggable applications, an event obtained from a pool that is garbage collected without
+ * having been sent or recycled is reported in the log, with where it was obtained.
+ * This class is thread safe.
+ */
+final class EventPool<E extends Event> {
+    static final int MAX_SIZE = 8;
+
+    // pool states of an event
+    static final int NOT_POOLED = 0;
+    static final int IN_USE = 1;
+    static final int RECYCLED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Event> poolStates =
+            AtomicIntegerFieldUpdater.newUpdater(Event.class, "poolState");
+
+    private static volatile boolean leakDetection = false;
+
+    private final Event[] events = new Event[MAX_SIZE];
+    private int size;
+
+    /**
+     * Enables the leak detection in debuggable applications only, as it records a stack trace for
+     * each obtained event.
+     */
+    static void setLeakDetection(Context context) {
+        leakDetection = context != null && context.getApplicationInfo() != null
+                && (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+    }
+
+    static void setLeakDetection(boolean enabled) {
+        leakDetection = enabled;
+    }
+
+    /**
+     * Takes an event from the pool and marks it in use.
+     * @return a recycled event, or null if the pool is empty and a new event must be created, then
+     * passed to {@link #onObtained(Event)}
+     */
+    E obtain() {
+        E event = pop();
+        if (event != null) {
+            onObtained(event);
+        }
+        return event;
+    }
+
+    void onObtained(E event) {
+        event.poolState = IN_USE;
+        if (leakDetection) {
+            event.leakGuard = new LeakGuard(event);
+        }
+    }
+
+    /**
+     * Marks an event recycled and clears its extra data. The caller then clears its own fields,
+     * before giving it back with {@link #release(Event)}.
+     * @return false if the event was not obtained from a pool, or was already recycled
+     */
+    boolean beginRecycle(E event) {
+        if (!poolStates.compareAndSet(event, IN_USE, RECYCLED)) {
+            CRTOLog.e(event.poolState == RECYCLED ? "Event was already recycled"
+                    : "Only events obtained from a pool can be recycled");
+            return false;
+        }
+        if (event.leakGuard != null) {
+            event.leakGuard.close();
+            event.leakGuard = null;
+        }
+        event.extraDataMap.clear();
+        return true;
+    }
+
+    /**
+     * Gives back a recycled event. It is dropped if the pool is full.
+     */
+    synchronized void release(E event) {
+        if (size < events.length) {
+            events[size++] = event;
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized E pop() {
+        if (size == 0) {
+            return null;
+        }
+        E event = (E) events[--size];
+        events[size] = null;
+        return event;
+    }
+
+    /**
+     * Reports the event it guards if it is garbage collected in use, like the close guards of the
+     * Android framework. It is only referenced by the event, so both are collected together.
+     */
+    static final class LeakGuard {
+        private final Throwable obtainedAt;
+        private volatile boolean closed;
+
+        LeakGuard(Event event) {
+            obtainedAt = new Throwable(event.getClass().getSimpleName() + " obtained here");
+        }
+
+        void close() {
+            closed = true;
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                if (!closed) {
+                    CRTOLog.w("A pooled event was neither sent nor recycled, which makes the pool allocate new events",
+                            obtainedAt);
+                }
+            } finally {
+                super.finalize();
+            }
+        }
+    }
+}
@@ -16,22 +16,37 @@
 package com.criteo.events;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
 class EventPoster {
+    static final int DEFAULT_TIMEOUT = 60000;
+
+    // encode payloads to CBOR instead of JSON, until the server rejects them
+    static volatile boolean cborEncoding = false;
+
+    // compress payloads with a preset dictionary, until the server rejects them
+    static volatile boolean dictionaryCompression = false;
+
+    // translate payloads to the compact schema, announced by their version field, until the server rejects them
+    static volatile boolean compactKeys = false;
+
     private URL url;
     private final SendPolicy sendPolicy;
 
     enum PostResult {
         DONE,
         RETRY_LATER,
-        REDIRECT
+        REDIRECT,
+        // the server rejected the content type, encoding or schema of a payload, never returned by post(String)
+        UNSUPPORTED_MEDIA_TYPE,
+        // the server rejected the payload as malformed, never returned by post(String)
+        BAD_REQUEST
     }
 
     public EventPoster(URL url, SendPolicy sendPolicy) {
@@ -53,12 +68,140 @@ class EventPoster {
     }
 
     public PostResult post(String payload) {
+        return post(payload, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @return the number of bytes of a payload once encoded in UTF-8, as it is posted
+     */
+    static int getEncodedLength(String payload) {
+        int length = payload.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = payload.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes++;
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(payload.charAt(i + 1))) {
+                // a surrogate pair takes 4 bytes, while an unpaired surrogate is replaced by a single byte
+                bytes += 2;
+                i++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Posts a payload, giving up on the connection if the server does not answer in time.
+     * @param payload the payload to send
+     * @param timeout the maximum time in milliseconds to spend connecting, then reading the response
+     * @return the result of the operation
+     */
+    public PostResult post(String payload, int timeout) {
+        byte[] bytes;
+        try {
+            bytes = payload.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            CRTOLog.e("Error encoding payload", e);
+            return PostResult.DONE;
+        }
+
+        // the encodings and schema rejected by the server are disabled one after the other, until the
+        // payload is sent as plain JSON in the verbose schema
+        byte[] compactBytes = null;
+        while (true) {
+            boolean cbor = cborEncoding;
+            boolean compressed = dictionaryCompression;
+            boolean compact = compactKeys;
+            if (compact && compactBytes == null) {
+                try {
+                    compactBytes = CompactKeys.translate(bytes);
+                } catch (IllegalArgumentException e) {
+                    // the payload is still sent, in the verbose schema
+                    CRTOLog.e("Error translating payload to the compact schema", e);
+                    compact = false;
+                }
+            }
+
+            PostResult result = post(compact ? compactBytes : bytes, cbor, compressed, compact, timeout);
+            if (result == PostResult.BAD_REQUEST && compact) {
+                // a server unaware of the compact schema finds no event in the payload, but a malformed event
+                // is rejected the same way: the payload is sent once in the verbose schema to tell them apart
+                result = post(bytes, cbor, compressed, false, timeout);
+                if (result == PostResult.DONE) {
+                    CRTOLog.w("The compact schema is not supported by the server, falling back to the verbose schema");
+                    compactKeys = false;
+                }
+            }
+            if (result == PostResult.BAD_REQUEST) {
+                // the event is dropped, as any other event rejected by the server
+                return PostResult.DONE;
+            }
+            if (result != PostResult.UNSUPPORTED_MEDIA_TYPE) {
+                return result;
+            }
+            if (compressed) {
+                CRTOLog.w("Compressed payloads are not supported by the server, sending them uncompressed");
+                dictionaryCompression = false;
+            } else if (cbor) {
+                CRTOLog.w("CBOR payloads are not supported by the server, falling back to JSON");
+                cborEncoding = false;
+            } else {
+                CRTOLog.w("The compact schema is not supported by the server, falling back to the verbose schema");
+                compactKeys = false;
+            }
+        }
+    }
+
+    private PostResult post(byte[] json, boolean cbor, boolean compressed, boolean compact, int timeout) {
+        byte[] body = json;
+        String contentType = null;
+        if (cbor) {
+            try {
+                body = CBOREncoder.encode(json);
+                contentType = CBOREncoder.CONTENT_TYPE;
+            } catch (IllegalArgumentException e) {
+                // the payload is still sent, as JSON
+                CRTOLog.e("Error encoding payload to CBOR", e);
+            }
+        }
+
+        String contentEncoding = null;
+        if (compressed) {
+            body = PayloadCompressor.compress(body);
+            contentEncoding = PayloadCompressor.CONTENT_ENCODING;
+        }
+        return post(body, contentType, contentEncoding, compact, timeout);
+    }
+
+    /**
+     * Posts an encoded payload.
+     * @param payload the payload to send
+     * @param contentType the media type of the payload, or null to send it without Content-Type header
+     * @param contentEncoding the compression of the payload, or null if it is not compressed
+     * @param compact true if the payload is in the compact schema
+     * @param timeout the maximum time in milliseconds to spend connecting, then reading the response
+     * @return the result of the operation, UNSUPPORTED_MEDIA_TYPE meaning that the payload was
+     * rejected because of its content type, encoding or schema, and BAD_REQUEST that it was rejected
+     * as malformed
+     */
+    PostResult post(byte[] payload, String contentType, String contentEncoding, boolean compact, int timeout) {
         boolean retry = false;
         StringBuilder response = new StringBuilder();
         int responseCode = -1;
         try {
             // Open connection
-            HttpURLConnection urlConnection = createHTTPConnection(url, payload.length());
+            HttpURLConnection urlConnection = createHTTPConnection(url, payload.length, timeout);
+            if (contentType != null) {
+                urlConnection.setRequestProperty("Content-Type", contentType);
+            }
+            if (contentEncoding != null) {
+                urlConnection.setRequestProperty("Content-Encoding", contentEncoding);
+            }
 
             // Send event
             sendPayload(urlConnection, payload);
@@ -72,6 +215,9 @@ class EventPoster {
                     url = new URL(urlConnection.getHeaderField("Location"));
                     return PostResult.REDIRECT;
                 }
+                if (responseCode == 415 && (contentType != null || contentEncoding != null || compact)) {
+                    return PostResult.UNSUPPORTED_MEDIA_TYPE;
+                }
             }
 
             InputStream is;
@@ -120,7 +266,10 @@ class EventPoster {
             CRTOLog.w("Response code : " + responseCode + " Body: " + responseBody);
         }
 
-        return retry ? PostResult.RETRY_LATER : PostResult.DONE;
+        if (retry) {
+            return PostResult.RETRY_LATER;
+        }
+        return responseCode == HttpURLConnection.HTTP_BAD_REQUEST ? PostResult.BAD_REQUEST : PostResult.DONE;
     }
 
     private static URL buildEventEndpoint() {
@@ -142,10 +291,10 @@ class EventPoster {
         return result;
     }
 
-    private HttpURLConnection createHTTPConnection(URL url, int length) throws IOException {
+    private HttpURLConnection createHTTPConnection(URL url, int length, int timeout) throws IOException {
         HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-        urlConnection.setReadTimeout(60000);
-        urlConnection.setConnectTimeout(60000);
+        urlConnection.setReadTimeout(timeout);
+        urlConnection.setConnectTimeout(timeout);
         urlConnection.setDoInput(true);
         urlConnection.setDoOutput(true);
         urlConnection.setInstanceFollowRedirects(true);
@@ -153,16 +302,16 @@ class EventPoster {
         return urlConnection;
     }
 
-    private void sendPayload(HttpURLConnection urlConnection, String payload) throws IOException {
-        BufferedWriter writer = null;
+    private void sendPayload(HttpURLConnection urlConnection, byte[] payload) throws IOException {
+        OutputStream stream = null;
         try {
-            writer = new BufferedWriter(new OutputStreamWriter(urlConnection.getOutputStream(), "UTF-8"));
-            writer.write(payload);
-            writer.flush();
+            stream = urlConnection.getOutputStream();
+            stream.write(payload);
+            stream.flush();
         }
         finally {
-            if (writer != null) {
-                writer.close();
+            if (stream != null) {
+                stream.close();
             }
         }
     }
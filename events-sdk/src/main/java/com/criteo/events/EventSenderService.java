@@ -20,46 +20,153 @@ import android.content.Context;
 import android.content.Intent;
 import android.support.annotation.VisibleForTesting;
 
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service dedicated to sending events one at a time to the server.
  */
 public class EventSenderService extends IntentService {
     static final String ACTION_SEND_EVENT = "com.criteo.event.intent.action.SEND_EVENT";
+    static final String ACTION_FLUSH = "com.criteo.event.intent.action.FLUSH";
+    static final String ACTION_DRAIN = "com.criteo.event.intent.action.DRAIN";
+
+    // maximum number of events merged into a single request when flushing
+    static final int MAX_FLUSH_BATCH_SIZE = 20;
+
+    // number of queued events encoded ahead at once when flushing a large backlog
+    static final int ENCODE_AHEAD_SIZE = 512;
+
+    private static final AtomicInteger flushIds = new AtomicInteger();
+    private static final ConcurrentHashMap<Integer, EventService.FlushListener> flushListeners = new ConcurrentHashMap<>();
 
     @VisibleForTesting
     static EventPosterFactory eventPosterFactory = new EventPosterFactory();
 
+    @VisibleForTesting
+    static RateLimiter rateLimiter = new RateLimiter();
+
+    // starts the sending loop again once the events held back by the rate limiter can be sent
+    private static ScheduledExecutorService drainScheduler;
+    private static ScheduledFuture<?> scheduledDrain;
+
+    // send the events closest to their expiration first instead of the oldest ones
+    static volatile boolean deadlineOrdering = false;
+
+    // number of requests sent concurrently when draining a backlog of events
+    static volatile int laneCount = 1;
+
     protected final Deque<Intent> eventQueue = EventQueue.INSTANCE.get();
 
+    // lanes draining a backlog, created on the first backlog and kept until the service is destroyed
+    private SenderLanes lanes;
+
+    /**
+     * Asks the service to send the waiting events, when no other event may come to start the sending loop.
+     */
+    private static class DrainTrigger implements Runnable {
+        private final Context context;
+
+        private DrainTrigger(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public void run() {
+            clearScheduledDrain();
+            Intent intent = new Intent(context, EventSenderService.class);
+            intent.setAction(ACTION_DRAIN);
+            try {
+                context.startService(intent);
+            }
+            catch (IllegalStateException e) {
+                CRTOLog.e("Unable to start service", e);
+            }
+            catch (SecurityException e) {
+                CRTOLog.e("Permission refused or service not found", e);
+            }
+        }
+    }
+
     public EventSenderService() {
         super("EventSenderService");
         setIntentRedelivery(true);
     }
 
+    @Override
+    public void onDestroy() {
+        if (lanes != null) {
+            lanes.shutdown();
+            lanes = null;
+        }
+        super.onDestroy();
+    }
+
     @Override
     protected void onHandleIntent(Intent eventIntent) {
-        if (eventIntent != null) {
+        if (eventIntent != null && ACTION_FLUSH.equals(eventIntent.getAction())) {
+            handleFlush(eventIntent);
+            return;
+        }
+
+        if (eventIntent != null && !ACTION_DRAIN.equals(eventIntent.getAction())) {
             eventQueue.add(eventIntent);
         }
         postWaitingIntents();
     }
 
     private void postWaitingIntents() {
+        orderByDeadline();
+
+        // a backlog is drained by several lanes at once when enabled
+        SenderLanes drainLanes = null;
+        if (laneCount > 1 && eventQueue.size() > 1) {
+            drainLanes = getLanes();
+            drainLanes.startDrain();
+        }
+
         boolean stop = false;
         while (!stop && !eventQueue.isEmpty()) {
             Intent eventIntent = eventQueue.remove();
-            stop = !postIntent(eventIntent);
+            stop = !postIntent(eventIntent, drainLanes);
+        }
+
+        if (drainLanes != null) {
+            requeue(drainLanes.awaitIdle(), false);
+        }
+    }
+
+    /**
+     * @return the sender lanes, created again if the number of lanes changed since the last backlog
+     */
+    private SenderLanes getLanes() {
+        int count = Math.min(laneCount, SenderLanes.MAX_LANES);
+        if (lanes != null && lanes.getLaneCount() != count) {
+            lanes.shutdown();
+            lanes = null;
+        }
+        if (lanes == null) {
+            lanes = new SenderLanes(count, eventPosterFactory);
         }
+        return lanes;
     }
 
     /**
      * Posts a single event, passed as an intent.
      * @param eventIntent the intent containing the event to send
+     * @param lanes the sender lanes draining the backlog, or null to post the event from this thread
      * @return true if we can continue sending, false if we must stop
      */
-    private boolean postIntent(Intent eventIntent) {
+    private boolean postIntent(Intent eventIntent, SenderLanes lanes) {
         // make sure we were called with the correct intent action
         String action = eventIntent.getAction();
         if (action == null || !action.equals(ACTION_SEND_EVENT)) {
@@ -67,74 +174,440 @@ public class EventSenderService extends IntentService {
         }
 
         EventPoster eventPoster = eventPosterFactory.createEventPoster();
-        final SendPolicy sendPolicy = eventPoster.getSendPolicy();
+        final SendPolicy defaultPolicy = eventPoster.getSendPolicy();
+        final SendPolicy sendPolicy = getSendPolicy(eventIntent, defaultPolicy);
 
         // do not send events that have been retried too much
         int eventTries = eventIntent.getIntExtra("retries", 0);
         if (!sendPolicy.canRetry(eventTries)) {
-            return true;
+            return dropEvent(eventIntent);
         }
 
         // do not send events until queue size reaches allowed size
-        // If the queue is bigger than the maximum allowed value, this method
-        // will be run with the oldest event, which will then be dropped.
+        // If the queue is bigger than the maximum allowed value, the oldest of the
+        // events with the lowest priority is dropped. The queue may have been
+        // reordered by deadline, so this event is not always the oldest one: it is
+        // dropped only if no other queued event is less important or older.
         int size = eventQueue.size();
-        if (sendPolicy.isQueueFull(size)) {
-            return true;
+        if (defaultPolicy.isQueueFull(size)) {
+            Intent evictedIntent = findEvictionCandidate(eventIntent, defaultPolicy);
+            if (evictedIntent == eventIntent) {
+                return dropEvent(eventIntent);
+            }
+            eventQueue.removeFirstOccurrence(evictedIntent);
+            dropEvent(evictedIntent);
         }
 
         String eventPayload = eventIntent.getStringExtra("payload");
 
         // discard invalid payloads
         if (eventPayload == null || eventPayload.isEmpty()) {
+            settleTransactions(eventIntent, false);
             return true;
         }
 
         long eventTimestamp = eventIntent.getLongExtra("timestamp", 0);
 
+        // hold the event back if too many requests were sent recently, and send it again once the rate
+        // limiter allows it. If this lasts, the next events pile up behind it and are dropped once the queue is full.
+        long throttleWait = acquireSendPermit(eventIntent.getStringExtra("event"), eventPayload);
+        if (throttleWait > 0) {
+            eventQueue.offerFirst(eventIntent);
+            scheduleDrain(throttleWait);
+            return false;
+        }
+
+        // in a backlog drain, the event is posted by one of the sender lanes
+        if (lanes != null) {
+            lanes.submit(eventIntent, eventPayload, eventTimestamp, sendPolicy, eventIntent.getStringExtra("ordering_key"));
+            return !lanes.isStopped();
+        }
+
+        switch (postPayload(eventPoster, sendPolicy, eventPayload, eventTimestamp)) {
+            // DONE means that the operation either succeeded, or failed in a non-recoverable
+            // way, so we drop the event
+            case DONE:
+                settleTransactions(eventIntent, true);
+                return true;
+            // RETRY_LATER means that the operation failed but probably due to conditions that can
+            // change at a later point, so we add the event back at the head of the queue
+            case RETRY_LATER:
+                eventIntent.putExtra("retries", eventIntent.getIntExtra("retries", 0) + 1);
+                eventQueue.offerFirst(eventIntent);
+                return false;
+            default:
+                return dropEvent(eventIntent);
+        }
+    }
+
+    /**
+     * Posts a payload, retrying immediately on redirects.
+     * REDIRECT means that the request got a 3xx result not handled by the normal redirect handler
+     * in HttpUrlConnection, so it is retried, but only a limited amount of times.
+     * @return the result of the last request, REDIRECT meaning that the event must be dropped because
+     * it expired or got too many redirects
+     */
+    static EventPoster.PostResult postPayload(EventPoster eventPoster, SendPolicy sendPolicy, String eventPayload,
+                                              long eventTimestamp) {
         for (int tries = 0; sendPolicy.canRetryRedirect(tries); tries++) {
             // do not try to send expired events
             if (sendPolicy.isEventExpired(eventTimestamp)) {
-                return true;
+                break;
             }
 
+            long postStart = System.currentTimeMillis();
             EventPoster.PostResult result = eventPoster.post(eventPayload);
-            switch (result) {
-                // DONE means that the operation either succeeded, or failed in a non-recoverable
-                // way, so we drop the event
-                case DONE:
-                    return true;
-                // RETRY_LATER means that the operation failed but probably due to conditions that can
-                // change at a later point, so we add the event back at the head of the queue
-                case RETRY_LATER:
-                    eventIntent.putExtra("retries", eventIntent.getIntExtra("retries", 0) + 1);
-                    eventQueue.offerFirst(eventIntent);
-                    return false;
-                // REDIRECT means that the request got a 3xx result not handled by the normal
-                // redirect handler in HttpUrlConnection, so we retry immediately, but only
-                // a limited amount of times
-                case REDIRECT:
-                    break;
+            SenderMetrics.INSTANCE.recordPost(System.currentTimeMillis() - postStart);
+            if (result != EventPoster.PostResult.REDIRECT) {
+                return result;
+            }
+        }
+        return EventPoster.PostResult.REDIRECT;
+    }
+
+    private void orderByDeadline() {
+        if (!deadlineOrdering || eventQueue.size() < 2) {
+            return;
+        }
+        SendPolicy defaultPolicy = eventPosterFactory.createEventPoster().getSendPolicy();
+        int saved = DeadlineOrdering.reorder(eventQueue, defaultPolicy, System.currentTimeMillis(),
+                SenderMetrics.INSTANCE.getAveragePostTime());
+        SenderMetrics.INSTANCE.deadlineSavedEvents.addAndGet(saved);
+    }
+
+    private static SendPolicy getSendPolicy(Intent eventIntent, SendPolicy defaultPolicy) {
+        return SendPolicyProfiles.INSTANCE.get(eventIntent.getStringExtra("event"), defaultPolicy);
+    }
+
+    /**
+     * Finds the event to evict from a full queue: the oldest of the events with the lowest priority.
+     * The age of an event is given by its timestamp, as the queue is not in age order once reordered
+     * by deadline.
+     * @param eventIntent the event at the head of the queue, which has already been removed from it
+     */
+    private Intent findEvictionCandidate(Intent eventIntent, SendPolicy defaultPolicy) {
+        Intent candidate = eventIntent;
+        int candidatePriority = getSendPolicy(eventIntent, defaultPolicy).getPriority();
+        long candidateTimestamp = eventIntent.getLongExtra("timestamp", 0);
+        for (Intent queuedIntent : eventQueue) {
+            int priority = getSendPolicy(queuedIntent, defaultPolicy).getPriority();
+            long timestamp = queuedIntent.getLongExtra("timestamp", 0);
+            if (priority < candidatePriority
+                    || (priority == candidatePriority && timestamp < candidateTimestamp)) {
+                candidate = queuedIntent;
+                candidatePriority = priority;
+                candidateTimestamp = timestamp;
             }
         }
+        return candidate;
+    }
+
+    private static boolean dropEvent(Intent eventIntent) {
+        SenderMetrics.INSTANCE.droppedEvents.incrementAndGet();
+        settleTransactions(eventIntent, false);
         return true;
     }
 
-    static void sendEvent(String eventPayload, long eventTimestamp, Context context) {
+    /**
+     * Records the deduplicated transactions of an event once it was delivered, or releases them when
+     * the event is dropped so that the application can send them again.
+     */
+    static void settleTransactions(Intent eventIntent, boolean delivered) {
+        String[] transactionIds = eventIntent.getStringArrayExtra("transaction_ids");
+        if (transactionIds == null) {
+            return;
+        }
+        TransactionIndex transactionIndex = TransactionIndex.get(EventService.context);
+        for (String transactionId : transactionIds) {
+            if (delivered) {
+                transactionIndex.commit(transactionId);
+            } else {
+                transactionIndex.release(transactionId);
+            }
+        }
+    }
+
+    /**
+     * Asks the rate limiter, when limits are set, for the permission to send a request, without waiting.
+     * @param eventType the type of event sent, or null for a batch
+     * @param payload the payload to send, charged by its size in UTF-8
+     * @return 0 if the request can be sent, or the time in milliseconds after which it can be sent
+     */
+    private static long acquireSendPermit(String eventType, String payload) {
+        if (!rateLimiter.isEnabled()) {
+            return 0;
+        }
+        long wait = rateLimiter.tryAcquire(eventType, EventPoster.getEncodedLength(payload), System.currentTimeMillis());
+        if (wait > 0) {
+            SenderMetrics.INSTANCE.throttledEvents.incrementAndGet();
+        }
+        return wait;
+    }
+
+    /**
+     * Starts the sending loop again after a delay, unless it is already scheduled to start sooner.
+     * @param delay time to wait in milliseconds
+     */
+    private static synchronized void scheduleDrain(long delay) {
+        Context context = EventService.context;
+        if (context == null) {
+            return;
+        }
+        if (scheduledDrain != null) {
+            if (scheduledDrain.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+                return;
+            }
+            scheduledDrain.cancel(false);
+        }
+        if (drainScheduler == null) {
+            drainScheduler = Executors.newSingleThreadScheduledExecutor();
+        }
+        scheduledDrain = drainScheduler.schedule(new DrainTrigger(context), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized void clearScheduledDrain() {
+        scheduledDrain = null;
+    }
+
+    @VisibleForTesting
+    static synchronized boolean isDrainScheduled() {
+        return scheduledDrain != null;
+    }
+
+    private void handleFlush(Intent flushIntent) {
+        long deadline = flushIntent.getLongExtra("deadline", 0);
+        FlushResult result = flushWaitingIntents(deadline);
+        CRTOLog.d("Flushed pending events, " + result);
+
+        EventService.FlushListener listener = flushListeners.remove(flushIntent.getIntExtra("flush_id", -1));
+        if (listener != null) {
+            listener.onFlushComplete(result);
+        }
+    }
+
+    /**
+     * Sends all waiting events, merging them into batches when possible, until either the queue
+     * is empty, the network becomes unavailable or the deadline is reached.
+     * Unlike the regular sending loop, no event is evicted because the queue is full.
+     * @param deadline time in milliseconds after which no request is started
+     * @return the number of delivered, deferred and dropped events
+     */
+    FlushResult flushWaitingIntents(long deadline) {
+        orderByDeadline();
+
+        EventPoster eventPoster = eventPosterFactory.createEventPoster();
+        final SendPolicy defaultPolicy = eventPoster.getSendPolicy();
+
+        int delivered = 0;
+        int dropped = 0;
+        Map<Intent, BatchEncoder.EncodedPayload> encodedPayloads = new IdentityHashMap<>();
+
+        while (!eventQueue.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+
+            PayloadBatch batch = new PayloadBatch(MAX_FLUSH_BATCH_SIZE);
+            dropped += takeBatch(defaultPolicy, batch, encodedPayloads);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            SendPolicy sendPolicy = getSendPolicy(batch.getIntents().get(0), defaultPolicy);
+
+            String payload = batch.getPayload();
+            String eventType = batch.size() == 1 ? batch.getIntents().get(0).getStringExtra("event") : null;
+            long throttleWait = acquireSendPermit(eventType, payload);
+            if (throttleWait > 0) {
+                requeue(batch.getIntents(), false);
+                scheduleDrain(throttleWait);
+                break;
+            }
+            remaining = deadline - System.currentTimeMillis();
+
+            boolean stop = false;
+            boolean sent = false;
+            for (int tries = 0; !sent && !stop && sendPolicy.canRetryRedirect(tries); tries++) {
+                // split the remaining time between connecting and reading the response
+                int timeout = (int) Math.max(1, Math.min(EventPoster.DEFAULT_TIMEOUT, remaining / 2));
+                EventPoster.PostResult result = eventPoster.post(payload, timeout);
+                switch (result) {
+                    case DONE:
+                        sent = true;
+                        break;
+                    case RETRY_LATER:
+                        requeue(batch.getIntents(), true);
+                        stop = true;
+                        break;
+                    case REDIRECT:
+                        remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            requeue(batch.getIntents(), false);
+                            stop = true;
+                        }
+                        break;
+                }
+            }
+
+            if (sent) {
+                delivered += batch.size();
+                for (Intent eventIntent : batch.getIntents()) {
+                    settleTransactions(eventIntent, true);
+                }
+            } else if (!stop) {
+                // too many redirects, the events are dropped like in the regular sending loop
+                dropped += batch.size();
+                for (Intent eventIntent : batch.getIntents()) {
+                    settleTransactions(eventIntent, false);
+                }
+            } else {
+                break;
+            }
+        }
+
+        SenderMetrics.INSTANCE.droppedEvents.addAndGet(dropped);
+        return new FlushResult(delivered, eventQueue.size(), dropped);
+    }
+
+    /**
+     * Puts events back at the head of the queue, keeping their original order.
+     */
+    private void requeue(List<Intent> intents, boolean countRetry) {
+        for (int i = intents.size() - 1; i >= 0; i--) {
+            Intent intent = intents.get(i);
+            if (countRetry) {
+                intent.putExtra("retries", intent.getIntExtra("retries", 0) + 1);
+            }
+            eventQueue.offerFirst(intent);
+        }
+    }
+
+    /**
+     * Moves events from the head of the queue to the batch for as long as they can be merged.
+     * Events that must not be sent anymore are removed from the queue.
+     * @param encodedPayloads payloads of the next events, encoded ahead when the backlog is large
+     * @return the number of events that were dropped
+     */
+    private int takeBatch(SendPolicy defaultPolicy, PayloadBatch batch,
+                          Map<Intent, BatchEncoder.EncodedPayload> encodedPayloads) {
+        int dropped = 0;
+        while (!eventQueue.isEmpty()) {
+            Intent eventIntent = eventQueue.peek();
+
+            String action = eventIntent.getAction();
+            if (action == null || !action.equals(ACTION_SEND_EVENT)) {
+                eventQueue.remove();
+                continue;
+            }
+
+            SendPolicy sendPolicy = getSendPolicy(eventIntent, defaultPolicy);
+            String eventPayload = eventIntent.getStringExtra("payload");
+            if (eventPayload == null || eventPayload.isEmpty()
+                    || !sendPolicy.canRetry(eventIntent.getIntExtra("retries", 0))
+                    || sendPolicy.isEventExpired(eventIntent.getLongExtra("timestamp", 0))) {
+                eventQueue.remove();
+                settleTransactions(eventIntent, false);
+                dropped++;
+                continue;
+            }
+
+            // on devices with several cores, the next payloads of a large backlog are encoded in parallel
+            if (!encodedPayloads.containsKey(eventIntent) && BatchEncoder.THREAD_COUNT > 1
+                    && eventQueue.size() >= BatchEncoder.MIN_PARALLEL_PAYLOADS) {
+                encodeAhead(encodedPayloads);
+            }
+            boolean added = encodedPayloads.containsKey(eventIntent)
+                    ? batch.add(eventIntent, eventPayload, encodedPayloads.get(eventIntent))
+                    : batch.add(eventIntent, eventPayload);
+            if (!added) {
+                break;
+            }
+            encodedPayloads.remove(eventIntent);
+            eventQueue.remove();
+        }
+        return dropped;
+    }
+
+    /**
+     * Encodes the payloads of the events at the head of the queue on several threads.
+     */
+    private void encodeAhead(Map<Intent, BatchEncoder.EncodedPayload> encodedPayloads) {
+        encodedPayloads.clear();
+        List<Intent> intents = new ArrayList<>(ENCODE_AHEAD_SIZE);
+        List<String> payloads = new ArrayList<>(ENCODE_AHEAD_SIZE);
+        for (Intent eventIntent : eventQueue) {
+            if (intents.size() >= ENCODE_AHEAD_SIZE) {
+                break;
+            }
+            String eventPayload = eventIntent.getStringExtra("payload");
+            if (eventPayload != null) {
+                intents.add(eventIntent);
+                payloads.add(eventPayload);
+            }
+        }
+
+        BatchEncoder.EncodedPayload[] encoded = BatchEncoder.encodeAll(payloads);
+        for (int i = 0; i < encoded.length; i++) {
+            encodedPayloads.put(intents.get(i), encoded[i]);
+        }
+    }
+
+    /**
+     * @param transactionIds IDs of the deduplicated transactions of the payload, or null
+     */
+    static void sendEvent(String eventPayload, long eventTimestamp, String eventType, String orderingKey,
+                          String[] transactionIds, Context context) {
         Intent intent = new Intent(context, EventSenderService.class);
         intent.setAction(ACTION_SEND_EVENT);
         intent.putExtra("payload", eventPayload);
+        intent.putExtra("event", eventType);
+        intent.putExtra("ordering_key", orderingKey);
         intent.putExtra("timestamp", eventTimestamp);
         intent.putExtra("retries", 0);
+        if (transactionIds != null) {
+            intent.putExtra("transaction_ids", transactionIds);
+        }
+
+        try {
+            context.startService(intent);
+        }
+        catch (IllegalStateException e) {
+            CRTOLog.e("Unable to start service", e);
+            settleTransactions(intent, false);
+        }
+        catch (SecurityException e) {
+            CRTOLog.e("Permission refused or service not found", e);
+            settleTransactions(intent, false);
+        }
+    }
+
+    /**
+     * Asks the service to send all waiting events before the given deadline.
+     * @param deadline time in milliseconds after which no request is started
+     * @param listener optional listener notified on the service thread once the flush is over
+     * @param context the Android context used to start the service
+     */
+    static void flush(long deadline, EventService.FlushListener listener, Context context) {
+        Intent intent = new Intent(context, EventSenderService.class);
+        intent.setAction(ACTION_FLUSH);
+        intent.putExtra("deadline", deadline);
+
+        int flushId = flushIds.incrementAndGet();
+        if (listener != null) {
+            flushListeners.put(flushId, listener);
+            intent.putExtra("flush_id", flushId);
+        }
 
         try {
             context.startService(intent);
         }
         catch (IllegalStateException e) {
             CRTOLog.e("Unable to start service", e);
+            flushListeners.remove(flushId);
         }
         catch (SecurityException e) {
             CRTOLog.e("Permission refused or service not found", e);
+            flushListeners.remove(flushId);
         }
     }
 }
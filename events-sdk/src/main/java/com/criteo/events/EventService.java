@@ -17,15 +17,19 @@ package com.criteo.events;
 
 import android.app.Activity;
 import android.content.Context;
+import android.os.Build;
 import android.util.Patterns;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
-import java.util.concurrent.Executor;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /**
@@ -37,14 +41,33 @@ import java.util.regex.Pattern;
  * @since v1.0
  */
 public class EventService {
+    /**
+     * Default time budget, in milliseconds, given to {@link #flush()} to deliver pending events.
+     * @since v1.2
+     */
+    public static final long DEFAULT_FLUSH_TIME_BUDGET = 5000;
+
+    // maximum number of held back events sent together in a single request
+    static final int MAX_PENDING_EVENTS = 20;
+
     private String country;
     private String language;
     private String customerId;
     private String email;
     private String accountName;
 
-    private Executor executor;
+    private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
     private JSONSerializer jsonSerializer = new JSONSerializer();
+    private final CommonPayload commonPayload = new CommonPayload(this);
+
+    // events held back by their send policy batching delay, only accessed from the executor thread
+    private final List<AsyncEventHandler> pendingEvents = new ArrayList<AsyncEventHandler>();
+    private ScheduledFuture<?> pendingEventsDispatch;
+    private volatile boolean deltaEnvelope = false;
+    private volatile boolean deferredSerialization = false;
+    private volatile boolean transactionDeduplication = false;
+    // coalescing window in milliseconds of each type of event, absent when disabled
+    private final ConcurrentHashMap<String, Long> coalescingWindows = new ConcurrentHashMap<String, Long>();
 
     static String sharedPrefs = "CriteoTracker";
     static Context context;
@@ -57,26 +80,205 @@ public class EventService {
      * the client's application, while keeping a strict control over the number of spawned threads.
      */
     private class AsyncEventHandler implements Runnable {
-        private JSONObject serializedEvent;
+        private byte[] serializedEvent;
+        // snapshot of the event when its serialization is deferred, null once serialized
+        private Event event;
         private long eventTimestamp;
+        private String eventType;
+        private String orderingKey;
+        // number of equivalent events merged into this one, and the event serialized without its timestamp
+        // to find them
+        private int repeatCount = 1;
+        private byte[] coalescingKey;
+        private int coalescingHash;
+        // ID of the transaction to deduplicate, null for other events or when deduplication is disabled
+        private String transactionId;
 
-        private AsyncEventHandler(JSONObject serializedEvent, long eventTimestamp) {
+        private AsyncEventHandler(byte[] serializedEvent, long eventTimestamp, String eventType, String orderingKey) {
             this.serializedEvent = serializedEvent;
             this.eventTimestamp = eventTimestamp;
+            this.eventType = eventType;
+            this.orderingKey = orderingKey;
+        }
+
+        private AsyncEventHandler(Event event, long eventTimestamp, String eventType, String orderingKey) {
+            this.event = event;
+            this.eventTimestamp = eventTimestamp;
+            this.eventType = eventType;
+            this.orderingKey = orderingKey;
+        }
+
+        /**
+         * Serializes the event snapshot on first use.
+         * @return the serialized event, or null if it could not be serialized
+         */
+        private byte[] getSerializedEvent() {
+            if (event != null) {
+                serializedEvent = jsonSerializer.serializeToJSON(event);
+                if (serializedEvent != null && repeatCount > 1) {
+                    serializedEvent = JSONSerializer.addRepeatCount(serializedEvent, repeatCount);
+                }
+                event = null;
+                coalescingKey = null;
+            }
+            return serializedEvent;
+        }
+
+        /**
+         * Serializes the event snapshot with a null timestamp, so that equivalent events sent at
+         * different times have the same key.
+         * @return false if the event is already serialized and cannot be coalesced
+         */
+        private boolean computeCoalescingKey() {
+            if (event == null) {
+                return false;
+            }
+            if (coalescingKey == null) {
+                event.setTimestampMillis(0);
+                coalescingKey = jsonSerializer.serializeToJSON(event);
+                event.setTimestampMillis(eventTimestamp);
+                if (coalescingKey == null) {
+                    return false;
+                }
+                coalescingHash = Arrays.hashCode(coalescingKey);
+            }
+            return true;
+        }
+
+        private boolean isEquivalent(AsyncEventHandler other) {
+            return coalescingKey != null && coalescingHash == other.coalescingHash
+                    && eventType.equals(other.eventType)
+                    && (orderingKey == null ? other.orderingKey == null : orderingKey.equals(other.orderingKey))
+                    && Arrays.equals(coalescingKey, other.coalescingKey);
+        }
+
+        /**
+         * Merges an equivalent event into this one, which keeps the latest timestamp.
+         */
+        private void merge(AsyncEventHandler other) {
+            repeatCount += other.repeatCount;
+            if (transactionId == null) {
+                transactionId = other.transactionId;
+            }
+            if (other.eventTimestamp > eventTimestamp) {
+                eventTimestamp = other.eventTimestamp;
+                event.setTimestampMillis(eventTimestamp);
+            }
         }
 
         @Override
         public void run() {
-            try {
-                JSONObject payload = JSONSerializer.commonPayload(EventService.this);
-                JSONSerializer.setPayloadEvent(payload, serializedEvent);
-                EventSenderService.sendEvent(payload.toString(), eventTimestamp, context);
-            } catch (JSONException e) {
-                CRTOLog.e("Error in JSON serialisation", e);
+            if (isDuplicateTransaction(this)) {
+                return;
+            }
+
+            SendPolicy sendPolicy = SendPolicyProfiles.INSTANCE.get(eventType, null);
+            long batchingDelay = sendPolicy != null ? sendPolicy.getBatchingDelay() : 0;
+            Long coalescingWindow = coalescingWindows.get(eventType);
+            if (coalescingWindow != null) {
+                if (coalesce(this, coalescingWindow)) {
+                    return;
+                }
+                // wait for the events it may be merged with
+                batchingDelay = Math.max(batchingDelay, coalescingWindow);
             }
+            if (batchingDelay > 0) {
+                holdEvent(this, batchingDelay);
+                return;
+            }
+
+            if (pendingEvents.isEmpty()) {
+                dispatchEvent(this);
+            } else {
+                // piggyback the held back events on this one
+                pendingEvents.add(this);
+                dispatchPendingEvents();
+            }
+        }
+    }
+
+    /**
+     * Hands the events sent together with {@link #sendAll(Collection)} over in one go. They are sent
+     * with the held back events, in requests of at most {@link #MAX_PENDING_EVENTS} events.
+     */
+    private class AsyncEventBatchHandler implements Runnable {
+        private List<AsyncEventHandler> eventHandlers;
+
+        private AsyncEventBatchHandler(List<AsyncEventHandler> eventHandlers) {
+            this.eventHandlers = eventHandlers;
+        }
+
+        @Override
+        public void run() {
+            for (AsyncEventHandler eventHandler : eventHandlers) {
+                if (isDuplicateTransaction(eventHandler)) {
+                    continue;
+                }
+                Long coalescingWindow = coalescingWindows.get(eventHandler.eventType);
+                if (coalescingWindow != null && coalesce(eventHandler, coalescingWindow)) {
+                    continue;
+                }
+                pendingEvents.add(eventHandler);
+                if (pendingEvents.size() >= MAX_PENDING_EVENTS) {
+                    dispatchPendingEvents();
+                }
+            }
+            dispatchPendingEvents();
         }
     }
 
+    /**
+     * Sends the events held back by their batching delay once it has elapsed.
+     */
+    private class AsyncPendingEventsHandler implements Runnable {
+        @Override
+        public void run() {
+            dispatchPendingEvents();
+        }
+    }
+
+    /**
+     * Hands the flush request over to the sender service. Running it on the executor guarantees that
+     * all the events sent before the flush have been passed to the sender service first.
+     */
+    private class AsyncFlushHandler implements Runnable {
+        private long deadline;
+        private FlushListener listener;
+
+        private AsyncFlushHandler(long deadline, FlushListener listener) {
+            this.deadline = deadline;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            dispatchPendingEvents();
+            EventSenderService.flush(deadline, listener, context);
+        }
+    }
+
+    /**
+     * Opens the transaction index file in the background, before the first transaction is sent.
+     */
+    private class AsyncTransactionIndexLoader implements Runnable {
+        @Override
+        public void run() {
+            TransactionIndex.get(context);
+        }
+    }
+
+    /**
+     * Interface definition for a callback to be invoked once a flush is over.
+     * @since v1.2
+     */
+    public interface FlushListener {
+        /**
+         * Called from a background thread when the flush is over.
+         * @param result the number of delivered, deferred and dropped events
+         */
+        void onFlushComplete(FlushResult result);
+    }
+
     /**
      * Accepted address email formats for the setEmail method.
      * @since v1.1
@@ -99,10 +301,11 @@ public class EventService {
      */
     public EventService(Context context) {
         EventService.context = context;
+        EventPool.setLeakDetection(context);
         country  = getDefaultCountry();
         language = getDefaultLanguage();
         accountName = getDefaultAccountName();
-        executor = Executors.newSingleThreadExecutor();
+        setFlushOnBackground(true);
     }
 
     /**
@@ -114,8 +317,10 @@ public class EventService {
      */
     public EventService(Context context, String country, String language) {
         EventService.context = context;
+        EventPool.setLeakDetection(context);
         this.country = country;
         this.language = language;
+        setFlushOnBackground(true);
     }
 
     /**
@@ -128,9 +333,11 @@ public class EventService {
      */
     public EventService(Context context, String country, String language, String customerId) {
         EventService.context = context;
+        EventPool.setLeakDetection(context);
         this.country = country;
         this.language = language;
         this.customerId = customerId;
+        setFlushOnBackground(true);
     }
 
     /**
@@ -169,9 +376,11 @@ public class EventService {
                     return;
                 }
                 this.email = EmailHasher.computeMd5Hash(email);
+                commonPayload.invalidateAlternateIds();
                 break;
             case HASHED_MD5:
                 this.email = email;
+                commonPayload.invalidateAlternateIds();
                 break;
             default:
                 CRTOLog.e("Argument type is not a valid email type");
@@ -193,6 +402,7 @@ public class EventService {
     public void setCountry(String country) {
         if(isCountryValid(country)){
             this.country = country;
+            commonPayload.invalidateAccount();
         } else {
             CRTOLog.e("Argument country must be valid ISO 3166-1 two-letter code");
         }
@@ -213,6 +423,7 @@ public class EventService {
     public void setLanguage(String language) {
         if(isLanguageValid(language)){
             this.language = language;
+            commonPayload.invalidateAccount();
         } else {
             CRTOLog.e("Argument language must be valid ISO 639-1 two-letter code");
         }
@@ -237,6 +448,7 @@ public class EventService {
             return;
         }
         this.customerId = customerId;
+        commonPayload.invalidateCustomerId();
     }
 
     /**
@@ -247,6 +459,7 @@ public class EventService {
      */
     public void setAccountName(String accountName) {
         this.accountName = accountName;
+        commonPayload.invalidateAccount();
     }
 
     /**
@@ -263,8 +476,8 @@ public class EventService {
      * @param event Event to send
      */
     public void send(AppLaunchEvent event) {
-        event.setTimestamp(new Date());
-        sendSerializedEvent(jsonSerializer.serializeToJSON(event), event.getTimestamp().getTime());
+        event.setTimestampMillis(System.currentTimeMillis());
+        sendEvent(event, EventKeys.APP_LAUNCH);
     }
 
     /**
@@ -272,8 +485,8 @@ public class EventService {
      * @param event Event to send
      */
     public void send(BasketViewEvent event) {
-        event.setTimestamp(new Date());
-        sendSerializedEvent(jsonSerializer.serializeToJSON(event), event.getTimestamp().getTime());
+        event.setTimestampMillis(System.currentTimeMillis());
+        sendEvent(event, EventKeys.BASKET_VIEW);
     }
 
     /**
@@ -281,8 +494,8 @@ public class EventService {
      * @param event Event to send
      */
     public void send(HomeViewEvent event) {
-        event.setTimestamp(new Date());
-        sendSerializedEvent(jsonSerializer.serializeToJSON(event), event.getTimestamp().getTime());
+        event.setTimestampMillis(System.currentTimeMillis());
+        sendEvent(event, EventKeys.HOME_VIEW);
     }
 
     /**
@@ -290,8 +503,8 @@ public class EventService {
      * @param event Event to send
      */
     public void send(ProductListViewEvent event) {
-        event.setTimestamp(new Date());
-        sendSerializedEvent(jsonSerializer.serializeToJSON(event), event.getTimestamp().getTime());
+        event.setTimestampMillis(System.currentTimeMillis());
+        sendEvent(event, EventKeys.PRODUCT_LIST_VIEW);
     }
 
     /**
@@ -299,8 +512,8 @@ public class EventService {
      * @param event Event to send
      */
     public void send(ProductViewEvent event) {
-        event.setTimestamp(new Date());
-        sendSerializedEvent(jsonSerializer.serializeToJSON(event), event.getTimestamp().getTime());
+        event.setTimestampMillis(System.currentTimeMillis());
+        sendEvent(event, EventKeys.PRODUCT_VIEW);
     }
 
     /**
@@ -308,8 +521,7 @@ public class EventService {
      * @param event Event to send
      */
     public void send(TransactionConfirmationEvent event) {
-        event.setTimestamp(new Date());
-        sendSerializedEvent(jsonSerializer.serializeToJSON(event), event.getTimestamp().getTime());
+        sendEvent(event, System.currentTimeMillis(), EventKeys.TRANSACTION_CONFIRMATION, getOrderingKey(event));
     }
 
     /**
@@ -317,8 +529,8 @@ public class EventService {
      * @param event Event to send
      */
     public void send(DataEvent event) {
-        event.setTimestamp(new Date());
-        sendSerializedEvent(jsonSerializer.serializeToJSON(event), event.getTimestamp().getTime());
+        event.setTimestampMillis(System.currentTimeMillis());
+        sendEvent(event, EventKeys.DATA_EVENT);
     }
 
     /**
@@ -326,8 +538,319 @@ public class EventService {
      * @param event Event to send
      */
     public void send(DeeplinkEvent event) {
-        event.setTimestamp(new Date());
-        sendSerializedEvent(jsonSerializer.serializeToJSON(event), event.getTimestamp().getTime());
+        event.setTimestampMillis(System.currentTimeMillis());
+        sendEvent(event, EventKeys.DEEPLINK_EVENT);
+    }
+
+    /**
+     * Send all the events of an EventBatch to Criteo
+     * @param batch Events to send
+     * @since v1.2
+     */
+    public void send(EventBatch batch) {
+        if (batch == null) {
+            CRTOLog.e("Argument batch must not be null");
+            return;
+        }
+        sendAll(batch.getEvents());
+    }
+
+    /**
+     * Send many events of any type to Criteo at once. The events are given the same timestamp,
+     * serialized in a single pass and sent in as few requests as possible.
+     * @param events Events to send
+     * @since v1.2
+     */
+    public void sendAll(Collection<? extends Event> events) {
+        if (events == null) {
+            CRTOLog.e("Argument events must not be null");
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        List<AsyncEventHandler> eventHandlers = new ArrayList<AsyncEventHandler>(events.size());
+        for (Event event : events) {
+            if (event == null) {
+                CRTOLog.e("Events to send must not be null");
+                continue;
+            }
+            if (event.isRecycled()) {
+                CRTOLog.e("Recycled events must not be sent, obtain a new one instead");
+                continue;
+            }
+
+            try {
+                AsyncEventHandler eventHandler = newEventHandler(event, now, getEventType(event), getOrderingKey(event));
+                if (eventHandler != null) {
+                    eventHandlers.add(eventHandler);
+                }
+            } finally {
+                event.onSent();
+            }
+        }
+        if (!eventHandlers.isEmpty()) {
+            executor.execute(new AsyncEventBatchHandler(eventHandlers));
+        }
+    }
+
+    /**
+     * Sends all pending events to Criteo, within the {@link #DEFAULT_FLUSH_TIME_BUDGET default time budget}.
+     * This is done automatically when the application goes to background, unless disabled with
+     * {@link #setFlushOnBackground(boolean)}.
+     * @since v1.2
+     */
+    public void flush() {
+        flush(DEFAULT_FLUSH_TIME_BUDGET, null);
+    }
+
+    /**
+     * Sends all pending events to Criteo, grouping them into as few requests as possible.
+     * No request is started once the time budget is spent, and the remaining events are kept
+     * to be sent later.
+     * @param timeBudget maximum time in milliseconds allowed for the flush
+     * @param listener optional listener notified with the number of delivered and deferred events
+     * @since v1.2
+     */
+    public void flush(long timeBudget, FlushListener listener) {
+        long deadline = System.currentTimeMillis() + timeBudget;
+        executor.execute(new AsyncFlushHandler(deadline, listener));
+    }
+
+    /**
+     * Enables or disables the automatic flush of pending events when the application goes to background.
+     * It is enabled by default, and requires Android 4.0 (API 14) or higher.
+     * @param enabled true to flush when the application goes to background
+     * @since v1.2
+     */
+    public void setFlushOnBackground(boolean enabled) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
+        }
+
+        if (!enabled) {
+            BackgroundFlushTrigger.INSTANCE.remove(this);
+        } else if (context != null && context.getApplicationContext() != null) {
+            BackgroundFlushTrigger.INSTANCE.add(this, context.getApplicationContext());
+        }
+    }
+
+    /**
+     * Enables or disables the send policy presets, which adapt the sending of each type of event to its value:
+     * <ul>
+     *     <li>a TransactionConfirmationEvent is retried for 24 hours, up to 20 times, and is the last event
+     *     evicted when too many events are waiting to be sent</li>
+     *     <li>a ProductViewEvent or ProductListViewEvent expires after 5 minutes, is the first event evicted,
+     *     and is held back for up to 10 seconds to be sent along with the next events</li>
+     * </ul>
+     * Without the presets, every event is retried for 1 hour, up to 3 times, and sent right away.
+     * They are disabled by default.
+     * @param enabled true to apply the presets, false to use the same policy for every event
+     * @since v1.2
+     */
+    public void setSendPolicyPresets(boolean enabled) {
+        if (enabled) {
+            SendPolicyProfiles.INSTANCE.applyPresets();
+        } else {
+            SendPolicyProfiles.INSTANCE.reset();
+        }
+    }
+
+    /**
+     * Enables or disables deadline ordering of pending events. When enabled, the events waiting
+     * to be sent, for instance after a network outage, are sent by order of expiration instead of
+     * by order of creation, so that fewer of them expire before their turn.
+     * It is disabled by default.
+     * @param enabled true to send the events closest to their expiration first
+     * @since v1.2
+     */
+    public void setDeadlineOrdering(boolean enabled) {
+        EventSenderService.deadlineOrdering = enabled;
+    }
+
+    /**
+     * Sets the number of requests sent concurrently when a backlog of events has to be sent, for
+     * instance after a network outage. Events of the same transaction are always sent in order.
+     * Defaults to 1, meaning that events are sent one at a time.
+     * @param laneCount number of concurrent requests, from 1 to 8
+     * @since v1.2
+     */
+    public void setSenderLaneCount(int laneCount) {
+        if (laneCount < 1 || laneCount > SenderLanes.MAX_LANES) {
+            CRTOLog.e("Argument laneCount must be between 1 and " + SenderLanes.MAX_LANES);
+            return;
+        }
+        EventSenderService.laneCount = laneCount;
+    }
+
+    /**
+     * Sets the limits of the requests sent to Criteo, so that an application sending events in a loop
+     * cannot flood the network. Events over the limits are held back, and sent as soon as the limits allow.
+     * There are no limits by default.
+     * @param maxRequestsPerSecond sustained number of requests per second
+     * @param maxRequestBurst number of requests that can be sent at once
+     * @param maxBytesPerMinute number of bytes of events sent per minute, encoded in UTF-8
+     * @since v1.2
+     */
+    public void setRateLimits(long maxRequestsPerSecond, long maxRequestBurst, long maxBytesPerMinute) {
+        if (!areRateLimitsValid(maxRequestsPerSecond, maxRequestBurst, maxBytesPerMinute)) {
+            return;
+        }
+        EventSenderService.rateLimiter.setLimits(maxRequestsPerSecond, maxRequestBurst, maxBytesPerMinute);
+    }
+
+    /**
+     * Sets stricter limits for the requests holding a single type of event, which apply on top of the
+     * limits set by {@link #setRateLimits(long, long, long)}. There are none by default.
+     * @param eventClass the class of the events to limit, such as ProductViewEvent.class
+     * @param maxRequestsPerSecond sustained number of requests per second
+     * @param maxRequestBurst number of requests that can be sent at once
+     * @param maxBytesPerMinute number of bytes of events sent per minute, encoded in UTF-8
+     * @since v1.2
+     */
+    public void setRateLimits(Class<? extends Event> eventClass, long maxRequestsPerSecond, long maxRequestBurst,
+                              long maxBytesPerMinute) {
+        String eventType = SendPolicyProfiles.getEventType(eventClass);
+        if (eventType == null) {
+            CRTOLog.e("Argument eventClass must be the class of an event sent by EventService");
+            return;
+        }
+        if (!areRateLimitsValid(maxRequestsPerSecond, maxRequestBurst, maxBytesPerMinute)) {
+            return;
+        }
+        EventSenderService.rateLimiter.setLimits(eventType, maxRequestsPerSecond, maxRequestBurst, maxBytesPerMinute);
+    }
+
+    /**
+     * Removes the limits set by {@link #setRateLimits(long, long, long)} and
+     * {@link #setRateLimits(Class, long, long, long)}, so that events are sent without limits again.
+     * @since v1.2
+     */
+    public void clearRateLimits() {
+        EventSenderService.rateLimiter.clearLimits();
+    }
+
+    /**
+     * Enables or disables the CBOR encoding of events, a binary format smaller and faster to parse
+     * than JSON. The format is announced in the Content-Type header of the requests, and events are
+     * sent as JSON again if the server does not support it.
+     * It is disabled by default.
+     * @param enabled true to send the events encoded to CBOR
+     * @since v1.2
+     */
+    public void setCborEncoding(boolean enabled) {
+        EventPoster.cborEncoding = enabled;
+    }
+
+    /**
+     * Enables or disables the compression of events with a dictionary of the keys and values found
+     * in every request, which makes requests holding a single event several times smaller.
+     * Events are sent uncompressed again if the server does not support it.
+     * It is disabled by default.
+     * @param enabled true to send the events compressed
+     * @since v1.2
+     */
+    public void setDictionaryCompression(boolean enabled) {
+        EventPoster.dictionaryCompression = enabled;
+    }
+
+    /**
+     * Enables or disables the delta envelope for events sent together in a single request, such as
+     * product views. Each event then only holds what changed since the previous one: its timestamp
+     * is sent as a difference, and the fields equal to the ones of the previous event are left out.
+     * While it is enabled, the keys of the envelope, "envelope", "tsd" and "same", cannot be used as
+     * extra data keys.
+     * It is disabled by default.
+     * @param enabled true to send batched events in the delta envelope
+     * @since v1.2
+     */
+    public synchronized void setDeltaEnvelope(boolean enabled) {
+        if (deltaEnvelope != enabled) {
+            deltaEnvelope = enabled;
+            EventKeys.reserveDeltaEnvelopeKeys(enabled);
+        }
+    }
+
+    /**
+     * Enables or disables deferred serialization. When enabled, sending an event only takes a copy
+     * of it, and the copy is serialized later in the background, right before the request holding
+     * it is built. This keeps the calling thread free of any serialization work, and events that
+     * expire while held back by their send policy are never serialized at all.
+     * It is disabled by default.
+     * @param enabled true to serialize the events in the background
+     * @since v1.2
+     */
+    public void setDeferredSerialization(boolean enabled) {
+        deferredSerialization = enabled;
+    }
+
+    /**
+     * Enables or disables the deduplication of transactions. The IDs of the transactions delivered are kept
+     * on the device, and a TransactionConfirmationEvent with the ID of a transaction already delivered or
+     * being sent, for instance by a screen created again, is not sent. A transaction that could not be
+     * delivered can be sent again. While it is enabled, send() only takes a copy of a transaction, which is
+     * timestamped and serialized in the background once known not to be a duplicate.
+     * Between the last 50000 and 100000 IDs are remembered,
+     * and a new transaction is mistaken for one already sent with a probability below 0.1%.
+     * It is disabled by default, leaving the deduplication to Criteo.
+     * @param enabled true to suppress the transactions already sent
+     * @since v1.2
+     */
+    public void setTransactionDeduplication(boolean enabled) {
+        transactionDeduplication = enabled;
+        if (enabled) {
+            executor.execute(new AsyncTransactionIndexLoader());
+        }
+    }
+
+    /**
+     * Enables or disables the coalescing of repeated events of a type. An event equivalent to one sent
+     * less than the window before, such as a view of the same product with the same currency, dates and
+     * extra data, is merged into it instead of being sent again. The merged event is sent once, with the
+     * latest timestamp and the number of times it was sent. Events of a coalesced type are held back
+     * for up to the window, so that the following ones can be merged.
+     * While a type of event is coalesced, "repeat_count" cannot be used as an extra data key.
+     * It is disabled by default for every type of event.
+     * @param eventClass the class of the events to coalesce, such as ProductViewEvent.class
+     * @param window time in milliseconds within which equivalent events are merged, or 0 to disable coalescing
+     * @since v1.2
+     */
+    public synchronized void setCoalescingWindow(Class<? extends Event> eventClass, long window) {
+        String eventType = SendPolicyProfiles.getEventType(eventClass);
+        if (eventType == null) {
+            CRTOLog.e("Argument eventClass must be the class of an event sent by EventService");
+            return;
+        }
+        if (window < 0) {
+            CRTOLog.e("Argument window must be greater than or equal to zero");
+            return;
+        }
+        boolean wasCoalescing = !coalescingWindows.isEmpty();
+        if (window == 0) {
+            coalescingWindows.remove(eventType);
+        } else {
+            coalescingWindows.put(eventType, window);
+        }
+        if (wasCoalescing == coalescingWindows.isEmpty()) {
+            EventKeys.reserveCoalescingKeys(!wasCoalescing);
+        }
+    }
+
+    /**
+     * Enables or disables the compact schema, in which the keys repeated in every request, such as
+     * device_manufacturer or limit_ad_tracking, are replaced by short names. Payloads in the compact
+     * schema are announced by their version field, and are sent in the verbose schema again if the
+     * server does not support it. This makes requests smaller when they are not compressed.
+     * While it is enabled, the short names, such as "lat" or "os", cannot be used as extra data keys.
+     * It is disabled by default.
+     * @param enabled true to send the events in the compact schema
+     * @since v1.2
+     */
+    public void setCompactKeys(boolean enabled) {
+        EventPoster.compactKeys = enabled;
+    }
+
+    CommonPayload getCommonPayload() {
+        return commonPayload;
     }
 
     private static String getDefaultCountry() {
@@ -358,11 +881,269 @@ public class EventService {
         return valid;
     }
 
-    private void sendSerializedEvent(JSONObject serializedEvent, long eventTimestamp) {
+    private static boolean areRateLimitsValid(long maxRequestsPerSecond, long maxRequestBurst, long maxBytesPerMinute) {
+        if (maxRequestsPerSecond <= 0 || maxRequestBurst <= 0 || maxBytesPerMinute <= 0) {
+            CRTOLog.e("Arguments maxRequestsPerSecond, maxRequestBurst and maxBytesPerMinute must be greater than zero");
+            return false;
+        }
+        return true;
+    }
+
+    private void holdEvent(AsyncEventHandler eventHandler, long batchingDelay) {
+        pendingEvents.add(eventHandler);
+        if (pendingEvents.size() >= MAX_PENDING_EVENTS) {
+            dispatchPendingEvents();
+        } else if (pendingEventsDispatch == null) {
+            pendingEventsDispatch = executor.schedule(new AsyncPendingEventsHandler(), batchingDelay,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Merges an event into an equivalent held back event, sent less than the coalescing window before.
+     * @return true if the event was merged, false if it must be sent
+     */
+    private boolean coalesce(AsyncEventHandler eventHandler, long coalescingWindow) {
+        if (!eventHandler.computeCoalescingKey()) {
+            return false;
+        }
+        for (AsyncEventHandler pendingEvent : pendingEvents) {
+            if (pendingEvent.isEquivalent(eventHandler)
+                    && Math.abs(eventHandler.eventTimestamp - pendingEvent.eventTimestamp) <= coalescingWindow) {
+                pendingEvent.merge(eventHandler);
+                SenderMetrics.INSTANCE.coalescedEvents.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dispatchEvent(AsyncEventHandler eventHandler) {
+        byte[] serializedEvent = eventHandler.getSerializedEvent();
         if (serializedEvent == null) {
+            releaseTransaction(eventHandler);
+            return;
+        }
+
+        String payload = JSONSerializer.buildPayload(this, Collections.singletonList(serializedEvent));
+        String[] transactionIds = eventHandler.transactionId != null ? new String[] { eventHandler.transactionId } : null;
+        EventSenderService.sendEvent(payload, eventHandler.eventTimestamp, eventHandler.eventType,
+                eventHandler.orderingKey, transactionIds, context);
+    }
+
+    /**
+     * Sends all the held back events in a single request. The request is given the type and timestamp
+     * of its most important event, so that it is retried and expired according to that event's policy.
+     * Events that expired while held back are dropped, before their serialization when it is deferred.
+     */
+    private void dispatchPendingEvents() {
+        if (pendingEventsDispatch != null) {
+            pendingEventsDispatch.cancel(false);
+            pendingEventsDispatch = null;
+        }
+        if (pendingEvents.isEmpty()) {
+            return;
+        }
+
+        List<byte[]> serializedEvents = new ArrayList<byte[]>(pendingEvents.size());
+        List<String> transactionIds = new ArrayList<String>();
+        AsyncEventHandler mainEvent = null;
+        int mainPriority = -1;
+        long now = System.currentTimeMillis();
+        for (AsyncEventHandler eventHandler : pendingEvents) {
+            SendPolicy sendPolicy = SendPolicyProfiles.INSTANCE.get(eventHandler.eventType, null);
+            if (sendPolicy != null && sendPolicy.isEventExpired(eventHandler.eventTimestamp, now)) {
+                SenderMetrics.INSTANCE.droppedEvents.incrementAndGet();
+                releaseTransaction(eventHandler);
+                continue;
+            }
+            byte[] serializedEvent = eventHandler.getSerializedEvent();
+            if (serializedEvent == null) {
+                releaseTransaction(eventHandler);
+                continue;
+            }
+
+            serializedEvents.add(serializedEvent);
+            if (eventHandler.transactionId != null) {
+                transactionIds.add(eventHandler.transactionId);
+            }
+            int priority = sendPolicy != null ? sendPolicy.getPriority() : SendPolicy.PRIORITY_NORMAL;
+            if (priority > mainPriority) {
+                mainEvent = eventHandler;
+                mainPriority = priority;
+            }
+        }
+        pendingEvents.clear();
+        if (serializedEvents.isEmpty()) {
             return;
         }
 
-        executor.execute(new AsyncEventHandler(serializedEvent, eventTimestamp));
+        String payload = deltaEnvelope && serializedEvents.size() > 1
+                ? JSONSerializer.buildDeltaPayload(this, serializedEvents)
+                : JSONSerializer.buildPayload(this, serializedEvents);
+        EventSenderService.sendEvent(payload, mainEvent.eventTimestamp, mainEvent.eventType, mainEvent.orderingKey,
+                transactionIds.isEmpty() ? null : transactionIds.toArray(new String[transactionIds.size()]), context);
+    }
+
+    private void sendEvent(Event event, String eventType) {
+        sendEvent(event, eventType, null);
+    }
+
+    /**
+     * Serializes the event right away, or hands a copy of it to the executor when its serialization
+     * is deferred. Either way, the event is no longer read once this returns, so an event obtained
+     * from a pool goes back to it.
+     * @param orderingKey key shared by the events that must reach the server in order, or null
+     */
+    private void sendEvent(Event event, String eventType, String orderingKey) {
+        sendEvent(event, event.getTimestampMillis(), eventType, orderingKey);
+    }
+
+    /**
+     * @param eventTimestamp time at which the event is sent, set on the event or on its copy
+     */
+    private void sendEvent(Event event, long eventTimestamp, String eventType, String orderingKey) {
+        if (event.isRecycled()) {
+            CRTOLog.e("Recycled events must not be sent, obtain a new one instead");
+            return;
+        }
+
+        try {
+            AsyncEventHandler eventHandler = newEventHandler(event, eventTimestamp, eventType, orderingKey);
+            if (eventHandler != null) {
+                executor.execute(eventHandler);
+            }
+        } finally {
+            event.onSent();
+        }
+    }
+
+    /**
+     * @param eventTimestamp time at which the event is sent
+     * @return a handler holding the serialized event, or a copy of it when its serialization is deferred,
+     * or null if the event could not be serialized
+     */
+    private AsyncEventHandler newEventHandler(Event event, long eventTimestamp, String eventType, String orderingKey) {
+        // a transaction to deduplicate is copied as is, and only timestamped and serialized on the executor
+        // once its ID is known not to be a duplicate
+        String transactionId = null;
+        if (transactionDeduplication && event instanceof TransactionConfirmationEvent) {
+            transactionId = ((TransactionConfirmationEvent) event).getTransactionId();
+        }
+
+        // coalesced events are kept unserialized, to be given the timestamp of the last equivalent event
+        AsyncEventHandler eventHandler = null;
+        if (transactionId != null || deferredSerialization || coalescingWindows.containsKey(eventType)) {
+            if (transactionId == null) {
+                event.setTimestampMillis(eventTimestamp);
+            }
+            Event snapshot = copyEvent(event);
+            if (snapshot != null) {
+                eventHandler = new AsyncEventHandler(snapshot, eventTimestamp, eventType, orderingKey);
+            }
+        }
+
+        if (eventHandler == null) {
+            event.setTimestampMillis(eventTimestamp);
+            byte[] serializedEvent = jsonSerializer.serializeToJSON(event);
+            if (serializedEvent == null) {
+                return null;
+            }
+            eventHandler = new AsyncEventHandler(serializedEvent, eventTimestamp, eventType, orderingKey);
+        }
+
+        eventHandler.transactionId = transactionId;
+        return eventHandler;
+    }
+
+    /**
+     * @return the type under which the event is sent, or null if the event type is unknown
+     */
+    static String getEventType(Event event) {
+        if (event instanceof AppLaunchEvent) {
+            return EventKeys.APP_LAUNCH;
+        } else if (event instanceof BasketViewEvent) {
+            return EventKeys.BASKET_VIEW;
+        } else if (event instanceof HomeViewEvent) {
+            return EventKeys.HOME_VIEW;
+        } else if (event instanceof ProductListViewEvent) {
+            return EventKeys.PRODUCT_LIST_VIEW;
+        } else if (event instanceof ProductViewEvent) {
+            return EventKeys.PRODUCT_VIEW;
+        } else if (event instanceof TransactionConfirmationEvent) {
+            return EventKeys.TRANSACTION_CONFIRMATION;
+        } else if (event instanceof DataEvent) {
+            return EventKeys.DATA_EVENT;
+        } else if (event instanceof DeeplinkEvent) {
+            return EventKeys.DEEPLINK_EVENT;
+        }
+        return null;
+    }
+
+    /**
+     * Reserves the ID of a transaction to deduplicate, on the executor thread as it may open the index file.
+     * The ID is recorded by the sender service once the event is delivered, or released if it is dropped.
+     * A transaction that is not a duplicate is then given its timestamp.
+     * @return true if a transaction with the same ID was already sent or is being sent, so that the event
+     * must not be sent
+     */
+    private boolean isDuplicateTransaction(AsyncEventHandler eventHandler) {
+        if (eventHandler.transactionId == null) {
+            return false;
+        }
+        if (TransactionIndex.get(context).reserve(eventHandler.transactionId)) {
+            CRTOLog.w("Transaction " + eventHandler.transactionId + " was already sent");
+            return true;
+        }
+        if (eventHandler.event != null) {
+            eventHandler.event.setTimestampMillis(eventHandler.eventTimestamp);
+        }
+        return false;
+    }
+
+    /**
+     * Releases the ID of a transaction dropped before being handed to the sender service.
+     */
+    private void releaseTransaction(AsyncEventHandler eventHandler) {
+        if (eventHandler.transactionId != null) {
+            TransactionIndex.get(context).release(eventHandler.transactionId);
+        }
+    }
+
+    /**
+     * @return the key shared by the events that must reach the server in order, or null
+     */
+    private static String getOrderingKey(Event event) {
+        // the events of a transaction must reach the server in order
+        if (event instanceof TransactionConfirmationEvent) {
+            String transactionId = ((TransactionConfirmationEvent) event).getTransactionId();
+            return transactionId != null ? EventKeys.TRANSACTION_CONFIRMATION + ":" + transactionId : null;
+        }
+        return null;
+    }
+
+    /**
+     * @return a copy of the event that later changes made by the application cannot affect,
+     * or null if the event type has no copy constructor
+     */
+    static Event copyEvent(Event event) {
+        if (event instanceof AppLaunchEvent) {
+            return new AppLaunchEvent((AppLaunchEvent) event);
+        } else if (event instanceof BasketViewEvent) {
+            return new BasketViewEvent((BasketViewEvent) event);
+        } else if (event instanceof HomeViewEvent) {
+            return new HomeViewEvent((HomeViewEvent) event);
+        } else if (event instanceof ProductListViewEvent) {
+            return new ProductListViewEvent((ProductListViewEvent) event);
+        } else if (event instanceof ProductViewEvent) {
+            return new ProductViewEvent((ProductViewEvent) event);
+        } else if (event instanceof TransactionConfirmationEvent) {
+            return new TransactionConfirmationEvent((TransactionConfirmationEvent) event);
+        } else if (event instanceof DataEvent) {
+            return new DataEvent((DataEvent) event);
+        } else if (event instanceof DeeplinkEvent) {
+            return new DeeplinkEvent((DeeplinkEvent) event);
+        }
+        return null;
     }
 }
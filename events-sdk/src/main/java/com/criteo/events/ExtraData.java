@@ -23,13 +23,19 @@ class ExtraData {
         Float,
         Date,
         Int,
-        String
+        String,
+        Long,
+        Double,
+        Boolean
     }
 
     private ExtraDataType valueType;
 
     private float floatValue;
     private int intValue;
+    private long longValue;
+    private double doubleValue;
+    private boolean booleanValue;
     private GregorianCalendar dateValue;
     private String stringValue;
 
@@ -43,6 +49,21 @@ class ExtraData {
         intValue = value;
     }
 
+    public ExtraData(long value) {
+        valueType = ExtraDataType.Long;
+        longValue = value;
+    }
+
+    public ExtraData(double value) {
+        valueType = ExtraDataType.Double;
+        doubleValue = value;
+    }
+
+    public ExtraData(boolean value) {
+        valueType = ExtraDataType.Boolean;
+        booleanValue = value;
+    }
+
     public ExtraData(GregorianCalendar value) {
         valueType = ExtraDataType.Date;
         dateValue = value;
@@ -71,6 +92,15 @@ class ExtraData {
             case String:
                 return getStringValue();
 
+            case Long:
+                return getLongValue();
+
+            case Double:
+                return getDoubleValue();
+
+            case Boolean:
+                return getBooleanValue();
+
             default:
                 return null;
         }
@@ -96,6 +126,36 @@ class ExtraData {
         return intValue;
     }
 
+    public long getLongValue() {
+        if (valueType != ExtraDataType.Long ) {
+            String error = String.format("Attempt to retrieve long value from %s ExtraData instance", valueType);
+            CRTOLog.e(error);
+            return 0;
+        }
+
+        return longValue;
+    }
+
+    public double getDoubleValue() {
+        if (valueType != ExtraDataType.Double ) {
+            String error = String.format("Attempt to retrieve double value from %s ExtraData instance", valueType);
+            CRTOLog.e(error);
+            return 0;
+        }
+
+        return doubleValue;
+    }
+
+    public boolean getBooleanValue() {
+        if (valueType != ExtraDataType.Boolean ) {
+            String error = String.format("Attempt to retrieve boolean value from %s ExtraData instance", valueType);
+            CRTOLog.e(error);
+            return false;
+        }
+
+        return booleanValue;
+    }
+
     public GregorianCalendar getDateValue() {
         if (valueType != ExtraDataType.Date ) {
             String error = String.format("Attempt to retrieve Date value from %s ExtraData instance", valueType);
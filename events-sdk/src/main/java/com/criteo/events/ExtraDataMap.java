@@ -0,0 +1,357 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import com.criteo.events.ExtraData.ExtraDataType;
+
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Extra data of an event, stored without an {@link ExtraData} object per entry nor boxing.
+ * Events hold a handful of entries, kept in insertion order in parallel arrays: numbers, booleans
+ * and dates, as days since the epoch, as raw bits in a long slot, strings in an object slot, and
+ * their type in a tag array. Entries are found by key through a small open-addressed table.
+ *
+ * This class is thread safe. Callers reading entries by index with {@link #keyAt(int)} and the
+ * other indexed accessors must hold the lock of the map, so that entries do not move meanwhile.
+ */
+final class ExtraDataMap {
+    private static final int MIN_CAPACITY = 4;
+
+    private static final String[] NO_KEYS = new String[0];
+    private static final ExtraDataType[] NO_TYPES = new ExtraDataType[0];
+    private static final long[] NO_BITS = new long[0];
+    private static final Object[] NO_OBJECTS = new Object[0];
+    private static final int[] NO_SLOTS = new int[0];
+
+    // most events have no extra data, so the arrays are only allocated by the first entry
+    private String[] keys = NO_KEYS;
+    private ExtraDataType[] types = NO_TYPES;
+    private long[] bits = NO_BITS;
+    private Object[] objects = NO_OBJECTS;
+    private int size;
+
+    // index + 1 of the entry of each key, by key hash with linear probing, 0 for an empty slot
+    private int[] slots = NO_SLOTS;
+
+    ExtraDataMap() {
+    }
+
+    ExtraDataMap(ExtraDataMap map) {
+        synchronized (map) {
+            size = map.size;
+            if (size > 0) {
+                keys = Arrays.copyOf(map.keys, size);
+                types = Arrays.copyOf(map.types, size);
+                bits = Arrays.copyOf(map.bits, size);
+                objects = Arrays.copyOf(map.objects, size);
+                rehash(size);
+            }
+        }
+    }
+
+    void putFloat(String key, float value) {
+        put(key, ExtraDataType.Float, Float.floatToRawIntBits(value), null);
+    }
+
+    void putInt(String key, int value) {
+        put(key, ExtraDataType.Int, value, null);
+    }
+
+    void putLong(String key, long value) {
+        put(key, ExtraDataType.Long, value, null);
+    }
+
+    void putDouble(String key, double value) {
+        put(key, ExtraDataType.Double, Double.doubleToRawLongBits(value), null);
+    }
+
+    void putBoolean(String key, boolean value) {
+        put(key, ExtraDataType.Boolean, value ? 1 : 0, null);
+    }
+
+    void putString(String key, String value) {
+        put(key, ExtraDataType.String, 0, value);
+    }
+
+    /**
+     * Stores the day of a calendar, as a number of days since the epoch.
+     */
+    void putDate(String key, GregorianCalendar value) {
+        putDay(key, TimestampFormatter.epochDay(value));
+    }
+
+    void putDay(String key, int epochDay) {
+        put(key, ExtraDataType.Date, epochDay, null);
+    }
+
+    private synchronized void put(String key, ExtraDataType type, long valueBits, Object value) {
+        int index = indexOf(key);
+        if (index < 0) {
+            if (size == keys.length) {
+                grow();
+            }
+            index = size++;
+            keys[index] = key;
+            insert(index);
+        }
+        types[index] = type;
+        bits[index] = valueBits;
+        objects[index] = value;
+    }
+
+    /**
+     * Removes all the entries, keeping the arrays for the next ones.
+     */
+    synchronized void clear() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(objects, 0, size, null);
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    synchronized boolean contains(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Returns the type of the value of a key, or null if there is none.
+     */
+    synchronized ExtraDataType getType(String key) {
+        int index = indexOf(key);
+        return index >= 0 ? types[index] : null;
+    }
+
+    synchronized float getFloat(String key) {
+        int index = indexOf(key, ExtraDataType.Float);
+        return index >= 0 ? floatAt(index) : 0;
+    }
+
+    synchronized int getInt(String key) {
+        int index = indexOf(key, ExtraDataType.Int);
+        return index >= 0 ? intAt(index) : 0;
+    }
+
+    synchronized long getLong(String key) {
+        int index = indexOf(key, ExtraDataType.Long);
+        return index >= 0 ? longAt(index) : 0;
+    }
+
+    synchronized double getDouble(String key) {
+        int index = indexOf(key, ExtraDataType.Double);
+        return index >= 0 ? doubleAt(index) : 0;
+    }
+
+    synchronized boolean getBoolean(String key) {
+        int index = indexOf(key, ExtraDataType.Boolean);
+        return index >= 0 && booleanAt(index);
+    }
+
+    synchronized String getString(String key) {
+        int index = indexOf(key, ExtraDataType.String);
+        return index >= 0 ? stringAt(index) : null;
+    }
+
+    /**
+     * Returns a new calendar at midnight of a date, in the default time zone, or null if there is none.
+     */
+    synchronized GregorianCalendar getDate(String key) {
+        int index = indexOf(key, ExtraDataType.Date);
+        return index >= 0 ? dateAt(index) : null;
+    }
+
+    /**
+     * Returns the entry of a key as an {@link ExtraData}, or null if there is none.
+     */
+    synchronized ExtraData get(String key) {
+        int index = indexOf(key);
+        return index >= 0 ? entryAt(index) : null;
+    }
+
+    /**
+     * Copies the entries to a map of {@link ExtraData}, in insertion order.
+     */
+    synchronized Map<String, ExtraData> toMap() {
+        Map<String, ExtraData> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(keys[i], entryAt(i));
+        }
+        return map;
+    }
+
+    // Indexed accessors, from 0 to size() - 1 in insertion order, to be called with the lock held
+
+    int size() {
+        return size;
+    }
+
+    String keyAt(int index) {
+        return keys[index];
+    }
+
+    ExtraDataType typeAt(int index) {
+        return types[index];
+    }
+
+    float floatAt(int index) {
+        return Float.intBitsToFloat((int) bits[index]);
+    }
+
+    int intAt(int index) {
+        return (int) bits[index];
+    }
+
+    long longAt(int index) {
+        return bits[index];
+    }
+
+    double doubleAt(int index) {
+        return Double.longBitsToDouble(bits[index]);
+    }
+
+    boolean booleanAt(int index) {
+        return bits[index] != 0;
+    }
+
+    String stringAt(int index) {
+        return (String) objects[index];
+    }
+
+    int dayAt(int index) {
+        return (int) bits[index];
+    }
+
+    GregorianCalendar dateAt(int index) {
+        return TimestampFormatter.toCalendar(dayAt(index));
+    }
+
+    private ExtraData entryAt(int index) {
+        switch (types[index]) {
+            case Float:
+                return new ExtraData(floatAt(index));
+            case Int:
+                return new ExtraData(intAt(index));
+            case Long:
+                return new ExtraData(longAt(index));
+            case Double:
+                return new ExtraData(doubleAt(index));
+            case Boolean:
+                return new ExtraData(booleanAt(index));
+            case String:
+                return new ExtraData(stringAt(index));
+            default:
+                return new ExtraData(dateAt(index));
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(keys[i]).append('=');
+            switch (types[i]) {
+                case Float:
+                    builder.append(floatAt(i));
+                    break;
+                case Int:
+                    builder.append(intAt(i));
+                    break;
+                case Long:
+                    builder.append(longAt(i));
+                    break;
+                case Double:
+                    builder.append(doubleAt(i));
+                    break;
+                case Boolean:
+                    builder.append(booleanAt(i));
+                    break;
+                case String:
+                    builder.append(stringAt(i));
+                    break;
+                case Date:
+                    builder.append(dateAt(i).getTime());
+                    break;
+            }
+        }
+        return builder.append('}').toString();
+    }
+
+    private int indexOf(String key, ExtraDataType type) {
+        int index = indexOf(key);
+        if (index >= 0 && types[index] != type) {
+            CRTOLog.e(String.format("Attempt to retrieve %s value from %s ExtraData instance", type, types[index]));
+            return -1;
+        }
+        return index;
+    }
+
+    private int indexOf(String key) {
+        if (size == 0) {
+            return -1;
+        }
+        int mask = slots.length - 1;
+        for (int slot = hash(key) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (keys[index].equals(key)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(int index) {
+        int mask = slots.length - 1;
+        int slot = hash(keys[index]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+    }
+
+    private void grow() {
+        int capacity = Math.max(MIN_CAPACITY, keys.length * 2);
+        keys = Arrays.copyOf(keys, capacity);
+        types = Arrays.copyOf(types, capacity);
+        bits = Arrays.copyOf(bits, capacity);
+        objects = Arrays.copyOf(objects, capacity);
+        rehash(capacity);
+    }
+
+    /**
+     * Rebuilds the table for the given number of entries, keeping it at most half full.
+     */
+    private void rehash(int capacity) {
+        // twice the smallest power of two holding all the entries
+        slots = new int[Integer.highestOneBit(capacity * 2 - 1) * 2];
+        for (int i = 0; i < size; i++) {
+            insert(i);
+        }
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+/**
+ * The FlushResult class reports the outcome of a call to {@link EventService#flush(long, EventService.FlushListener)}.
+ * Events are either delivered to Criteo, deferred to a later attempt because the time budget ran out
+ * or the network was unavailable, or dropped because they expired or could not be sent.
+ * @since v1.2
+ */
+public final class FlushResult {
+    private final int deliveredCount;
+    private final int deferredCount;
+    private final int droppedCount;
+
+    FlushResult(int deliveredCount, int deferredCount, int droppedCount) {
+        this.deliveredCount = deliveredCount;
+        this.deferredCount = deferredCount;
+        this.droppedCount = droppedCount;
+    }
+
+    /**
+     * Gets the number of events delivered to Criteo during the flush.
+     * @return the number of delivered events
+     */
+    public int getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * Gets the number of events still waiting to be sent after the flush.
+     * @return the number of deferred events
+     */
+    public int getDeferredCount() {
+        return deferredCount;
+    }
+
+    /**
+     * Gets the number of events discarded during the flush.
+     * @return the number of dropped events
+     */
+    public int getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("delivered: %d, deferred: %d, dropped: %d", deliveredCount, deferredCount, droppedCount);
+    }
+}
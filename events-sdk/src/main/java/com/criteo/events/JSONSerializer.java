@@ -17,37 +17,45 @@ package com.criteo.events;
 
 import com.criteo.events.product.BasketProduct;
 import com.criteo.events.product.Product;
+import com.criteo.events.product.ProductBatch;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.GregorianCalendar;
-import java.util.Locale;
-import java.util.Map;
-import java.util.TimeZone;
+import java.util.List;
 
+/**
+ * Serializes events and payloads to JSON, encoded in UTF-8.
+ * Each thread reuses its own {@link JSONWriter}, so that only the returned array is allocated.
+ */
 class JSONSerializer {
+    static final String JSON_PROTOCOL_VERSION = "sdk_1.0.0";
+
+    private static final ThreadLocal<JSONWriter> writers = new ThreadLocal<JSONWriter>() {
+        @Override
+        protected JSONWriter initialValue() {
+            return new JSONWriter();
+        }
+    };
+
+    // products are serialized apart, to be cached
+    private static final ThreadLocal<JSONWriter> fragmentWriters = new ThreadLocal<JSONWriter>() {
+        @Override
+        protected JSONWriter initialValue() {
+            return new JSONWriter();
+        }
+    };
+
     private AccessTokenFilter accessTokenFilter = new AccessTokenFilter();
 
-    JSONObject serializeToJSON(AppLaunchEvent event) {
+    byte[] serializeToJSON(AppLaunchEvent event) {
         try {
-            JSONObject serializedEvent = new JSONObject();
+            JSONWriter writer = beginEvent(EventKeys.APP_LAUNCH);
 
-            serializedEvent.put(EventKeys.EVENTNAME, EventKeys.APP_LAUNCH);
+            writer.field(EncodedKeys.GOOGLE_REFFERER, event.getGoogleReferrer());
+            writer.field(EncodedKeys.FIRST_LAUNCH, event.isFirstLaunch());
+            writer.name(EncodedKeys.TIMESTAMP).timestampValue(event.getTimestampMillis());
 
-            if (event.getGoogleReferrer() != null) {
-                serializedEvent.put(EventKeys.GOOGLE_REFFERER, event.getGoogleReferrer());
-            }
-            serializedEvent.put(EventKeys.FIRST_LAUNCH, event.isFirstLaunch());
-            serializedEvent.put(EventKeys.TIMESTAMP, getFormattedDate(event.getTimestamp()));
-            serializedEvent = addExtraData(event, serializedEvent);
-
-            return serializedEvent;
+            return endEvent(event, writer);
 
         } catch (JSONException e) {
             CRTOLog.e("Error in JSON serialisation", e);
@@ -55,31 +63,23 @@ class JSONSerializer {
         }
     }
 
-    JSONObject serializeToJSON(BasketViewEvent event) {
+    byte[] serializeToJSON(BasketViewEvent event) {
         try {
-            JSONObject serializedEvent = new JSONObject();
-
-            serializedEvent.put(EventKeys.EVENTNAME, EventKeys.BASKET_VIEW);
-
-            if (event.getBasketProductList() != null && !event.getBasketProductList().isEmpty()) {
-                JSONArray basketProduct = new JSONArray();
-                for(BasketProduct item : event.getBasketProductList()) {
-                    JSONObject jsonItem = new JSONObject();
-                    jsonItem.put(EventKeys.ID, item.getProductId());
-                    jsonItem.put(EventKeys.PRICE, item.getPrice());
-                    jsonItem.put(EventKeys.QUANTITY, item.getQuantity());
-                    basketProduct.put(jsonItem);
-                }
-                serializedEvent.put(EventKeys.PRODUCT, basketProduct);
+            JSONWriter writer = beginEvent(EventKeys.BASKET_VIEW);
+
+            ProductBatch basketProductBatch = event.getBasketProductBatch();
+            if (basketProductBatch != null) {
+                writeProducts(basketProductBatch, true, writer);
+            } else if (event.getBasketProductList() != null && !event.getBasketProductList().isEmpty()) {
+                writeBasketProducts(event.getBasketProductList(), writer);
             }
             if (event.getCurrency() != null) {
-                serializedEvent.put(EventKeys.CURRENCY, event.getCurrency().getCurrencyCode());
+                writer.rawField(CurrencyFields.get(event.getCurrency()));
             }
 
-            serializedEvent.put(EventKeys.TIMESTAMP, getFormattedDate(event.getTimestamp()));
-            serializedEvent = addExtraData(event, serializedEvent);
+            writer.name(EncodedKeys.TIMESTAMP).timestampValue(event.getTimestampMillis());
 
-            return serializedEvent;
+            return endEvent(event, writer);
 
         } catch (JSONException e) {
             CRTOLog.e("Error in JSON serialisation", e);
@@ -88,15 +88,13 @@ class JSONSerializer {
     }
 
 
-    JSONObject serializeToJSON(HomeViewEvent event) {
+    byte[] serializeToJSON(HomeViewEvent event) {
         try {
-            JSONObject serializedEvent = new JSONObject();
+            JSONWriter writer = beginEvent(EventKeys.HOME_VIEW);
 
-            serializedEvent.put(EventKeys.EVENTNAME, EventKeys.HOME_VIEW);
-            serializedEvent.put(EventKeys.TIMESTAMP, getFormattedDate(event.getTimestamp()));
-            serializedEvent = addExtraData(event, serializedEvent);
+            writer.name(EncodedKeys.TIMESTAMP).timestampValue(event.getTimestampMillis());
 
-            return serializedEvent;
+            return endEvent(event, writer);
 
         } catch (JSONException e) {
             CRTOLog.e("Error in JSON serialisation", e);
@@ -104,31 +102,27 @@ class JSONSerializer {
         }
     }
 
-    JSONObject serializeToJSON(ProductListViewEvent event) {
+    byte[] serializeToJSON(ProductListViewEvent event) {
         try {
-            JSONObject serializedEvent = new JSONObject();
-
-            serializedEvent.put(EventKeys.EVENTNAME, EventKeys.PRODUCT_LIST_VIEW);
+            JSONWriter writer = beginEvent(EventKeys.PRODUCT_LIST_VIEW);
 
             if (event.getCurrency() != null) {
-                serializedEvent.put(EventKeys.CURRENCY, event.getCurrency().getCurrencyCode());
+                writer.rawField(CurrencyFields.get(event.getCurrency()));
             }
-            if (event.getProductList() != null && !event.getProductList().isEmpty()){
-                JSONArray productList = new JSONArray();
-
+            ProductBatch productBatch = event.getProductBatch();
+            if (productBatch != null) {
+                writeProducts(productBatch, false, writer);
+            } else if (event.getProductList() != null && !event.getProductList().isEmpty()){
+                writer.name(EncodedKeys.PRODUCT).beginArray();
                 for(Product product : event.getProductList()) {
-                    JSONObject jsonProduct = new JSONObject();
-                    jsonProduct.put(EventKeys.ID, product.getProductId());
-                    jsonProduct.put(EventKeys.PRICE, product.getPrice());
-                    productList.put(jsonProduct);
+                    writeProduct(product, writer);
                 }
-                serializedEvent.put(EventKeys.PRODUCT, productList);
+                writer.endArray();
             }
 
-            serializedEvent.put(EventKeys.TIMESTAMP, getFormattedDate(event.getTimestamp()));
-            serializedEvent = addExtraData(event, serializedEvent);
+            writer.name(EncodedKeys.TIMESTAMP).timestampValue(event.getTimestampMillis());
 
-            return serializedEvent;
+            return endEvent(event, writer);
 
         } catch (JSONException e) {
             CRTOLog.e("Error in JSON serialisation", e);
@@ -136,26 +130,21 @@ class JSONSerializer {
         }
     }
 
-    JSONObject serializeToJSON(ProductViewEvent event) {
+    byte[] serializeToJSON(ProductViewEvent event) {
         try {
-            JSONObject serializedEvent = new JSONObject();
-
-            serializedEvent.put(EventKeys.EVENTNAME, EventKeys.PRODUCT_VIEW);
+            JSONWriter writer = beginEvent(EventKeys.PRODUCT_VIEW);
 
             if (event.getCurrency() != null) {
-                serializedEvent.put(EventKeys.CURRENCY, event.getCurrency().getCurrencyCode());
+                writer.rawField(CurrencyFields.get(event.getCurrency()));
             }
             if (event.getProduct() != null) {
-                JSONObject product  = new JSONObject();
-                product.put(EventKeys.ID, event.getProduct().getProductId());
-                product.put(EventKeys.PRICE, event.getProduct().getPrice());
-                serializedEvent.put(EventKeys.PRODUCT,product);
+                writer.name(EncodedKeys.PRODUCT);
+                writeProduct(event.getProduct(), writer);
             }
 
-            serializedEvent.put(EventKeys.TIMESTAMP, getFormattedDate(event.getTimestamp()));
-            serializedEvent = addExtraData(event, serializedEvent);
+            writer.name(EncodedKeys.TIMESTAMP).timestampValue(event.getTimestampMillis());
 
-            return serializedEvent;
+            return endEvent(event, writer);
 
         } catch (JSONException e) {
             CRTOLog.e("Error in JSON serialisation", e);
@@ -163,34 +152,24 @@ class JSONSerializer {
         }
     }
 
-    JSONObject serializeToJSON(TransactionConfirmationEvent event) {
+    byte[] serializeToJSON(TransactionConfirmationEvent event) {
         try {
-            JSONObject serializedEvent = new JSONObject();
-
-            serializedEvent.put(EventKeys.EVENTNAME, EventKeys.TRANSACTION_CONFIRMATION);
+            JSONWriter writer = beginEvent(EventKeys.TRANSACTION_CONFIRMATION);
 
             if (event.getCurrency() != null) {
-                serializedEvent.put(EventKeys.CURRENCY, event.getCurrency().getCurrencyCode());
-            }
-            if (event.getTransactionId() != null) {
-                serializedEvent.put(EventKeys.ID, event.getTransactionId());
+                writer.rawField(CurrencyFields.get(event.getCurrency()));
             }
-            if (event.getBasketProductList() != null && !event.getBasketProductList().isEmpty()) {
-                JSONArray basketProducts = new JSONArray();
-                for(BasketProduct item : event.getBasketProductList()) {
-                    JSONObject jsonItem = new JSONObject();
-                    jsonItem.put(EventKeys.ID, item.getProductId());
-                    jsonItem.put(EventKeys.PRICE, item.getPrice());
-                    jsonItem.put(EventKeys.QUANTITY, item.getQuantity());
-                    basketProducts.put(jsonItem);
-                }
-                serializedEvent.put(EventKeys.PRODUCT, basketProducts);
+            writer.field(EncodedKeys.ID, event.getTransactionId());
+            ProductBatch basketProductBatch = event.getBasketProductBatch();
+            if (basketProductBatch != null) {
+                writeProducts(basketProductBatch, true, writer);
+            } else if (event.getBasketProductList() != null && !event.getBasketProductList().isEmpty()) {
+                writeBasketProducts(event.getBasketProductList(), writer);
             }
 
-            serializedEvent.put(EventKeys.TIMESTAMP, getFormattedDate(event.getTimestamp()));
-            serializedEvent = addExtraData(event, serializedEvent);
+            writer.name(EncodedKeys.TIMESTAMP).timestampValue(event.getTimestampMillis());
 
-            return serializedEvent;
+            return endEvent(event, writer);
 
         } catch (JSONException e) {
             CRTOLog.e("Error in JSON serialisation", e);
@@ -198,15 +177,13 @@ class JSONSerializer {
         }
     }
 
-    JSONObject serializeToJSON(DataEvent event) {
+    byte[] serializeToJSON(DataEvent event) {
         try {
-            JSONObject serializedEvent = new JSONObject();
+            JSONWriter writer = beginEvent(EventKeys.DATA_EVENT);
 
-            serializedEvent.put(EventKeys.EVENTNAME, EventKeys.DATA_EVENT);
-            serializedEvent.put(EventKeys.TIMESTAMP, getFormattedDate(event.getTimestamp()));
-            serializedEvent = addExtraData(event, serializedEvent);
+            writer.name(EncodedKeys.TIMESTAMP).timestampValue(event.getTimestampMillis());
 
-            return serializedEvent;
+            return endEvent(event, writer);
 
         } catch (JSONException e) {
             CRTOLog.e("Error in JSON serialisation", e);
@@ -214,19 +191,17 @@ class JSONSerializer {
         }
     }
 
-    JSONObject serializeToJSON(DeeplinkEvent event) {
+    byte[] serializeToJSON(DeeplinkEvent event) {
         try {
-            JSONObject serializedEvent = new JSONObject();
+            JSONWriter writer = beginEvent(EventKeys.DEEPLINK_EVENT);
 
-            serializedEvent.put(EventKeys.EVENTNAME, EventKeys.DEEPLINK_EVENT);
-            serializedEvent.put(EventKeys.TIMESTAMP, getFormattedDate(event.getTimestamp()));
+            writer.name(EncodedKeys.TIMESTAMP).timestampValue(event.getTimestampMillis());
 
             String filteredDeeplinkUrl = accessTokenFilter.filter(event.getDeeplinkUrl());
 
-            serializedEvent.put(EventKeys.DEEPLINK, filteredDeeplinkUrl);
-            serializedEvent = addExtraData(event, serializedEvent);
+            writer.field(EncodedKeys.DEEPLINK, filteredDeeplinkUrl);
 
-            return serializedEvent;
+            return endEvent(event, writer);
 
         } catch (JSONException e) {
             CRTOLog.e("Error in JSON serialisation", e);
@@ -234,103 +209,245 @@ class JSONSerializer {
         }
     }
 
-    private static String getFormattedDate(Date date) {
-        TimeZone tz = TimeZone.getTimeZone("UTC");
-        DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ENGLISH);
-        df.setTimeZone(tz);
-        return df.format(date);
+    /**
+     * Serializes an event whose concrete type is only known at runtime.
+     * @return the serialized event, or null if its type is not supported
+     */
+    byte[] serializeToJSON(Event event) {
+        if (event instanceof AppLaunchEvent) {
+            return serializeToJSON((AppLaunchEvent) event);
+        } else if (event instanceof BasketViewEvent) {
+            return serializeToJSON((BasketViewEvent) event);
+        } else if (event instanceof HomeViewEvent) {
+            return serializeToJSON((HomeViewEvent) event);
+        } else if (event instanceof ProductListViewEvent) {
+            return serializeToJSON((ProductListViewEvent) event);
+        } else if (event instanceof ProductViewEvent) {
+            return serializeToJSON((ProductViewEvent) event);
+        } else if (event instanceof TransactionConfirmationEvent) {
+            return serializeToJSON((TransactionConfirmationEvent) event);
+        } else if (event instanceof DataEvent) {
+            return serializeToJSON((DataEvent) event);
+        } else if (event instanceof DeeplinkEvent) {
+            return serializeToJSON((DeeplinkEvent) event);
+        }
+        CRTOLog.e("Unsupported event type " + event.getClass().getName());
+        return null;
+    }
+
+    /**
+     * Adds to a serialized event the number of times it was sent, once equivalent events were merged into it.
+     */
+    static byte[] addRepeatCount(byte[] serializedEvent, int repeatCount) {
+        JSONWriter writer = writers.get().reset();
+        writer.beginObject();
+        writer.rawField(serializedEvent, 1, serializedEvent.length - 2);
+        writer.field(EncodedKeys.REPEAT_COUNT, repeatCount);
+        writer.endObject();
+        return writer.toByteArray();
     }
 
-    private static String getFormattedDate(GregorianCalendar date) {
-        String year = String.format("%04d", date.get(Calendar.YEAR));
-        String month = String.format("%02d", date.get(Calendar.MONTH) + 1);
-        String day = String.format("%02d", date.get(Calendar.DAY_OF_MONTH));
+    private static JSONWriter beginEvent(String eventName) {
+        JSONWriter writer = writers.get().reset();
+        writer.beginObject();
+        writer.field(EncodedKeys.EVENTNAME, eventName);
+        return writer;
+    }
 
-        return String.format("%s-%s-%sT00:00:00Z", year, month, day);
+    private static byte[] endEvent(Event event, JSONWriter writer) throws JSONException {
+        writeExtraData(event, writer);
+        writer.endObject();
+        return writer.toByteArray();
     }
 
-    private static JSONObject addExtraData(Event event, JSONObject serializedEvent) throws JSONException{
-        for(Map.Entry<String, ExtraData> dataEntry : event.getExtraDataMap().entrySet()) {
-            JSONObject extraData = new JSONObject();
-            if(dataEntry.getValue().getType() == ExtraData.ExtraDataType.Date ){
-                extraData.put(EventKeys.VALUE, getFormattedDate((GregorianCalendar) dataEntry.getValue().getValue()));
-            } else {
-                extraData.put(EventKeys.VALUE, dataEntry.getValue().getValue());
-            }
-            String type = null;
-            switch (dataEntry.getValue().getType()){
-                case Float:
-                    type = "float";
-                    break;
-                case Int:
-                    type = "integer";
-                    break;
-                case String:
-                    type = "string";
-                    break;
-                case Date:
-                    type = "date";
-                    break;
+    private static void writeProduct(Product product, JSONWriter writer) throws JSONException {
+        writeProduct(product.getProductId(), product.getPrice(), false, 0, writer);
+    }
+
+    private static void writeBasketProducts(List<BasketProduct> basketProducts, JSONWriter writer) throws JSONException {
+        writer.name(EncodedKeys.PRODUCT).beginArray();
+        for(BasketProduct item : basketProducts) {
+            writeProduct(item.getProductId(), item.getPrice(), true, item.getQuantity(), writer);
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Writes the products of a batch without creating a {@link Product} or a {@link BasketProduct}
+     * for each of them.
+     * @param hasQuantity true for the products of a basket, false for a listing
+     */
+    private static void writeProducts(ProductBatch products, boolean hasQuantity, JSONWriter writer) throws JSONException {
+        if (products.size() == 0) {
+            return;
+        }
+        writer.name(EncodedKeys.PRODUCT).beginArray();
+        for (int i = 0; i < products.size(); i++) {
+            writeProduct(products.getProductId(i), products.getPrice(i), hasQuantity,
+                    hasQuantity ? products.getQuantity(i) : 0, writer);
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Writes a product, copied from the {@link ProductFragmentCache} when it was already serialized.
+     */
+    private static void writeProduct(String productId, double price, boolean hasQuantity, int quantity,
+                                     JSONWriter writer) throws JSONException {
+        ProductFragmentCache.Key key = new ProductFragmentCache.Key(productId, price, hasQuantity, quantity);
+        byte[] fragment = ProductFragmentCache.INSTANCE.get(key);
+        if (fragment == null) {
+            JSONWriter fragmentWriter = fragmentWriters.get().reset();
+            fragmentWriter.beginObject();
+            fragmentWriter.field(EncodedKeys.ID, productId);
+            fragmentWriter.field(EncodedKeys.PRICE, price);
+            if (hasQuantity) {
+                fragmentWriter.field(EncodedKeys.QUANTITY, quantity);
             }
-            extraData.put(EventKeys.TYPE, type);
-            serializedEvent.put(dataEntry.getKey(), extraData);
+            fragmentWriter.endObject();
+            fragment = fragmentWriter.toByteArray();
+            ProductFragmentCache.INSTANCE.put(key, fragment);
         }
-        return serializedEvent;
+        writer.rawValue(fragment);
     }
 
-    static JSONObject commonPayload(EventService eventService) throws JSONException {
-        JSONObject payload = new JSONObject();
-
-        JSONObject account = new JSONObject();
-        account.put(EventKeys.APP_NAME, eventService.getAccountName());
-        account.put(EventKeys.COUNTRY, eventService.getCountry());
-        account.put(EventKeys.LANGUAGE, eventService.getLanguage());
-
-        JSONObject id = new JSONObject();
-        id.put(EventKeys.DEVICE_ID, DeviceInfo.getAdvertisingId());
-        id.put(EventKeys.LAT, DeviceInfo.getLimitAdTrackingEnabled());
-
-        JSONObject appInfo = new JSONObject();
-        appInfo.put(EventKeys.APP_ID, DeviceInfo.getBundleName());
-        appInfo.put(EventKeys.APP_NAME, DeviceInfo.getBundleName());
-        appInfo.put(EventKeys.APP_VERSION, DeviceInfo.getAppVersion());
-        appInfo.put(EventKeys.SDK_VERSION, DeviceInfo.getSDKVersion());
-        appInfo.put(EventKeys.APP_LANGUAGE, DeviceInfo.getLanguage());
-        appInfo.put(EventKeys.APP_COUNTRY, DeviceInfo.getCountry());
-
-        JSONObject deviceInfo = new JSONObject();
-        deviceInfo.put(EventKeys.PLATFORM, "android");
-        deviceInfo.put(EventKeys.OS_NAME, "android");
-        deviceInfo.put(EventKeys.OS_VERSION, DeviceInfo.getAndroidVersion());
-        deviceInfo.put(EventKeys.DEVICE_MODEL, DeviceInfo.getModel());
-        deviceInfo.put(EventKeys.DEVICE_MANUFACTURER, DeviceInfo.getManufacturer());
-
-        JSONArray alternateIds = new JSONArray();
-        if (eventService.getEmail() != null) {
-            JSONObject email = new JSONObject();
-            email.put(EventKeys.VALUE, eventService.getEmail());
-            email.put(EventKeys.TYPE, "email");
-            email.put(EventKeys.HASH, "md5");
-            alternateIds.put(email);
+    private static void writeExtraData(Event event, JSONWriter writer) throws JSONException {
+        ExtraDataMap extraDataMap = event.extraDataMap;
+        // read in place, without copying the entries nor boxing their values
+        synchronized (extraDataMap) {
+            for (int i = 0; i < extraDataMap.size(); i++) {
+                writer.name(extraDataMap.keyAt(i)).beginObject();
+                String type = null;
+                switch (extraDataMap.typeAt(i)) {
+                    case Float:
+                        writer.name(EncodedKeys.VALUE).value(extraDataMap.floatAt(i));
+                        type = "float";
+                        break;
+                    case Double:
+                        writer.field(EncodedKeys.VALUE, extraDataMap.doubleAt(i));
+                        type = "float";
+                        break;
+                    case Int:
+                        writer.field(EncodedKeys.VALUE, extraDataMap.intAt(i));
+                        type = "integer";
+                        break;
+                    case Long:
+                        writer.field(EncodedKeys.VALUE, extraDataMap.longAt(i));
+                        type = "integer";
+                        break;
+                    case Boolean:
+                        writer.field(EncodedKeys.VALUE, extraDataMap.booleanAt(i) ? 1 : 0);
+                        type = "integer";
+                        break;
+                    case String:
+                        writer.field(EncodedKeys.VALUE, extraDataMap.stringAt(i));
+                        type = "string";
+                        break;
+                    case Date:
+                        writer.name(EncodedKeys.VALUE).epochDayValue(extraDataMap.dayAt(i));
+                        type = "date";
+                        break;
+                }
+                writer.field(EncodedKeys.TYPE, type);
+                writer.endObject();
+            }
         }
+    }
 
-        payload.put(EventKeys.ACCOUNT, account);
-        payload.put(EventKeys.ID, id);
-        payload.put(EventKeys.DEVICE_INFO, deviceInfo);
-        payload.put(EventKeys.APP_INFO, appInfo);
-        payload.put(EventKeys.ALTERNATE_IDS,alternateIds);
-        payload.put(EventKeys.JSON_PROTOCOL_VERSION, "sdk_1.0.0");
+    /**
+     * Serializes the fields shared by all the events sent by a service, as a JSON object.
+     */
+    static byte[] commonPayload(EventService eventService) {
+        JSONWriter writer = writers.get().reset();
+        writer.beginObject();
+        eventService.getCommonPayload().writeTo(writer);
+        writer.endObject();
+        return writer.toByteArray();
+    }
 
-        if (eventService.getCustomerId() != null) {
-            payload.put(EventKeys.CUSTOMER_ID, eventService.getCustomerId());
+    /**
+     * Serializes a complete payload, made of the common fields and the given serialized events.
+     */
+    static String buildPayload(EventService eventService, List<byte[]> serializedEvents) {
+        JSONWriter writer = writers.get().reset();
+        writer.beginObject();
+        eventService.getCommonPayload().writeTo(writer);
+        writer.name(EncodedKeys.EVENTS).beginArray();
+        for (byte[] serializedEvent : serializedEvents) {
+            writer.rawValue(serializedEvent);
         }
+        writer.endArray();
+        writer.endObject();
+        return writer.toString();
+    }
 
-        return payload;
+    /**
+     * Builds a payload in the delta envelope, where each event only holds what changed since the
+     * previous one, see {@link DeltaEnvelope}.
+     */
+    static String buildDeltaPayload(EventService eventService, List<byte[]> serializedEvents) {
+        JSONWriter writer = writers.get().reset();
+        writer.beginObject();
+        eventService.getCommonPayload().writeTo(writer);
+        writer.field(EncodedKeys.ENVELOPE, DeltaEnvelope.VERSION);
+        writer.name(EncodedKeys.EVENTS).beginArray();
+        new DeltaEnvelope().writeEvents(writer, serializedEvents);
+        writer.endArray();
+        writer.endObject();
+        return writer.toString();
+    }
+
+    // The fragments of the common payload, cached by CommonPayload and written in this order
+
+    static void writeAccount(EventService eventService, JSONWriter writer) {
+        writer.name(EncodedKeys.ACCOUNT).beginObject();
+        writer.field(EncodedKeys.APP_NAME, eventService.getAccountName());
+        writer.field(EncodedKeys.COUNTRY, eventService.getCountry());
+        writer.field(EncodedKeys.LANGUAGE, eventService.getLanguage());
+        writer.endObject();
+    }
+
+    static void writeId(JSONWriter writer) {
+        writer.name(EncodedKeys.ID).beginObject();
+        writer.field(EncodedKeys.DEVICE_ID, DeviceInfo.getAdvertisingId());
+        writer.field(EncodedKeys.LAT, DeviceInfo.getLimitAdTrackingEnabled());
+        writer.endObject();
+    }
+
+    static void writeDeviceInfo(JSONWriter writer) {
+        writer.name(EncodedKeys.DEVICE_INFO).beginObject();
+        writer.field(EncodedKeys.PLATFORM, "android");
+        writer.field(EncodedKeys.OS_NAME, "android");
+        writer.field(EncodedKeys.OS_VERSION, DeviceInfo.getAndroidVersion());
+        writer.field(EncodedKeys.DEVICE_MODEL, DeviceInfo.getModel());
+        writer.field(EncodedKeys.DEVICE_MANUFACTURER, DeviceInfo.getManufacturer());
+        writer.endObject();
+    }
+
+    static void writeAppInfo(JSONWriter writer) {
+        writer.name(EncodedKeys.APP_INFO).beginObject();
+        writer.field(EncodedKeys.APP_ID, DeviceInfo.getBundleName());
+        writer.field(EncodedKeys.APP_NAME, DeviceInfo.getBundleName());
+        writer.field(EncodedKeys.APP_VERSION, DeviceInfo.getAppVersion());
+        writer.field(EncodedKeys.SDK_VERSION, DeviceInfo.getSDKVersion());
+        writer.field(EncodedKeys.APP_LANGUAGE, DeviceInfo.getLanguage());
+        writer.field(EncodedKeys.APP_COUNTRY, DeviceInfo.getCountry());
+        writer.endObject();
+    }
+
+    static void writeAlternateIds(EventService eventService, JSONWriter writer) {
+        writer.name(EncodedKeys.ALTERNATE_IDS).beginArray();
+        if (eventService.getEmail() != null) {
+            writer.beginObject();
+            writer.field(EncodedKeys.VALUE, eventService.getEmail());
+            writer.field(EncodedKeys.TYPE, "email");
+            writer.field(EncodedKeys.HASH, "md5");
+            writer.endObject();
+        }
+        writer.endArray();
     }
 
-    static void setPayloadEvent(JSONObject payload, JSONObject serializedEvent) throws JSONException {
-        JSONArray events = new JSONArray();
-        events.put(serializedEvent);
-        payload.put(EventKeys.EVENTS, events);
+    static void writeCustomerId(EventService eventService, JSONWriter writer) {
+        writer.field(EncodedKeys.CUSTOMER_ID, eventService.getCustomerId());
     }
 }
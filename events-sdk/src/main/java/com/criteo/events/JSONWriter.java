@@ -0,0 +1,419 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import org.json.JSONException;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON writer encoding directly to UTF-8 into a reusable byte buffer.
+ * The output is byte for byte the one of {@link org.json.JSONObject#toString()} for the same
+ * values put in the same order: no whitespace, '/' escaped, integral numbers written without
+ * fraction, NaN and infinite numbers rejected, and fields with a null value omitted.
+ * Keys written often are encoded once with {@link #encodeName(String)}.
+ * A writer is not thread safe.
+ */
+class JSONWriter {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_DEPTH = 32;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+    private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes();
+
+    private byte[] buffer;
+    private int size;
+
+    // whether a comma is needed before the next element, for each nesting level
+    private final boolean[] needsComma = new boolean[MAX_DEPTH];
+    private int depth;
+
+    JSONWriter() {
+        this(INITIAL_CAPACITY);
+    }
+
+    JSONWriter(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Encodes a key with its quotes and colon, to be written later with {@link #name(byte[])}.
+     */
+    static byte[] encodeName(String name) {
+        JSONWriter writer = new JSONWriter(name.length() + 8);
+        writer.writeString(name);
+        writer.writeByte((byte) ':');
+        return writer.toByteArray();
+    }
+
+    /**
+     * Empties the writer, keeping its buffer for the next document.
+     */
+    JSONWriter reset() {
+        size = 0;
+        depth = 0;
+        needsComma[0] = false;
+        return this;
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return new String(buffer, 0, size, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new AssertionError(e);
+        }
+    }
+
+    JSONWriter beginObject() {
+        return open((byte) '{');
+    }
+
+    JSONWriter endObject() {
+        return close((byte) '}');
+    }
+
+    JSONWriter beginArray() {
+        return open((byte) '[');
+    }
+
+    JSONWriter endArray() {
+        return close((byte) ']');
+    }
+
+    /**
+     * Writes the name of the next field, encoded with {@link #encodeName(String)}.
+     */
+    JSONWriter name(byte[] encodedName) {
+        comma();
+        writeBytes(encodedName, 0, encodedName.length);
+        // the value follows the name without comma
+        needsComma[depth] = false;
+        return this;
+    }
+
+    JSONWriter name(String name) throws JSONException {
+        if (name == null) {
+            throw new JSONException("Names must be non-null");
+        }
+        comma();
+        writeString(name);
+        writeByte((byte) ':');
+        needsComma[depth] = false;
+        return this;
+    }
+
+    JSONWriter value(String value) {
+        comma();
+        writeString(value);
+        needsComma[depth] = true;
+        return this;
+    }
+
+    JSONWriter value(boolean value) {
+        comma();
+        byte[] literal = value ? TRUE : FALSE;
+        writeBytes(literal, 0, literal.length);
+        needsComma[depth] = true;
+        return this;
+    }
+
+    JSONWriter value(long value) {
+        comma();
+        writeLong(value);
+        needsComma[depth] = true;
+        return this;
+    }
+
+    JSONWriter value(double value) throws JSONException {
+        checkDouble(value);
+        comma();
+        if (Double.doubleToLongBits(value) == Double.doubleToLongBits(-0d)) {
+            writeByte((byte) '-');
+            writeByte((byte) '0');
+        } else if (value == (long) value) {
+            writeLong((long) value);
+        } else {
+            writeAscii(Double.toString(value));
+        }
+        needsComma[depth] = true;
+        return this;
+    }
+
+    JSONWriter value(float value) throws JSONException {
+        checkDouble(value);
+        comma();
+        if (value == (long) value) {
+            writeLong((long) value);
+        } else {
+            writeAscii(Float.toString(value));
+        }
+        needsComma[depth] = true;
+        return this;
+    }
+
+    /**
+     * Writes a value already encoded as JSON, such as an event serialized by another writer.
+     */
+    JSONWriter rawValue(byte[] json) {
+        return rawValue(json, 0, json.length);
+    }
+
+    JSONWriter rawValue(byte[] json, int offset, int length) {
+        comma();
+        writeBytes(json, offset, length);
+        needsComma[depth] = true;
+        return this;
+    }
+
+    /**
+     * Writes a date as an ISO-8601 string in UTC, such as "2015-01-01T12:30:00Z".
+     */
+    JSONWriter timestampValue(long epochMillis) {
+        comma();
+        ensureCapacity(TimestampFormatter.MAX_LENGTH + 2);
+        buffer[size++] = '"';
+        size = TimestampFormatter.format(epochMillis, buffer, size);
+        buffer[size++] = '"';
+        needsComma[depth] = true;
+        return this;
+    }
+
+    /**
+     * Writes a calendar day as an ISO-8601 string at midnight UTC, such as "2015-01-01T00:00:00Z".
+     * @param month the month, from 1 to 12
+     */
+    JSONWriter dayValue(int year, int month, int day) {
+        comma();
+        ensureCapacity(TimestampFormatter.MAX_LENGTH + 2);
+        buffer[size++] = '"';
+        size = TimestampFormatter.formatDay(year, month, day, buffer, size);
+        buffer[size++] = '"';
+        needsComma[depth] = true;
+        return this;
+    }
+
+    /**
+     * Writes a day counted from the epoch like {@link #dayValue(int, int, int)}.
+     */
+    JSONWriter epochDayValue(int epochDay) {
+        comma();
+        ensureCapacity(TimestampFormatter.MAX_LENGTH + 2);
+        buffer[size++] = '"';
+        size = TimestampFormatter.formatEpochDay(epochDay, buffer, size);
+        buffer[size++] = '"';
+        needsComma[depth] = true;
+        return this;
+    }
+
+    /**
+     * Writes fields already encoded as JSON, names included, such as a cached fragment of a payload.
+     * Nothing is written for an empty array.
+     */
+    JSONWriter rawField(byte[] json) {
+        return rawField(json, 0, json.length);
+    }
+
+    JSONWriter rawField(byte[] json, int offset, int length) {
+        if (length == 0) {
+            return this;
+        }
+        comma();
+        writeBytes(json, offset, length);
+        needsComma[depth] = true;
+        return this;
+    }
+
+    /**
+     * Writes a string field, omitted if the value is null.
+     */
+    JSONWriter field(byte[] encodedName, String value) {
+        return value != null ? name(encodedName).value(value) : this;
+    }
+
+    JSONWriter field(byte[] encodedName, boolean value) {
+        return name(encodedName).value(value);
+    }
+
+    JSONWriter field(byte[] encodedName, long value) {
+        return name(encodedName).value(value);
+    }
+
+    JSONWriter field(byte[] encodedName, double value) throws JSONException {
+        return name(encodedName).value(value);
+    }
+
+    private JSONWriter open(byte bracket) {
+        comma();
+        writeByte(bracket);
+        if (++depth >= MAX_DEPTH) {
+            throw new IllegalStateException("Nesting too deep");
+        }
+        needsComma[depth] = false;
+        return this;
+    }
+
+    private JSONWriter close(byte bracket) {
+        writeByte(bracket);
+        needsComma[--depth] = true;
+        return this;
+    }
+
+    private void comma() {
+        if (needsComma[depth]) {
+            writeByte((byte) ',');
+        }
+    }
+
+    private static void checkDouble(double value) throws JSONException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new JSONException("Forbidden numeric value: " + value);
+        }
+    }
+
+    private void writeString(String value) {
+        ensureCapacity(value.length() + 2);
+        buffer[size++] = '"';
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    writeByte((byte) '\\');
+                    writeByte((byte) c);
+                    break;
+                case '\t':
+                    writeEscape('t');
+                    break;
+                case '\b':
+                    writeEscape('b');
+                    break;
+                case '\n':
+                    writeEscape('n');
+                    break;
+                case '\r':
+                    writeEscape('r');
+                    break;
+                case '\f':
+                    writeEscape('f');
+                    break;
+                default:
+                    if (c <= 0x1F) {
+                        writeUnicodeEscape(c);
+                    } else if (c < 0x80) {
+                        writeByte((byte) c);
+                    } else if (c < 0x800) {
+                        ensureCapacity(2);
+                        buffer[size++] = (byte) (0xC0 | (c >> 6));
+                        buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < length
+                            && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                        ensureCapacity(4);
+                        buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                        buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                        buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                        buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                    } else if (c >= Character.MIN_HIGH_SURROGATE && c <= Character.MAX_LOW_SURROGATE) {
+                        // unpaired surrogates are replaced, as done by the UTF-8 charset encoder
+                        writeByte((byte) '?');
+                    } else {
+                        ensureCapacity(3);
+                        buffer[size++] = (byte) (0xE0 | (c >> 12));
+                        buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                    }
+            }
+        }
+        writeByte((byte) '"');
+    }
+
+    private void writeEscape(char c) {
+        ensureCapacity(2);
+        buffer[size++] = '\\';
+        buffer[size++] = (byte) c;
+    }
+
+    private void writeUnicodeEscape(char c) {
+        ensureCapacity(6);
+        buffer[size++] = '\\';
+        buffer[size++] = 'u';
+        buffer[size++] = HEX[(c >> 12) & 0xF];
+        buffer[size++] = HEX[(c >> 8) & 0xF];
+        buffer[size++] = HEX[(c >> 4) & 0xF];
+        buffer[size++] = HEX[c & 0xF];
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeBytes(LONG_MIN_VALUE, 0, LONG_MIN_VALUE.length);
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        // write the digits backwards, then reverse them
+        int start = size;
+        do {
+            buffer[size++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = size - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+    }
+
+    private void writeAscii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeByte(byte b) {
+        ensureCapacity(1);
+        buffer[size++] = b;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    private void ensureCapacity(int length) {
+        if (size + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import android.content.Intent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups queued event intents sharing the same common payload so that they can be posted
+ * to the server in a single request.
+ * Payloads that cannot be parsed are never merged and are sent as they are.
+ */
+class PayloadBatch {
+    private final int maxSize;
+    private final List<Intent> intents = new ArrayList<>();
+    private final List<String> events = new ArrayList<>();
+
+    private String firstPayload;
+    private String commonPayload;
+
+    PayloadBatch(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Adds an event intent to the batch.
+     * @param eventIntent the intent containing the event
+     * @param eventPayload the payload carried by the intent
+     * @return true if the event was added, false if it cannot be merged with the batch
+     */
+    boolean add(Intent eventIntent, String eventPayload) {
+        if (!intents.isEmpty() && (commonPayload == null || intents.size() >= maxSize)) {
+            return false;
+        }
+        return add(eventIntent, eventPayload, BatchEncoder.encode(eventPayload));
+    }
+
+    /**
+     * Adds an event intent whose payload was already encoded to the batch.
+     * @param encodedPayload the encoded payload, or null if it cannot be merged
+     * @return true if the event was added, false if it cannot be merged with the batch
+     */
+    boolean add(Intent eventIntent, String eventPayload, BatchEncoder.EncodedPayload encodedPayload) {
+        if (intents.isEmpty()) {
+            intents.add(eventIntent);
+            firstPayload = eventPayload;
+            if (encodedPayload != null) {
+                commonPayload = encodedPayload.commonPayload;
+                events.add(encodedPayload.events);
+            }
+            return true;
+        }
+
+        if (commonPayload == null || intents.size() >= maxSize || encodedPayload == null
+                || !commonPayload.equals(encodedPayload.commonPayload)) {
+            return false;
+        }
+
+        events.add(encodedPayload.events);
+        intents.add(eventIntent);
+        return true;
+    }
+
+    boolean isEmpty() {
+        return intents.isEmpty();
+    }
+
+    int size() {
+        return intents.size();
+    }
+
+    List<Intent> getIntents() {
+        return intents;
+    }
+
+    /**
+     * Returns the payload to post for this batch. A batch holding a single event is sent
+     * exactly as it was queued.
+     */
+    String getPayload() {
+        if (intents.size() == 1) {
+            return firstPayload;
+        }
+        return BatchEncoder.stitch(commonPayload, events);
+    }
+}
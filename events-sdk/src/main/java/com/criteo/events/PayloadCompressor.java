@@ -0,0 +1,155 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses payloads with DEFLATE, using a preset dictionary made of the keys and values that
+ * appear in every request. Generic compression barely helps on a single event, as the payload is
+ * too small to contain repetitions, while most of its bytes are then found in the dictionary.
+ * A compressed payload is made of the dictionary version, on one byte, followed by the raw DEFLATE
+ * data. The zlib header and checksum are left out, as they would add 10 bytes to payloads of about
+ * a hundred bytes.
+ */
+final class PayloadCompressor {
+    static final String CONTENT_ENCODING = "x-deflate-dictionary";
+
+    /**
+     * Version of the dictionary, to be incremented whenever its content changes, as the server
+     * needs the exact same dictionary to decompress payloads.
+     */
+    static final byte DICTIONARY_VERSION = 1;
+
+    private static final byte[] HALF = "0.5".getBytes();
+    private static final byte[] DICTIONARY = buildDictionary();
+
+    private PayloadCompressor() {}
+
+    static byte[] compress(byte[] payload) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(payload);
+            deflater.finish();
+
+            byte[] buffer = new byte[payload.length / 2 + 64];
+            buffer[0] = DICTIONARY_VERSION;
+            int size = 1;
+            while (!deflater.finished()) {
+                if (size == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                size += deflater.deflate(buffer, size, buffer.length - size);
+            }
+            return Arrays.copyOf(buffer, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] getDictionary() {
+        return DICTIONARY.clone();
+    }
+
+    /**
+     * Builds the dictionary as a payload with typical values. DEFLATE refers to the end of the
+     * dictionary with shorter distances, so the common payload, found in every request, comes last.
+     */
+    private static byte[] buildDictionary() {
+        JSONWriter writer = new JSONWriter();
+        writer.beginArray();
+
+        // the vocabulary of the events
+        String[] eventNames = {
+                EventKeys.DATA_EVENT, EventKeys.DEEPLINK_EVENT, EventKeys.HOME_VIEW, EventKeys.BASKET_VIEW,
+                EventKeys.PRODUCT_LIST_VIEW, EventKeys.TRANSACTION_CONFIRMATION, EventKeys.APP_LAUNCH,
+                EventKeys.PRODUCT_VIEW,
+        };
+        for (String eventName : eventNames) {
+            writer.beginObject().field(EncodedKeys.EVENTNAME, eventName).endObject();
+        }
+        writer.beginObject();
+        writer.field(EncodedKeys.DEEPLINK, "://");
+        writer.field(EncodedKeys.GOOGLE_REFFERER, "utm_source=google-play&utm_medium=organic");
+        writer.field(EncodedKeys.FIRST_LAUNCH, false);
+        writer.field(EncodedKeys.FIRST_LAUNCH, true);
+        writeExtraData(writer, EventKeys.START_DATE, "\"2016-01-01T00:00:00Z\"", "date");
+        writeExtraData(writer, EventKeys.END_DATE, "\"2016-01-01T00:00:00Z\"", "date");
+        writeExtraData(writer, EventKeys.USER_SEGMENT, "1", "integer");
+        writeExtraData(writer, EventKeys.NEW_CUSTOMER, "0", "integer");
+        writeExtraData(writer, EventKeys.DEDUPLICATION, "1", "integer");
+        writeExtraData(writer, "", "0.5", "float");
+        writeExtraData(writer, "", "\"\"", "string");
+        writer.field(EncodedKeys.CURRENCY, "EUR");
+        writer.field(EncodedKeys.CURRENCY, "USD");
+        writer.name(EncodedKeys.PRODUCT).beginArray();
+        writer.beginObject().field(EncodedKeys.ID, "").name(EncodedKeys.PRICE).rawValue(HALF)
+                .field(EncodedKeys.QUANTITY, 1).endObject();
+        writer.beginObject().field(EncodedKeys.ID, "").name(EncodedKeys.PRICE).rawValue(HALF)
+                .field(EncodedKeys.QUANTITY, 1).endObject();
+        writer.endArray();
+        writer.field(EncodedKeys.TIMESTAMP, "2016-01-01T00:00:00Z");
+        writer.endObject();
+
+        // the common payload, in the order it is serialized
+        writer.beginObject();
+        writer.name(EncodedKeys.ACCOUNT).beginObject();
+        writer.field(EncodedKeys.APP_NAME, "com.");
+        writer.field(EncodedKeys.COUNTRY, "US");
+        writer.field(EncodedKeys.LANGUAGE, "en");
+        writer.endObject();
+        writer.name(EncodedKeys.ID).beginObject();
+        writer.field(EncodedKeys.DEVICE_ID, "00000000-0000-0000-0000-000000000000");
+        writer.field(EncodedKeys.LAT, false);
+        writer.endObject();
+        writer.name(EncodedKeys.DEVICE_INFO).beginObject();
+        writer.field(EncodedKeys.PLATFORM, "android");
+        writer.field(EncodedKeys.OS_NAME, "android");
+        writer.field(EncodedKeys.OS_VERSION, "");
+        writer.field(EncodedKeys.DEVICE_MODEL, "");
+        writer.field(EncodedKeys.DEVICE_MANUFACTURER, "samsung");
+        writer.endObject();
+        writer.name(EncodedKeys.APP_INFO).beginObject();
+        writer.field(EncodedKeys.APP_ID, "com.");
+        writer.field(EncodedKeys.APP_NAME, "com.");
+        writer.field(EncodedKeys.APP_VERSION, "1.0");
+        writer.field(EncodedKeys.SDK_VERSION, "1.2.0");
+        writer.field(EncodedKeys.APP_LANGUAGE, "en");
+        writer.field(EncodedKeys.APP_COUNTRY, "US");
+        writer.endObject();
+        writer.name(EncodedKeys.ALTERNATE_IDS).beginArray();
+        writer.beginObject().field(EncodedKeys.VALUE, "").field(EncodedKeys.TYPE, "email")
+                .field(EncodedKeys.HASH, "md5").endObject();
+        writer.endArray();
+        writer.field(EncodedKeys.CUSTOMER_ID, "");
+        // most applications set neither an email nor a customer id, so the payload usually goes on with
+        // an empty list of alternate ids
+        writer.name(EncodedKeys.ALTERNATE_IDS).beginArray().endArray();
+        writer.field(EncodedKeys.JSON_PROTOCOL_VERSION, JSONSerializer.JSON_PROTOCOL_VERSION);
+        writer.name(EncodedKeys.EVENTS).beginArray();
+        writer.beginObject().field(EncodedKeys.EVENTNAME, "");
+        return writer.toByteArray();
+    }
+
+    private static void writeExtraData(JSONWriter writer, String name, String value, String type) {
+        writer.name(JSONWriter.encodeName(name)).beginObject();
+        writer.name(EncodedKeys.VALUE).rawValue(value.getBytes());
+        writer.field(EncodedKeys.TYPE, type);
+        writer.endObject();
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of the products already serialized to JSON, as catalogue applications
+ * send the same products over and over in product, listing and basket views.
+ * This class is thread safe.
+ */
+enum ProductFragmentCache {
+    INSTANCE;
+
+    static final int MAX_SIZE = 256;
+
+    private final LinkedHashMap<Key, byte[]> fragments = new LinkedHashMap<Key, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    // number of lookups that found a fragment, or that did not
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+
+    static final class Key {
+        private final String productId;
+        private final double price;
+        private final boolean hasQuantity;
+        private final int quantity;
+
+        /**
+         * @param hasQuantity true for a product of a basket, false for a product alone, which
+         *                    has no quantity
+         */
+        Key(String productId, double price, boolean hasQuantity, int quantity) {
+            this.productId = productId;
+            this.price = price;
+            this.hasQuantity = hasQuantity;
+            this.quantity = quantity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hasQuantity == key.hasQuantity && quantity == key.quantity
+                    && Double.doubleToLongBits(price) == Double.doubleToLongBits(key.price)
+                    && (productId != null ? productId.equals(key.productId) : key.productId == null);
+        }
+
+        @Override
+        public int hashCode() {
+            long priceBits = Double.doubleToLongBits(price);
+            int result = productId != null ? productId.hashCode() : 0;
+            result = 31 * result + (int) (priceBits ^ (priceBits >>> 32));
+            result = 31 * result + (hasQuantity ? 1 : 0);
+            return 31 * result + quantity;
+        }
+    }
+
+    /**
+     * Returns the serialized product, or null if it must be serialized and then added with
+     * {@link #put(Key, byte[])}.
+     */
+    synchronized byte[] get(Key key) {
+        byte[] fragment = fragments.get(key);
+        (fragment != null ? hits : misses).incrementAndGet();
+        return fragment;
+    }
+
+    synchronized void put(Key key, byte[] fragment) {
+        fragments.put(key, fragment);
+    }
+
+    /**
+     * Returns the ratio of lookups that found the product already serialized, from 0 to 1.
+     */
+    double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total > 0 ? (double) hitCount / total : 0;
+    }
+
+    synchronized int size() {
+        return fragments.size();
+    }
+
+    synchronized void reset() {
+        fragments.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+}
@@ -16,13 +16,13 @@
 package com.criteo.events;
 
 import com.criteo.events.product.Product;
+import com.criteo.events.product.ProductBatch;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Currency;
 import java.util.GregorianCalendar;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A ProductListViewEvent is to be used when a user views a listing view of items. It is composed of a list of {@link Product}s
@@ -30,8 +30,12 @@ import java.util.concurrent.atomic.AtomicReference;
  * @since v1.0
  */
 public class ProductListViewEvent extends Event{
-    private CopyOnWriteArrayList<Product> productList = new CopyOnWriteArrayList<>();
-    private AtomicReference<Currency> currency = new AtomicReference<>();
+    private static final EventPool<ProductListViewEvent> pool = new EventPool<>();
+
+    private volatile CopyOnWriteArrayList<Product> productList = new CopyOnWriteArrayList<>();
+    // set instead of the list when the products are given as a batch, until the list is requested
+    private volatile ProductBatch productBatch;
+    private volatile Currency currency;
 
 
     /**
@@ -50,6 +54,15 @@ public class ProductListViewEvent extends Event{
         setProductList(new ArrayList<>(Arrays.asList(products)));
     }
 
+    /**
+     * Construct a new ProductListViewEvent with a batch of your products. Their quantities are not sent.
+     * @param products {@link ProductBatch} of the viewed products
+     * @since v1.2
+     */
+    public ProductListViewEvent(ProductBatch products) {
+        setProductBatch(products);
+    }
+
     /**
      * Contruct a new ProductListViewEvent with an iterable of your products, an overidden currency and a start date and end date.
      * @param productList Iterable of {@link Product}
@@ -64,14 +77,170 @@ public class ProductListViewEvent extends Event{
         setCurrency(currency);
     }
 
+    private ProductListViewEvent(Builder builder) {
+        super(builder);
+        this.productList = new CopyOnWriteArrayList<>(builder.products);
+        this.currency = builder.currency;
+    }
+
+    /**
+     * Builder of {@link ProductListViewEvent}s, which creates the event with all its products
+     * in a single step.
+     * @since v1.2
+     */
+    public static class Builder extends Event.Builder<Builder> {
+        private final ArrayList<Product> products = new ArrayList<>();
+        private Currency currency;
+
+        /**
+         * Starts building a ProductListViewEvent.
+         */
+        public Builder() {
+        }
+
+        @Override
+        Builder self() {
+            return this;
+        }
+
+        /**
+         * Add a new {@link Product} to the event's product list.
+         * @param product the product to add
+         * @return this builder
+         */
+        public Builder addProduct(Product product) {
+            if (product == null) {
+                CRTOLog.e("Argument product must not be null");
+                return this;
+            }
+            products.add(copyProduct(product));
+            return this;
+        }
+
+        /**
+         * Add {@link Product}s to the event's product list.
+         * @param products Iterable of {@link Product}
+         * @return this builder
+         */
+        public Builder addProducts(Iterable<Product> products) {
+            for (Product product : products) {
+                addProduct(product);
+            }
+            return this;
+        }
+
+        /**
+         * This overrides the default currency for the event.
+         * @param currency Currency of products
+         * @return this builder
+         */
+        public Builder setCurrency(Currency currency) {
+            if (currency == null) {
+                CRTOLog.e("Argument currency must not be null");
+                return this;
+            }
+            this.currency = currency;
+            return this;
+        }
+
+        @Override
+        public Builder setStartDate(GregorianCalendar startDate) {
+            return super.setStartDate(startDate);
+        }
+
+        @Override
+        public Builder setEndDate(GregorianCalendar endDate) {
+            return super.setEndDate(endDate);
+        }
+
+        /**
+         * Creates the event.
+         * @return a new ProductListViewEvent
+         */
+        public ProductListViewEvent build() {
+            return new ProductListViewEvent(this);
+        }
+    }
+
     /**
      * Construct a new ProductListViewEvent by copying another ProductListViewEvent
      * @param event Event to copy
      */
     public ProductListViewEvent(ProductListViewEvent event) {
         super(event);
-        setProductList(event.productList);
-        setCurrency(event.currency.get());
+        CopyOnWriteArrayList<Product> products;
+        ProductBatch productBatch;
+        synchronized (event) {
+            products = event.productList;
+            productBatch = event.productBatch;
+        }
+        // products and batches are immutable and can be shared
+        this.productList = products != null ? new CopyOnWriteArrayList<>(products) : null;
+        this.productBatch = productBatch;
+        this.currency = event.currency;
+    }
+
+    /**
+     * Obtain a ProductListViewEvent with an iterable of your products, reusing a previously sent event when possible.
+     * This avoids creating an event each time for applications that send listing views at a high rate, such as on every scroll.
+     * The event is recycled when sent with {@link EventService#send(ProductListViewEvent)}, and must not be used afterwards.
+     * If it is not sent, it should be given back with {@link #recycle()}.
+     * @param productList Iterable of {@link Product}
+     * @return an event in its initial state
+     * @since v1.2
+     */
+    public static ProductListViewEvent obtain(Iterable<Product> productList) {
+        ProductListViewEvent event = pool.obtain();
+        if (event == null) {
+            event = new ProductListViewEvent(productList);
+            pool.onObtained(event);
+        } else {
+            event.setProductList(productList);
+            event.setTimestampMillis(System.currentTimeMillis());
+        }
+        return event;
+    }
+
+    /**
+     * Obtain a ProductListViewEvent with a batch of your products, reusing a previously sent event when possible.
+     * See {@link #obtain(Iterable)}.
+     * @param products {@link ProductBatch} of the viewed products
+     * @return an event in its initial state
+     * @since v1.2
+     */
+    public static ProductListViewEvent obtain(ProductBatch products) {
+        ProductListViewEvent event = pool.obtain();
+        if (event == null) {
+            event = new ProductListViewEvent(products);
+            pool.onObtained(event);
+        } else {
+            event.setProductBatch(products);
+            event.setTimestampMillis(System.currentTimeMillis());
+        }
+        return event;
+    }
+
+    /**
+     * Give back an event obtained with {@link #obtain(Iterable)} that is not going to be sent, so that it can be reused.
+     * The event must not be used afterwards. Sent events are recycled automatically.
+     * @since v1.2
+     */
+    public void recycle() {
+        if (pool.beginRecycle(this)) {
+            synchronized (this) {
+                productList = new CopyOnWriteArrayList<>();
+                productBatch = null;
+            }
+            currency = null;
+            pool.release(this);
+        }
+    }
+
+    @Override
+    void onSent() {
+        if (poolState == EventPool.IN_USE) {
+            recycle();
+        }
     }
 
     /**
@@ -85,38 +254,79 @@ public class ProductListViewEvent extends Event{
             CRTOLog.e("Argument currency must not be null");
             return;
         }
-        this.currency.set(currency);
+        this.currency = currency;
     }
 
     public Currency getCurrency() {
-        return this.currency.get();
+        return this.currency;
     }
 
     public CopyOnWriteArrayList<Product> getProductList() {
+        CopyOnWriteArrayList<Product> products = productList;
+        return products != null ? products : makeProductList();
+    }
+
+    private synchronized CopyOnWriteArrayList<Product> makeProductList() {
+        if (productList == null) {
+            Product[] products = new Product[productBatch.size()];
+            for (int i = 0; i < products.length; i++) {
+                products[i] = new Product(productBatch.getProductId(i), productBatch.getPrice(i));
+            }
+            productList = new CopyOnWriteArrayList<>(products);
+            productBatch = null;
+        }
         return productList;
     }
 
-    private CopyOnWriteArrayList<Product> makeProducts(Iterable<Product> catalogProducts){
-        CopyOnWriteArrayList<Product> catalogProductList = new CopyOnWriteArrayList<>();
+    /**
+     * Gets the products given as a batch, or null if they are held in the product list.
+     */
+    ProductBatch getProductBatch() {
+        return productBatch;
+    }
+
+    private static CopyOnWriteArrayList<Product> makeProducts(Iterable<Product> catalogProducts){
+        ArrayList<Product> catalogProductList = new ArrayList<>();
 
         for(Product product: catalogProducts) {
-            catalogProductList.add(new Product(product.getProductId(),product.getPrice()));
+            catalogProductList.add(copyProduct(product));
         }
 
-        return catalogProductList;
+        // created from all the products at once, instead of copying its array on each addition
+        return new CopyOnWriteArrayList<>(catalogProductList);
+    }
+
+    private static Product copyProduct(Product product) {
+        // products are immutable and shared, unless they are instances of a subclass
+        return product.getClass() == Product.class ? product : new Product(product.getProductId(), product.getPrice());
     }
 
     /**
      * Sets a new list of {@link Product}. Only one list is associated per event so this overwrites the current list.
      * @param productList Iterable of {@link Product}. Must not be null.
      */
-    public void setProductList(Iterable<Product> productList) {
+    public synchronized void setProductList(Iterable<Product> productList) {
         if (productList == null) {
             CRTOLog.e("Argument productList must not be null");
             return;
         }
 
         this.productList = makeProducts(productList);
+        this.productBatch = null;
+    }
+
+    /**
+     * Sets the products from a {@link ProductBatch}, which is copied. Only one list is associated per event so this overwrites the current list.
+     * @param products Batch of products. Must not be null.
+     * @since v1.2
+     */
+    public synchronized void setProductBatch(ProductBatch products) {
+        if (products == null) {
+            CRTOLog.e("Argument products must not be null");
+            return;
+        }
+        this.productBatch = new ProductBatch(products);
+        this.productList = null;
     }
 
     @Override
@@ -19,7 +19,6 @@ import com.criteo.events.product.Product;
 
 import java.util.Currency;
 import java.util.GregorianCalendar;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A ProductViewEvent is to be used when a user views a single product. It is composed of a product Id and price, or a {@link Product}
@@ -27,8 +26,10 @@ import java.util.concurrent.atomic.AtomicReference;
  * @since v1.0
  */
 public class ProductViewEvent extends Event {
-    private AtomicReference<Product> product = new AtomicReference<>();
-    private AtomicReference<Currency> currency = new AtomicReference<>();
+    private static final EventPool<ProductViewEvent> pool = new EventPool<>();
+
+    private volatile Product product;
+    private volatile Currency currency;
 
     /**
      * Construct a new ProductViewEvent with a product Id string and price
@@ -36,7 +37,7 @@ public class ProductViewEvent extends Event {
      * @param price Float of price
      */
     public ProductViewEvent(String productId, double price) {
-        product.set(new Product(productId, price));
+        this.product = new Product(productId, price);
     }
 
     /**
@@ -44,7 +45,7 @@ public class ProductViewEvent extends Event {
      * @param product CatalogProduct
      */
     public ProductViewEvent(Product product) {
-        this.product.set(product);
+        this.product = product;
     }
 
     /**
@@ -55,7 +56,7 @@ public class ProductViewEvent extends Event {
      * @param endDate The optional end date associated with the viewing
      */
     public ProductViewEvent(Product product, Currency currency, GregorianCalendar startDate, GregorianCalendar endDate) {
-        this.product.set(product);
+        this.product = product;
         setStartDate(startDate);
         setEndDate(endDate);
         setCurrency(currency);
@@ -67,8 +68,61 @@ public class ProductViewEvent extends Event {
      */
     public ProductViewEvent(ProductViewEvent event) {
         super(event);
-        setProduct(event.product.get());
-        setCurrency(currency.get());
+        setProduct(event.product);
+        this.currency = event.currency;
+    }
+
+    /**
+     * Obtain a ProductViewEvent with a product Id string and price, reusing a previously sent event when possible.
+     * This avoids creating an event each time for applications that send product views at a high rate, such as on every scroll.
+     * The event is recycled when sent with {@link EventService#send(ProductViewEvent)}, and must not be used afterwards.
+     * If it is not sent, it should be given back with {@link #recycle()}.
+     * @param productId String of product Id.
+     * @param price Float of price
+     * @return an event in its initial state
+     * @since v1.2
+     */
+    public static ProductViewEvent obtain(String productId, double price) {
+        return obtain(new Product(productId, price));
+    }
+
+    /**
+     * Obtain a ProductViewEvent with a {@link Product}, reusing a previously sent event when possible.
+     * See {@link #obtain(String, double)}.
+     * @param product CatalogProduct
+     * @return an event in its initial state
+     * @since v1.2
+     */
+    public static ProductViewEvent obtain(Product product) {
+        ProductViewEvent event = pool.obtain();
+        if (event == null) {
+            event = new ProductViewEvent(product);
+            pool.onObtained(event);
+        } else {
+            event.product = product;
+            event.setTimestampMillis(System.currentTimeMillis());
+        }
+        return event;
+    }
+
+    /**
+     * Give back an event obtained with {@link #obtain(Product)} that is not going to be sent, so that it can be reused.
+     * The event must not be used afterwards. Sent events are recycled automatically.
+     * @since v1.2
+     */
+    public void recycle() {
+        if (pool.beginRecycle(this)) {
+            product = null;
+            currency = null;
+            pool.release(this);
+        }
+    }
+
+    @Override
+    void onSent() {
+        if (poolState == EventPool.IN_USE) {
+            recycle();
+        }
     }
 
     /**
@@ -82,15 +136,15 @@ public class ProductViewEvent extends Event {
             CRTOLog.e("Argument currency must not be null");
             return;
         }
-        this.currency.set(currency);
+        this.currency = currency;
     }
 
     public Currency getCurrency() {
-        return this.currency.get();
+        return this.currency;
     }
 
     public Product getProduct() {
-        return product.get();
+        return product;
     }
 
     /**
@@ -102,7 +156,7 @@ public class ProductViewEvent extends Event {
             CRTOLog.e("Argument product must not be null");
             return;
         }
-        this.product.set(product);
+        this.product = product;
     }
 
     @Override
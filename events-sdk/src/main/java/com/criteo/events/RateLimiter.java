@@ -0,0 +1,149 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits the number of requests per second and the number of bytes per minute sent to the server,
+ * so that a host application sending events in a loop cannot flood the network.
+ * The limits apply to all requests, and stricter limits can be added for a given event type.
+ * There are no limits until some are set.
+ * This class is thread safe.
+ */
+class RateLimiter {
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+
+    private long maxRequestsPerSecond;
+    private long maxRequestBurst;
+    private long maxBytesPerMinute;
+    // true when global limits are set
+    private boolean limited;
+    // true when global or event type limits are set, read without locking to skip unlimited requests
+    private volatile boolean enabled;
+
+    private TokenBucket requestBucket;
+    private TokenBucket byteBucket;
+
+    private final Map<String, RateLimiter> eventTypeLimiters = new HashMap<>();
+
+    /**
+     * Creates a rate limiter without any limit.
+     */
+    RateLimiter() {
+    }
+
+    /**
+     * @param maxRequestsPerSecond sustained number of requests per second
+     * @param maxRequestBurst number of requests that can be sent at once
+     * @param maxBytesPerMinute number of payload bytes per minute
+     */
+    RateLimiter(long maxRequestsPerSecond, long maxRequestBurst, long maxBytesPerMinute) {
+        setLimits(maxRequestsPerSecond, maxRequestBurst, maxBytesPerMinute);
+    }
+
+    /**
+     * Changes the global limits. The requests sent so far are forgotten.
+     * @param maxRequestsPerSecond sustained number of requests per second
+     * @param maxRequestBurst number of requests that can be sent at once
+     * @param maxBytesPerMinute number of payload bytes per minute
+     */
+    synchronized void setLimits(long maxRequestsPerSecond, long maxRequestBurst, long maxBytesPerMinute) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.maxRequestBurst = maxRequestBurst;
+        this.maxBytesPerMinute = maxBytesPerMinute;
+        requestBucket = null;
+        byteBucket = null;
+        limited = true;
+        enabled = true;
+    }
+
+    /**
+     * Removes all limits, including the ones of event types.
+     */
+    synchronized void clearLimits() {
+        requestBucket = null;
+        byteBucket = null;
+        limited = false;
+        eventTypeLimiters.clear();
+        enabled = false;
+    }
+
+    /**
+     * @return true if some limits are set, false if all requests are allowed
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds specific limits for an event type, which apply on top of the global limits.
+     * @param eventType the name of the event, as sent to the server
+     * @param maxRequestsPerSecond sustained number of requests per second
+     * @param maxRequestBurst number of requests that can be sent at once
+     * @param maxBytesPerMinute number of payload bytes per minute
+     */
+    synchronized void setLimits(String eventType, long maxRequestsPerSecond, long maxRequestBurst, long maxBytesPerMinute) {
+        eventTypeLimiters.put(eventType, new RateLimiter(maxRequestsPerSecond, maxRequestBurst, maxBytesPerMinute));
+        enabled = true;
+    }
+
+    /**
+     * Tries to get the permission to send a request. Tokens are only consumed when the request is allowed.
+     * @param eventType the name of the event sent, or null if the request contains several types of events
+     * @param bytes size of the payload in bytes, once encoded in UTF-8
+     * @param now current time in milliseconds
+     * @return 0 if the request can be sent right now, or the time to wait in milliseconds
+     */
+    synchronized long tryAcquire(String eventType, long bytes, long now) {
+        RateLimiter eventTypeLimiter = eventType != null ? eventTypeLimiters.get(eventType) : null;
+
+        long wait = getWaitTime(bytes, now);
+        if (eventTypeLimiter != null) {
+            wait = Math.max(wait, eventTypeLimiter.getWaitTime(bytes, now));
+        }
+        if (wait > 0) {
+            return wait;
+        }
+
+        consume(bytes);
+        if (eventTypeLimiter != null) {
+            eventTypeLimiter.consume(bytes);
+        }
+        return 0;
+    }
+
+    private long getWaitTime(long bytes, long now) {
+        if (!limited) {
+            return 0;
+        }
+        if (requestBucket == null) {
+            requestBucket = new TokenBucket(maxRequestBurst, maxRequestsPerSecond, SECOND, now);
+            byteBucket = new TokenBucket(maxBytesPerMinute, maxBytesPerMinute, MINUTE, now);
+        }
+        return Math.max(requestBucket.getWaitTime(1, now), byteBucket.getWaitTime(bytes, now));
+    }
+
+    private void consume(long bytes) {
+        if (!limited) {
+            return;
+        }
+        requestBucket.consume(1);
+        byteBucket.consume(bytes);
+    }
+}
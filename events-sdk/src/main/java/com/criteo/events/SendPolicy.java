@@ -15,28 +15,47 @@
  */
 package com.criteo.events;
 
-import java.util.Date;
-
 class SendPolicy {
     static final long DEFAULT_MAX_QUEUE_SIZE = 15;
     static final long DEFAULT_VALIDITY_DURATION = 3600000;
     static final long DEFAULT_MAX_ATTEMPTS = 3;
     static final long DEFAULT_MAX_REDIRECT_ATTEMPTS = 3;
 
+    // events with a lower priority are evicted first when the queue is full
+    static final int PRIORITY_LOW = 0;
+    static final int PRIORITY_NORMAL = 1;
+    static final int PRIORITY_HIGH = 2;
+
     private final long maxQueueSize;
     private final long validityDuration;
     private final long maxAttempts;
     private final long maxRedirectAttempts;
+    private final int priority;
+    private final long batchingDelay;
 
     public SendPolicy() {
         this(DEFAULT_MAX_QUEUE_SIZE, DEFAULT_VALIDITY_DURATION, DEFAULT_MAX_ATTEMPTS, DEFAULT_MAX_REDIRECT_ATTEMPTS);
     }
 
     public SendPolicy(long maxQueueSize, long validityDuration, long maxAttempts, long maxRedirectAttempts) {
+        this(maxQueueSize, validityDuration, maxAttempts, maxRedirectAttempts, PRIORITY_NORMAL, 0);
+    }
+
+    /**
+     * @param maxQueueSize maximum number of events waiting to be sent
+     * @param validityDuration time in milliseconds after which an event is not worth sending anymore
+     * @param maxAttempts maximum number of attempts to send an event
+     * @param maxRedirectAttempts maximum number of redirects followed for a single attempt
+     * @param priority priority of the event when the queue is full
+     * @param batchingDelay time in milliseconds an event may be held back to be sent along with other events
+     */
+    public SendPolicy(long maxQueueSize, long validityDuration, long maxAttempts, long maxRedirectAttempts, int priority, long batchingDelay) {
         this.maxQueueSize = maxQueueSize;
         this.validityDuration = validityDuration;
         this.maxAttempts = maxAttempts;
         this.maxRedirectAttempts = maxRedirectAttempts;
+        this.priority = priority;
+        this.batchingDelay = batchingDelay;
     }
 
     public boolean isQueueFull(int queueSize) {
@@ -44,11 +63,18 @@ class SendPolicy {
     }
 
     public boolean isEventExpired(long eventTimestamp) {
-        boolean expired = false;
-        if(new Date().getTime() - eventTimestamp > validityDuration) {
-            expired = true;
-        }
-        return expired;
+        return isEventExpired(eventTimestamp, System.currentTimeMillis());
+    }
+
+    /**
+     * @param now the current time in milliseconds since the epoch, read once by callers checking many events
+     */
+    boolean isEventExpired(long eventTimestamp, long now) {
+        return now - eventTimestamp > validityDuration;
+    }
+
+    public long getExpirationTime(long eventTimestamp) {
+        return eventTimestamp + validityDuration;
     }
 
     public boolean canRetry(int attempts) {
@@ -58,4 +84,12 @@ class SendPolicy {
     public boolean canRetryRedirect(int attempts) {
         return attempts < maxRedirectAttempts;
     }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public long getBatchingDelay() {
+        return batchingDelay;
+    }
 }
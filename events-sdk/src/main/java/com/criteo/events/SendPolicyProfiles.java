@@ -0,0 +1,104 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the {@link SendPolicy} used for each type of event. Event types without a specific profile,
+ * which are all of them by default, use the default policy of the {@link EventPoster}.
+ * The presets are applied on request: a transaction is worth retrying for a whole day and must be
+ * the last event evicted from a full queue, while a product view is only relevant for a few minutes
+ * and can wait to be sent along with the next events.
+ */
+enum SendPolicyProfiles {
+    INSTANCE;
+
+    static final long MINUTE = 60 * 1000;
+    static final long HOUR = 60 * MINUTE;
+
+    private static final Map<Class<? extends Event>, String> eventTypes = new HashMap<>();
+    static
+    {
+        eventTypes.put(AppLaunchEvent.class, EventKeys.APP_LAUNCH);
+        eventTypes.put(BasketViewEvent.class, EventKeys.BASKET_VIEW);
+        eventTypes.put(DataEvent.class, EventKeys.DATA_EVENT);
+        eventTypes.put(DeeplinkEvent.class, EventKeys.DEEPLINK_EVENT);
+        eventTypes.put(HomeViewEvent.class, EventKeys.HOME_VIEW);
+        eventTypes.put(ProductListViewEvent.class, EventKeys.PRODUCT_LIST_VIEW);
+        eventTypes.put(ProductViewEvent.class, EventKeys.PRODUCT_VIEW);
+        eventTypes.put(TransactionConfirmationEvent.class, EventKeys.TRANSACTION_CONFIRMATION);
+    }
+
+    private final ConcurrentHashMap<String, SendPolicy> profiles = new ConcurrentHashMap<>();
+
+    /**
+     * Removes all profiles, so that every type of event uses the default policy.
+     */
+    void reset() {
+        profiles.clear();
+    }
+
+    /**
+     * Applies the presets of transactions, product views and product list views.
+     */
+    void applyPresets() {
+        profiles.put(EventKeys.TRANSACTION_CONFIRMATION, new SendPolicy(SendPolicy.DEFAULT_MAX_QUEUE_SIZE, 24 * HOUR, 20,
+                SendPolicy.DEFAULT_MAX_REDIRECT_ATTEMPTS, SendPolicy.PRIORITY_HIGH, 0));
+        profiles.put(EventKeys.PRODUCT_VIEW, new SendPolicy(SendPolicy.DEFAULT_MAX_QUEUE_SIZE, 5 * MINUTE, SendPolicy.DEFAULT_MAX_ATTEMPTS,
+                SendPolicy.DEFAULT_MAX_REDIRECT_ATTEMPTS, SendPolicy.PRIORITY_LOW, 10000));
+        profiles.put(EventKeys.PRODUCT_LIST_VIEW, new SendPolicy(SendPolicy.DEFAULT_MAX_QUEUE_SIZE, 5 * MINUTE, SendPolicy.DEFAULT_MAX_ATTEMPTS,
+                SendPolicy.DEFAULT_MAX_REDIRECT_ATTEMPTS, SendPolicy.PRIORITY_LOW, 10000));
+    }
+
+    /**
+     * Sets the policy used for a type of event.
+     * The queue size of the policy is ignored, as all events share the same queue.
+     * @param eventClass the class of the event
+     * @param sendPolicy the policy to use, or null to use the default policy
+     */
+    void set(Class<? extends Event> eventClass, SendPolicy sendPolicy) {
+        String eventType = getEventType(eventClass);
+        if (eventType == null) {
+            return;
+        }
+        if (sendPolicy == null) {
+            profiles.remove(eventType);
+        } else {
+            profiles.put(eventType, sendPolicy);
+        }
+    }
+
+    /**
+     * @return the name of the events of a class, as sent to the server, or null if the class is unknown
+     */
+    static String getEventType(Class<? extends Event> eventClass) {
+        return eventTypes.get(eventClass);
+    }
+
+    /**
+     * Gets the policy of a type of event.
+     * @param eventType the name of the event, as sent to the server
+     * @param defaultPolicy the policy used when the event type has no specific profile
+     * @return the policy to apply to the event
+     */
+    SendPolicy get(String eventType, SendPolicy defaultPolicy) {
+        SendPolicy sendPolicy = eventType != null ? profiles.get(eventType) : null;
+        return sendPolicy != null ? sendPolicy : defaultPolicy;
+    }
+}
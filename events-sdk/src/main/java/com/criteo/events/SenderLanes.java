@@ -0,0 +1,227 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import android.content.Intent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of sender lanes posting events concurrently, used to drain a backlog of events faster
+ * than one request at a time.
+ * Each lane has its own {@link EventPoster} and sends its events in order, so that events sharing
+ * an ordering key, such as the events of a transaction, are sent in order by the same lane.
+ * Other events are spread over the lanes in turn.
+ * A drain is started with {@link #startDrain()}, its events are submitted from the sender service
+ * thread, then {@link #awaitIdle()} returns the events to put back in the queue.
+ * The pool is kept for the following drains until {@link #shutdown()}, and the thread of a lane
+ * stops when it has been idle for {@link #KEEP_ALIVE} milliseconds.
+ */
+class SenderLanes {
+    static final int MAX_LANES = 8;
+
+    // maximum number of payload bytes being posted at the same time over all the lanes
+    static final int MAX_IN_FLIGHT_BYTES = 256 * 1024;
+
+    static final long KEEP_ALIVE = 30000;
+
+    private static final Comparator<LaneTask> SUBMISSION_ORDER = new Comparator<LaneTask>() {
+        @Override
+        public int compare(LaneTask lhs, LaneTask rhs) {
+            return lhs.sequence - rhs.sequence;
+        }
+    };
+
+    private final ThreadPoolExecutor[] lanes;
+    private final EventPoster[] eventPosters;
+    private final Semaphore inFlightBytes;
+    private final int maxInFlightBytes;
+    private final List<LaneTask> unsentTasks = new ArrayList<>();
+
+    private int nextLane;
+    private int submitted;
+    private int completed;
+    private volatile boolean stopped;
+
+    private class LaneTask implements Runnable {
+        private final int sequence;
+        private final int lane;
+        private final Intent eventIntent;
+        private final String eventPayload;
+        private final long eventTimestamp;
+        private final SendPolicy sendPolicy;
+        private final int permits;
+
+        private LaneTask(int sequence, int lane, Intent eventIntent, String eventPayload, long eventTimestamp,
+                         SendPolicy sendPolicy, int permits) {
+            this.sequence = sequence;
+            this.lane = lane;
+            this.eventIntent = eventIntent;
+            this.eventPayload = eventPayload;
+            this.eventTimestamp = eventTimestamp;
+            this.sendPolicy = sendPolicy;
+            this.permits = permits;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // once a lane was told to retry later, the other events are kept for later too
+                if (stopped) {
+                    keepUnsent(this);
+                    return;
+                }
+
+                EventPoster.PostResult result = EventSenderService.postPayload(eventPosters[lane], sendPolicy,
+                        eventPayload, eventTimestamp);
+                if (result == EventPoster.PostResult.RETRY_LATER) {
+                    stopped = true;
+                    eventIntent.putExtra("retries", eventIntent.getIntExtra("retries", 0) + 1);
+                    keepUnsent(this);
+                } else if (result == EventPoster.PostResult.REDIRECT) {
+                    SenderMetrics.INSTANCE.droppedEvents.incrementAndGet();
+                    EventSenderService.settleTransactions(eventIntent, false);
+                } else if (result == EventPoster.PostResult.DONE) {
+                    EventSenderService.settleTransactions(eventIntent, true);
+                }
+            } finally {
+                inFlightBytes.release(permits);
+                complete();
+            }
+        }
+    }
+
+    /**
+     * @param laneCount number of lanes, capped to {@link #MAX_LANES}
+     * @param eventPosterFactory factory creating the poster of each lane
+     */
+    SenderLanes(int laneCount, EventPosterFactory eventPosterFactory) {
+        this(laneCount, eventPosterFactory, MAX_IN_FLIGHT_BYTES);
+    }
+
+    SenderLanes(int laneCount, EventPosterFactory eventPosterFactory, int maxInFlightBytes) {
+        laneCount = Math.max(1, Math.min(laneCount, MAX_LANES));
+        lanes = new ThreadPoolExecutor[laneCount];
+        eventPosters = new EventPoster[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new ThreadPoolExecutor(1, 1, KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+            lanes[i].allowCoreThreadTimeOut(true);
+            eventPosters[i] = eventPosterFactory.createEventPoster();
+        }
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.inFlightBytes = new Semaphore(maxInFlightBytes);
+    }
+
+    int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @return true once a lane was told to retry later, meaning that no more events should be submitted
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Queues an event on a lane. Blocks while too many bytes are being posted.
+     * @param orderingKey key of the events that must be sent in order, or null
+     */
+    void submit(Intent eventIntent, String eventPayload, long eventTimestamp, SendPolicy sendPolicy,
+                String orderingKey) {
+        int lane;
+        if (orderingKey != null) {
+            lane = (orderingKey.hashCode() & Integer.MAX_VALUE) % lanes.length;
+        } else {
+            lane = nextLane;
+            nextLane = (nextLane + 1) % lanes.length;
+        }
+
+        // a payload bigger than the cap is sent alone
+        int permits = Math.min(EventPoster.getEncodedLength(eventPayload), maxInFlightBytes);
+        inFlightBytes.acquireUninterruptibly(permits);
+
+        int sequence;
+        synchronized (this) {
+            sequence = submitted++;
+        }
+        lanes[lane].execute(new LaneTask(sequence, lane, eventIntent, eventPayload, eventTimestamp, sendPolicy,
+                permits));
+    }
+
+    /**
+     * Waits until all submitted events are processed, which ends the drain.
+     * @return the events that were not delivered and must be put back in the queue, in submission order
+     */
+    List<Intent> awaitIdle() {
+        // events being posted cannot be abandoned, or they would be lost if they are not delivered
+        boolean interrupted = false;
+        synchronized (this) {
+            while (completed < submitted) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Intent> unsentIntents = new ArrayList<>();
+        synchronized (this) {
+            Collections.sort(unsentTasks, SUBMISSION_ORDER);
+            for (LaneTask task : unsentTasks) {
+                unsentIntents.add(task.eventIntent);
+            }
+            unsentTasks.clear();
+        }
+        return unsentIntents;
+    }
+
+    /**
+     * Starts a new drain, in which events are sent again after a lane was told to retry later.
+     */
+    void startDrain() {
+        stopped = false;
+    }
+
+    /**
+     * Releases the lanes once the events of the last drain are processed.
+     */
+    void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    private synchronized void keepUnsent(LaneTask task) {
+        unsentTasks.add(task);
+    }
+
+    private synchronized void complete() {
+        completed++;
+        notifyAll();
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing the activity of the sender service, mostly useful to check the behavior
+ * of the sending policies.
+ */
+enum SenderMetrics {
+    INSTANCE;
+
+    // number of times an event was held back by the rate limiter
+    final AtomicLong throttledEvents = new AtomicLong();
+    // number of events discarded without being delivered
+    final AtomicLong droppedEvents = new AtomicLong();
+    // estimated number of events sent in time thanks to deadline ordering, that would have expired in FIFO order
+    final AtomicLong deadlineSavedEvents = new AtomicLong();
+    // number of events merged into an equivalent event instead of being sent again
+    final AtomicLong coalescedEvents = new AtomicLong();
+    // number of transactions suppressed because their ID was sent recently, or probably sent before
+    final AtomicLong duplicateTransactions = new AtomicLong();
+    final AtomicLong probableDuplicateTransactions = new AtomicLong();
+    // number and total duration in milliseconds of the requests sent
+    final AtomicLong postCount = new AtomicLong();
+    final AtomicLong postTime = new AtomicLong();
+
+    void recordPost(long duration) {
+        postCount.incrementAndGet();
+        postTime.addAndGet(duration);
+    }
+
+    long getAveragePostTime() {
+        long count = postCount.get();
+        return count > 0 ? postTime.get() / count : DeadlineOrdering.DEFAULT_POST_TIME;
+    }
+
+    void reset() {
+        throttledEvents.set(0);
+        droppedEvents.set(0);
+        deadlineSavedEvents.set(0);
+        coalescedEvents.set(0);
+        duplicateTransactions.set(0);
+        probableDuplicateTransactions.set(0);
+        postCount.set(0);
+        postTime.set(0);
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats dates as UTC ISO-8601 strings, such as "2015-01-01T12:30:00Z", directly into a byte buffer.
+ * The output is the one of a {@link SimpleDateFormat} using the "yyyy-MM-dd'T'HH:mm:ss'Z'" pattern,
+ * without allocating anything: the fields are computed from the epoch and the last formatted second
+ * is cached, as most events are sent within a few seconds of each other.
+ * Calendar days, such as travel dates, are handled as a number of days since the epoch, in the
+ * proleptic Gregorian calendar.
+ * This class is thread safe.
+ */
+final class TimestampFormatter {
+    /**
+     * Maximum number of bytes written by the format methods.
+     */
+    static final int MAX_LENGTH = 32;
+
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long SECONDS_PER_DAY = 86400;
+
+    // the first instant of the Gregorian calendar, 1582-10-15T00:00:00Z. Before it, SimpleDateFormat
+    // uses the Julian calendar, so the fallback formatter is used instead.
+    private static final long GREGORIAN_CUTOVER = -12219292800000L;
+    // the last instant with a four-digit year, 9999-12-31T23:59:59.999Z
+    private static final long MAX_FOUR_DIGIT_YEAR = 253402300799999L;
+
+    private static final byte[] MIDNIGHT_UTC = "T00:00:00Z".getBytes();
+
+    private static volatile CachedSecond cachedSecond;
+
+    private static final class CachedSecond {
+        private final long second;
+        private final byte[] formatted;
+
+        private CachedSecond(long second, byte[] formatted) {
+            this.second = second;
+            this.formatted = formatted;
+        }
+    }
+
+    private TimestampFormatter() {}
+
+    /**
+     * Writes a date as "yyyy-MM-ddTHH:mm:ssZ" in UTC.
+     * @param epochMillis the date in milliseconds since the epoch
+     * @param dest the buffer to write to, with at least {@link #MAX_LENGTH} bytes left from offset
+     * @param offset where to write in the buffer
+     * @return the offset following the last written byte
+     */
+    static int format(long epochMillis, byte[] dest, int offset) {
+        long second = floorDiv(epochMillis, MILLIS_PER_SECOND);
+        CachedSecond cached = cachedSecond;
+        if (cached != null && cached.second == second) {
+            System.arraycopy(cached.formatted, 0, dest, offset, cached.formatted.length);
+            return offset + cached.formatted.length;
+        }
+
+        int end;
+        if (epochMillis < GREGORIAN_CUTOVER || epochMillis > MAX_FOUR_DIGIT_YEAR) {
+            end = writeAscii(formatWithDateFormat(epochMillis), dest, offset);
+        } else {
+            long day = floorDiv(second, SECONDS_PER_DAY);
+            int secondOfDay = (int) (second - day * SECONDS_PER_DAY);
+            end = writeDate(day, dest, offset);
+            dest[end++] = 'T';
+            end = writeTwoDigits(secondOfDay / 3600, dest, end);
+            dest[end++] = ':';
+            end = writeTwoDigits(secondOfDay / 60 % 60, dest, end);
+            dest[end++] = ':';
+            end = writeTwoDigits(secondOfDay % 60, dest, end);
+            dest[end++] = 'Z';
+        }
+
+        byte[] formatted = new byte[end - offset];
+        System.arraycopy(dest, offset, formatted, 0, formatted.length);
+        cachedSecond = new CachedSecond(second, formatted);
+        return end;
+    }
+
+    /**
+     * Writes a day counted from the epoch as "yyyy-MM-ddT00:00:00Z", like {@link #formatDay(int, int, int, byte[], int)}.
+     * @return the offset following the last written byte
+     */
+    static int formatEpochDay(int epochDay, byte[] dest, int offset) {
+        long date = civilDate(epochDay);
+        return formatDay(yearOf(date), monthOf(date), dayOf(date), dest, offset);
+    }
+
+    /**
+     * Returns the day of the year, month and day of month of a calendar, regardless of its time
+     * zone and era, counted from the epoch.
+     */
+    static int epochDay(Calendar date) {
+        return epochDay(date.get(Calendar.YEAR), date.get(Calendar.MONTH) + 1, date.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * Returns a calendar at midnight of a day counted from the epoch, in the default time zone.
+     */
+    static GregorianCalendar toCalendar(int epochDay) {
+        long date = civilDate(epochDay);
+        return new GregorianCalendar(yearOf(date), monthOf(date) - 1, dayOf(date));
+    }
+
+    /**
+     * Returns the number of days from 1970-01-01 to a date of the proleptic Gregorian calendar.
+     * @param month the month, from 1 to 12
+     */
+    static int epochDay(int year, int month, int day) {
+        // the inverse of civilDate, with years starting in March
+        long shiftedYear = month <= 2 ? year - 1 : year;
+        long era = floorDiv(shiftedYear, 400);
+        int yearOfEra = (int) (shiftedYear - era * 400);
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return (int) (era * 146097 + dayOfEra - 719468);
+    }
+
+    /**
+     * Writes a calendar day as "yyyy-MM-ddT00:00:00Z", the year being padded to four digits.
+     * @param month the month, from 1 to 12
+     * @return the offset following the last written byte
+     */
+    static int formatDay(int year, int month, int day, byte[] dest, int offset) {
+        if (year >= 0 && year < 10000) {
+            offset = writeTwoDigits(year / 100, dest, offset);
+            offset = writeTwoDigits(year % 100, dest, offset);
+        } else {
+            offset = writeAscii(Integer.toString(year), dest, offset);
+        }
+        dest[offset++] = '-';
+        offset = writeTwoDigits(month, dest, offset);
+        dest[offset++] = '-';
+        offset = writeTwoDigits(day, dest, offset);
+        System.arraycopy(MIDNIGHT_UTC, 0, dest, offset, MIDNIGHT_UTC.length);
+        return offset + MIDNIGHT_UTC.length;
+    }
+
+    /**
+     * Parses a date written by {@link #format(long, byte[], int)}, as "yyyy-MM-ddTHH:mm:ssZ".
+     * @return the date in seconds since the epoch, or {@link Long#MIN_VALUE} if the text is not
+     * in this format or is before the Gregorian calendar
+     */
+    static long parseSeconds(byte[] src, int offset, int length) {
+        if (length != 20 || src[offset + 4] != '-' || src[offset + 7] != '-' || src[offset + 10] != 'T'
+                || src[offset + 13] != ':' || src[offset + 16] != ':' || src[offset + 19] != 'Z') {
+            return Long.MIN_VALUE;
+        }
+        int year = readDigits(src, offset, 4);
+        int month = readDigits(src, offset + 5, 2);
+        int day = readDigits(src, offset + 8, 2);
+        int hour = readDigits(src, offset + 11, 2);
+        int minute = readDigits(src, offset + 14, 2);
+        int second = readDigits(src, offset + 17, 2);
+        if (year < 1582 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+
+        long epochSecond = epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+        return epochSecond * MILLIS_PER_SECOND >= GREGORIAN_CUTOVER ? epochSecond : Long.MIN_VALUE;
+    }
+
+    /**
+     * Reads a positive number, returning -1 if a character is not a digit.
+     */
+    private static int readDigits(byte[] src, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            if (src[i] < '0' || src[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + (src[i] - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Returns the date of a day counted from the epoch, in the proleptic Gregorian calendar, with its
+     * year, month and day packed in a long to be read with {@link #yearOf(long)}, {@link #monthOf(long)}
+     * and {@link #dayOf(long)}.
+     */
+    private static long civilDate(long epochDay) {
+        // shift the epoch to 0000-03-01, so that leap days end the 400-year eras and the years
+        long days = epochDay + 719468;
+        long era = floorDiv(days, 146097);
+        int dayOfEra = (int) (days - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year << 16 | month << 8 | day;
+    }
+
+    private static int yearOf(long civilDate) {
+        return (int) (civilDate >> 16);
+    }
+
+    private static int monthOf(long civilDate) {
+        return (int) (civilDate >> 8 & 0xff);
+    }
+
+    private static int dayOf(long civilDate) {
+        return (int) (civilDate & 0xff);
+    }
+
+    /**
+     * Writes the "yyyy-MM-dd" date of a day counted from the epoch, for years of four digits.
+     */
+    private static int writeDate(long epochDay, byte[] dest, int offset) {
+        long date = civilDate(epochDay);
+        int year = yearOf(date);
+        int month = monthOf(date);
+        int day = dayOf(date);
+
+        offset = writeTwoDigits(year / 100, dest, offset);
+        offset = writeTwoDigits(year % 100, dest, offset);
+        dest[offset++] = '-';
+        offset = writeTwoDigits(month, dest, offset);
+        dest[offset++] = '-';
+        return writeTwoDigits(day, dest, offset);
+    }
+
+    private static int writeTwoDigits(int value, byte[] dest, int offset) {
+        dest[offset] = (byte) ('0' + value / 10);
+        dest[offset + 1] = (byte) ('0' + value % 10);
+        return offset + 2;
+    }
+
+    private static int writeAscii(String value, byte[] dest, int offset) {
+        for (int i = 0; i < value.length(); i++) {
+            dest[offset++] = (byte) value.charAt(i);
+        }
+        return offset;
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return (dividend % divisor != 0 && (dividend < 0) != (divisor < 0)) ? quotient - 1 : quotient;
+    }
+
+    private static String formatWithDateFormat(long epochMillis) {
+        DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ENGLISH);
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return df.format(new Date(epochMillis));
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+/**
+ * A token bucket holds up to a given amount of tokens and is refilled at a constant rate.
+ * Consuming tokens is only allowed when enough of them are available, which bounds both the
+ * sustained rate and the size of bursts.
+ * This class is not thread safe.
+ */
+class TokenBucket {
+    private final long capacity;
+    private final double refillPerMilli;
+
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param capacity maximum amount of tokens, which is also the maximum burst
+     * @param refillAmount amount of tokens added every refill period
+     * @param refillPeriod refill period in milliseconds
+     * @param now current time in milliseconds
+     */
+    TokenBucket(long capacity, long refillAmount, long refillPeriod, long now) {
+        this.capacity = capacity;
+        this.refillPerMilli = (double) refillAmount / refillPeriod;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Computes how long to wait before the given amount of tokens can be consumed.
+     * Amounts larger than the capacity only require the bucket to be full.
+     * @param amount amount of tokens needed
+     * @param now current time in milliseconds
+     * @return 0 if the tokens are available right now, or the time to wait in milliseconds
+     */
+    long getWaitTime(long amount, long now) {
+        refill(now);
+        double deficit = Math.min(amount, capacity) - tokens;
+        if (deficit <= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(deficit / refillPerMilli);
+    }
+
+    /**
+     * Removes tokens from the bucket. The caller must first make sure they are available.
+     */
+    void consume(long amount) {
+        tokens = Math.max(0, tokens - Math.min(amount, capacity));
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerMilli);
+            lastRefill = now;
+        }
+    }
+}
@@ -16,14 +16,13 @@
 package com.criteo.events;
 
 import com.criteo.events.product.BasketProduct;
+import com.criteo.events.product.ProductBatch;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Currency;
 import java.util.GregorianCalendar;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A TransactionConfirmationEvent is to be used when a user has confirmed and completed an in app transaction.
@@ -34,10 +33,11 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public class TransactionConfirmationEvent extends Event {
 
-    private CopyOnWriteArrayList<BasketProduct> basketProductList = new CopyOnWriteArrayList<>();
-    private AtomicReference<String> transactionId = new AtomicReference<>();
-    private AtomicReference<Currency> currency = new AtomicReference<>();
-    private AtomicBoolean newCustomer = new AtomicBoolean();
+    private volatile CopyOnWriteArrayList<BasketProduct> basketProductList = new CopyOnWriteArrayList<>();
+    // set instead of the list when the products are given as a batch, until the list is requested
+    private volatile ProductBatch basketProductBatch;
+    private volatile String transactionId;
+    private volatile Currency currency;
 
     /**
      * Contruct a TransactionConfirmationEvent with a transaction Id and an iterable of BasketProduct
@@ -59,6 +59,17 @@ public class TransactionConfirmationEvent extends Event {
         setBasketProductList(new ArrayList<>(Arrays.asList(basketProducts)));
     }
 
+    /**
+     * Contruct a TransactionConfirmationEvent with a transaction Id and a batch of products and their quantities
+     * @param transactionId String of the transaction Id
+     * @param basketProducts {@link ProductBatch} of the products in the transaction
+     * @since v1.2
+     */
+    public TransactionConfirmationEvent(String transactionId, ProductBatch basketProducts) {
+        setTransactionId(transactionId);
+        setBasketProductBatch(basketProducts);
+    }
+
     /**
      * Contruct a TransactionConfirmationEvent with a transaction Id and an iterable of BasketProduct, a start date and end date
      * @param transactionId String of the transaction Id
@@ -73,15 +84,136 @@ public class TransactionConfirmationEvent extends Event {
         setEndDate(endDate);
     }
 
+    private TransactionConfirmationEvent(Builder builder) {
+        super(builder);
+        this.transactionId = builder.transactionId;
+        this.basketProductList = new CopyOnWriteArrayList<>(builder.basketProducts);
+        this.currency = builder.currency;
+    }
+
+    /**
+     * Builder of {@link TransactionConfirmationEvent}s, which creates the event with all its basket
+     * products in a single step.
+     * @since v1.2
+     */
+    public static class Builder extends Event.Builder<Builder> {
+        private final String transactionId;
+        private final ArrayList<BasketProduct> basketProducts = new ArrayList<>();
+        private Currency currency;
+
+        /**
+         * Starts building a TransactionConfirmationEvent.
+         * @param transactionId String of the transaction Id. Must not be null.
+         */
+        public Builder(String transactionId) {
+            if (transactionId == null) {
+                CRTOLog.e("Argument transactionId must not be null");
+            }
+            this.transactionId = transactionId;
+        }
+
+        @Override
+        Builder self() {
+            return this;
+        }
+
+        /**
+         * Add a new {@link BasketProduct} to the event's basket product list.
+         * @param basketProduct the basket product to add
+         * @return this builder
+         */
+        public Builder addBasketProduct(BasketProduct basketProduct) {
+            if (basketProduct == null) {
+                CRTOLog.e("Argument basketProduct must not be null");
+                return this;
+            }
+            basketProducts.add(BasketViewEvent.copyBasketProduct(basketProduct));
+            return this;
+        }
+
+        /**
+         * Add {@link BasketProduct}s to the event's basket product list.
+         * @param basketProducts Iterable of {@link BasketProduct}
+         * @return this builder
+         */
+        public Builder addBasketProducts(Iterable<BasketProduct> basketProducts) {
+            for (BasketProduct basketProduct : basketProducts) {
+                addBasketProduct(basketProduct);
+            }
+            return this;
+        }
+
+        /**
+         * This overrides the default currency for the event.
+         * @param currency Currency of products
+         * @return this builder
+         */
+        public Builder setCurrency(Currency currency) {
+            if (currency == null) {
+                CRTOLog.e("Argument currency must not be null");
+                return this;
+            }
+            this.currency = currency;
+            return this;
+        }
+
+        /**
+         * Sets an optional boolean indicating whether the transaction is attributed to Criteo.
+         * @param deduplication the deduplication flag
+         * @return this builder
+         */
+        public Builder setDeduplication(boolean deduplication) {
+            extraData.putInt(EventKeys.DEDUPLICATION, deduplication ? 1 : 0);
+            return this;
+        }
+
+        /**
+         * Sets an optional boolean indicating whether or not this is the first sale recorded for
+         * the user associated with the transaction.
+         * @param newCustomer the newCustomer flag
+         * @return this builder
+         */
+        public Builder setNewCustomer(boolean newCustomer) {
+            extraData.putInt(EventKeys.NEW_CUSTOMER, newCustomer ? 1 : 0);
+            return this;
+        }
+
+        @Override
+        public Builder setStartDate(GregorianCalendar startDate) {
+            return super.setStartDate(startDate);
+        }
+
+        @Override
+        public Builder setEndDate(GregorianCalendar endDate) {
+            return super.setEndDate(endDate);
+        }
+
+        /**
+         * Creates the event.
+         * @return a new TransactionConfirmationEvent
+         */
+        public TransactionConfirmationEvent build() {
+            return new TransactionConfirmationEvent(this);
+        }
+    }
+
     /**
      * Construct a new TransactionConfirmationEvent by copying another TransactionConfirmationEvent
      * @param event Event to copy
      */
     public TransactionConfirmationEvent(TransactionConfirmationEvent event) {
         super(event);
-        setTransactionId(event.transactionId.get());
-        setBasketProductList(event.basketProductList);
-        setCurrency(event.currency.get());
+        CopyOnWriteArrayList<BasketProduct> basketProducts;
+        ProductBatch basketProductBatch;
+        synchronized (event) {
+            basketProducts = event.basketProductList;
+            basketProductBatch = event.basketProductBatch;
+        }
+        setTransactionId(event.transactionId);
+        // basket products and batches are immutable and can be shared
+        this.basketProductList = basketProducts != null ? new CopyOnWriteArrayList<>(basketProducts) : null;
+        this.basketProductBatch = basketProductBatch;
+        this.currency = event.currency;
     }
 
     /**
@@ -93,13 +225,29 @@ public class TransactionConfirmationEvent extends Event {
             CRTOLog.e("Argument basketProduct must not be null");
             return;
         }
-        basketProductList.add(basketProduct);
+        getBasketProductList().add(basketProduct);
     }
 
     public CopyOnWriteArrayList<BasketProduct> getBasketProductList() {
+        CopyOnWriteArrayList<BasketProduct> basketProducts = basketProductList;
+        return basketProducts != null ? basketProducts : makeBasketProductList();
+    }
+
+    private synchronized CopyOnWriteArrayList<BasketProduct> makeBasketProductList() {
+        if (basketProductList == null) {
+            basketProductList = BasketViewEvent.makeBasketProducts(basketProductBatch);
+            basketProductBatch = null;
+        }
         return basketProductList;
     }
 
+    /**
+     * Gets the products given as a batch, or null if they are held in the basket product list.
+     */
+    ProductBatch getBasketProductBatch() {
+        return basketProductBatch;
+    }
+
     /**
      * This overrides the default currency for this event.
      * The default is automatically calculated based on the device locale and language.
@@ -111,11 +259,11 @@ public class TransactionConfirmationEvent extends Event {
             CRTOLog.e("Argument currency must not be null");
             return;
         }
-        this.currency.set(currency);
+        this.currency = currency;
     }
 
     public Currency getCurrency() {
-        return this.currency.get();
+        return this.currency;
     }
 
     /**
@@ -125,7 +273,7 @@ public class TransactionConfirmationEvent extends Event {
      * @since v1.1
      */
     public void setDeduplication(boolean deduplication) {
-        extraDataMap.put(EventKeys.DEDUPLICATION, new ExtraData(deduplication ? 1 : 0));
+        extraDataMap.putInt(EventKeys.DEDUPLICATION, deduplication ? 1 : 0);
     }
 
     /**
@@ -135,8 +283,7 @@ public class TransactionConfirmationEvent extends Event {
      * @since v1.1
      */
     public boolean getDeduplication() {
-        ExtraData extraData = extraDataMap.get(EventKeys.DEDUPLICATION);
-        return extraData != null ? extraData.getIntValue() != 0 : false;
+        return extraDataMap.getInt(EventKeys.DEDUPLICATION) != 0;
     }
 
     /**
@@ -147,7 +294,7 @@ public class TransactionConfirmationEvent extends Event {
      * @since v1.1
      */
     public void setNewCustomer(boolean newCustomer) {
-        extraDataMap.put(EventKeys.NEW_CUSTOMER, new ExtraData(newCustomer ? 1 : 0));
+        extraDataMap.putInt(EventKeys.NEW_CUSTOMER, newCustomer ? 1 : 0);
     }
 
     /**
@@ -157,8 +304,7 @@ public class TransactionConfirmationEvent extends Event {
      * @since v1.1
      */
     public boolean getNewCustomer() {
-        ExtraData extraData = extraDataMap.get(EventKeys.NEW_CUSTOMER);
-        return extraData != null ? extraData.getIntValue() != 0 : false;
+        return extraDataMap.getInt(EventKeys.NEW_CUSTOMER) != 0;
     }
 
     /**
@@ -170,33 +316,39 @@ public class TransactionConfirmationEvent extends Event {
             CRTOLog.e("Argument transactionId must not be null");
             return;
         }
-        this.transactionId.set(transactionId);
+        this.transactionId = transactionId;
     }
 
     public String getTransactionId() {
-        return transactionId.get();
+        return transactionId;
     }
 
-    private CopyOnWriteArrayList<BasketProduct> makeBasketProducts(Iterable<BasketProduct> basketProductIterable){
-        CopyOnWriteArrayList<BasketProduct> basketProducts = new CopyOnWriteArrayList<>();
-
-        for(BasketProduct product: basketProductIterable) {
-            basketProducts.add(new BasketProduct(product.getProductId(), product.getPrice(), product.getQuantity()));
-        }
-
-        return basketProducts;
-    }
 
     /**
      * Sets a new list of {@link BasketProduct}. Only one list is associated per event so this overwrites the current list.
      * @param basketProductList Iterable of {@link BasketProduct}. Must not be null.
      */
-    public void setBasketProductList(Iterable<BasketProduct> basketProductList) {
+    public synchronized void setBasketProductList(Iterable<BasketProduct> basketProductList) {
         if (basketProductList == null) {
             CRTOLog.e("Argument basketProductList must not be null");
             return;
         }
-        this.basketProductList = makeBasketProducts(basketProductList);
+        this.basketProductList = BasketViewEvent.makeBasketProducts(basketProductList);
+        this.basketProductBatch = null;
+    }
+
+    /**
+     * Sets the products from a {@link ProductBatch}, which is copied. Only one list is associated per event so this overwrites the current list.
+     * @param basketProducts Batch of products and their quantities. Must not be null.
+     * @since v1.2
+     */
+    public synchronized void setBasketProductBatch(ProductBatch basketProducts) {
+        if (basketProducts == null) {
+            CRTOLog.e("Argument basketProducts must not be null");
+            return;
+        }
+        this.basketProductBatch = new ProductBatch(basketProducts);
+        this.basketProductList = null;
     }
 
     @Override
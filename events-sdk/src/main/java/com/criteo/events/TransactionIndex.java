@@ -0,0 +1,277 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the IDs of the transactions sent, so that a confirmation sent twice by the application,
+ * for instance when its screen is created again, is suppressed instead of being deduplicated by the server.
+ *
+ * The last IDs are kept in an exact set. All of them are added to a Bloom filter of two generations,
+ * memory-mapped from a file so that it survives restarts without being read: when the current generation
+ * holds its capacity, the other one is cleared and becomes current, so the filter remembers between one
+ * and two capacities of IDs. The filter is sized so that a new transaction is mistaken for a duplicate
+ * with a probability below the false positive budget, half of it for each generation.
+ *
+ * The filter is split in blocks of a cache line, and all the bits of an ID are set in the same block.
+ * Checking an ID reads a single block of each generation, at the cost of a quarter more bits than a
+ * filter spreading them.
+ *
+ * A transaction is only recorded once delivered. Until then its ID is reserved in memory, so that it is
+ * suppressed if sent again meanwhile, and released if the event is dropped so that it can be sent again.
+ */
+final class TransactionIndex {
+    static final String FILE_NAME = "criteo_transactions";
+    static final int DEFAULT_CAPACITY = 50000;
+    static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+    static final int RECENT_IDS = 64;
+
+    private static final int MAGIC = 0x43545832;
+    private static final int BLOCK_SIZE = 64;
+    private static final int BLOCK_BITS = BLOCK_SIZE * 8;
+    // bits set for each ID, their 9-bit positions in the block taken from two mixed hashes
+    private static final int HASH_COUNT = 8;
+    private static final int POSITIONS_PER_HASH = 7;
+    // magic, blocks per generation, current generation and its number of IDs
+    private static final int HEADER_SIZE = BLOCK_SIZE;
+    private static final int CURRENT_GENERATION = 8;
+    private static final int CURRENT_COUNT = 12;
+
+    private static TransactionIndex instance;
+
+    private final int capacity;
+    private final int blocksPerGeneration;
+    private final ByteBuffer filter;
+    private int currentGeneration;
+    private int currentCount;
+
+    // IDs of the transactions being sent, which are not recorded yet
+    private final Set<String> reservedIds = new HashSet<String>();
+
+    private final Map<String, Boolean> recentIds = new LinkedHashMap<String, Boolean>(RECENT_IDS * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_IDS;
+        }
+    };
+
+    /**
+     * @return the index of the application, opened from its file on first use
+     */
+    static synchronized TransactionIndex get(Context context) {
+        if (instance == null) {
+            File file = context != null && context.getFilesDir() != null
+                    ? new File(context.getFilesDir(), FILE_NAME) : null;
+            instance = new TransactionIndex(file, DEFAULT_CAPACITY, DEFAULT_FALSE_POSITIVE_RATE);
+        }
+        return instance;
+    }
+
+    /**
+     * @param file file holding the filter, or null to keep it in memory
+     * @param capacity number of IDs of a generation
+     * @param falsePositiveRate probability of mistaking a new ID for a known one
+     */
+    TransactionIndex(File file, int capacity, double falsePositiveRate) {
+        this.capacity = capacity;
+        // optimal size of a Bloom filter for half the rate in each generation, and a quarter more for the blocks
+        double bitsPerId = 1.25 * -Math.log(falsePositiveRate / 2) / (Math.log(2) * Math.log(2));
+        blocksPerGeneration = (int) Math.ceil(capacity * bitsPerId / BLOCK_BITS);
+
+        int size = HEADER_SIZE + 2 * blocksPerGeneration * BLOCK_SIZE;
+        ByteBuffer buffer = file != null ? map(file, size) : null;
+        filter = buffer != null ? buffer : ByteBuffer.allocate(size);
+        int generation = filter.getInt(CURRENT_GENERATION);
+        if (filter.getInt(0) == MAGIC && filter.getInt(4) == blocksPerGeneration
+                && (generation == 0 || generation == 1)) {
+            currentGeneration = generation;
+            currentCount = filter.getInt(CURRENT_COUNT);
+        } else {
+            // new file, or one sized for other settings
+            clear(0, size);
+            filter.putInt(0, MAGIC);
+            filter.putInt(4, blocksPerGeneration);
+        }
+    }
+
+    private static ByteBuffer map(File file, int size) {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            if (randomAccessFile.length() != size) {
+                randomAccessFile.setLength(0);
+                randomAccessFile.setLength(size);
+            }
+            // the mapping remains valid once the file is closed
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            CRTOLog.e("Unable to map the transaction index, it will not be kept", e);
+            return null;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a transaction ID.
+     * @return true if the ID was already recorded, so that the transaction is a duplicate
+     */
+    synchronized boolean add(String transactionId) {
+        if (reserve(transactionId)) {
+            return true;
+        }
+        commit(transactionId);
+        return false;
+    }
+
+    /**
+     * Reserves the ID of a transaction about to be sent, unless it was already recorded or reserved.
+     * @return true if the transaction is a duplicate
+     */
+    synchronized boolean reserve(String transactionId) {
+        if (reservedIds.contains(transactionId) || recentIds.get(transactionId) != null) {
+            SenderMetrics.INSTANCE.duplicateTransactions.incrementAndGet();
+            return true;
+        }
+
+        // older IDs, or a false positive of the filter
+        long hash = hash(transactionId);
+        if (contains(blockOffset(0, block(hash)), hash) || contains(blockOffset(1, block(hash)), hash)) {
+            SenderMetrics.INSTANCE.probableDuplicateTransactions.incrementAndGet();
+            return true;
+        }
+        reservedIds.add(transactionId);
+        return false;
+    }
+
+    /**
+     * Records the ID of a reserved transaction once it was delivered.
+     */
+    synchronized void commit(String transactionId) {
+        reservedIds.remove(transactionId);
+        if (recentIds.put(transactionId, Boolean.TRUE) != null) {
+            return;
+        }
+
+        long hash = hash(transactionId);
+        if (currentCount >= capacity) {
+            rotate();
+        }
+        long positions = positions(hash);
+        long morePositions = mix(positions);
+        int offset = blockOffset(currentGeneration, block(hash));
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = position(i, positions, morePositions);
+            int index = offset + (bit >>> 6) * 8;
+            filter.putLong(index, filter.getLong(index) | (1L << bit));
+        }
+        filter.putInt(CURRENT_COUNT, ++currentCount);
+    }
+
+    /**
+     * Forgets a reserved transaction which was not delivered, so that it can be sent again.
+     */
+    synchronized void release(String transactionId) {
+        reservedIds.remove(transactionId);
+    }
+
+    private boolean contains(int offset, long hash) {
+        long positions = positions(hash);
+        long morePositions = mix(positions);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = position(i, positions, morePositions);
+            if ((filter.getLong(offset + (bit >>> 6) * 8) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * blocksPerGeneration) >>> 32);
+    }
+
+    private static long positions(long hash) {
+        return mix(hash + 0x9E3779B97F4A7C15L);
+    }
+
+    private static int position(int i, long positions, long morePositions) {
+        return i < POSITIONS_PER_HASH
+                ? (int) (positions >>> (9 * i)) & (BLOCK_BITS - 1)
+                : (int) (morePositions >>> (9 * (i - POSITIONS_PER_HASH))) & (BLOCK_BITS - 1);
+    }
+
+    private int blockOffset(int generation, int block) {
+        return HEADER_SIZE + (generation * blocksPerGeneration + block) * BLOCK_SIZE;
+    }
+
+    /**
+     * Forgets the IDs of the previous generation, which becomes the current one.
+     */
+    private void rotate() {
+        currentGeneration = 1 - currentGeneration;
+        currentCount = 0;
+        clear(blockOffset(currentGeneration, 0), blocksPerGeneration * BLOCK_SIZE);
+        filter.putInt(CURRENT_GENERATION, currentGeneration);
+        filter.putInt(CURRENT_COUNT, 0);
+    }
+
+    private void clear(int offset, int length) {
+        for (int i = 0; i < length; i += 8) {
+            filter.putLong(offset + i, 0);
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the characters of an ID.
+     */
+    static long hash(String id) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreading every bit of the hash over all the others.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -48,7 +48,7 @@ public class BasketProduct {
         this.quantity  = validateQuantity(quantity);
     }
 
-    private int validateQuantity(int quantity) {
+    static int validateQuantity(int quantity) {
         if (quantity < 1 ) {
             Log.e("[Criteo]", "Argument quantity must be greater than zero");
         }
@@ -35,11 +35,11 @@ public class Product {
      * @param price Price of one unit of product
      */
     public Product(String productId, double price) {
-        this.productId = validateProductId(productId);
+        this.productId = ProductIdPool.intern(validateProductId(productId));
         this.price     = validatePrice(price);
     }
 
-    private String validateProductId(String productId) {
+    static String validateProductId(String productId) {
         if (productId == null ) {
             Log.e("[Criteo]", "Argument productId must not be null");
             return "";
@@ -53,7 +53,7 @@ public class Product {
         return productId;
     }
 
-    private double validatePrice(double price) {
+    static double validatePrice(double price) {
         if (price < 0 ) {
             Log.e("[Criteo]", "Argument price must be greater than or equal to zero");
         }
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events.product;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * A ProductBatch describes many products at once, for listings, baskets and transactions with a large number of items.
+ * It stores the product IDs, prices and quantities in arrays instead of creating a {@link Product} or a {@link BasketProduct} for each item.
+ *
+ * Products added to a batch are validated like a {@link Product} or a {@link BasketProduct}.
+ * Events copy the batch they are given, so it can be reused afterwards.
+ * @since v1.2
+ */
+public final class ProductBatch {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private String[] productIds;
+    private double[] prices;
+    private int[] quantities;
+    private int size;
+
+    /**
+     * Constructs an empty ProductBatch
+     */
+    public ProductBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty ProductBatch with room for the given number of products
+     * @param capacity Expected number of products
+     */
+    public ProductBatch(int capacity) {
+        if (capacity < 0) {
+            Log.e("[Criteo]", "Argument capacity must be greater than or equal to zero");
+            capacity = DEFAULT_CAPACITY;
+        }
+        productIds = new String[capacity];
+        prices = new double[capacity];
+        quantities = new int[capacity];
+    }
+
+    /**
+     * Constructs a new ProductBatch by copying another ProductBatch
+     * @param batch Batch to copy
+     */
+    public ProductBatch(ProductBatch batch) {
+        size = batch.size;
+        productIds = Arrays.copyOf(batch.productIds, size);
+        prices = Arrays.copyOf(batch.prices, size);
+        quantities = Arrays.copyOf(batch.quantities, size);
+    }
+
+    /**
+     * Adds a product with a quantity of 1
+     * @param productId Unique id of product
+     * @param price Price of one unit of product
+     * @return this batch
+     */
+    public ProductBatch add(String productId, double price) {
+        return add(productId, price, 1);
+    }
+
+    /**
+     * Adds a product with its quantity. The quantity is only sent for baskets and transactions.
+     * @param productId Unique id of product
+     * @param price Price of one unit of product
+     * @param quantity Quantity of the product in basket or transaction
+     * @return this batch
+     */
+    public ProductBatch add(String productId, double price, int quantity) {
+        if (size == productIds.length) {
+            int capacity = Math.max(DEFAULT_CAPACITY, size * 2);
+            productIds = Arrays.copyOf(productIds, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+        }
+        productIds[size] = ProductIdPool.intern(Product.validateProductId(productId));
+        prices[size] = Product.validatePrice(price);
+        quantities[size] = BasketProduct.validateQuantity(quantity);
+        size++;
+        return this;
+    }
+
+    /**
+     * Gets the number of products in this batch
+     * @return the number of products
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the product ID of a product of this batch
+     * @param index Index of the product, from 0 to size() - 1
+     * @return the product ID as a String
+     */
+    public String getProductId(int index) {
+        checkIndex(index);
+        return productIds[index];
+    }
+
+    /**
+     * Gets the price of a product of this batch
+     * @param index Index of the product, from 0 to size() - 1
+     * @return the price of the product
+     */
+    public double getPrice(int index) {
+        checkIndex(index);
+        return prices[index];
+    }
+
+    /**
+     * Gets the quantity of a product of this batch
+     * @param index Index of the product, from 0 to size() - 1
+     * @return the quantity of the product
+     */
+    public int getQuantity(int index) {
+        checkIndex(index);
+        return quantities[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
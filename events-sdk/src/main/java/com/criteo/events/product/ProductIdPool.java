@@ -0,0 +1,65 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events.product;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool of the product IDs, so that the products of a catalogue share a single String for each ID
+ * instead of the copy parsed by the application for every event.
+ * The pool is a fixed table of weak references indexed by the hash of the IDs, each ID being looked up
+ * in {@link #PROBES} consecutive slots. An ID only takes a slot that is empty or whose ID was collected,
+ * so that a catalogue with more IDs than slots keeps the IDs already pooled instead of replacing them
+ * on every miss. It never holds more than {@link #SIZE} IDs, nor keeps any of them alive.
+ * This class is thread safe.
+ */
+final class ProductIdPool {
+    static final int SIZE = 1024;
+    static final int PROBES = 2;
+
+    private static final AtomicReferenceArray<WeakReference<String>> ids =
+            new AtomicReferenceArray<WeakReference<String>>(SIZE);
+
+    /**
+     * @return the pooled String equal to the product ID, or the product ID which is pooled in turn
+     * if one of its slots is free
+     */
+    static String intern(String productId) {
+        int hash = productId.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+        int freeSlot = -1;
+        for (int i = 0; i < PROBES; i++) {
+            int index = (slot + i) & (SIZE - 1);
+            WeakReference<String> reference = ids.get(index);
+            String pooled = reference != null ? reference.get() : null;
+            if (pooled == null) {
+                if (freeSlot < 0) {
+                    freeSlot = index;
+                }
+            } else if (productId.equals(pooled)) {
+                return pooled;
+            }
+        }
+        if (freeSlot >= 0) {
+            // the references of pooled IDs are kept, a cleared one is replaced since it cannot be reused
+            ids.lazySet(freeSlot, new WeakReference<String>(productId));
+        }
+        return productId;
+    }
+
+    private ProductIdPool() {}
+}
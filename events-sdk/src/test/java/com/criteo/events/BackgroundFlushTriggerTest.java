@@ -0,0 +1,40 @@
+package com.criteo.events;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.ref.WeakReference;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class BackgroundFlushTriggerTest {
+
+    @Test
+    public void testFlushOnBackground() {
+        EventService eventService = new EventService(RuntimeEnvironment.application);
+        Assert.assertTrue(BackgroundFlushTrigger.INSTANCE.contains(eventService));
+
+        eventService.setFlushOnBackground(false);
+        Assert.assertFalse(BackgroundFlushTrigger.INSTANCE.contains(eventService));
+
+        eventService.setFlushOnBackground(true);
+        Assert.assertTrue(BackgroundFlushTrigger.INSTANCE.contains(eventService));
+    }
+
+    @Test
+    public void testServicesAreNotRetained() throws Exception {
+        WeakReference<EventService> reference =
+                new WeakReference<>(new EventService(RuntimeEnvironment.application));
+
+        // the trigger only holds a weak reference, so the unused service can be collected
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        Assert.assertNull(reference.get());
+    }
+}
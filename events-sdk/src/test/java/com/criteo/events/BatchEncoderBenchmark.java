@@ -0,0 +1,61 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark of {@link BatchEncoder#encodeAll(List, int)} on a backlog of queued payloads, from one
+ * thread up to {@link BatchEncoder#MAX_THREADS}. Run its main method on the JVM, on a machine with
+ * at least as many cores as threads to measure the scaling; the first rounds warm up the JIT.
+ */
+public class BatchEncoderBenchmark {
+    private static final int ROUNDS = 15;
+    private static final int BACKLOG_SIZE = 5000;
+
+    public static void main(String[] args) {
+        List<String> payloads = new ArrayList<>(BACKLOG_SIZE);
+        for (int i = 0; i < BACKLOG_SIZE; i++) {
+            payloads.add("{\"account\":\"app.criteo.example\",\"site_type\":\"aa\",\"version\":\"sdk_1.2\","
+                    + "\"id\":{\"gaid\":\"a0b1c2d3-e4f5-0617-2839-4a5b6c7d8e9f\",\"limit_ad_tracking\":0},"
+                    + "\"events\":[{\"event\":\"viewItem\",\"timestamp\":\"2016-05-10T12:00:00Z\","
+                    + "\"product\":{\"id\":\"product_" + i + "\",\"price\":" + (i % 100) + ".99},"
+                    + "\"currency\":\"EUR\",\"brand\":{\"type\":\"string\",\"value\":\"brand_" + (i % 7) + "\"}}]}");
+        }
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        long[] best = new long[BatchEncoder.MAX_THREADS + 1];
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int threadCount = 1; threadCount <= BatchEncoder.MAX_THREADS; threadCount++) {
+                long start = System.nanoTime();
+                BatchEncoder.EncodedPayload[] encoded = BatchEncoder.encodeAll(payloads, threadCount);
+                long time = System.nanoTime() - start;
+                if (encoded[BACKLOG_SIZE - 1] == null) {
+                    throw new AssertionError("Payload not encoded");
+                }
+                if (round == 0 || time < best[threadCount]) {
+                    best[threadCount] = time;
+                }
+            }
+        }
+        for (int threadCount = 1; threadCount <= BatchEncoder.MAX_THREADS; threadCount++) {
+            System.out.println(String.format("%d thread(s): %6.2f ms, speedup %.2f", threadCount,
+                    best[threadCount] / 1e6, (double) best[1] / best[threadCount]));
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,117 @@
+package com.criteo.events;
+
+import com.criteo.events.product.Product;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.skyscreamer.jsonassert.JSONAssert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class BatchEncoderTest {
+
+    private EventService eventService;
+    private JSONSerializer jsonSerializer;
+
+    @Before
+    public void setUp() {
+        Locale.setDefault(Locale.US);
+        eventService = new EventService(RuntimeEnvironment.application);
+        DeviceInfo.setIdentifiers("", false);
+        jsonSerializer = new JSONSerializer();
+    }
+
+    @Test
+    public void testEncode() throws Exception {
+        String payload = JsonReader.readRawContents("setPayloadEvent.json");
+        BatchEncoder.EncodedPayload encoded = BatchEncoder.encode(payload);
+
+        JSONObject expectedCommon = new JSONObject(payload);
+        JSONArray expectedEvents = (JSONArray) expectedCommon.remove(EventKeys.EVENTS);
+        JSONAssert.assertEquals(expectedCommon, new JSONObject(encoded.commonPayload), true);
+        JSONAssert.assertEquals(expectedEvents, new JSONArray("[" + encoded.events + "]"), true);
+    }
+
+    @Test
+    public void testEncodeEventsFirst() throws Exception {
+        BatchEncoder.EncodedPayload encoded = BatchEncoder.encode("{ \"events\" : [{\"a\":\"]\"}] , \"b\":{\"c\":[1,2]} }");
+        JSONAssert.assertEquals("{\"b\":{\"c\":[1,2]}}", encoded.commonPayload, true);
+        Assert.assertEquals("{\"a\":\"]\"}", encoded.events);
+
+        encoded = BatchEncoder.encode("{\"events\":[]}");
+        Assert.assertEquals("{}", encoded.commonPayload);
+        Assert.assertEquals("", encoded.events);
+    }
+
+    @Test
+    public void testEncodeInvalidPayloads() throws Exception {
+        String[] payloads = { "", "payload_1", "[]", "{}", "{\"a\":1}", "{\"events\":{}}", "{\"events\":[1]",
+                "{\"events\":[1]}x", "{\"events\":[1],}", "{\"a\":,\"events\":[1]}", "{\"events\":[1],\"events\":[2]}",
+                "{\"a\":\"\\\"}" };
+        for (String payload : payloads) {
+            Assert.assertNull(payload, BatchEncoder.encode(payload));
+        }
+    }
+
+    @Test
+    public void testStitch() throws Exception {
+        List<byte[]> serializedEvents = new ArrayList<>();
+        List<String> events = new ArrayList<>();
+        String commonPayload = null;
+        for (int i = 0; i < 5; i++) {
+            ProductViewEvent event = new ProductViewEvent(new Product("ID" + i, 10.5));
+            event.setTimestamp(new Date(i * 1000L));
+            serializedEvents.add(jsonSerializer.serializeToJSON(event));
+
+            String payload = JSONSerializer.buildPayload(eventService,
+                    Collections.singletonList(serializedEvents.get(i)));
+            BatchEncoder.EncodedPayload encoded = BatchEncoder.encode(payload);
+            if (commonPayload != null) {
+                Assert.assertEquals(commonPayload, encoded.commonPayload);
+            }
+            commonPayload = encoded.commonPayload;
+            events.add(encoded.events);
+        }
+        events.add("");
+
+        // stitching single event payloads gives the payload built from all the events at once
+        Assert.assertEquals(JSONSerializer.buildPayload(eventService, serializedEvents),
+                BatchEncoder.stitch(commonPayload, events));
+        Assert.assertEquals("{\"events\":[1,2]}", BatchEncoder.stitch("{}", Arrays.asList("1", "2")));
+    }
+
+    @Test
+    public void testEncodeAllKeepsOrder() throws Exception {
+        List<String> payloads = new ArrayList<>();
+        for (int i = 0; i < BatchEncoder.MIN_PARALLEL_PAYLOADS * 3 + 1; i++) {
+            payloads.add(i % 7 == 0 ? "payload_" + i : "{\"index\":" + i + ",\"events\":[" + i + "]}");
+        }
+
+        for (int threadCount = 1; threadCount <= BatchEncoder.MAX_THREADS; threadCount++) {
+            BatchEncoder.EncodedPayload[] encoded = BatchEncoder.encodeAll(payloads, threadCount);
+            Assert.assertEquals(payloads.size(), encoded.length);
+            for (int i = 0; i < encoded.length; i++) {
+                if (i % 7 == 0) {
+                    Assert.assertNull(encoded[i]);
+                } else {
+                    Assert.assertEquals("{\"index\":" + i + "}", encoded[i].commonPayload);
+                    Assert.assertEquals(String.valueOf(i), encoded[i].events);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+
+/**
+ * Minimal CBOR decoder standing in for the server, decoding to the values used by org.json.
+ */
+class CBORDecoder {
+    private final byte[] data;
+    private int position;
+
+    private CBORDecoder(byte[] data) {
+        this.data = data;
+    }
+
+    public static Object decode(byte[] data) throws JSONException {
+        CBORDecoder decoder = new CBORDecoder(data);
+        Object value = decoder.readValue();
+        if (decoder.position != data.length) {
+            throw new IllegalArgumentException("Trailing bytes after the document");
+        }
+        return value;
+    }
+
+    /**
+     * Checks that two org.json values hold the same data, numbers being compared by value.
+     */
+    public static boolean sameValue(Object expected, Object actual) throws JSONException {
+        if (expected instanceof JSONObject) {
+            if (!(actual instanceof JSONObject)) {
+                return false;
+            }
+            JSONObject expectedObject = (JSONObject) expected;
+            JSONObject actualObject = (JSONObject) actual;
+            if (expectedObject.length() != actualObject.length()) {
+                return false;
+            }
+            Iterator<String> keys = expectedObject.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!actualObject.has(key) || !sameValue(expectedObject.get(key), actualObject.get(key))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expected instanceof JSONArray) {
+            if (!(actual instanceof JSONArray) || ((JSONArray) expected).length() != ((JSONArray) actual).length()) {
+                return false;
+            }
+            for (int i = 0; i < ((JSONArray) expected).length(); i++) {
+                if (!sameValue(((JSONArray) expected).get(i), ((JSONArray) actual).get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expected instanceof Number) {
+            return actual instanceof Number && ((Number) expected).doubleValue() == ((Number) actual).doubleValue();
+        }
+        return expected.equals(actual);
+    }
+
+    private Object readValue() throws JSONException {
+        int initial = data[position++] & 0xFF;
+        int major = initial >> 5;
+        int info = initial & 0x1F;
+        switch (major) {
+            case 0:
+                return readArgument(info);
+            case 1:
+                return -1 - readArgument(info);
+            case 3:
+                int length = (int) readArgument(info);
+                try {
+                    String value = new String(data, position, length, "UTF-8");
+                    position += length;
+                    return value;
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            case 4:
+                JSONArray array = new JSONArray();
+                if (info == 31) {
+                    while ((data[position] & 0xFF) != 0xFF) {
+                        array.put(readValue());
+                    }
+                    position++;
+                } else {
+                    for (long i = readArgument(info); i > 0; i--) {
+                        array.put(readValue());
+                    }
+                }
+                return array;
+            case 5:
+                JSONObject object = new JSONObject();
+                if (info == 31) {
+                    while ((data[position] & 0xFF) != 0xFF) {
+                        object.put((String) readValue(), readValue());
+                    }
+                    position++;
+                } else {
+                    for (long i = readArgument(info); i > 0; i--) {
+                        object.put((String) readValue(), readValue());
+                    }
+                }
+                return object;
+            case 7:
+                switch (info) {
+                    case 20:
+                        return false;
+                    case 21:
+                        return true;
+                    case 22:
+                        return JSONObject.NULL;
+                    case 26:
+                        return (double) Float.intBitsToFloat((int) readArgument(info));
+                    case 27:
+                        return Double.longBitsToDouble(readArgument(info));
+                }
+        }
+        throw new IllegalArgumentException("Unsupported initial byte " + initial);
+    }
+
+    private long readArgument(int info) {
+        if (info < 24) {
+            return info;
+        }
+        int length = 1 << (info - 24);
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (data[position++] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,98 @@
+package com.criteo.events;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class CBOREncoderTest {
+    private static final String[] FIXTURES = {
+            "appLaunchEvent.json", "basketViewEvent.json", "dataEvent.json", "deeplinkEvent.json",
+            "extraData.json", "homeViewEvent.json", "productListViewEvent.json", "productViewEvent.json",
+            "transactionConfirmationEvent.json", "travelExtraData.json",
+    };
+
+    @Test
+    public void testFixtures() throws Exception {
+        for (String fixture : FIXTURES) {
+            String json = JsonReader.readRawContents(fixture);
+            byte[] cbor = CBOREncoder.encode(json.getBytes("UTF-8"));
+
+            Assert.assertTrue(fixture, CBORDecoder.sameValue(new JSONObject(json), CBORDecoder.decode(cbor)));
+            Assert.assertTrue(fixture, cbor.length < json.getBytes("UTF-8").length);
+        }
+    }
+
+    @Test
+    public void testSerializedPayload() throws Exception {
+        JSONWriter writer = new JSONWriter();
+        writer.beginObject();
+        writer.name("strings").beginArray();
+        writer.value("").value("plain").value("quote\"backslash\\slash/").value("tab\tnewline\ncontrol\u0001");
+        writer.value("accents fôôbàr").value("emoji 😀").value("unpaired \ud83d surrogate");
+        writer.value(new String(new char[300]).replace('\0', 'a'));
+        writer.endArray();
+        writer.name("numbers").beginArray();
+        writer.value(0).value(23).value(24).value(255).value(256).value(65536).value(Long.MAX_VALUE / 10);
+        writer.value(-1).value(-24).value(-25).value(-1000000).value(0.1).value(1.5f).value(-0d).value(1e21);
+        writer.endArray();
+        writer.name("literals").beginArray().value(true).value(false).rawValue("null".getBytes()).endArray();
+        writer.name("empty").beginObject().endObject();
+        writer.endObject();
+
+        String json = writer.toString();
+        Object decoded = CBORDecoder.decode(CBOREncoder.encode(writer.toByteArray()));
+        Assert.assertTrue(json + " != " + decoded, CBORDecoder.sameValue(new JSONObject(json), decoded));
+    }
+
+    @Test
+    public void testEncoding() throws Exception {
+        // examples from RFC 7049, appendix A
+        assertEncoding("0", 0x00);
+        assertEncoding("23", 0x17);
+        assertEncoding("24", 0x18, 0x18);
+        assertEncoding("1000", 0x19, 0x03, 0xe8);
+        assertEncoding("-1", 0x20);
+        assertEncoding("-100", 0x38, 0x63);
+        assertEncoding("1.5", 0xfa, 0x3f, 0xc0, 0x00, 0x00);
+        assertEncoding("1.1", 0xfb, 0x3f, 0xf1, 0x99, 0x99, 0x99, 0x99, 0x99, 0x9a);
+        assertEncoding("true", 0xf5);
+        assertEncoding("null", 0xf6);
+        assertEncoding("\"\\u00fc\"", 0x62, 0xc3, 0xbc);
+        assertEncoding("\"\\ud800\\udd51\"", 0x64, 0xf0, 0x90, 0x85, 0x91);
+        assertEncoding("[1, [2, 3]]", 0x9f, 0x01, 0x9f, 0x02, 0x03, 0xff, 0xff);
+        assertEncoding("{\"a\": 1}", 0xbf, 0x61, 0x61, 0x01, 0xff);
+    }
+
+    @Test
+    public void testInvalidDocuments() throws Exception {
+        String[] documents = {"", "{", "{\"a\"}", "{\"a\":1,}", "[1 2]", "\"unterminated", "tru", "1 2", "\"\\u12\""};
+        for (String document : documents) {
+            try {
+                CBOREncoder.encode(document.getBytes("UTF-8"));
+                Assert.fail(document);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testArrayRoot() throws Exception {
+        String json = "[{\"a\":[]},\"b\",1]";
+        Assert.assertTrue(CBORDecoder.sameValue(new JSONArray(json),
+                CBORDecoder.decode(CBOREncoder.encode(json.getBytes("UTF-8")))));
+    }
+
+    private static void assertEncoding(String json, int... expected) throws Exception {
+        byte[] cbor = CBOREncoder.encode(json.getBytes("UTF-8"));
+        Assert.assertEquals(json, expected.length, cbor.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(json, (byte) expected[i], cbor[i]);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.criteo.events;
+
+import android.content.Intent;
+
+import com.criteo.events.product.Product;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+
+import java.nio.charset.Charset;
+import java.util.Currency;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class CoalescingTest {
+    private static final long TIMEOUT = 5000;
+
+    private EventService eventService;
+
+    @Before
+    public void setUp() {
+        eventService = new EventService(RuntimeEnvironment.application);
+        SenderMetrics.INSTANCE.reset();
+    }
+
+    /**
+     * Waits for the request holding the events of a product, as events of other tests may still be sent.
+     */
+    private static JSONArray waitForEvents(String productId) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            Intent intent = ShadowApplication.getInstance().getNextStartedService();
+            if (intent == null) {
+                Thread.sleep(10);
+                continue;
+            }
+            String payload = intent.getStringExtra("payload");
+            if (payload != null && payload.contains("\"" + productId + "\"")) {
+                return new JSONObject(payload).getJSONArray(EventKeys.EVENTS);
+            }
+        }
+        throw new AssertionError("No request sent for " + productId);
+    }
+
+    private static long getTimestampSeconds(JSONObject event) throws Exception {
+        byte[] timestamp = event.getString(EventKeys.TIMESTAMP).getBytes(Charset.forName("US-ASCII"));
+        return TimestampFormatter.parseSeconds(timestamp, 0, timestamp.length);
+    }
+
+    @Test
+    public void testEquivalentEventsAreMerged() throws Exception {
+        eventService.setCoalescingWindow(ProductViewEvent.class, 60000);
+
+        ProductViewEvent event = new ProductViewEvent(new Product("MERGED", 10.5));
+        event.setCurrency(Currency.getInstance("EUR"));
+        event.addExtraData("position", 1);
+        eventService.send(event);
+        eventService.send(new ProductViewEvent(new Product("OTHER", 10.5)));
+        eventService.send(event);
+        Thread.sleep(1000);
+        eventService.send(event);
+        long lastTimestamp = event.getTimestampMillis();
+        eventService.flush();
+
+        JSONArray events = waitForEvents("MERGED");
+        Assert.assertEquals(2, events.length());
+        Assert.assertEquals(3, events.getJSONObject(0).getInt(EventKeys.REPEAT_COUNT));
+        Assert.assertEquals(lastTimestamp / 1000, getTimestampSeconds(events.getJSONObject(0)));
+        Assert.assertEquals(1, events.getJSONObject(0).getJSONObject("position").getInt(EventKeys.VALUE));
+        Assert.assertFalse(events.getJSONObject(1).has(EventKeys.REPEAT_COUNT));
+        Assert.assertEquals(2, SenderMetrics.INSTANCE.coalescedEvents.get());
+    }
+
+    @Test
+    public void testDifferentEventsAreNotMerged() throws Exception {
+        eventService.setCoalescingWindow(ProductViewEvent.class, 60000);
+
+        ProductViewEvent event = new ProductViewEvent(new Product("DIFFERENT", 10.5));
+        eventService.send(event);
+        event.addExtraData("position", 1);
+        eventService.send(event);
+        event.setCurrency(Currency.getInstance("EUR"));
+        eventService.send(event);
+        eventService.flush();
+
+        JSONArray events = waitForEvents("DIFFERENT");
+        Assert.assertEquals(3, events.length());
+        for (int i = 0; i < events.length(); i++) {
+            Assert.assertFalse(events.getJSONObject(i).has(EventKeys.REPEAT_COUNT));
+        }
+        Assert.assertEquals(0, SenderMetrics.INSTANCE.coalescedEvents.get());
+    }
+
+    @Test
+    public void testCoalescingIsDisabledByDefault() throws Exception {
+        eventService.setCoalescingWindow(ProductViewEvent.class, 60000);
+        eventService.setCoalescingWindow(ProductViewEvent.class, 0);
+
+        ProductViewEvent event = new ProductViewEvent(new Product("DISABLED", 10.5));
+        eventService.send(event);
+        eventService.send(event);
+        eventService.flush();
+
+        Assert.assertEquals(2, waitForEvents("DISABLED").length());
+        Assert.assertEquals(0, SenderMetrics.INSTANCE.coalescedEvents.get());
+    }
+
+    @Test
+    public void testRepeatCountIsAddedToSerializedEvent() throws Exception {
+        ProductViewEvent event = new ProductViewEvent(new Product("ID1", 10.5));
+        byte[] serializedEvent = new JSONSerializer().serializeToJSON(event);
+
+        JSONObject repeated = new JSONObject(new String(JSONSerializer.addRepeatCount(serializedEvent, 4), "UTF-8"));
+        Assert.assertEquals(4, repeated.getInt(EventKeys.REPEAT_COUNT));
+        repeated.remove(EventKeys.REPEAT_COUNT);
+        Assert.assertEquals(new JSONObject(new String(serializedEvent, "UTF-8")).toString(), repeated.toString());
+        Assert.assertTrue(EventKeys.isKeyReserved(EventKeys.REPEAT_COUNT));
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Reference translator of the payloads written in the compact schema back to the verbose one,
+ * as done by the server.
+ */
+class CompactKeysExpander {
+
+    public static JSONObject expand(JSONObject payload) throws JSONException {
+        if (!CompactKeys.PROTOCOL_VERSION.equals(payload.opt(EventKeys.JSON_PROTOCOL_VERSION))) {
+            throw new IllegalArgumentException("Not a compact payload");
+        }
+
+        Map<String, String> verboseNames = new HashMap<>();
+        for (String[] key : CompactKeys.KEYS) {
+            verboseNames.put(key[1], key[0]);
+        }
+        JSONObject expanded = (JSONObject) expand(payload, verboseNames);
+        expanded.put(EventKeys.JSON_PROTOCOL_VERSION, JSONSerializer.JSON_PROTOCOL_VERSION);
+        return expanded;
+    }
+
+    private static Object expand(Object value, Map<String, String> verboseNames) throws JSONException {
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            JSONArray expanded = new JSONArray();
+            for (int i = 0; i < array.length(); i++) {
+                expanded.put(expand(array.get(i), verboseNames));
+            }
+            return expanded;
+        }
+        if (!(value instanceof JSONObject)) {
+            return value;
+        }
+
+        JSONObject object = (JSONObject) value;
+        JSONObject expanded = new JSONObject();
+        Iterator<String> names = object.keys();
+        while (names.hasNext()) {
+            String name = names.next();
+            Object fieldValue = expand(object.get(name), verboseNames);
+            if (name.equals(EventKeys.SAME_AS_PREVIOUS)) {
+                // the delta envelope lists the names of the fields equal to the previous event's
+                JSONArray sameNames = (JSONArray) fieldValue;
+                JSONArray expandedNames = new JSONArray();
+                for (int i = 0; i < sameNames.length(); i++) {
+                    expandedNames.put(verboseName(sameNames.getString(i), verboseNames));
+                }
+                fieldValue = expandedNames;
+            }
+            expanded.put(verboseName(name, verboseNames), fieldValue);
+        }
+        return expanded;
+    }
+
+    private static String verboseName(String name, Map<String, String> verboseNames) {
+        String verboseName = verboseNames.get(name);
+        return verboseName != null ? verboseName : name;
+    }
+}
@@ -0,0 +1,156 @@
+package com.criteo.events;
+
+import com.criteo.events.product.BasketProduct;
+import com.criteo.events.product.Product;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.skyscreamer.jsonassert.JSONAssert;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class CompactKeysTest {
+    private static final long START = 1420115400000L;
+
+    private EventService eventService;
+    private JSONSerializer jsonSerializer;
+
+    @Before
+    public void setUp() {
+        Locale.setDefault(Locale.US);
+        eventService = new EventService(RuntimeEnvironment.application);
+        eventService.setCustomerId("customer");
+        eventService.setEmail("john.doe@example.com");
+        DeviceInfo.setIdentifiers("38400000-8cf0-11bd-b23e-10b96e40000d", false);
+        jsonSerializer = new JSONSerializer();
+    }
+
+    @Test
+    public void testKeyTable() {
+        Set<String> verboseNames = new HashSet<>();
+        Set<String> compactNames = new HashSet<>();
+        for (String[] key : CompactKeys.KEYS) {
+            Assert.assertTrue(key[0], verboseNames.add(key[0]));
+            Assert.assertTrue(key[1], compactNames.add(key[1]));
+            Assert.assertTrue(key[1], key[1].length() <= key[0].length());
+        }
+        for (String[] key : CompactKeys.KEYS) {
+            // a compact name cannot be mistaken for a verbose name left as it is
+            Assert.assertTrue(key[1], key[1].equals(key[0]) || !verboseNames.contains(key[1]));
+        }
+    }
+
+    @Test
+    public void testCompactNamesAreReservedInCompactSchema() {
+        // a compact name cannot be mistaken for an extra data key
+        EventPoster.compactKeys = true;
+        for (String[] key : CompactKeys.KEYS) {
+            Assert.assertTrue(key[1], EventKeys.isKeyReserved(key[1]));
+        }
+
+        // but the extra data keys of applications using the verbose schema are left as they were
+        EventPoster.compactKeys = false;
+        for (String key : new String[] { "lat", "os", "g", "ts", "env", "av", "dl", "fl" }) {
+            Assert.assertFalse(key, EventKeys.isKeyReserved(key));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<byte[]> events = buildEvents();
+        String[] payloads = { JSONSerializer.buildPayload(eventService, events),
+                JSONSerializer.buildDeltaPayload(eventService, events),
+                JsonReader.readRawContents("setPayloadEvent.json") };
+
+        for (String payload : payloads) {
+            JSONObject compact = new JSONObject(new String(CompactKeys.translate(payload.getBytes("UTF-8")), "UTF-8"));
+            Assert.assertEquals(CompactKeys.PROTOCOL_VERSION, compact.getString(EventKeys.JSON_PROTOCOL_VERSION));
+            Assert.assertFalse(compact.has(EventKeys.EVENTS));
+            JSONAssert.assertEquals(new JSONObject(payload), CompactKeysExpander.expand(compact), true);
+        }
+    }
+
+    @Test
+    public void testExtraDataKeysAreKept() throws Exception {
+        ProductViewEvent event = new ProductViewEvent(new Product("ID1", 10.5));
+        event.addExtraData("price_range", "high");
+        event.setTimestamp(new Date(START));
+        List<byte[]> events = new ArrayList<>();
+        events.add(jsonSerializer.serializeToJSON(event));
+
+        byte[] compact = CompactKeys.translate(JSONSerializer.buildPayload(eventService, events).getBytes("UTF-8"));
+        JSONObject compactEvent = new JSONObject(new String(compact, "UTF-8")).getJSONArray("ev").getJSONObject(0);
+        Assert.assertEquals("high", compactEvent.getJSONObject("price_range").getString("v"));
+        Assert.assertEquals("ID1", compactEvent.getJSONObject("p").getString("i"));
+        Assert.assertEquals("viewProduct", compactEvent.getString("e"));
+    }
+
+    @Test
+    public void testPayloadSize() throws Exception {
+        List<byte[]> events = buildEvents();
+        int verboseBytes = 0;
+        int compactBytes = 0;
+        for (byte[] event : events) {
+            List<byte[]> singleEvent = new ArrayList<>();
+            singleEvent.add(event);
+            byte[] payload = JSONSerializer.buildPayload(eventService, singleEvent).getBytes("UTF-8");
+            verboseBytes += payload.length;
+            compactBytes += CompactKeys.translate(payload).length;
+        }
+
+        // the payloads of single events lose more than a quarter of their size
+        Assert.assertTrue(compactBytes * 4 < verboseBytes * 3);
+    }
+
+    @Test
+    public void testInvalidPayloads() {
+        String[] payloads = { "{\"a\":1", "{\"a\":\"1}", "[1}", "}" };
+        for (String payload : payloads) {
+            try {
+                CompactKeys.translate(payload.getBytes());
+                Assert.fail(payload);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private List<byte[]> buildEvents() {
+        List<byte[]> events = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ProductViewEvent event = new ProductViewEvent(new Product("ID" + i, 10.5));
+            event.setCurrency(Currency.getInstance("EUR"));
+            event.addExtraData(EventKeys.START_DATE, new GregorianCalendar(2015, 0, 1));
+            event.setTimestamp(new Date(START + i * 1000));
+            events.add(jsonSerializer.serializeToJSON(event));
+        }
+        TransactionConfirmationEvent transaction = new TransactionConfirmationEvent("T1",
+                new BasketProduct("ID1", 10.5, 2), new BasketProduct("ID2", 3, 1));
+        transaction.setNewCustomer(true);
+        transaction.setTimestamp(new Date(START + 5000));
+        events.add(jsonSerializer.serializeToJSON(transaction));
+        AppLaunchEvent appLaunch = new AppLaunchEvent();
+        appLaunch.setGoogleReferrer("utm_source=test");
+        appLaunch.setTimestamp(new Date(START + 6000));
+        events.add(jsonSerializer.serializeToJSON(appLaunch));
+        DeeplinkEvent deeplink = new DeeplinkEvent("app://product/1");
+        deeplink.setTimestamp(new Date(START + 7000));
+        events.add(jsonSerializer.serializeToJSON(deeplink));
+        return events;
+    }
+}
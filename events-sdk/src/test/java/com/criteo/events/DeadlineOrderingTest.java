@@ -0,0 +1,70 @@
+package com.criteo.events;
+
+import android.content.Intent;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, manifest = "/src/main/AndroidManifest.xml", emulateSdk = 21)
+public class DeadlineOrderingTest {
+    private static final long NOW = 100 * SendPolicyProfiles.HOUR;
+
+    private SendPolicy defaultPolicy;
+    private Deque<Intent> eventQueue;
+
+    @Before
+    public void setUp() {
+        SendPolicyProfiles.INSTANCE.reset();
+        SendPolicyProfiles.INSTANCE.applyPresets();
+        defaultPolicy = new SendPolicy();
+        eventQueue = new ArrayDeque<>();
+    }
+
+    @Test
+    public void testReorder() {
+        // expires in 30 minutes, 1 minute and 30 seconds
+        Intent basket = addEvent(EventKeys.BASKET_VIEW, NOW - 30 * SendPolicyProfiles.MINUTE);
+        Intent recentProduct = addEvent(EventKeys.PRODUCT_VIEW, NOW - 4 * SendPolicyProfiles.MINUTE);
+        Intent oldProduct = addEvent(EventKeys.PRODUCT_VIEW, NOW - 270000);
+
+        int saved = DeadlineOrdering.reorder(eventQueue, defaultPolicy, NOW, 20000);
+
+        Assert.assertArrayEquals(new Intent[] { oldProduct, recentProduct, basket }, eventQueue.toArray());
+
+        // sent by timestamp, the old product view would be sent after 40 seconds, once expired
+        Assert.assertEquals(1, saved);
+
+        // events are not counted twice
+        Assert.assertEquals(0, DeadlineOrdering.reorder(eventQueue, defaultPolicy, NOW, 20000));
+        Assert.assertArrayEquals(new Intent[] { oldProduct, recentProduct, basket }, eventQueue.toArray());
+    }
+
+    @Test
+    public void testReorderKeepsQueueOrderForSameDeadline() {
+        Intent first = addEvent(EventKeys.HOME_VIEW, NOW);
+        Intent second = addEvent(EventKeys.BASKET_VIEW, NOW);
+        Intent third = addEvent(EventKeys.APP_LAUNCH, NOW);
+
+        int saved = DeadlineOrdering.reorder(eventQueue, defaultPolicy, NOW, 20000);
+
+        Assert.assertArrayEquals(new Intent[] { first, second, third }, eventQueue.toArray());
+        Assert.assertEquals(0, saved);
+    }
+
+    private Intent addEvent(String eventType, long timestamp) {
+        Intent intent = new Intent();
+        intent.setAction(EventSenderService.ACTION_SEND_EVENT);
+        intent.putExtra("event", eventType);
+        intent.putExtra("timestamp", timestamp);
+        eventQueue.add(intent);
+        return intent;
+    }
+}
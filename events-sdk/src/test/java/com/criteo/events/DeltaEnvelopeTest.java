@@ -0,0 +1,129 @@
+package com.criteo.events;
+
+import com.criteo.events.product.BasketProduct;
+import com.criteo.events.product.Product;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.skyscreamer.jsonassert.JSONAssert;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class DeltaEnvelopeTest {
+    private static final long START = 1420115400000L;
+
+    private EventService eventService;
+    private JSONSerializer jsonSerializer;
+
+    @Before
+    public void setUp() {
+        Locale.setDefault(Locale.US);
+        eventService = new EventService(RuntimeEnvironment.application);
+        DeviceInfo.setIdentifiers("", false);
+        jsonSerializer = new JSONSerializer();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<byte[]> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ProductViewEvent event = new ProductViewEvent(new Product("ID" + (i % 2), 10.5));
+            event.setCurrency(Currency.getInstance("EUR"));
+            event.setTimestamp(new Date(START + i * 1500));
+            event.addExtraData("checkin_date", new GregorianCalendar(2015, 0, 1));
+            events.add(jsonSerializer.serializeToJSON(event));
+        }
+        // events going back in time, far apart, or without anything in common
+        ProductListViewEvent listEvent = new ProductListViewEvent(new Product("ID1", 1), new Product("ID2", 2));
+        listEvent.setTimestamp(new Date(START - 86400000L * 40));
+        events.add(jsonSerializer.serializeToJSON(listEvent));
+        HomeViewEvent homeEvent = new HomeViewEvent();
+        homeEvent.setTimestamp(new Date(START + 86400000L * 400));
+        events.add(jsonSerializer.serializeToJSON(homeEvent));
+        HomeViewEvent otherHomeEvent = new HomeViewEvent();
+        otherHomeEvent.setTimestamp(new Date(START + 86400000L * 400));
+        events.add(jsonSerializer.serializeToJSON(otherHomeEvent));
+        BasketViewEvent basketEvent = new BasketViewEvent(new BasketProduct("ID1", 1, 2));
+        basketEvent.setTimestamp(new Date(START));
+        events.add(jsonSerializer.serializeToJSON(basketEvent));
+
+        JSONObject expected = new JSONObject(JSONSerializer.buildPayload(eventService, events));
+        JSONObject delta = new JSONObject(JSONSerializer.buildDeltaPayload(eventService, events));
+
+        JSONAssert.assertEquals(expected, DeltaExpander.expand(delta), true);
+
+        JSONArray deltaEvents = delta.getJSONArray(EventKeys.EVENTS);
+        Assert.assertEquals("2015-01-01T12:30:00Z", deltaEvents.getJSONObject(0).getString(EventKeys.TIMESTAMP));
+        Assert.assertEquals(1, deltaEvents.getJSONObject(1).getLong(EventKeys.TIMESTAMP_DELTA));
+        Assert.assertEquals(2, deltaEvents.getJSONObject(2).getLong(EventKeys.TIMESTAMP_DELTA));
+        Assert.assertFalse(deltaEvents.getJSONObject(1).has(EventKeys.TIMESTAMP));
+        // the product changes between views, while the currency and dates are the same
+        Assert.assertTrue(deltaEvents.getJSONObject(1).has(EventKeys.PRODUCT));
+        Assert.assertFalse(deltaEvents.getJSONObject(1).has(EventKeys.START_DATE));
+        Assert.assertEquals(0, deltaEvents.getJSONObject(7).getLong(EventKeys.TIMESTAMP_DELTA));
+    }
+
+    @Test
+    public void testConcatenatedEnvelopes() throws Exception {
+        List<byte[]> events = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ProductViewEvent event = new ProductViewEvent(new Product("ID" + i, 10.5));
+            event.setCurrency(Currency.getInstance("EUR"));
+            event.setTimestamp(new Date(START + i * 1000));
+            events.add(jsonSerializer.serializeToJSON(event));
+        }
+
+        // the flush merges the events of queued requests, the first event of each envelope starting anew
+        PayloadBatch batch = new PayloadBatch(10);
+        Assert.assertTrue(batch.add(null, JSONSerializer.buildDeltaPayload(eventService, events.subList(0, 2))));
+        Assert.assertTrue(batch.add(null, JSONSerializer.buildDeltaPayload(eventService, events.subList(2, 4))));
+
+        JSONObject expected = new JSONObject(JSONSerializer.buildPayload(eventService, events));
+        JSONAssert.assertEquals(expected, DeltaExpander.expand(new JSONObject(batch.getPayload())), true);
+    }
+
+    @Test
+    public void testBytesPerEvent() throws Exception {
+        List<byte[]> events = new ArrayList<>();
+        int eventBytes = 0;
+        for (int i = 0; i < EventService.MAX_PENDING_EVENTS; i++) {
+            ProductViewEvent event = new ProductViewEvent(new Product("ID" + i, 10.5));
+            event.setCurrency(Currency.getInstance("EUR"));
+            event.setTimestamp(new Date(START + i * 2000));
+            byte[] serializedEvent = jsonSerializer.serializeToJSON(event);
+            eventBytes += serializedEvent.length + 1;
+            events.add(serializedEvent);
+        }
+
+        int commonBytes = JSONSerializer.buildPayload(eventService, new ArrayList<byte[]>()).length();
+        int plainBytes = JSONSerializer.buildPayload(eventService, events).length();
+        int deltaBytes = JSONSerializer.buildDeltaPayload(eventService, events).length();
+
+        // the common payload is sent once, then each event costs its own body, or less in the envelope
+        Assert.assertEquals(commonBytes + eventBytes - 1, plainBytes);
+        Assert.assertTrue(deltaBytes - commonBytes < eventBytes * 3 / 4);
+    }
+
+    @Test
+    public void testReservedKeys() {
+        // the keys of the envelope are only reserved while it is enabled
+        eventService.setDeltaEnvelope(true);
+        Assert.assertTrue(EventKeys.isKeyReserved(EventKeys.TIMESTAMP_DELTA));
+        Assert.assertTrue(EventKeys.isKeyReserved(EventKeys.SAME_AS_PREVIOUS));
+        eventService.setDeltaEnvelope(false);
+    }
+}
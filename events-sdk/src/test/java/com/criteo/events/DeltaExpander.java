@@ -0,0 +1,67 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Reference expander of the payloads written in the delta envelope, as done by the server.
+ */
+class DeltaExpander {
+
+    public static JSONObject expand(JSONObject payload) throws JSONException, ParseException {
+        JSONObject expanded = new JSONObject(payload.toString());
+        if (!DeltaEnvelope.VERSION.equals(expanded.remove("envelope"))) {
+            throw new IllegalArgumentException("Not a delta envelope");
+        }
+
+        DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ENGLISH);
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        JSONArray events = expanded.getJSONArray("events");
+        JSONObject previous = null;
+        long previousTimestamp = 0;
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject event = events.getJSONObject(i);
+            if (event.has("tsd")) {
+                long timestamp = previousTimestamp + event.getLong("tsd") * 1000;
+                event.put("timestamp", df.format(new Date(timestamp)));
+                event.remove("tsd");
+            }
+            if (event.has("same")) {
+                JSONArray names = event.getJSONArray("same");
+                for (int j = 0; j < names.length(); j++) {
+                    event.put(names.getString(j), previous.get(names.getString(j)));
+                }
+                event.remove("same");
+            }
+            if (event.has("timestamp")) {
+                previousTimestamp = df.parse(event.getString("timestamp")).getTime();
+            }
+            previous = event;
+        }
+        return expanded;
+    }
+}
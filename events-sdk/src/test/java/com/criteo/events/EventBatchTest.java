@@ -0,0 +1,96 @@
+package com.criteo.events;
+
+import com.criteo.events.product.BasketProduct;
+import com.criteo.events.product.Product;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class EventBatchTest {
+    private static final long START = 1420115400000L;
+
+    private EventService eventService;
+
+    @Before
+    public void setUp() {
+        eventService = new EventService(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void testEventsAreGivenTheSameTimestamp() throws Exception {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            ProductViewEvent event = new ProductViewEvent("ID" + i, 10.5);
+            event.setTimestamp(new Date(START + i));
+            events.add(event);
+        }
+        events.add(new TransactionConfirmationEvent("TX1", new BasketProduct("ID1", 10.5, 2)));
+
+        long before = System.currentTimeMillis();
+        eventService.sendAll(events);
+        long timestamp = events.get(0).getTimestampMillis();
+        Assert.assertTrue(timestamp >= before);
+        for (Event event : events) {
+            Assert.assertEquals(timestamp, event.getTimestampMillis());
+        }
+    }
+
+    @Test
+    public void testBatchSkipsNullEvents() throws Exception {
+        HomeViewEvent homeEvent = new HomeViewEvent();
+        homeEvent.setTimestamp(new Date(START));
+        EventBatch batch = new EventBatch()
+                .add(homeEvent)
+                .add((BasketViewEvent) null)
+                .add(new DeeplinkEvent("app://home"));
+        Assert.assertEquals(2, batch.size());
+
+        eventService.send(batch);
+        Assert.assertTrue(homeEvent.getTimestampMillis() > START);
+
+        batch.clear();
+        Assert.assertEquals(0, batch.size());
+        eventService.sendAll(Arrays.asList(null, homeEvent));
+    }
+
+    @Test
+    public void testPooledEventsAreRecycledOnce() throws Exception {
+        eventService.setDeferredSerialization(true);
+        ProductViewEvent first = ProductViewEvent.obtain("ID1", 5);
+        ProductViewEvent second = ProductViewEvent.obtain("ID2", 6);
+
+        eventService.send(new EventBatch().add(first).add(second));
+        Assert.assertTrue(first.isRecycled());
+        Assert.assertTrue(second.isRecycled());
+
+        // events already recycled are left alone instead of being sent again
+        eventService.sendAll(Arrays.asList(first, second));
+        Assert.assertTrue(first.isRecycled());
+        Assert.assertNotSame(ProductViewEvent.obtain("ID3", 7), ProductViewEvent.obtain("ID4", 8));
+    }
+
+    @Test
+    public void testEventTypes() throws Exception {
+        Assert.assertEquals(EventKeys.APP_LAUNCH, EventService.getEventType(new AppLaunchEvent()));
+        Assert.assertEquals(EventKeys.BASKET_VIEW, EventService.getEventType(new BasketViewEvent()));
+        Assert.assertEquals(EventKeys.HOME_VIEW, EventService.getEventType(new HomeViewEvent()));
+        Assert.assertEquals(EventKeys.PRODUCT_LIST_VIEW, EventService.getEventType(new ProductListViewEvent()));
+        Assert.assertEquals(EventKeys.PRODUCT_VIEW, EventService.getEventType(new ProductViewEvent(new Product("ID1", 5))));
+        Assert.assertEquals(EventKeys.TRANSACTION_CONFIRMATION,
+                EventService.getEventType(new TransactionConfirmationEvent("TX1")));
+        Assert.assertEquals(EventKeys.DATA_EVENT, EventService.getEventType(new DataEvent()));
+        Assert.assertEquals(EventKeys.DEEPLINK_EVENT, EventService.getEventType(new DeeplinkEvent("app://home")));
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Microbenchmark of {@link EventKeys#isKeyReserved(String)} against a HashSet of the same keys, which
+ * it replaced. Run its main method on the JVM; the first rounds warm up the JIT.
+ * Keys are looked up as literals, whose hash code is cached, and as new strings, whose hash code is
+ * computed on first use like keys parsed by the application.
+ */
+public class EventKeysBenchmark {
+    private static final int ROUNDS = 10;
+    private static final int ITERATIONS = 200000;
+
+    private static final String[] EXTRA_DATA_KEYS = { "brand", "category", "color", "size", "level",
+            "coupon_code", "utm_source", "checkin", "search_terms", "position" };
+
+    private interface Lookup {
+        boolean contains(String key);
+    }
+
+    private static class ReservedKeysLookup implements Lookup {
+        @Override
+        public boolean contains(String key) {
+            return EventKeys.isKeyReserved(key);
+        }
+    }
+
+    private static class HashSetLookup implements Lookup {
+        private final Set<String> keys = new HashSet<>();
+
+        private HashSetLookup() {
+            for (String key : EventKeys.RESERVED_KEYS) {
+                keys.add(key);
+            }
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return keys.contains(key);
+        }
+    }
+
+    public static void main(String[] args) {
+        String[] keys = new String[EventKeys.RESERVED_KEYS.length + EXTRA_DATA_KEYS.length];
+        System.arraycopy(EventKeys.RESERVED_KEYS, 0, keys, 0, EventKeys.RESERVED_KEYS.length);
+        System.arraycopy(EXTRA_DATA_KEYS, 0, keys, EventKeys.RESERVED_KEYS.length, EXTRA_DATA_KEYS.length);
+
+        Lookup[] lookups = { new ReservedKeysLookup(), new HashSetLookup() };
+        String[] names = { "perfect hash", "HashSet" };
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean report = round == ROUNDS - 1;
+            for (int i = 0; i < lookups.length; i++) {
+                double cached = measure(lookups[i], keys, false);
+                double uncached = measure(lookups[i], keys, true);
+                if (report) {
+                    System.out.println(String.format("%-12s %6.1f ns/key literal, %6.1f ns/key new string",
+                            names[i], cached, uncached));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param copy true to look up a new copy of each key, whose hash code is not cached yet
+     * @return the average time of a lookup in nanoseconds
+     */
+    private static double measure(Lookup lookup, String[] keys, boolean copy) {
+        int found = 0;
+        long time = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            String[] lookedUp = keys;
+            if (copy) {
+                lookedUp = new String[keys.length];
+                for (int j = 0; j < keys.length; j++) {
+                    lookedUp[j] = new String(keys[j].toCharArray());
+                }
+            }
+            long start = System.nanoTime();
+            for (String key : lookedUp) {
+                if (lookup.contains(key)) {
+                    found++;
+                }
+            }
+            time += System.nanoTime() - start;
+        }
+        if (found != ITERATIONS * EventKeys.RESERVED_KEYS.length) {
+            throw new AssertionError("Unexpected number of reserved keys: " + found);
+        }
+        return (double) time / ITERATIONS / keys.length;
+    }
+}
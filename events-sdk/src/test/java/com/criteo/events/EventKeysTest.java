@@ -0,0 +1,124 @@
+package com.criteo.events;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class EventKeysTest {
+
+    private static Set<String> reservedKeys() {
+        Set<String> keys = new HashSet<>();
+        for (String key : EventKeys.RESERVED_KEYS) {
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    private static boolean isPerfect(Set<String> keys, int multiplier, int bits) {
+        String[] table = new String[1 << bits];
+        for (String key : keys) {
+            if (!EventKeys.reserve(table, key, multiplier, bits)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void testHashMultiplierIsPerfect() {
+        Set<String> keys = reservedKeys();
+        if (isPerfect(keys, EventKeys.HASH_MULTIPLIER, EventKeys.HASH_BITS)) {
+            return;
+        }
+        // a key was added: search a multiplier giving every key its own slot, growing the table if needed
+        Random random = new Random(keys.size());
+        for (int bits = EventKeys.HASH_BITS; bits <= EventKeys.HASH_BITS + 2; bits++) {
+            for (int i = 0; i < 1000000; i++) {
+                int multiplier = random.nextInt() | 1;
+                if (isPerfect(keys, multiplier, bits)) {
+                    Assert.fail(String.format("Reserved keys have the same slot, set HASH_BITS = %d and HASH_MULTIPLIER = 0x%08X",
+                            bits, multiplier));
+                }
+            }
+        }
+        Assert.fail("Reserved keys have the same slot, and no multiplier was found for a table of up to "
+                + (1 << (EventKeys.HASH_BITS + 2)) + " slots");
+    }
+
+    @Test
+    public void testReservedKeys() {
+        for (String key : reservedKeys()) {
+            Assert.assertTrue(key, EventKeys.isKeyReserved(key));
+            Assert.assertTrue(key, EventKeys.isKeyReserved(new String(key.toCharArray())));
+        }
+    }
+
+    @Test
+    public void testKeysNotReserved() {
+        Set<String> reserved = reservedKeys();
+        String[] keys = { "", "brand", "category", "color", "size", "level", "coupon_code", "utm_source",
+                "E", "pp", "ids", "price ", "checkin", "checkout_date_", "viewProducts", "device_manufacturers" };
+        for (String key : keys) {
+            Assert.assertFalse(key, reserved.contains(key));
+            Assert.assertFalse(key, EventKeys.isKeyReserved(key));
+        }
+        // keys of every slot and length, and keys differing from a reserved key by a single character
+        Random random = new Random(46);
+        for (int i = 0; i < 100000; i++) {
+            char[] chars = new char[1 + random.nextInt(20)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) ('_' + random.nextInt(28));
+            }
+            String key = new String(chars);
+            Assert.assertEquals(key, reserved.contains(key), EventKeys.isKeyReserved(key));
+        }
+        for (String key : reserved) {
+            for (int j = 0; j < key.length(); j++) {
+                char[] chars = key.toCharArray();
+                chars[j]++;
+                String changed = new String(chars);
+                Assert.assertEquals(changed, reserved.contains(changed), EventKeys.isKeyReserved(changed));
+            }
+        }
+        Assert.assertFalse(EventKeys.isKeyReserved(null));
+    }
+
+    @Test
+    public void testFeatureKeysAreReservedWhileInUse() {
+        String[] deltaEnvelopeKeys = { EventKeys.ENVELOPE, EventKeys.TIMESTAMP_DELTA, EventKeys.SAME_AS_PREVIOUS };
+        boolean[] reservedBefore = new boolean[deltaEnvelopeKeys.length];
+        for (int i = 0; i < deltaEnvelopeKeys.length; i++) {
+            reservedBefore[i] = EventKeys.isKeyReserved(deltaEnvelopeKeys[i]);
+        }
+        boolean repeatCountReservedBefore = EventKeys.isKeyReserved(EventKeys.REPEAT_COUNT);
+
+        EventService eventService = new EventService(RuntimeEnvironment.application);
+        eventService.setDeltaEnvelope(true);
+        eventService.setDeltaEnvelope(true);
+        eventService.setCoalescingWindow(ProductViewEvent.class, 60000);
+        eventService.setCoalescingWindow(BasketViewEvent.class, 60000);
+        for (String key : deltaEnvelopeKeys) {
+            Assert.assertTrue(key, EventKeys.isKeyReserved(key));
+        }
+        Assert.assertTrue(EventKeys.isKeyReserved(EventKeys.REPEAT_COUNT));
+
+        // the keys are released once the service stops using the features, unless another service uses them
+        eventService.setDeltaEnvelope(false);
+        eventService.setCoalescingWindow(ProductViewEvent.class, 0);
+        Assert.assertTrue(EventKeys.isKeyReserved(EventKeys.REPEAT_COUNT));
+        eventService.setCoalescingWindow(BasketViewEvent.class, 0);
+        for (int i = 0; i < deltaEnvelopeKeys.length; i++) {
+            Assert.assertEquals(deltaEnvelopeKeys[i], reservedBefore[i], EventKeys.isKeyReserved(deltaEnvelopeKeys[i]));
+        }
+        Assert.assertEquals(repeatCountReservedBefore, EventKeys.isKeyReserved(EventKeys.REPEAT_COUNT));
+    }
+}
@@ -0,0 +1,86 @@
+package com.criteo.events;
+
+import com.criteo.events.product.Product;
+import com.criteo.events.product.ProductBatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.Currency;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class EventPoolTest {
+
+    @Test
+    public void testRecycledEventIsReusedInItsInitialState() throws Exception {
+        ProductViewEvent event = ProductViewEvent.obtain("ID1", 5);
+        event.setCurrency(Currency.getInstance("EUR"));
+        event.addExtraData("key", "value");
+        event.recycle();
+        Assert.assertTrue(event.isRecycled());
+
+        ProductViewEvent reused = ProductViewEvent.obtain(new Product("ID2", 3));
+        Assert.assertSame(event, reused);
+        Assert.assertFalse(reused.isRecycled());
+        Assert.assertEquals("ID2", reused.getProduct().getProductId());
+        Assert.assertNull(reused.getCurrency());
+        Assert.assertEquals(0, reused.getExtraDataMap().size());
+        reused.recycle();
+    }
+
+    @Test
+    public void testEventIsOnlyRecycledOnce() throws Exception {
+        ProductListViewEvent event = ProductListViewEvent.obtain(new ProductBatch().add("ID1", 5));
+        event.recycle();
+        event.recycle();
+
+        ProductListViewEvent first = ProductListViewEvent.obtain(Collections.singletonList(new Product("ID2", 3)));
+        ProductListViewEvent second = ProductListViewEvent.obtain(Collections.<Product>emptyList());
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(1, first.getProductList().size());
+        Assert.assertEquals("ID2", first.getProductList().get(0).getProductId());
+        Assert.assertTrue(second.getProductList().isEmpty());
+        first.recycle();
+        second.recycle();
+    }
+
+    @Test
+    public void testConstructedEventIsNotRecycled() throws Exception {
+        ProductViewEvent event = new ProductViewEvent("ID1", 5);
+        event.recycle();
+        Assert.assertFalse(event.isRecycled());
+        Assert.assertNotSame(event, ProductViewEvent.obtain("ID2", 3));
+    }
+
+    @Test
+    public void testSentEventIsRecycled() throws Exception {
+        EventService eventService = new EventService(RuntimeEnvironment.application);
+        eventService.setDeferredSerialization(true);
+
+        ProductViewEvent event = ProductViewEvent.obtain("ID1", 5);
+        eventService.send(event);
+        Assert.assertTrue(event.isRecycled());
+        Assert.assertNull(event.getProduct());
+        Assert.assertSame(event, ProductViewEvent.obtain("ID2", 3));
+    }
+
+    @Test
+    public void testLeakGuardIsClosedOnRecycle() throws Exception {
+        EventPool.setLeakDetection(true);
+        try {
+            ProductViewEvent event = ProductViewEvent.obtain("ID1", 5);
+            EventPool.LeakGuard leakGuard = event.leakGuard;
+            Assert.assertNotNull(leakGuard);
+            event.recycle();
+            Assert.assertNull(event.leakGuard);
+        } finally {
+            EventPool.setLeakDetection(false);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.criteo.events;
 
+import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -39,6 +40,9 @@ public class EventPosterTest {
         };
 
         url = new URL("http", "example.org", 80, "/m/event", streamHandler);
+        EventPoster.cborEncoding = false;
+        EventPoster.dictionaryCompression = false;
+        EventPoster.compactKeys = false;
     }
 
     @Test
@@ -57,6 +61,14 @@ public class EventPosterTest {
         Assert.assertEquals(payload, outputStream.toString());
     }
 
+    @Test
+    public void testEncodedLength() throws Exception {
+        String[] payloads = { "", "{\"event\":\"testEvent\"}", "caf\u00e9", "\u20ac10", "\ud83d\ude00", "a\ud83d" };
+        for (String payload : payloads) {
+            Assert.assertEquals(payload, payload.getBytes("UTF-8").length, EventPoster.getEncodedLength(payload));
+        }
+    }
+
     @Test
     public void testPostRedirect() throws Exception {
         String expectedRedirectUrl = "http://example.org/m/event";
@@ -90,4 +102,150 @@ public class EventPosterTest {
         Assert.assertEquals(EventPoster.PostResult.RETRY_LATER, result);
         Assert.assertEquals("", outputStream.toString());
     }
+
+    @Test
+    public void testPostCBOR() throws Exception {
+        Mockito.when(httpURLConnection.getOutputStream()).thenReturn(outputStream);
+        Mockito.when(httpURLConnection.getInputStream()).thenReturn(inputStream);
+        Mockito.when(httpURLConnection.getResponseCode()).thenReturn(200);
+
+        EventPoster.cborEncoding = true;
+        EventPoster poster = new EventPoster(url, new SendPolicy());
+        String payload = "{\"event\":\"testEvent\"}";
+
+        EventPoster.PostResult result = poster.post(payload);
+
+        Mockito.verify(httpURLConnection, Mockito.times(1)).setRequestProperty("Content-Type", "application/cbor");
+        Assert.assertEquals(EventPoster.PostResult.DONE, result);
+        Assert.assertTrue(CBORDecoder.sameValue(new JSONObject(payload), CBORDecoder.decode(outputStream.toByteArray())));
+        Assert.assertTrue(EventPoster.cborEncoding);
+    }
+
+    @Test
+    public void testPostCBORUnsupported() throws Exception {
+        Mockito.when(httpURLConnection.getOutputStream()).thenReturn(outputStream);
+        Mockito.when(httpURLConnection.getInputStream()).thenReturn(inputStream);
+        Mockito.when(httpURLConnection.getResponseCode()).thenReturn(415, 200);
+
+        EventPoster.cborEncoding = true;
+        EventPoster poster = new EventPoster(url, new SendPolicy());
+        String payload = "{\"event\":\"testEvent\"}";
+
+        EventPoster.PostResult result = poster.post(payload);
+
+        // the payload is sent again as JSON, which is used from now on
+        Mockito.verify(httpURLConnection, Mockito.times(2)).getResponseCode();
+        Assert.assertEquals(EventPoster.PostResult.DONE, result);
+        Assert.assertTrue(outputStream.toString("UTF-8").endsWith(payload));
+        Assert.assertFalse(EventPoster.cborEncoding);
+    }
+
+    @Test
+    public void testPostCompactKeys() throws Exception {
+        Mockito.when(httpURLConnection.getOutputStream()).thenReturn(outputStream);
+        Mockito.when(httpURLConnection.getInputStream()).thenReturn(inputStream);
+        Mockito.when(httpURLConnection.getResponseCode()).thenReturn(200);
+
+        EventPoster.compactKeys = true;
+        EventPoster poster = new EventPoster(url, new SendPolicy());
+        String payload = "{\"version\":\"sdk_1.0.0\",\"events\":[{\"event\":\"testEvent\"}]}";
+
+        EventPoster.PostResult result = poster.post(payload);
+
+        Assert.assertEquals(EventPoster.PostResult.DONE, result);
+        Assert.assertEquals("{\"version\":\"sdk_1.0.0_compact\",\"ev\":[{\"e\":\"testEvent\"}]}",
+                outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void testPostCompactKeysUnsupported() throws Exception {
+        Mockito.when(httpURLConnection.getOutputStream()).thenReturn(outputStream);
+        Mockito.when(httpURLConnection.getInputStream()).thenReturn(inputStream);
+        Mockito.when(httpURLConnection.getResponseCode()).thenReturn(400, 200);
+
+        EventPoster.compactKeys = true;
+        EventPoster poster = new EventPoster(url, new SendPolicy());
+        String payload = "{\"version\":\"sdk_1.0.0\",\"events\":[{\"event\":\"testEvent\"}]}";
+
+        EventPoster.PostResult result = poster.post(payload);
+
+        // the payload is sent again in the verbose schema, which is used from now on
+        Mockito.verify(httpURLConnection, Mockito.times(2)).getResponseCode();
+        Assert.assertEquals(EventPoster.PostResult.DONE, result);
+        Assert.assertTrue(outputStream.toString("UTF-8").endsWith(payload));
+        Assert.assertFalse(EventPoster.compactKeys);
+    }
+
+    @Test
+    public void testPostCompactKeysMalformedEvent() throws Exception {
+        Mockito.when(httpURLConnection.getOutputStream()).thenReturn(outputStream);
+        Mockito.when(httpURLConnection.getInputStream()).thenReturn(inputStream);
+        Mockito.when(httpURLConnection.getResponseCode()).thenReturn(400, 400);
+
+        EventPoster.compactKeys = true;
+        EventPoster.dictionaryCompression = true;
+        EventPoster poster = new EventPoster(url, new SendPolicy());
+        String payload = "{\"version\":\"sdk_1.0.0\",\"events\":[{\"event\":\"testEvent\"}]}";
+
+        EventPoster.PostResult result = poster.post(payload);
+
+        // the payload is rejected in both schemas, so the event is dropped and the encodings are kept
+        Mockito.verify(httpURLConnection, Mockito.times(2)).getResponseCode();
+        Assert.assertEquals(EventPoster.PostResult.DONE, result);
+        Assert.assertTrue(EventPoster.compactKeys);
+        Assert.assertTrue(EventPoster.dictionaryCompression);
+    }
+
+    @Test
+    public void testPostNonAsciiLength() throws Exception {
+        Mockito.when(httpURLConnection.getOutputStream()).thenReturn(outputStream);
+        Mockito.when(httpURLConnection.getInputStream()).thenReturn(inputStream);
+        Mockito.when(httpURLConnection.getResponseCode()).thenReturn(200);
+
+        EventPoster poster = new EventPoster(url, new SendPolicy());
+        String payload = "{\"event\":\"caf\u00e9\"}";
+
+        poster.post(payload);
+
+        // the streaming length is the number of bytes, not of characters
+        Mockito.verify(httpURLConnection).setFixedLengthStreamingMode(payload.getBytes("UTF-8").length);
+        Assert.assertEquals(payload, outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void testPostCompressed() throws Exception {
+        Mockito.when(httpURLConnection.getOutputStream()).thenReturn(outputStream);
+        Mockito.when(httpURLConnection.getInputStream()).thenReturn(inputStream);
+        Mockito.when(httpURLConnection.getResponseCode()).thenReturn(200);
+
+        EventPoster.dictionaryCompression = true;
+        EventPoster poster = new EventPoster(url, new SendPolicy());
+        String payload = "{\"event\":\"testEvent\"}";
+
+        EventPoster.PostResult result = poster.post(payload);
+
+        Mockito.verify(httpURLConnection, Mockito.times(1)).setRequestProperty("Content-Encoding", "x-deflate-dictionary");
+        Assert.assertEquals(EventPoster.PostResult.DONE, result);
+        byte[] decompressed = PayloadDecompressor.decompress(outputStream.toByteArray(), PayloadCompressor.getDictionary());
+        Assert.assertEquals(payload, new String(decompressed, "UTF-8"));
+    }
+
+    @Test
+    public void testPostCompressedUnsupported() throws Exception {
+        Mockito.when(httpURLConnection.getOutputStream()).thenReturn(outputStream);
+        Mockito.when(httpURLConnection.getInputStream()).thenReturn(inputStream);
+        Mockito.when(httpURLConnection.getResponseCode()).thenReturn(415, 200);
+
+        EventPoster.dictionaryCompression = true;
+        EventPoster poster = new EventPoster(url, new SendPolicy());
+        String payload = "{\"event\":\"testEvent\"}";
+
+        EventPoster.PostResult result = poster.post(payload);
+
+        // the payload is sent again uncompressed, which is done from now on
+        Mockito.verify(httpURLConnection, Mockito.times(2)).getResponseCode();
+        Assert.assertEquals(EventPoster.PostResult.DONE, result);
+        Assert.assertTrue(outputStream.toString("UTF-8").endsWith(payload));
+        Assert.assertFalse(EventPoster.dictionaryCompression);
+    }
 }
@@ -3,6 +3,7 @@ package com.criteo.events;
 import android.content.Context;
 import android.content.Intent;
 
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -56,8 +57,13 @@ public class EventSenderServiceTest {
             }
         };
 
-        // reset queue before each test
+        // reset queue, rate limits and metrics before each test
         EventQueue.INSTANCE.get().clear();
+        EventSenderService.rateLimiter = new RateLimiter();
+        SenderMetrics.INSTANCE.reset();
+        SendPolicyProfiles.INSTANCE.reset();
+        EventSenderService.deadlineOrdering = false;
+        EventSenderService.laneCount = 1;
 
         eventSenderService = new TestableEventSenderService();
         eventSenderService.onCreate();
@@ -304,6 +310,267 @@ public class EventSenderServiceTest {
         Assert.assertEquals(0, eventSenderService.getQueueSize());
     }
 
+    @Test
+    public void testRateLimit() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString())).thenReturn(EventPoster.PostResult.DONE);
+        SendPolicy sendPolicy = new SendPolicy();
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+
+        // only 10 bytes per minute, so the second event would have to wait for too long
+        EventSenderService.rateLimiter = new RateLimiter(10, 10, 10);
+        EventService.context = context;
+
+        sendEvent("payload_1", new Date().getTime());
+        sendEvent("payload_2", new Date().getTime());
+
+        Mockito.verify(eventPoster, Mockito.times(1)).post(Mockito.anyString());
+        Mockito.verify(eventPoster).post("payload_1");
+
+        // the throttled event is kept in the queue, until it is sent again once the limits allow it
+        Assert.assertEquals(1, eventSenderService.getQueueSize());
+        Assert.assertEquals(1, SenderMetrics.INSTANCE.throttledEvents.get());
+        Assert.assertTrue(EventSenderService.isDrainScheduled());
+    }
+
+    @Test
+    public void testPriorityEviction() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString())).thenReturn(EventPoster.PostResult.RETRY_LATER);
+        SendPolicy sendPolicy = new SendPolicy(3, 30000, 5000, 3); // 3 items max in the queue, many attempts
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+        SendPolicyProfiles.INSTANCE.applyPresets();
+
+        Intent[] intents = new Intent[4];
+        intents[0] = enqueueEvent("transaction", new Date().getTime(), EventKeys.TRANSACTION_CONFIRMATION);
+        intents[1] = enqueueEvent("product_1", new Date().getTime(), EventKeys.PRODUCT_VIEW);
+        intents[2] = enqueueEvent("product_2", new Date().getTime(), EventKeys.PRODUCT_VIEW);
+        intents[3] = enqueueEvent("product_3", new Date().getTime(), EventKeys.PRODUCT_VIEW);
+
+        for (Intent intent: intents) {
+            eventSenderService.onHandleIntent(intent);
+        }
+
+        // the queue is full when the last event arrives, but the oldest product view is evicted
+        // instead of the transaction, which is still retried
+        Mockito.verify(eventPoster, Mockito.times(4)).post("transaction");
+        Assert.assertEquals(3, eventSenderService.getQueueSize());
+        Assert.assertFalse(EventQueue.INSTANCE.get().contains(intents[1]));
+        Assert.assertEquals(1, SenderMetrics.INSTANCE.droppedEvents.get());
+    }
+
+    @Test
+    public void testEvictionOfOldestEvent() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString())).thenReturn(EventPoster.PostResult.RETRY_LATER);
+        SendPolicy sendPolicy = new SendPolicy(3, 30000, 5000, 3); // 3 items max in the queue, many attempts
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+        SendPolicyProfiles.INSTANCE.applyPresets();
+
+        // the queue is not in age order, as when it is reordered by deadline
+        long now = new Date().getTime();
+        Intent[] intents = new Intent[4];
+        intents[0] = enqueueEvent("transaction", now, EventKeys.TRANSACTION_CONFIRMATION);
+        intents[1] = enqueueEvent("product_1", now - 30000, EventKeys.PRODUCT_VIEW);
+        intents[2] = enqueueEvent("product_2", now - 50000, EventKeys.PRODUCT_VIEW);
+        intents[3] = enqueueEvent("product_3", now - 40000, EventKeys.PRODUCT_VIEW);
+
+        for (Intent intent: intents) {
+            eventSenderService.onHandleIntent(intent);
+        }
+
+        // the oldest product view is evicted, whatever its place in the queue
+        Assert.assertEquals(3, eventSenderService.getQueueSize());
+        Assert.assertFalse(EventQueue.INSTANCE.get().contains(intents[2]));
+        Assert.assertTrue(EventQueue.INSTANCE.get().contains(intents[1]));
+        Assert.assertEquals(1, SenderMetrics.INSTANCE.droppedEvents.get());
+    }
+
+    @Test
+    public void testEventTypeValidity() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString())).thenReturn(EventPoster.PostResult.DONE);
+        SendPolicy sendPolicy = new SendPolicy();
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+        SendPolicyProfiles.INSTANCE.applyPresets();
+
+        // ten minutes old, which is within the default validity but not the product view one
+        long timestamp = new Date().getTime() - 10 * SendPolicyProfiles.MINUTE;
+        eventSenderService.onHandleIntent(enqueueEvent("basket", timestamp, EventKeys.BASKET_VIEW));
+        eventSenderService.onHandleIntent(enqueueEvent("product", timestamp, EventKeys.PRODUCT_VIEW));
+
+        Mockito.verify(eventPoster, Mockito.times(1)).post(Mockito.anyString());
+        Mockito.verify(eventPoster).post("basket");
+        Assert.assertEquals(0, eventSenderService.getQueueSize());
+    }
+
+    @Test
+    public void testSamePolicyWithoutPresets() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString())).thenReturn(EventPoster.PostResult.DONE);
+        SendPolicy sendPolicy = new SendPolicy();
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+
+        // without the presets, a product view is valid as long as any other event
+        long timestamp = new Date().getTime() - 10 * SendPolicyProfiles.MINUTE;
+        eventSenderService.onHandleIntent(enqueueEvent("basket", timestamp, EventKeys.BASKET_VIEW));
+        eventSenderService.onHandleIntent(enqueueEvent("product", timestamp, EventKeys.PRODUCT_VIEW));
+
+        Mockito.verify(eventPoster).post("basket");
+        Mockito.verify(eventPoster).post("product");
+        Assert.assertEquals(0, eventSenderService.getQueueSize());
+    }
+
+    @Test
+    public void testDeadlineOrdering() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString())).thenReturn(EventPoster.PostResult.DONE);
+        SendPolicy sendPolicy = new SendPolicy();
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+        SendPolicyProfiles.INSTANCE.applyPresets();
+        EventSenderService.deadlineOrdering = true;
+
+        // the product view expires in 30 seconds, long before the basket view
+        long now = new Date().getTime();
+        queueEvent("basket", now - 30 * SendPolicyProfiles.MINUTE, EventKeys.BASKET_VIEW);
+        queueEvent("product", now - 270000, EventKeys.PRODUCT_VIEW);
+
+        eventSenderService.onHandleIntent(null);
+
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(eventPoster, Mockito.times(2)).post(captor.capture());
+        Assert.assertEquals("product", captor.getAllValues().get(0));
+        Assert.assertEquals("basket", captor.getAllValues().get(1));
+    }
+
+    @Test
+    public void testSenderLanes() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString())).thenReturn(EventPoster.PostResult.DONE);
+        SendPolicy sendPolicy = new SendPolicy();
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+        EventSenderService.laneCount = 2;
+
+        queueEvent("payload_1", new Date().getTime());
+        queueEvent("payload_2", new Date().getTime());
+        queueEvent("payload_3", new Date().getTime());
+
+        eventSenderService.onHandleIntent(null);
+
+        Mockito.verify(eventPoster).post("payload_1");
+        Mockito.verify(eventPoster).post("payload_2");
+        Mockito.verify(eventPoster).post("payload_3");
+        Assert.assertEquals(0, eventSenderService.getQueueSize());
+    }
+
+    @Test
+    public void testSenderLanesRetryLater() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString())).thenReturn(EventPoster.PostResult.RETRY_LATER);
+        SendPolicy sendPolicy = new SendPolicy();
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+        EventSenderService.laneCount = 2;
+
+        queueEvent("payload_1", new Date().getTime());
+        queueEvent("payload_2", new Date().getTime());
+
+        eventSenderService.onHandleIntent(null);
+
+        // undelivered events are put back in the queue in their original order
+        Assert.assertEquals(2, eventSenderService.getQueueSize());
+        Assert.assertEquals("payload_1", EventQueue.INSTANCE.get().peekFirst().getStringExtra("payload"));
+    }
+
+    @Test
+    public void testFlushMergesEvents() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString(), Mockito.anyInt())).thenReturn(EventPoster.PostResult.DONE);
+        SendPolicy sendPolicy = new SendPolicy();
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+
+        String testPayload = JsonReader.readRawContents("setPayloadEvent.json");
+        queueEvent(testPayload, new Date().getTime());
+        queueEvent(testPayload, new Date().getTime());
+        queueEvent(testPayload, new Date().getTime());
+
+        FlushResult result = eventSenderService.flushWaitingIntents(new Date().getTime() + 10000);
+
+        // the three events share the same common payload, so they are sent in a single request
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(eventPoster, Mockito.times(1)).post(captor.capture(), Mockito.anyInt());
+        JSONObject mergedPayload = new JSONObject(captor.getValue());
+        Assert.assertEquals(3, mergedPayload.getJSONArray(EventKeys.EVENTS).length());
+
+        Assert.assertEquals(3, result.getDeliveredCount());
+        Assert.assertEquals(0, result.getDeferredCount());
+        Assert.assertEquals(0, eventSenderService.getQueueSize());
+    }
+
+    @Test
+    public void testFlushUnmergeablePayloads() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString(), Mockito.anyInt())).thenReturn(EventPoster.PostResult.DONE);
+        SendPolicy sendPolicy = new SendPolicy();
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+
+        queueEvent("payload_1", new Date().getTime());
+        queueEvent("payload_2", new Date().getTime());
+
+        FlushResult result = eventSenderService.flushWaitingIntents(new Date().getTime() + 10000);
+
+        // payloads that cannot be parsed are sent as they are, one at a time
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(eventPoster, Mockito.times(2)).post(captor.capture(), Mockito.anyInt());
+        List<String> capturedPayloads = captor.getAllValues();
+        Assert.assertEquals("payload_1", capturedPayloads.get(0));
+        Assert.assertEquals("payload_2", capturedPayloads.get(1));
+
+        Assert.assertEquals(2, result.getDeliveredCount());
+    }
+
+    @Test
+    public void testFlushDeadline() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString(), Mockito.anyInt())).thenReturn(EventPoster.PostResult.DONE);
+        SendPolicy sendPolicy = new SendPolicy();
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+
+        queueEvent("payload_1", new Date().getTime());
+        queueEvent("payload_2", new Date().getTime());
+
+        // the time budget is already spent
+        FlushResult result = eventSenderService.flushWaitingIntents(new Date().getTime() - 1);
+
+        Mockito.verify(eventPoster, Mockito.never()).post(Mockito.anyString(), Mockito.anyInt());
+        Assert.assertEquals(0, result.getDeliveredCount());
+        Assert.assertEquals(2, result.getDeferredCount());
+        Assert.assertEquals(2, eventSenderService.getQueueSize());
+    }
+
+    @Test
+    public void testFlushRetryLater() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString(), Mockito.anyInt())).thenReturn(EventPoster.PostResult.RETRY_LATER);
+        SendPolicy sendPolicy = new SendPolicy();
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+
+        String testPayload = JsonReader.readRawContents("setPayloadEvent.json");
+        queueEvent(testPayload, new Date().getTime());
+        queueEvent(testPayload, new Date().getTime());
+
+        FlushResult result = eventSenderService.flushWaitingIntents(new Date().getTime() + 10000);
+
+        // the flush stops at the first network error and keeps the events for later
+        Mockito.verify(eventPoster, Mockito.times(1)).post(Mockito.anyString(), Mockito.anyInt());
+        Assert.assertEquals(0, result.getDeliveredCount());
+        Assert.assertEquals(2, result.getDeferredCount());
+        Assert.assertEquals(1, EventQueue.INSTANCE.get().peek().getIntExtra("retries", 0));
+    }
+
+    @Test
+    public void testFlushExpiredEvents() throws Exception {
+        Mockito.when(eventPoster.post(Mockito.anyString(), Mockito.anyInt())).thenReturn(EventPoster.PostResult.DONE);
+        SendPolicy sendPolicy = new SendPolicy(15, 1000, 3, 3); // event expires after 1 second
+        Mockito.when(eventPoster.getSendPolicy()).thenReturn(sendPolicy);
+
+        queueEvent("payload_1", new Date().getTime() - 3000);
+        queueEvent("payload_2", new Date().getTime());
+
+        FlushResult result = eventSenderService.flushWaitingIntents(new Date().getTime() + 10000);
+
+        Mockito.verify(eventPoster, Mockito.times(1)).post(Mockito.eq("payload_2"), Mockito.anyInt());
+        Assert.assertEquals(1, result.getDeliveredCount());
+        Assert.assertEquals(1, result.getDroppedCount());
+    }
+
     private void sendEvent(String eventPayload, long eventTimestamp) {
         Intent intent = new Intent(context, TestableEventSenderService.class);
         intent.setAction(EventSenderService.ACTION_SEND_EVENT);
@@ -329,4 +596,22 @@ public class EventSenderServiceTest {
 
         return intent;
     }
+
+    private Intent enqueueEvent(String eventPayload, long eventTimestamp, String eventType) {
+        Intent intent = enqueueEvent(eventPayload, eventTimestamp);
+        intent.putExtra("event", eventType);
+        return intent;
+    }
+
+    private void queueEvent(String eventPayload, long eventTimestamp) {
+        Intent intent = enqueueEvent(eventPayload, eventTimestamp);
+
+        // put the event in the queue without triggering the regular sending loop
+        EventQueue.INSTANCE.get().add(intent);
+    }
+
+    private void queueEvent(String eventPayload, long eventTimestamp, String eventType) {
+        Intent intent = enqueueEvent(eventPayload, eventTimestamp, eventType);
+        EventQueue.INSTANCE.get().add(intent);
+    }
 }
@@ -1,5 +1,8 @@
 package com.criteo.events;
 
+import com.criteo.events.product.BasketProduct;
+import com.criteo.events.product.ProductBatch;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
@@ -11,4 +14,49 @@ public class EventTest {
         HomeViewEvent event = new HomeViewEvent();
         Assert.assertEquals(Event.NO_USER_SEGMENT, event.getUserSegment());
     }
+
+    @Test
+    public void testBuilderRejectsReservedKeys() throws Exception {
+        BasketViewEvent event = new BasketViewEvent.Builder().addExtraData(EventKeys.PRICE, "value")
+                .addExtraData("key", "value").build();
+        Assert.assertNull(event.getExtraData(EventKeys.PRICE));
+        Assert.assertEquals("value", event.getStringExtraData("key"));
+    }
+
+    @Test
+    public void testBasketProductsAreShared() throws Exception {
+        BasketProduct product = new BasketProduct("ID1", 5, 1);
+        BasketProduct subclassProduct = new BasketProduct("ID2", 5, 1) {
+            @Override
+            public int getQuantity() {
+                return 2;
+            }
+        };
+
+        // instances of subclasses may not be immutable, so they are copied
+        TransactionConfirmationEvent event = new TransactionConfirmationEvent("T1", product, subclassProduct);
+        Assert.assertSame(product, event.getBasketProductList().get(0));
+        Assert.assertEquals(BasketProduct.class, event.getBasketProductList().get(1).getClass());
+        Assert.assertEquals(2, event.getBasketProductList().get(1).getQuantity());
+    }
+
+    @Test
+    public void testProductBatchIsCopiedAndTurnedIntoList() throws Exception {
+        ProductBatch batch = new ProductBatch().add("ID1", 5, 2);
+        BasketViewEvent event = new BasketViewEvent(batch);
+        batch.add("ID2", 1);
+        Assert.assertEquals(1, event.getBasketProductBatch().size());
+
+        event.addBasketProduct(new BasketProduct("ID3", 3, 1));
+        Assert.assertNull(event.getBasketProductBatch());
+        Assert.assertEquals(2, event.getBasketProductList().size());
+        Assert.assertEquals("ID1", event.getBasketProductList().get(0).getProductId());
+        Assert.assertEquals(2, event.getBasketProductList().get(0).getQuantity());
+
+        ProductListViewEvent listing = new ProductListViewEvent(batch);
+        ProductListViewEvent copy = new ProductListViewEvent(listing);
+        Assert.assertEquals(2, listing.getProductList().size());
+        Assert.assertEquals(5.0, copy.getProductList().get(0).getPrice(), 0);
+        Assert.assertNotSame(listing.getProductList(), copy.getProductList());
+    }
 }
@@ -0,0 +1,87 @@
+package com.criteo.events;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class ExtraDataMapTest {
+
+    @Test
+    public void testTypedValues() throws Exception {
+        GregorianCalendar date = new GregorianCalendar(2015, 0, 1);
+        ExtraDataMap map = new ExtraDataMap();
+        map.putFloat("float", 0.5f);
+        map.putInt("int", -3);
+        map.putLong("long", Long.MAX_VALUE);
+        map.putDouble("double", -1.25);
+        map.putBoolean("boolean", true);
+        map.putString("string", "value");
+        map.putDate("date", date);
+
+        Assert.assertEquals(7, map.size());
+        Assert.assertEquals(0.5f, map.getFloat("float"), 0);
+        Assert.assertEquals(-3, map.getInt("int"));
+        Assert.assertEquals(Long.MAX_VALUE, map.getLong("long"));
+        Assert.assertEquals(-1.25, map.getDouble("double"), 0);
+        Assert.assertTrue(map.getBoolean("boolean"));
+        Assert.assertEquals("value", map.getString("string"));
+        // dates are stored as days, so later changes to the calendar do not affect the map
+        date.add(GregorianCalendar.DAY_OF_MONTH, 1);
+        Assert.assertEquals(new GregorianCalendar(2015, 0, 1), map.getDate("date"));
+        Assert.assertEquals(16436, map.dayAt(6));
+        Assert.assertEquals(ExtraData.ExtraDataType.Long, map.getType("long"));
+    }
+
+    @Test
+    public void testMissingAndMismatchedValues() throws Exception {
+        ExtraDataMap map = new ExtraDataMap();
+        Assert.assertEquals(0, map.getInt("missing"));
+        Assert.assertNull(map.getString("missing"));
+        Assert.assertNull(map.get("missing"));
+
+        map.putInt("key", 3);
+        Assert.assertEquals(0, map.getFloat("key"), 0);
+        Assert.assertNull(map.getString("key"));
+        Assert.assertEquals(3, map.get("key").getIntValue());
+    }
+
+    @Test
+    public void testReplacedValueKeepsItsPosition() throws Exception {
+        ExtraDataMap map = new ExtraDataMap();
+        map.putInt("a", 1);
+        map.putInt("b", 2);
+        map.putString("a", "replaced");
+
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals(Arrays.asList("a", "b"), new ArrayList<>(map.toMap().keySet()));
+        Assert.assertEquals("replaced", map.getString("a"));
+        Assert.assertEquals("{a=replaced, b=2}", map.toString());
+    }
+
+    @Test
+    public void testManyKeys() throws Exception {
+        ExtraDataMap map = new ExtraDataMap();
+        for (int i = 0; i < 100; i++) {
+            map.putInt("key" + i, i);
+        }
+
+        ExtraDataMap copy = new ExtraDataMap(map);
+        copy.putInt("key100", 100);
+        Assert.assertEquals(100, map.size());
+        Assert.assertEquals(101, copy.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("key" + i, map.keyAt(i));
+            Assert.assertEquals(i, map.getInt("key" + i));
+            Assert.assertEquals(i, copy.getInt("key" + i));
+        }
+        Assert.assertFalse(map.contains("key100"));
+    }
+}
@@ -2,9 +2,11 @@ package com.criteo.events;
 
 import com.criteo.events.product.BasketProduct;
 import com.criteo.events.product.Product;
+import com.criteo.events.product.ProductBatch;
 
 import junit.framework.Assert;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
@@ -14,10 +16,14 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 import org.skyscreamer.jsonassert.JSONAssert;
 
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Currency;
+import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.Locale;
+import java.util.Map;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest=Config.NONE)
@@ -40,7 +46,7 @@ public class JSONSerializerTest {
         AppLaunchEvent appLaunchEvent = new AppLaunchEvent();
         appLaunchEvent.setGoogleReferrer("googleReferrerTest");
 
-        JSONObject output = jsonSerializer.serializeToJSON(appLaunchEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(appLaunchEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -51,7 +57,7 @@ public class JSONSerializerTest {
         BasketViewEvent basketViewEvent = new BasketViewEvent(new BasketProduct("ID123", 5, 10));
         basketViewEvent.setCurrency(Currency.getInstance("GBP"));
 
-        JSONObject output = jsonSerializer.serializeToJSON(basketViewEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(basketViewEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -61,7 +67,7 @@ public class JSONSerializerTest {
         JSONObject testCase = JsonReader.readJson("homeViewEvent.json");
         HomeViewEvent homeViewEvent = new HomeViewEvent();
 
-        JSONObject output = jsonSerializer.serializeToJSON(homeViewEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(homeViewEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -71,7 +77,7 @@ public class JSONSerializerTest {
         JSONObject testCase = JsonReader.readJson("productListViewEvent.json");
         ProductListViewEvent productListViewEvent = new ProductListViewEvent(new Product("ID123", 10), new Product("ID456", 5));
 
-        JSONObject output = jsonSerializer.serializeToJSON(productListViewEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(productListViewEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -81,7 +87,7 @@ public class JSONSerializerTest {
         JSONObject testCase = JsonReader.readJson("productViewEvent.json");
         ProductViewEvent productViewEvent = new ProductViewEvent(new Product("ID123", 10));
 
-        JSONObject output = jsonSerializer.serializeToJSON(productViewEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(productViewEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -91,7 +97,7 @@ public class JSONSerializerTest {
         JSONObject testCase = JsonReader.readJson("transactionConfirmationEvent.json");
         TransactionConfirmationEvent transactionConfirmationEvent = new TransactionConfirmationEvent("TransactionID123", new BasketProduct("ID123", 1, 2), new BasketProduct("ID456", 3, 4));
 
-        JSONObject output = jsonSerializer.serializeToJSON(transactionConfirmationEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(transactionConfirmationEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -102,7 +108,7 @@ public class JSONSerializerTest {
         TransactionConfirmationEvent transactionConfirmationEvent = new TransactionConfirmationEvent("TransactionID123", new BasketProduct("ID123", 1, 2), new BasketProduct("ID456", 3, 4));
         transactionConfirmationEvent.setDeduplication(true);
 
-        JSONObject output = jsonSerializer.serializeToJSON(transactionConfirmationEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(transactionConfirmationEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -113,7 +119,7 @@ public class JSONSerializerTest {
         TransactionConfirmationEvent transactionConfirmationEvent = new TransactionConfirmationEvent("TransactionID123", new BasketProduct("ID123", 1, 2), new BasketProduct("ID456", 3, 4));
         transactionConfirmationEvent.setDeduplication(false);
 
-        JSONObject output = jsonSerializer.serializeToJSON(transactionConfirmationEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(transactionConfirmationEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -124,7 +130,7 @@ public class JSONSerializerTest {
         TransactionConfirmationEvent transactionConfirmationEvent = new TransactionConfirmationEvent("TransactionID123", new BasketProduct("ID123", 1, 2), new BasketProduct("ID456", 3, 4));
         transactionConfirmationEvent.setNewCustomer(true);
 
-        JSONObject output = jsonSerializer.serializeToJSON(transactionConfirmationEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(transactionConfirmationEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -135,7 +141,7 @@ public class JSONSerializerTest {
         TransactionConfirmationEvent transactionConfirmationEvent = new TransactionConfirmationEvent("TransactionID123", new BasketProduct("ID123", 1, 2), new BasketProduct("ID456", 3, 4));
         transactionConfirmationEvent.setNewCustomer(false);
 
-        JSONObject output = jsonSerializer.serializeToJSON(transactionConfirmationEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(transactionConfirmationEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -145,7 +151,7 @@ public class JSONSerializerTest {
         JSONObject testCase = JsonReader.readJson("dataEvent.json");
         DataEvent dataEvent = new DataEvent();
 
-        JSONObject output = jsonSerializer.serializeToJSON(dataEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(dataEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -155,7 +161,7 @@ public class JSONSerializerTest {
         JSONObject testCase = JsonReader.readJson("deeplinkEvent.json");
         DeeplinkEvent deeplinkEvent = new DeeplinkEvent("deeplink-me://here-it-is?a=foo&b=bar");
 
-        JSONObject output = jsonSerializer.serializeToJSON(deeplinkEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(deeplinkEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -165,7 +171,7 @@ public class JSONSerializerTest {
         JSONObject testCase = JsonReader.readJson("deeplinkEventAccessToken.json");
         DeeplinkEvent deeplinkEvent = new DeeplinkEvent("deeplink-me://here-it-is?a=foo&b=bar&access_token=EAAZDGZIUD153Z");
 
-        JSONObject output = jsonSerializer.serializeToJSON(deeplinkEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(deeplinkEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -181,15 +187,34 @@ public class JSONSerializerTest {
         dataEvent.addExtraData("testInt", 100);
         dataEvent.addExtraData("testDate", calendar);
 
-        JSONObject output = jsonSerializer.serializeToJSON(dataEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(dataEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
 
-        //Float has to be input manually as JSONObject by default reads in real numbers as doubles
-        testCase.put("testFloat", new JSONObject().put("value", 0.1f).put("type", "float"));
+        //Float is written as 0.1, which is read back as a double like the rest of the test case
+        testCase.put("testFloat", new JSONObject().put("value", 0.1).put("type", "float"));
 
         JSONAssert.assertEquals(testCase, output, true);
     }
 
+    @Test
+    public void testLongDoubleAndBooleanExtraData() throws Exception {
+        DataEvent dataEvent = new DataEvent();
+        dataEvent.addExtraData("testLong", 1L << 40);
+        dataEvent.addExtraData("testDouble", 0.1);
+        dataEvent.addExtraData("testBoolean", true);
+
+        JSONObject output = parse(jsonSerializer.serializeToJSON(dataEvent));
+
+        JSONAssert.assertEquals(new JSONObject().put("value", 1L << 40).put("type", "integer"),
+                output.getJSONObject("testLong"), true);
+        JSONAssert.assertEquals(new JSONObject().put("value", 0.1).put("type", "float"),
+                output.getJSONObject("testDouble"), true);
+        JSONAssert.assertEquals(new JSONObject().put("value", 1).put("type", "integer"),
+                output.getJSONObject("testBoolean"), true);
+        Assert.assertEquals(1L << 40, dataEvent.getLongExtraData("testLong"));
+        Assert.assertTrue(dataEvent.getBooleanExtraData("testBoolean"));
+    }
+
     @Test
     public void testDates() throws Exception {
         JSONObject testCase = JsonReader.readJson("dates.json");
@@ -200,7 +225,7 @@ public class JSONSerializerTest {
         dataEvent.setStartDate(startDate);
         dataEvent.setEndDate(endDate);
 
-        JSONObject output = jsonSerializer.serializeToJSON(dataEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(dataEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -210,7 +235,7 @@ public class JSONSerializerTest {
         eventService.setEmail("foobar@criteo.com");
 
         JSONObject testCase = JsonReader.readJson("email.json");
-        JSONObject output = JSONSerializer.commonPayload(eventService);
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
         JSONAssert.assertEquals(testCase, output, true);
     }
 
@@ -219,7 +244,7 @@ public class JSONSerializerTest {
         eventService.setEmail("fôôbàr@criteo.com");
 
         JSONObject testCase = JsonReader.readJson("defaultCommonPayload.json");
-        JSONObject output = JSONSerializer.commonPayload(eventService);
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
         JSONAssert.assertEquals(testCase, output, true);
     }
 
@@ -228,7 +253,7 @@ public class JSONSerializerTest {
         eventService.setEmail("criteo123@criteo");
 
         JSONObject testCase = JsonReader.readJson("defaultCommonPayload.json");
-        JSONObject output = JSONSerializer.commonPayload(eventService);
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
         JSONAssert.assertEquals(testCase, output, true);
     }
 
@@ -237,7 +262,7 @@ public class JSONSerializerTest {
         eventService.setEmail(null);
 
         JSONObject testCase = JsonReader.readJson("defaultCommonPayload.json");
-        JSONObject output = JSONSerializer.commonPayload(eventService);
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
         JSONAssert.assertEquals(testCase, output, true);
     }
 
@@ -246,7 +271,7 @@ public class JSONSerializerTest {
         eventService.setEmail("foobar@criteo.com", EventService.EmailType.CLEARTEXT);
 
         JSONObject testCase = JsonReader.readJson("email.json");
-        JSONObject output = JSONSerializer.commonPayload(eventService);
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
         JSONAssert.assertEquals(testCase, output, true);
     }
 
@@ -255,7 +280,7 @@ public class JSONSerializerTest {
         eventService.setEmail(null, EventService.EmailType.CLEARTEXT);
 
         JSONObject testCase = JsonReader.readJson("defaultCommonPayload.json");
-        JSONObject output = JSONSerializer.commonPayload(eventService);
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
         JSONAssert.assertEquals(testCase, output, true);
     }
 
@@ -264,7 +289,7 @@ public class JSONSerializerTest {
         eventService.setEmail("2abe7bdc1feba5d99ffc8bde4250e604", EventService.EmailType.HASHED_MD5);
 
         JSONObject testCase = JsonReader.readJson("email.json");
-        JSONObject output = JSONSerializer.commonPayload(eventService);
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
         JSONAssert.assertEquals(testCase, output, true);
     }
 
@@ -273,7 +298,7 @@ public class JSONSerializerTest {
         eventService.setEmail(null, EventService.EmailType.HASHED_MD5);
 
         JSONObject testCase = JsonReader.readJson("defaultCommonPayload.json");
-        JSONObject output = JSONSerializer.commonPayload(eventService);
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
         JSONAssert.assertEquals(testCase, output, true);
     }
 
@@ -282,7 +307,7 @@ public class JSONSerializerTest {
         eventService.setCustomerId("customer123");
 
         JSONObject testCase = JsonReader.readJson("customerID.json");
-        JSONObject output = JSONSerializer.commonPayload(eventService);
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
         JSONAssert.assertEquals(testCase, output, true);
     }
 
@@ -292,7 +317,7 @@ public class JSONSerializerTest {
         eventService.setLanguage("fr");
 
         JSONObject testCase = JsonReader.readJson("countryLanguage.json");
-        JSONObject output = JSONSerializer.commonPayload(eventService);
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
         JSONAssert.assertEquals(testCase, output, true);
     }
 
@@ -301,16 +326,48 @@ public class JSONSerializerTest {
         eventService.setAccountName("org.example.custom_account");
 
         JSONObject testCase = JsonReader.readJson("accountName.json");
-        JSONObject output = JSONSerializer.commonPayload(eventService);
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
         JSONAssert.assertEquals(testCase, output, true);
     }
 
+    @Test
+    public void testCommonPayloadInvalidation() throws Exception {
+        // each change is visible in the cached payload, while the rest of it is left untouched
+        JSONAssert.assertEquals(JsonReader.readJson("defaultCommonPayload.json"),
+                parse(JSONSerializer.commonPayload(eventService)), true);
+
+        eventService.setCountry("FR");
+        eventService.setLanguage("fr");
+        JSONAssert.assertEquals(JsonReader.readJson("countryLanguage.json"),
+                parse(JSONSerializer.commonPayload(eventService)), true);
+
+        eventService.setCountry(Locale.US.getCountry());
+        eventService.setLanguage(Locale.US.getLanguage());
+        eventService.setEmail("foobar@criteo.com");
+        JSONAssert.assertEquals(JsonReader.readJson("email.json"),
+                parse(JSONSerializer.commonPayload(eventService)), true);
+
+        eventService.setEmail(null, EventService.EmailType.HASHED_MD5);
+        eventService.setCustomerId("customer123");
+        JSONAssert.assertEquals(JsonReader.readJson("customerID.json"),
+                parse(JSONSerializer.commonPayload(eventService)), true);
+
+        eventService.setAccountName("org.example.custom_account");
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
+        Assert.assertEquals("org.example.custom_account", output.getJSONObject(EventKeys.ACCOUNT).getString(EventKeys.APP_NAME));
+        Assert.assertEquals("customer123", output.getString(EventKeys.CUSTOMER_ID));
+
+        DeviceInfo.setIdentifiers("", true);
+        output = parse(JSONSerializer.commonPayload(eventService));
+        Assert.assertEquals(true, output.getJSONObject(EventKeys.ID).getBoolean(EventKeys.LAT));
+    }
+
     @Test
     public void testPriceSerialisation() throws Exception {
         double price = 999.85;
         ProductViewEvent productViewEvent = new ProductViewEvent(new Product("ID123", price));
 
-        JSONObject output = jsonSerializer.serializeToJSON(productViewEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(productViewEvent));
         Assert.assertEquals(price, output.getJSONObject("product").getDouble("price"));
     }
 
@@ -330,7 +387,7 @@ public class JSONSerializerTest {
         DeviceInfo.setIdentifiers("", true);
 
         JSONObject testCase = JsonReader.readJson("latCheck.json");
-        JSONObject output = JSONSerializer.commonPayload(eventService);
+        JSONObject output = parse(JSONSerializer.commonPayload(eventService));
         JSONAssert.assertEquals(testCase, output, true);
     }
 
@@ -340,7 +397,7 @@ public class JSONSerializerTest {
         ProductViewEvent productViewEvent = new ProductViewEvent(new Product("ID123", 10));
         productViewEvent.setUserSegment(42);
 
-        JSONObject output = jsonSerializer.serializeToJSON(productViewEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(productViewEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
@@ -349,10 +406,9 @@ public class JSONSerializerTest {
     public void testSetPayloadEvent() throws Exception {
         JSONObject testCase = JsonReader.readJson("setPayloadEvent.json");
         HomeViewEvent homeViewEvent = new HomeViewEvent();
-        JSONObject serializedEvent = jsonSerializer.serializeToJSON(homeViewEvent);
+        byte[] serializedEvent = jsonSerializer.serializeToJSON(homeViewEvent);
 
-        JSONObject output = JSONSerializer.commonPayload(eventService);
-        JSONSerializer.setPayloadEvent(output, serializedEvent);
+        JSONObject output = new JSONObject(JSONSerializer.buildPayload(eventService, Collections.singletonList(serializedEvent)));
 
         JSONObject testCaseEvent = testCase.getJSONArray(EventKeys.EVENTS).getJSONObject(0);
         testCaseEvent.put(EventKeys.TIMESTAMP, output.getJSONArray(EventKeys.EVENTS).getJSONObject(0).getString(EventKeys.TIMESTAMP));
@@ -366,8 +422,146 @@ public class JSONSerializerTest {
         ProductViewEvent productViewEvent = new ProductViewEvent(new Product("ID123", 10));
         productViewEvent.addExtraData("nbra", 2).addExtraData("nbrc", 1).addExtraData("nbrr", 1);
 
-        JSONObject output = jsonSerializer.serializeToJSON(productViewEvent);
+        JSONObject output = parse(jsonSerializer.serializeToJSON(productViewEvent));
         testCase.put(EventKeys.TIMESTAMP, output.get(EventKeys.TIMESTAMP));
         JSONAssert.assertEquals(testCase, output, true);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSerializationMatchesJSONObject() throws Exception {
+        TransactionConfirmationEvent event = new TransactionConfirmationEvent("Transaction/ID\"123\"");
+        event.setCurrency(Currency.getInstance("EUR"));
+        for (int i = 0; i < 200; i++) {
+            event.addBasketProduct(new BasketProduct("ID_é_" + i, i / 7.0, i % 5));
+        }
+        event.addExtraData("floatValue", 4.35f);
+        event.addExtraData("stringValue", "<tag>\n");
+        event.setTimestamp(new Date(0));
+
+        // the event as it was built with org.json
+        JSONObject expected = new JSONObject();
+        expected.put(EventKeys.EVENTNAME, EventKeys.TRANSACTION_CONFIRMATION);
+        expected.put(EventKeys.CURRENCY, "EUR");
+        expected.put(EventKeys.ID, event.getTransactionId());
+        JSONArray products = new JSONArray();
+        for (BasketProduct product : event.getBasketProductList()) {
+            products.put(new JSONObject().put(EventKeys.ID, product.getProductId())
+                    .put(EventKeys.PRICE, product.getPrice()).put(EventKeys.QUANTITY, product.getQuantity()));
+        }
+        expected.put(EventKeys.PRODUCT, products);
+        expected.put(EventKeys.TIMESTAMP, "1970-01-01T00:00:00Z");
+        for (Map.Entry<String, ExtraData> dataEntry : event.getExtraDataMap().entrySet()) {
+            String type = dataEntry.getValue().getType() == ExtraData.ExtraDataType.Float ? "float" : "string";
+            expected.put(dataEntry.getKey(), new JSONObject().put(EventKeys.VALUE, dataEntry.getValue().getValue())
+                    .put(EventKeys.TYPE, type));
+        }
+
+        Assert.assertEquals(expected.toString(), new String(jsonSerializer.serializeToJSON(event), "UTF-8"));
+    }
+
+    @Test
+    public void testSerializeEventOfRuntimeType() throws Exception {
+        Event[] events = { new AppLaunchEvent(), new BasketViewEvent(new BasketProduct("ID123", 5, 10)),
+                new HomeViewEvent(), new ProductListViewEvent(new Product("ID123", 10)),
+                new ProductViewEvent(new Product("ID123", 10)), new TransactionConfirmationEvent("T1"),
+                new DataEvent(), new DeeplinkEvent("app://deeplink") };
+        for (Event event : events) {
+            event.setTimestamp(new Date(0));
+        }
+        // the first launch flag is only set in the first serialized app launch event
+        ((AppLaunchEvent) events[0]).isFirstLaunch();
+
+        Assert.assertTrue(Arrays.equals(jsonSerializer.serializeToJSON((AppLaunchEvent) events[0]),
+                jsonSerializer.serializeToJSON(events[0])));
+        Assert.assertTrue(Arrays.equals(jsonSerializer.serializeToJSON((BasketViewEvent) events[1]),
+                jsonSerializer.serializeToJSON(events[1])));
+        Assert.assertTrue(Arrays.equals(jsonSerializer.serializeToJSON((HomeViewEvent) events[2]),
+                jsonSerializer.serializeToJSON(events[2])));
+        Assert.assertTrue(Arrays.equals(jsonSerializer.serializeToJSON((ProductListViewEvent) events[3]),
+                jsonSerializer.serializeToJSON(events[3])));
+        Assert.assertTrue(Arrays.equals(jsonSerializer.serializeToJSON((ProductViewEvent) events[4]),
+                jsonSerializer.serializeToJSON(events[4])));
+        Assert.assertTrue(Arrays.equals(jsonSerializer.serializeToJSON((TransactionConfirmationEvent) events[5]),
+                jsonSerializer.serializeToJSON(events[5])));
+        Assert.assertTrue(Arrays.equals(jsonSerializer.serializeToJSON((DataEvent) events[6]),
+                jsonSerializer.serializeToJSON(events[6])));
+        Assert.assertTrue(Arrays.equals(jsonSerializer.serializeToJSON((DeeplinkEvent) events[7]),
+                jsonSerializer.serializeToJSON(events[7])));
+    }
+
+    @Test
+    public void testCopiedEventIsNotAffectedByLaterChanges() throws Exception {
+        TransactionConfirmationEvent event = new TransactionConfirmationEvent("T1", new BasketProduct("ID123", 5, 10));
+        event.addExtraData("key", "value");
+        event.setTimestamp(new Date(0));
+        byte[] expected = jsonSerializer.serializeToJSON(event);
+
+        Event copy = EventService.copyEvent(event);
+        event.addBasketProduct(new BasketProduct("ID456", 1, 1));
+        event.addExtraData("key", "other value");
+        event.setTransactionId("T2");
+        event.setTimestamp(new Date());
+
+        Assert.assertTrue(Arrays.equals(expected, jsonSerializer.serializeToJSON(copy)));
+    }
+
+    @Test
+    public void testBuiltEventsMatchConstructedEvents() throws Exception {
+        GregorianCalendar startDate = new GregorianCalendar(2015, 0, 1);
+        GregorianCalendar endDate = new GregorianCalendar(2015, 0, 5);
+        BasketProduct[] basketProducts = { new BasketProduct("ID1", 5, 10), new BasketProduct("ID2", 2.5, 1) };
+
+        TransactionConfirmationEvent transaction = new TransactionConfirmationEvent("T1", basketProducts);
+        transaction.setCurrency(Currency.getInstance("EUR"));
+        transaction.setStartDate(startDate);
+        transaction.setEndDate(endDate);
+        transaction.setNewCustomer(true);
+        transaction.setDeduplication(true);
+        transaction.setUserSegment(3);
+        transaction.addExtraData("key", "value");
+        TransactionConfirmationEvent builtTransaction = new TransactionConfirmationEvent.Builder("T1")
+                .addBasketProducts(Arrays.asList(basketProducts)).setCurrency(Currency.getInstance("EUR"))
+                .setStartDate(startDate).setEndDate(endDate).setNewCustomer(true).setDeduplication(true)
+                .setUserSegment(3).addExtraData("key", "value").build();
+        assertSameSerialization(transaction, builtTransaction);
+
+        BasketViewEvent basket = new BasketViewEvent(basketProducts);
+        basket.setCurrency(Currency.getInstance("GBP"));
+        basket.addExtraData("count", 2);
+        BasketViewEvent builtBasket = new BasketViewEvent.Builder().addBasketProduct(basketProducts[0])
+                .addBasketProduct(basketProducts[1]).setCurrency(Currency.getInstance("GBP"))
+                .addExtraData("count", 2).build();
+        assertSameSerialization(basket, builtBasket);
+
+        ProductListViewEvent listing = new ProductListViewEvent(new Product("ID1", 1), new Product("ID2", 2));
+        listing.addExtraData("ratio", 0.5f);
+        ProductListViewEvent builtListing = new ProductListViewEvent.Builder().addProduct(new Product("ID1", 1))
+                .addProducts(Collections.singletonList(new Product("ID2", 2))).addExtraData("ratio", 0.5f).build();
+        assertSameSerialization(listing, builtListing);
+    }
+
+    @Test
+    public void testProductBatchMatchesProducts() throws Exception {
+        ProductBatch batch = new ProductBatch(1).add("ID1", 5, 10).add("ID2", 2.5).add("ID3", 0, 3);
+        BasketProduct[] basketProducts = { new BasketProduct("ID1", 5, 10), new BasketProduct("ID2", 2.5, 1),
+                new BasketProduct("ID3", 0, 3) };
+
+        assertSameSerialization(new TransactionConfirmationEvent("T1", basketProducts),
+                new TransactionConfirmationEvent("T1", batch));
+        assertSameSerialization(new BasketViewEvent(basketProducts), new BasketViewEvent(batch));
+        assertSameSerialization(new ProductListViewEvent(new Product("ID1", 5), new Product("ID2", 2.5),
+                new Product("ID3", 0)), new ProductListViewEvent(batch));
+        assertSameSerialization(new BasketViewEvent(), new BasketViewEvent(new ProductBatch()));
+    }
+
+    private void assertSameSerialization(Event expected, Event actual) throws Exception {
+        expected.setTimestamp(new Date(0));
+        actual.setTimestamp(new Date(0));
+        JSONAssert.assertEquals(parse(jsonSerializer.serializeToJSON(expected)),
+                parse(jsonSerializer.serializeToJSON(actual)), true);
+    }
+
+    private static JSONObject parse(byte[] json) throws Exception {
+        return new JSONObject(new String(json, "UTF-8"));
+    }
+}
@@ -0,0 +1,130 @@
+package com.criteo.events;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+/**
+ * Checks that the writer output is byte for byte the one of org.json.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class JSONWriterTest {
+    private static final String[] STRINGS = {
+            "", "plain", "quote\"backslash\\slash/", "tab\tnewline\nreturn\rbackspace\bformfeed\f",
+            "control\u0000\u0001\u001f", "delete\u007f", "accents fôôbàr", "euro €", "emoji 😀",
+            "unpaired \ud83d surrogate", "separators \u2028\u2029", "</script>",
+    };
+
+    private static final double[] DOUBLES = {
+            0, -0d, 1, -1, 0.1, 999.85, 10, 1e21, 1e-7, 123456789012345678d, Long.MAX_VALUE, Long.MIN_VALUE,
+            Double.MIN_VALUE, Double.MAX_VALUE, 4.35, 1.0 / 3,
+    };
+
+    private static final float[] FLOATS = {
+            0, -0f, 0.1f, 1.5f, 100, 1e10f, 1e-5f, Float.MIN_VALUE, Float.MAX_VALUE, 16777217f,
+    };
+
+    @Test
+    public void testStrings() throws Exception {
+        for (String value : STRINGS) {
+            JSONWriter writer = new JSONWriter();
+            writer.beginObject().name(value).value(value).endObject();
+
+            assertSameBytes(new JSONObject().put(value, value), writer);
+        }
+    }
+
+    @Test
+    public void testNumbers() throws Exception {
+        for (double value : DOUBLES) {
+            JSONWriter writer = new JSONWriter();
+            writer.beginObject().field(EncodedKeys.PRICE, value).endObject();
+
+            assertSameBytes(new JSONObject().put(EventKeys.PRICE, value), writer);
+        }
+        for (float value : FLOATS) {
+            JSONWriter writer = new JSONWriter();
+            writer.beginObject().name(EncodedKeys.VALUE).value(value).endObject();
+
+            assertSameBytes(new JSONObject().put(EventKeys.VALUE, (Object) value), writer);
+        }
+        for (long value : new long[] { 0, 7, -7, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE }) {
+            JSONWriter writer = new JSONWriter();
+            writer.beginObject().field(EncodedKeys.QUANTITY, value).endObject();
+
+            assertSameBytes(new JSONObject().put(EventKeys.QUANTITY, value), writer);
+        }
+    }
+
+    @Test
+    public void testForbiddenNumbers() {
+        for (double value : new double[] { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY }) {
+            try {
+                new JSONWriter().beginObject().field(EncodedKeys.PRICE, value);
+                Assert.fail("Expected a JSONException for " + value);
+            } catch (JSONException e) {
+                // expected, like JSONObject.put
+            }
+        }
+    }
+
+    @Test
+    public void testNullFieldsAreOmitted() throws Exception {
+        JSONWriter writer = new JSONWriter();
+        writer.beginObject().field(EncodedKeys.ID, (String) null).field(EncodedKeys.TYPE, "email").endObject();
+
+        assertSameBytes(new JSONObject().put(EventKeys.ID, null).put(EventKeys.TYPE, "email"), writer);
+    }
+
+    @Test
+    public void testNestedStructures() throws Exception {
+        Random random = new Random(42);
+        JSONWriter writer = new JSONWriter(16);
+        JSONObject expected = new JSONObject();
+
+        writer.beginObject();
+        writer.name(EncodedKeys.ALTERNATE_IDS).beginArray().endArray();
+        expected.put(EventKeys.ALTERNATE_IDS, new JSONArray());
+
+        writer.name(EncodedKeys.PRODUCT).beginArray();
+        JSONArray products = new JSONArray();
+        for (int i = 0; i < 200; i++) {
+            String id = STRINGS[random.nextInt(STRINGS.length)] + i;
+            double price = random.nextInt(100000) / 100.0;
+            int quantity = random.nextInt(10);
+            writer.beginObject().field(EncodedKeys.ID, id).field(EncodedKeys.PRICE, price)
+                    .field(EncodedKeys.QUANTITY, quantity).endObject();
+            products.put(new JSONObject().put(EventKeys.ID, id).put(EventKeys.PRICE, price)
+                    .put(EventKeys.QUANTITY, quantity));
+        }
+        writer.endArray();
+        expected.put(EventKeys.PRODUCT, products);
+
+        writer.field(EncodedKeys.FIRST_LAUNCH, true);
+        expected.put(EventKeys.FIRST_LAUNCH, true);
+        writer.endObject();
+
+        assertSameBytes(expected, writer);
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        JSONWriter writer = new JSONWriter();
+        writer.beginObject().field(EncodedKeys.ID, "first").endObject();
+        writer.reset().beginObject().field(EncodedKeys.ID, "second").endObject();
+
+        assertSameBytes(new JSONObject().put(EventKeys.ID, "second"), writer);
+    }
+
+    private static void assertSameBytes(JSONObject expected, JSONWriter writer) throws Exception {
+        Assert.assertArrayEquals(expected.toString().getBytes("UTF-8"), writer.toByteArray());
+    }
+}
@@ -0,0 +1,106 @@
+package com.criteo.events;
+
+import com.criteo.events.product.BasketProduct;
+import com.criteo.events.product.Product;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPOutputStream;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class PayloadCompressorTest {
+    // the dictionary of version 1, changing it requires incrementing DICTIONARY_VERSION
+    private static final long DICTIONARY_CHECKSUM = 2585505830L;
+
+    private EventService eventService;
+    private JSONSerializer jsonSerializer;
+
+    @Before
+    public void setUp() {
+        Locale.setDefault(Locale.US);
+        eventService = new EventService(RuntimeEnvironment.application);
+        DeviceInfo.setIdentifiers("38400000-8cf0-11bd-b23e-10b96e40000d", false);
+        jsonSerializer = new JSONSerializer();
+    }
+
+    @Test
+    public void testDictionaryVersion() {
+        Adler32 checksum = new Adler32();
+        checksum.update(PayloadCompressor.getDictionary());
+        Assert.assertEquals(DICTIONARY_CHECKSUM, checksum.getValue());
+        Assert.assertEquals(1, PayloadCompressor.DICTIONARY_VERSION);
+    }
+
+    @Test
+    public void testSingleEventPayloads() throws Exception {
+        ProductViewEvent productViewEvent = new ProductViewEvent(new Product("ID123", 10.5));
+        productViewEvent.setCurrency(Currency.getInstance("EUR"));
+        BasketViewEvent basketViewEvent = new BasketViewEvent(new BasketProduct("ID123", 10.5, 2),
+                new BasketProduct("ID456", 4, 1));
+        basketViewEvent.setCurrency(Currency.getInstance("USD"));
+        TransactionConfirmationEvent transactionEvent = new TransactionConfirmationEvent("TransactionID123",
+                new BasketProduct("ID123", 10.5, 2));
+
+        byte[][] events = {
+                jsonSerializer.serializeToJSON(new AppLaunchEvent()),
+                jsonSerializer.serializeToJSON(new HomeViewEvent()),
+                jsonSerializer.serializeToJSON(productViewEvent),
+                jsonSerializer.serializeToJSON(basketViewEvent),
+                jsonSerializer.serializeToJSON(transactionEvent),
+        };
+        for (byte[] event : events) {
+            byte[] payload = JSONSerializer.buildPayload(eventService, Collections.singletonList(event)).getBytes("UTF-8");
+            byte[] compressed = PayloadCompressor.compress(payload);
+
+            Assert.assertTrue(Arrays.equals(payload, PayloadDecompressor.decompress(compressed, PayloadCompressor.getDictionary())));
+            // most of what is left are the identifiers of the device, application and products
+            Assert.assertTrue(payload.length + " -> " + compressed.length, compressed.length * 4 <= payload.length);
+            Assert.assertTrue(compressed.length * 2 <= gzip(payload).length);
+        }
+    }
+
+    @Test
+    public void testEmptyPayload() throws Exception {
+        byte[] compressed = PayloadCompressor.compress(new byte[0]);
+        Assert.assertEquals(0, PayloadDecompressor.decompress(compressed, PayloadCompressor.getDictionary()).length);
+    }
+
+    @Test
+    public void testLargePayload() throws Exception {
+        byte[] payload = new byte[100000];
+        new Random(42).nextBytes(payload);
+        byte[] compressed = PayloadCompressor.compress(payload);
+        Assert.assertTrue(Arrays.equals(payload, PayloadDecompressor.decompress(compressed, PayloadCompressor.getDictionary())));
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void testUnknownVersion() throws Exception {
+        byte[] compressed = PayloadCompressor.compress("{\"account\":{}}".getBytes("UTF-8"));
+        compressed[0] = 2;
+        PayloadDecompressor.decompress(compressed, PayloadCompressor.getDictionary());
+    }
+
+    private static byte[] gzip(byte[] payload) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GZIPOutputStream stream = new GZIPOutputStream(output);
+        stream.write(payload);
+        stream.close();
+        return output.toByteArray();
+    }
+}
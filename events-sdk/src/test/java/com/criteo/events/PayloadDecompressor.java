@@ -0,0 +1,53 @@
+/**
+ * Copyright (C)2016 - Criteo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criteo.events;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reference decoder of the payloads compressed by {@link PayloadCompressor}, as done by the server.
+ */
+class PayloadDecompressor {
+
+    public static byte[] decompress(byte[] compressed, byte[] dictionary) throws DataFormatException {
+        if (compressed.length == 0 || compressed[0] != PayloadCompressor.DICTIONARY_VERSION) {
+            throw new DataFormatException("Unknown dictionary version");
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(dictionary);
+            inflater.setInput(compressed, 1, compressed.length - 1);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && !inflater.finished() && inflater.needsInput()) {
+                    throw new DataFormatException("Truncated payload");
+                }
+                output.write(buffer, 0, length);
+            }
+            if (inflater.getRemaining() != 0) {
+                throw new DataFormatException("Trailing bytes after the payload");
+            }
+            return output.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.criteo.events;
+
+import com.criteo.events.product.BasketProduct;
+import com.criteo.events.product.Product;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class ProductFragmentCacheTest {
+    private JSONSerializer jsonSerializer;
+
+    @Before
+    public void setUp() {
+        ProductFragmentCache.INSTANCE.reset();
+        jsonSerializer = new JSONSerializer();
+    }
+
+    @Test
+    public void testCachedProducts() throws Exception {
+        ProductListViewEvent event = new ProductListViewEvent(new Product("ID123", 10.5), new Product("ID456", 3));
+
+        String first = new String(jsonSerializer.serializeToJSON(event), "UTF-8");
+        Assert.assertEquals(0, ProductFragmentCache.INSTANCE.hits.get());
+        Assert.assertEquals(2, ProductFragmentCache.INSTANCE.misses.get());
+
+        String second = new String(jsonSerializer.serializeToJSON(event), "UTF-8");
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(2, ProductFragmentCache.INSTANCE.hits.get());
+        Assert.assertEquals(0.5, ProductFragmentCache.INSTANCE.getHitRate(), 0);
+    }
+
+    @Test
+    public void testBasketProductsAreDistinct() throws Exception {
+        ProductViewEvent productEvent = new ProductViewEvent(new Product("ID123", 10.5));
+        BasketViewEvent basketEvent = new BasketViewEvent(new BasketProduct("ID123", 10.5, 2),
+                new BasketProduct("ID123", 10.5, 3), new BasketProduct("ID123", 11, 3));
+
+        JSONObject product = new JSONObject(new String(jsonSerializer.serializeToJSON(productEvent), "UTF-8"));
+        JSONObject basket = new JSONObject(new String(jsonSerializer.serializeToJSON(basketEvent), "UTF-8"));
+
+        Assert.assertFalse(product.getJSONObject(EventKeys.PRODUCT).has(EventKeys.QUANTITY));
+        Assert.assertEquals(2, basket.getJSONArray(EventKeys.PRODUCT).getJSONObject(0).getInt(EventKeys.QUANTITY));
+        Assert.assertEquals(3, basket.getJSONArray(EventKeys.PRODUCT).getJSONObject(1).getInt(EventKeys.QUANTITY));
+        Assert.assertEquals(11, basket.getJSONArray(EventKeys.PRODUCT).getJSONObject(2).getDouble(EventKeys.PRICE), 0);
+        Assert.assertEquals(4, ProductFragmentCache.INSTANCE.size());
+        Assert.assertEquals(0, ProductFragmentCache.INSTANCE.hits.get());
+    }
+
+    @Test
+    public void testBoundedSize() throws Exception {
+        for (int i = 0; i < ProductFragmentCache.MAX_SIZE + 10; i++) {
+            jsonSerializer.serializeToJSON(new ProductViewEvent(new Product("ID" + i, 1)));
+        }
+        Assert.assertEquals(ProductFragmentCache.MAX_SIZE, ProductFragmentCache.INSTANCE.size());
+
+        // the least recently used products were evicted
+        jsonSerializer.serializeToJSON(new ProductViewEvent(new Product("ID0", 1)));
+        Assert.assertEquals(0, ProductFragmentCache.INSTANCE.hits.get());
+        jsonSerializer.serializeToJSON(new ProductViewEvent(new Product("ID" + (ProductFragmentCache.MAX_SIZE + 9), 1)));
+        Assert.assertEquals(1, ProductFragmentCache.INSTANCE.hits.get());
+    }
+
+    @Test
+    public void testConcurrentSerialization() throws Exception {
+        final ProductListViewEvent event = new ProductListViewEvent(new Product("ID123", 10.5), new Product("ID456", 3));
+        final String expected = new String(jsonSerializer.serializeToJSON(event), "UTF-8");
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    JSONSerializer serializer = new JSONSerializer();
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            // products evicting each other while the listing is serialized
+                            serializer.serializeToJSON(new ProductViewEvent(new Product("ID" + (i * 4 + offset), 1)));
+                            String actual = new String(serializer.serializeToJSON(event), "UTF-8");
+                            if (!expected.equals(actual)) {
+                                failure.set(actual);
+                            }
+                        }
+                    } catch (Exception e) {
+                        failure.set(e.toString());
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(failure.get());
+    }
+}
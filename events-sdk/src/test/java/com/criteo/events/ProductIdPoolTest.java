@@ -0,0 +1,60 @@
+package com.criteo.events;
+
+import com.criteo.events.product.BasketProduct;
+import com.criteo.events.product.Product;
+import com.criteo.events.product.ProductBatch;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Currency;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class ProductIdPoolTest {
+
+    @Test
+    public void testProductIdsAreShared() {
+        String productId = new Product(new String("POOLED1"), 5).getProductId();
+        Assert.assertSame(productId, new Product(new String("POOLED1"), 6).getProductId());
+        Assert.assertSame(productId, new BasketProduct(new String("POOLED1"), 5, 2).getProductId());
+        Assert.assertSame(productId, new ProductBatch().add(new String("POOLED1"), 5).getProductId(0));
+        Assert.assertNotSame(productId, new Product("POOLED2", 5).getProductId());
+    }
+
+    @Test
+    public void testProductIdsOfTheSameSlotAreKept() {
+        // "Aa" and "BB" have the same hash code, both are pooled in the slots of this hash
+        Assert.assertEquals("Aa", new Product(new String("Aa"), 5).getProductId());
+        Assert.assertEquals("BB", new Product(new String("BB"), 5).getProductId());
+        Assert.assertEquals("Aa", new Product(new String("Aa"), 5).getProductId());
+        Assert.assertEquals("", new Product(null, 5).getProductId());
+    }
+
+    @Test
+    public void testPooledProductIdsAreNotReplaced() {
+        // "Xy", "YZ" and "Z;" have the same hash code, more IDs than the slots of this hash
+        String first = new Product(new String("Xy"), 5).getProductId();
+        String second = new Product(new String("YZ"), 5).getProductId();
+        String third = new String("Z;");
+        Assert.assertSame(third, new Product(third, 5).getProductId());
+        Assert.assertSame(first, new Product(new String("Xy"), 5).getProductId());
+        Assert.assertSame(second, new Product(new String("YZ"), 5).getProductId());
+    }
+
+    @Test
+    public void testCurrencyIsSerialized() throws Exception {
+        JSONSerializer serializer = new JSONSerializer();
+        for (String code : new String[] { "EUR", "USD", "JPY", "EUR" }) {
+            ProductViewEvent event = new ProductViewEvent(new Product("ID1", 5));
+            event.setCurrency(Currency.getInstance(code));
+            JSONObject json = new JSONObject(new String(serializer.serializeToJSON(event), "UTF-8"));
+            Assert.assertEquals(code, json.getString(EventKeys.CURRENCY));
+        }
+        Assert.assertSame(CurrencyFields.get(Currency.getInstance("EUR")), CurrencyFields.get(Currency.getInstance("EUR")));
+    }
+}
@@ -0,0 +1,134 @@
+package com.criteo.events;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    @Test
+    public void testTokenBucketBurst() {
+        TokenBucket bucket = new TokenBucket(3, 1, 1000, 0);
+
+        // the bucket starts full, so a burst of 3 is allowed
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, bucket.getWaitTime(1, 0));
+            bucket.consume(1);
+        }
+
+        // then one token is added every second
+        Assert.assertEquals(1000, bucket.getWaitTime(1, 0));
+        Assert.assertEquals(500, bucket.getWaitTime(1, 500));
+        Assert.assertEquals(0, bucket.getWaitTime(1, 1000));
+    }
+
+    @Test
+    public void testTokenBucketCapacity() {
+        TokenBucket bucket = new TokenBucket(3, 1, 1000, 0);
+        bucket.consume(3);
+
+        // tokens never exceed the capacity, however long the bucket is left alone
+        Assert.assertEquals(0, bucket.getWaitTime(3, 60000));
+        bucket.consume(3);
+        Assert.assertEquals(1000, bucket.getWaitTime(1, 60000));
+    }
+
+    @Test
+    public void testTokenBucketOversizedRequest() {
+        TokenBucket bucket = new TokenBucket(100, 100, 60000, 0);
+
+        // an amount larger than the capacity only requires a full bucket
+        Assert.assertEquals(0, bucket.getWaitTime(500, 0));
+        bucket.consume(500);
+        Assert.assertEquals(60000, bucket.getWaitTime(500, 0));
+    }
+
+    @Test
+    public void testRequestsPerSecond() {
+        RateLimiter rateLimiter = new RateLimiter(2, 2, 100000);
+
+        Assert.assertEquals(0, rateLimiter.tryAcquire(null, 10, 0));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(null, 10, 0));
+        Assert.assertEquals(500, rateLimiter.tryAcquire(null, 10, 0));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(null, 10, 500));
+    }
+
+    @Test
+    public void testBytesPerMinute() {
+        RateLimiter rateLimiter = new RateLimiter(100, 100, 6000);
+
+        Assert.assertEquals(0, rateLimiter.tryAcquire(null, 6000, 0));
+        // 100 bytes are added every second
+        Assert.assertEquals(1000, rateLimiter.tryAcquire(null, 100, 0));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(null, 100, 1000));
+    }
+
+    @Test
+    public void testChangedLimits() {
+        RateLimiter rateLimiter = new RateLimiter(1, 1, 100000);
+        Assert.assertEquals(0, rateLimiter.tryAcquire(null, 10, 0));
+        Assert.assertEquals(1000, rateLimiter.tryAcquire(null, 10, 0));
+
+        rateLimiter.setLimits(2, 2, 100000);
+        Assert.assertEquals(0, rateLimiter.tryAcquire(null, 10, 0));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(null, 10, 0));
+        Assert.assertEquals(500, rateLimiter.tryAcquire(null, 10, 0));
+    }
+
+    @Test
+    public void testNoLimitsByDefault() {
+        RateLimiter rateLimiter = new RateLimiter();
+        Assert.assertFalse(rateLimiter.isEnabled());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(0, rateLimiter.tryAcquire(null, 100000, 0));
+        }
+
+        // limits set for an event type do not apply to the other requests
+        rateLimiter.setLimits(EventKeys.PRODUCT_VIEW, 1, 1, 100000);
+        Assert.assertTrue(rateLimiter.isEnabled());
+        Assert.assertEquals(0, rateLimiter.tryAcquire(EventKeys.PRODUCT_VIEW, 10, 0));
+        Assert.assertEquals(1000, rateLimiter.tryAcquire(EventKeys.PRODUCT_VIEW, 10, 0));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(null, 100000, 0));
+    }
+
+    @Test
+    public void testClearedLimits() {
+        RateLimiter rateLimiter = new RateLimiter(1, 1, 100000);
+        rateLimiter.setLimits(EventKeys.PRODUCT_VIEW, 1, 1, 100000);
+        Assert.assertEquals(0, rateLimiter.tryAcquire(EventKeys.PRODUCT_VIEW, 10, 0));
+        Assert.assertEquals(1000, rateLimiter.tryAcquire(EventKeys.PRODUCT_VIEW, 10, 0));
+
+        rateLimiter.clearLimits();
+        Assert.assertFalse(rateLimiter.isEnabled());
+        Assert.assertEquals(0, rateLimiter.tryAcquire(EventKeys.PRODUCT_VIEW, 10, 0));
+    }
+
+    @Test
+    public void testEventTypeLimits() {
+        RateLimiter rateLimiter = new RateLimiter(100, 100, 100000);
+        rateLimiter.setLimits(EventKeys.PRODUCT_VIEW, 1, 1, 100000);
+
+        Assert.assertEquals(0, rateLimiter.tryAcquire(EventKeys.PRODUCT_VIEW, 10, 0));
+        Assert.assertEquals(1000, rateLimiter.tryAcquire(EventKeys.PRODUCT_VIEW, 10, 0));
+
+        // other events are only subject to the global limits
+        Assert.assertEquals(0, rateLimiter.tryAcquire(EventKeys.TRANSACTION_CONFIRMATION, 10, 0));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(null, 10, 0));
+    }
+
+    @Test
+    public void testRejectedRequestDoesNotConsume() {
+        RateLimiter rateLimiter = new RateLimiter(100, 100, 100000);
+        rateLimiter.setLimits(EventKeys.PRODUCT_VIEW, 1, 1, 100000);
+
+        Assert.assertEquals(0, rateLimiter.tryAcquire(EventKeys.PRODUCT_VIEW, 10, 0));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(rateLimiter.tryAcquire(EventKeys.PRODUCT_VIEW, 10, 0) > 0);
+        }
+
+        // throttled product views did not use the global tokens
+        for (int i = 0; i < 99; i++) {
+            Assert.assertEquals(0, rateLimiter.tryAcquire(null, 10, 0));
+        }
+        Assert.assertTrue(rateLimiter.tryAcquire(null, 10, 0) > 0);
+    }
+}
@@ -0,0 +1,187 @@
+package com.criteo.events;
+
+import android.content.Intent;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, manifest = "/src/main/AndroidManifest.xml", emulateSdk = 21)
+public class SenderLanesTest {
+    private static final long LATENCY = 100;
+
+    /**
+     * Fake poster simulating a server with a fixed latency. It records the payloads it received
+     * and the maximum number of bytes posted at the same time.
+     */
+    private static class LatencyEventPoster extends EventPoster {
+        private final List<String> payloads;
+        private final AtomicInteger inFlightBytes;
+        private final AtomicInteger maxInFlightBytes;
+        private final String retryLaterPayload;
+
+        private LatencyEventPoster(List<String> payloads, AtomicInteger inFlightBytes,
+                                   AtomicInteger maxInFlightBytes, String retryLaterPayload) {
+            super(null, new SendPolicy());
+            this.payloads = payloads;
+            this.inFlightBytes = inFlightBytes;
+            this.maxInFlightBytes = maxInFlightBytes;
+            this.retryLaterPayload = retryLaterPayload;
+        }
+
+        @Override
+        public PostResult post(String payload) {
+            int bytes = inFlightBytes.addAndGet(payload.length());
+            synchronized (maxInFlightBytes) {
+                maxInFlightBytes.set(Math.max(maxInFlightBytes.get(), bytes));
+            }
+            try {
+                Thread.sleep(LATENCY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlightBytes.addAndGet(-payload.length());
+
+            if (payload.equals(retryLaterPayload)) {
+                return PostResult.RETRY_LATER;
+            }
+            payloads.add(payload);
+            return PostResult.DONE;
+        }
+    }
+
+    private List<String> payloads;
+    private AtomicInteger inFlightBytes;
+    private AtomicInteger maxInFlightBytes;
+    private String retryLaterPayload;
+    private EventPosterFactory eventPosterFactory;
+
+    @Before
+    public void setUp() {
+        payloads = Collections.synchronizedList(new ArrayList<String>());
+        inFlightBytes = new AtomicInteger();
+        maxInFlightBytes = new AtomicInteger();
+        retryLaterPayload = null;
+        eventPosterFactory = new EventPosterFactory() {
+            @Override
+            public EventPoster createEventPoster() {
+                return new LatencyEventPoster(payloads, inFlightBytes, maxInFlightBytes, retryLaterPayload);
+            }
+        };
+        SenderMetrics.INSTANCE.reset();
+    }
+
+    @Test
+    public void testDrainTimeScalesWithLanes() {
+        long oneLane = drain(1, 8);
+        long fourLanes = drain(4, 8);
+
+        Assert.assertEquals(16, payloads.size());
+        Assert.assertTrue("one lane took " + oneLane + "ms", oneLane >= 8 * LATENCY);
+        Assert.assertTrue("four lanes took " + fourLanes + "ms", fourLanes < 4 * LATENCY);
+    }
+
+    @Test
+    public void testOrderingKey() {
+        SenderLanes lanes = new SenderLanes(4, eventPosterFactory);
+        for (int i = 0; i < 12; i++) {
+            // one transaction out of three shares the same key
+            String orderingKey = i % 3 == 0 ? "trackTransaction:42" : null;
+            lanes.submit(newIntent(), "payload_" + i, new Date().getTime(), new SendPolicy(), orderingKey);
+        }
+        Assert.assertTrue(lanes.awaitIdle().isEmpty());
+
+        List<String> orderedPayloads = new ArrayList<>();
+        for (String payload : payloads) {
+            if (payload.equals("payload_0") || payload.equals("payload_3")
+                    || payload.equals("payload_6") || payload.equals("payload_9")) {
+                orderedPayloads.add(payload);
+            }
+        }
+        Assert.assertEquals(4, orderedPayloads.size());
+        Assert.assertEquals("payload_0", orderedPayloads.get(0));
+        Assert.assertEquals("payload_3", orderedPayloads.get(1));
+        Assert.assertEquals("payload_6", orderedPayloads.get(2));
+        Assert.assertEquals("payload_9", orderedPayloads.get(3));
+    }
+
+    @Test
+    public void testInFlightBytesCap() {
+        // each payload is 9 bytes long, so only two of them can be posted at the same time
+        SenderLanes lanes = new SenderLanes(4, eventPosterFactory, 20);
+        for (int i = 0; i < 8; i++) {
+            lanes.submit(newIntent(), "payload_" + i, new Date().getTime(), new SendPolicy(), null);
+        }
+        lanes.awaitIdle();
+
+        Assert.assertEquals(8, payloads.size());
+        Assert.assertTrue(maxInFlightBytes.get() <= 20);
+    }
+
+    @Test
+    public void testRetryLater() {
+        retryLaterPayload = "payload_0";
+        SenderLanes lanes = new SenderLanes(1, eventPosterFactory);
+        Intent[] intents = new Intent[3];
+        for (int i = 0; i < intents.length; i++) {
+            intents[i] = newIntent();
+            lanes.submit(intents[i], "payload_" + i, new Date().getTime(), new SendPolicy(), null);
+        }
+
+        // the failed event and the ones after it are kept, but only the failed one counts as a retry
+        List<Intent> unsentIntents = lanes.awaitIdle();
+        Assert.assertTrue(lanes.isStopped());
+        Assert.assertEquals(3, unsentIntents.size());
+        Assert.assertSame(intents[0], unsentIntents.get(0));
+        Assert.assertSame(intents[1], unsentIntents.get(1));
+        Assert.assertSame(intents[2], unsentIntents.get(2));
+        Assert.assertEquals(1, intents[0].getIntExtra("retries", 0));
+        Assert.assertEquals(0, intents[1].getIntExtra("retries", 0));
+        Assert.assertTrue(payloads.isEmpty());
+    }
+
+    @Test
+    public void testLanesAreReused() {
+        retryLaterPayload = "payload_0";
+        SenderLanes lanes = new SenderLanes(2, eventPosterFactory);
+        lanes.startDrain();
+        lanes.submit(newIntent(), "payload_0", new Date().getTime(), new SendPolicy(), null);
+        Assert.assertEquals(1, lanes.awaitIdle().size());
+        Assert.assertTrue(lanes.isStopped());
+
+        // the next drain sends its events with the same lanes
+        lanes.startDrain();
+        for (int i = 1; i <= 4; i++) {
+            lanes.submit(newIntent(), "payload_" + i, new Date().getTime(), new SendPolicy(), null);
+        }
+        Assert.assertTrue(lanes.awaitIdle().isEmpty());
+        Assert.assertEquals(4, payloads.size());
+        lanes.shutdown();
+    }
+
+    private long drain(int laneCount, int eventCount) {
+        long start = new Date().getTime();
+        SenderLanes lanes = new SenderLanes(laneCount, eventPosterFactory);
+        for (int i = 0; i < eventCount; i++) {
+            lanes.submit(newIntent(), "payload_" + i, new Date().getTime(), new SendPolicy(), null);
+        }
+        Assert.assertTrue(lanes.awaitIdle().isEmpty());
+        return new Date().getTime() - start;
+    }
+
+    private static Intent newIntent() {
+        Intent intent = new Intent();
+        intent.setAction(EventSenderService.ACTION_SEND_EVENT);
+        return intent;
+    }
+}
@@ -0,0 +1,194 @@
+package com.criteo.events;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TimestampFormatterTest {
+
+    private static final long YEAR_1583 = -12212553600000L;
+    private static final long YEAR_10000 = 253402300800000L;
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void testFormatMatchesDateFormat() {
+        DateFormat df = newDateFormat();
+        for (int i = 0; i < 100000; i++) {
+            long millis = YEAR_1583 + (long) (random.nextDouble() * (YEAR_10000 - YEAR_1583));
+            Assert.assertEquals(df.format(new Date(millis)), format(millis));
+        }
+    }
+
+    @Test
+    public void testFormatMatchesDateFormatAroundNow() {
+        DateFormat df = newDateFormat();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100000; i++) {
+            // consecutive events, within a few seconds of each other, go through the cache
+            long millis = now + random.nextInt(10000) - 5000;
+            Assert.assertEquals(df.format(new Date(millis)), format(millis));
+        }
+    }
+
+    @Test
+    public void testFormatEdgeCases() {
+        DateFormat df = newDateFormat();
+        long[] dates = {
+                0, -1, 999, 1000, -999, -1000, -1001,
+                951782400000L, // 2000-02-29
+                951868800000L - 1, // end of 2000-02-29
+                -2203891200000L, // 1900-03-01
+                4107456000000L, // 2100-02-28
+                1451606399999L, // 2015-12-31T23:59:59.999
+                -12219292800000L, // first day of the Gregorian calendar
+                -12219292800000L - 1, // last instant of the Julian calendar
+                YEAR_10000 - 1,
+                YEAR_10000,
+                YEAR_1583 * 2,
+                Long.MIN_VALUE / 2,
+                Long.MAX_VALUE / 2
+        };
+        for (long millis : dates) {
+            Assert.assertEquals(df.format(new Date(millis)), format(millis));
+        }
+    }
+
+    @Test
+    public void testFormatDayMatchesStringFormat() {
+        int[] years = {0, 1, 9, 99, 999, 1000, 2015, 9999, 10000, 123456};
+        for (int year : years) {
+            for (int month = 1; month <= 12; month++) {
+                for (int day = 1; day <= 31; day++) {
+                    Assert.assertEquals(formatWithStringFormat(year, month, day), formatDay(year, month, day));
+                }
+            }
+        }
+        for (int i = 0; i < 10000; i++) {
+            int year = random.nextInt(20000);
+            int month = random.nextInt(12) + 1;
+            int day = random.nextInt(31) + 1;
+            Assert.assertEquals(formatWithStringFormat(year, month, day), formatDay(year, month, day));
+        }
+    }
+
+    @Test
+    public void testEpochDay() {
+        Assert.assertEquals(0, TimestampFormatter.epochDay(1970, 1, 1));
+        Assert.assertEquals(-1, TimestampFormatter.epochDay(1969, 12, 31));
+        Assert.assertEquals(11017, TimestampFormatter.epochDay(2000, 3, 1));
+        Assert.assertEquals(16860, TimestampFormatter.epochDay(2016, 2, 29));
+
+        // the day of the calendar's own fields, whatever its time zone
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("Pacific/Kiritimati"));
+        calendar.clear();
+        calendar.set(2015, 0, 1, 23, 59);
+        Assert.assertEquals(16436, TimestampFormatter.epochDay(calendar));
+        Assert.assertEquals(new GregorianCalendar(2015, 0, 1), TimestampFormatter.toCalendar(16436));
+    }
+
+    @Test
+    public void testFormatEpochDayMatchesFormatDay() {
+        byte[] buffer = new byte[TimestampFormatter.MAX_LENGTH];
+        for (int epochDay = TimestampFormatter.epochDay(0, 1, 1); epochDay < 3000000; epochDay += 37) {
+            String formatted = new String(buffer, 0, TimestampFormatter.formatEpochDay(epochDay, buffer, 0));
+            String[] fields = formatted.substring(0, formatted.indexOf('T')).split("-");
+            int year = Integer.parseInt(fields[0]);
+            int month = Integer.parseInt(fields[1]);
+            int day = Integer.parseInt(fields[2]);
+            Assert.assertEquals(formatDay(year, month, day), formatted);
+            Assert.assertEquals(epochDay, TimestampFormatter.epochDay(year, month, day));
+        }
+    }
+
+    @Test
+    public void testParseSeconds() throws Exception {
+        byte[] buffer = new byte[TimestampFormatter.MAX_LENGTH];
+        for (long millis : Arrays.asList(1420115400000L, 0L, -1000L, 951782400000L, 253402300799000L, -12219292800000L)) {
+            int length = TimestampFormatter.format(millis, buffer, 0);
+            Assert.assertEquals(millis / 1000, TimestampFormatter.parseSeconds(buffer, 0, length));
+        }
+        byte[] invalid = "2015-13-01T00:00:00Z".getBytes("UTF-8");
+        Assert.assertEquals(Long.MIN_VALUE, TimestampFormatter.parseSeconds(invalid, 0, invalid.length));
+        invalid = "1582-10-14T23:59:59Z".getBytes("UTF-8");
+        Assert.assertEquals(Long.MIN_VALUE, TimestampFormatter.parseSeconds(invalid, 0, invalid.length));
+    }
+
+    @Test
+    public void testWriterOutput() throws Exception {
+        JSONWriter writer = new JSONWriter();
+        writer.beginObject();
+        writer.name("timestamp").timestampValue(1420115400000L);
+        writer.name("date").dayValue(2015, 1, 1);
+        writer.endObject();
+
+        Assert.assertEquals("{\"timestamp\":\"2015-01-01T12:30:00Z\",\"date\":\"2015-01-01T00:00:00Z\"}",
+                writer.toString());
+    }
+
+    @Test
+    public void testConcurrentFormat() throws InterruptedException {
+        final AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final long seed = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    DateFormat df = newDateFormat();
+                    Random threadRandom = new Random(seed);
+                    long now = System.currentTimeMillis();
+                    for (int i = 0; i < 20000; i++) {
+                        // a few distinct seconds, so that the threads keep replacing each other's cache
+                        long millis = now + threadRandom.nextInt(4) * 1000L;
+                        String expected = df.format(new Date(millis));
+                        String actual = format(millis);
+                        if (!expected.equals(actual)) {
+                            failure.set(expected + " != " + actual);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(failure.get());
+    }
+
+    private static String format(long millis) {
+        byte[] buffer = new byte[TimestampFormatter.MAX_LENGTH + 1];
+        // write at an offset, to check it is honored
+        int end = TimestampFormatter.format(millis, buffer, 1);
+        return new String(buffer, 1, end - 1);
+    }
+
+    private static String formatDay(int year, int month, int day) {
+        byte[] buffer = new byte[TimestampFormatter.MAX_LENGTH];
+        int end = TimestampFormatter.formatDay(year, month, day, buffer, 0);
+        return new String(buffer, 0, end);
+    }
+
+    private static DateFormat newDateFormat() {
+        DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ENGLISH);
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return df;
+    }
+
+    private static String formatWithStringFormat(int year, int month, int day) {
+        return String.format(Locale.ENGLISH, "%04d-%02d-%02dT00:00:00Z", year, month, day);
+    }
+}
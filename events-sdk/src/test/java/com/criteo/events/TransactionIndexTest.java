@@ -0,0 +1,183 @@
+package com.criteo.events;
+
+import android.content.Intent;
+
+import com.criteo.events.product.BasketProduct;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class TransactionIndexTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("transactions", null);
+        SenderMetrics.INSTANCE.reset();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testDuplicatesAreFound() {
+        TransactionIndex index = new TransactionIndex(file, 1000, 0.001);
+        Assert.assertFalse(index.add("TX1"));
+        Assert.assertFalse(index.add("TX2"));
+        Assert.assertTrue(index.add("TX1"));
+        Assert.assertTrue(index.add("TX2"));
+        Assert.assertFalse(index.add("TX3"));
+        Assert.assertEquals(2, SenderMetrics.INSTANCE.duplicateTransactions.get());
+    }
+
+    @Test
+    public void testIndexIsKeptInItsFile() {
+        TransactionIndex index = new TransactionIndex(file, 1000, 0.001);
+        for (int i = 0; i < 500; i++) {
+            Assert.assertFalse(index.add("TX" + i));
+        }
+
+        // the IDs are only found by the filter once the recent ones are lost
+        TransactionIndex reopened = new TransactionIndex(file, 1000, 0.001);
+        for (int i = 0; i < 500; i++) {
+            Assert.assertTrue(reopened.add("TX" + i));
+        }
+        Assert.assertEquals(500, SenderMetrics.INSTANCE.probableDuplicateTransactions.get());
+
+        // a filter of another size starts anew
+        TransactionIndex resized = new TransactionIndex(file, 2000, 0.001);
+        Assert.assertFalse(resized.add("TX1"));
+    }
+
+    @Test
+    public void testFalsePositiveRateIsWithinBudget() {
+        TransactionIndex index = new TransactionIndex(null, 100000, 0.001);
+        for (int i = 0; i < 200000; i++) {
+            index.add("TX" + i);
+        }
+        // new IDs are checked against a full generation, and the one they fill
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (index.add("NEW" + i)) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < 100000 * 0.001);
+    }
+
+    @Test
+    public void testOldestGenerationIsForgotten() {
+        TransactionIndex index = new TransactionIndex(file, 100, 0.001);
+        for (int i = 0; i < 300; i++) {
+            Assert.assertFalse(index.add("TX" + i));
+        }
+        index = new TransactionIndex(file, 100, 0.001);
+        // the last generation, and the one before it, are remembered
+        for (int i = 200; i < 300; i++) {
+            Assert.assertTrue(index.add("TX" + i));
+        }
+        int remembered = 0;
+        for (int i = 0; i < 100; i++) {
+            if (index.add("TX" + i)) {
+                remembered++;
+            }
+        }
+        Assert.assertTrue(remembered < 5);
+    }
+
+    @Test
+    public void testTransactionsAreRecordedOnceDelivered() {
+        TransactionIndex index = new TransactionIndex(file, 1000, 0.001);
+        Assert.assertFalse(index.reserve("TX1"));
+        Assert.assertFalse(index.reserve("TX2"));
+        // a transaction being sent is a duplicate too
+        Assert.assertTrue(index.reserve("TX1"));
+        index.commit("TX1");
+        index.release("TX2");
+        Assert.assertTrue(index.reserve("TX1"));
+
+        // only the delivered transaction is kept in the file
+        TransactionIndex reopened = new TransactionIndex(file, 1000, 0.001);
+        Assert.assertTrue(reopened.reserve("TX1"));
+        Assert.assertFalse(reopened.reserve("TX2"));
+    }
+
+    @Test
+    public void testDuplicateTransactionsAreNotSent() throws Exception {
+        EventService eventService = new EventService(RuntimeEnvironment.application);
+        String transactionId = "TX" + System.nanoTime();
+        TransactionConfirmationEvent event = new TransactionConfirmationEvent(transactionId, new BasketProduct("ID1", 5, 1));
+
+        eventService.send(event);
+        Assert.assertEquals(0, SenderMetrics.INSTANCE.duplicateTransactions.get());
+
+        eventService.setTransactionDeduplication(true);
+        eventService.send(event);
+        eventService.send(event);
+        eventService.sendAll(Arrays.asList(event, new TransactionConfirmationEvent(transactionId + "-2")));
+        waitForDuplicates(2);
+        eventService.setTransactionDeduplication(false);
+    }
+
+    @Test
+    public void testTransactionsAreCheckedBeforeBeingTimestamped() throws Exception {
+        EventService eventService = new EventService(RuntimeEnvironment.application);
+        eventService.setTransactionDeduplication(true);
+        String transactionId = "TX" + System.nanoTime();
+        TransactionConfirmationEvent event = new TransactionConfirmationEvent(transactionId, new BasketProduct("ID1", 5, 1));
+        event.setTimestampMillis(1);
+
+        // the calling thread only takes a copy of the transaction, which is checked, timestamped and
+        // serialized by the executor
+        eventService.send(event);
+        eventService.send(event);
+        Assert.assertEquals(1, event.getTimestampMillis());
+        waitForDuplicates(1);
+        eventService.setTransactionDeduplication(false);
+    }
+
+    @Test
+    public void testUndeliveredTransactionsCanBeSentAgain() throws Exception {
+        EventService eventService = new EventService(RuntimeEnvironment.application);
+        eventService.setTransactionDeduplication(true);
+        String transactionId = "TX" + System.nanoTime();
+        eventService.send(new TransactionConfirmationEvent(transactionId));
+        eventService.send(new TransactionConfirmationEvent(transactionId));
+        waitForDuplicates(1);
+
+        // the event was dropped by the sender service
+        Intent eventIntent = new Intent();
+        eventIntent.putExtra("transaction_ids", new String[] { transactionId });
+        EventSenderService.settleTransactions(eventIntent, false);
+        Assert.assertFalse(TransactionIndex.get(RuntimeEnvironment.application).reserve(transactionId));
+
+        // then delivered
+        EventSenderService.settleTransactions(eventIntent, true);
+        Assert.assertTrue(TransactionIndex.get(RuntimeEnvironment.application).reserve(transactionId));
+        eventService.setTransactionDeduplication(false);
+    }
+
+    /**
+     * Waits for the executor of the event service to find the duplicate transactions.
+     */
+    private static void waitForDuplicates(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (SenderMetrics.INSTANCE.duplicateTransactions.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, SenderMetrics.INSTANCE.duplicateTransactions.get());
+    }
+}